@@ -5,7 +5,9 @@ package com.github.nicosensei.batch;
 
 import java.text.DecimalFormat;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.github.nicosensei.batch.input.InputFileSection;
 import com.github.nicosensei.batch.input.InputLine;
 
 
@@ -20,6 +22,8 @@ public abstract class AbstractBatchState implements BatchState {
 
     private LinkedList<BatchException> errors = new LinkedList<BatchException>();
 
+    private final AtomicLong duplicatesDropped = new AtomicLong(0L);
+
     AbstractBatchState(final long unitsToProcess) {
         super();
         this.unitsToProcess = unitsToProcess;
@@ -46,6 +50,23 @@ public abstract class AbstractBatchState implements BatchState {
     @Override
     public abstract void notifyLineProcessed(InputLine l);
 
+    /**
+     * Does nothing by default.
+     */
+    @Override
+    public void notifySectionProcessed(InputFileSection<? extends InputLine> section) {
+    }
+
+    @Override
+    public void notifyDuplicateDropped(InputLine line) {
+        duplicatesDropped.incrementAndGet();
+    }
+
+    @Override
+    public long getDuplicatesDropped() {
+        return duplicatesDropped.get();
+    }
+
     @Override
     public abstract void logStatus();
 
@@ -59,6 +80,15 @@ public abstract class AbstractBatchState implements BatchState {
         errors.add(e);
     }
 
+    /**
+     * @return the duplicate count to append to the status, empty if none
+     * was dropped.
+     */
+    protected String getDuplicatesStatus() {
+        long dropped = duplicatesDropped.get();
+        return (dropped > 0 ? ", " + dropped + " duplicates dropped" : "");
+    }
+
     protected final Long getUnitsToProcess() {
         return unitsToProcess;
     }
@@ -25,6 +25,15 @@ public abstract class BasicBatchState extends AbstractBatchState {
         incrementUnitsProcessed(1);
     }
 
+    /**
+     * Dropped lines count as processed lines.
+     */
+    @Override
+    public synchronized void notifyDuplicateDropped(InputLine l) {
+        super.notifyDuplicateDropped(l);
+        incrementUnitsProcessed(1);
+    }
+
     @Override
     public void logStatus() {
     	StringBuilder sb = new StringBuilder()
@@ -33,7 +42,9 @@ public abstract class BasicBatchState extends AbstractBatchState {
     		.append(Long.toString(getUnitsToProcess()))
     		.append(" lines processed (")
     		.append(PERCENTAGE.format(getCompletionPercentage()))
-    		.append("%).");
+    		.append("%)")
+    		.append(getDuplicatesStatus())
+    		.append(".");
         BatchExecutor.getInstance().logInfo(sb.toString());
 
     }
@@ -3,14 +3,30 @@
  */
 package com.github.nicosensei.batch;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.log4j.Level;
+
+import com.github.nicosensei.batch.input.ByteRangeSet;
+import com.github.nicosensei.batch.input.ColumnProjection;
 import com.github.nicosensei.batch.input.InputFileException;
 import com.github.nicosensei.batch.input.InputFileReader;
 import com.github.nicosensei.batch.input.InputLine;
+import com.github.nicosensei.batch.input.KeyExtractor;
+import com.github.nicosensei.batch.input.KeyPartitioningInputFileReader;
+import com.github.nicosensei.batch.input.PrefetchingInputFileReader;
+import com.github.nicosensei.batch.input.ProjectableInputFileReader;
+import com.github.nicosensei.batch.input.ResumableInputFileReader;
+import com.github.nicosensei.batch.input.SectionSizer;
+import com.github.nicosensei.batch.input.SizableInputFileReader;
 
 
 
@@ -20,6 +36,12 @@ import com.github.nicosensei.batch.input.InputLine;
  */
 public abstract class Batch<L extends InputLine, W extends Worker<L> > {
 
+    /**
+     * Launch argument requesting to skip the input already processed by a
+     * previous run, as recorded in the checkpoint journal.
+     */
+    public static final String RESUME_ARG = "--resume";
+
     private class StateDisplayer implements Runnable {
 
         private final BatchState state;
@@ -31,19 +53,106 @@ public abstract class Batch<L extends InputLine, W extends Worker<L> > {
         @Override
         public void run() {
             state.logStatus();
+            if (inputFile instanceof PrefetchingInputFileReader) {
+                ((PrefetchingInputFileReader<L>) inputFile).logStatistics();
+            }
+            if (router != null) {
+                router.logStatistics();
+            }
+            if (workStealingExecutor != null) {
+                workStealingExecutor.logStatistics();
+            }
+            if (pipeline != null) {
+                pipeline.logStatistics();
+            }
         }
 
     }
 
+    /**
+     * The reader created by {@link #inputFileReaderFactory()}.
+     */
+    private InputFileReader<L> sourceInputFile;
+
+    /**
+     * The reader workers read from, either the source reader or a
+     * prefetching reader wrapping it.
+     */
     private InputFileReader<L> inputFile;
+
+    /**
+     * Routes the lines of the input file to the workers by key, null if
+     * lines are not routed.
+     */
+    private KeyPartitioningInputFileReader<L> router;
+
     private BatchState state;
 
-    private List<W> workers = new LinkedList<W>();
+    /**
+     * Where completed sections are recorded, null if checkpointing is disabled.
+     */
+    private CheckpointJournal checkpointJournal;
+
+    /**
+     * Adapts the section size to the processing time, null if disabled.
+     */
+    private SectionSizer adaptiveSectionSizer;
+
+    /**
+     * Drops duplicate lines, null if disabled.
+     */
+    private DuplicateFilter<L> duplicateFilter;
+
+    /**
+     * Holds worker state on disk, null if disabled.
+     */
+    private StateStore stateStore;
+
+    private List<W> workers = Collections.synchronizedList(new LinkedList<W>());
+
+    /**
+     * The stages the workers feed their lines to, null if the batch has none.
+     */
+    private Pipeline<L> pipeline;
+
+    /**
+     * Runs the workers when work stealing is enabled, null otherwise.
+     */
+    private WorkStealingExecutor<L> workStealingExecutor;
 
     public final void initialize(String[] args) throws BatchException {
-        init(args);
-        this.inputFile = inputFileReaderFactory();
+        List<String> batchArgs = new ArrayList<String>(Arrays.asList(args));
+        boolean resume = batchArgs.remove(RESUME_ARG);
+
+        init(batchArgs.toArray(new String[batchArgs.size()]));
+        this.sourceInputFile = inputFileReaderFactory();
+        ByteRangeSet committed = initCheckpointJournal(resume);
+        initAdaptiveSectionSize();
+        initColumnProjection();
+        this.inputFile = sourceInputFile;
+        int prefetchQueueDepth = getPrefetchQueueDepth();
+        if (prefetchQueueDepth > 0) {
+            this.inputFile = new PrefetchingInputFileReader<L>(
+                    sourceInputFile, prefetchQueueDepth, getPrefetchThreadCount());
+        }
+        initKeyRouting();
+        KeyExtractor<L> deduplicationKey = getDeduplicationKeyExtractor();
+        if (deduplicationKey != null) {
+            this.duplicateFilter = new DuplicateFilter<L>(deduplicationKey);
+        }
+        if (isStateStoreEnabled()) {
+            this.stateStore = new StateStore();
+        }
         this.state = batchStateFactory();
+        this.pipeline = pipelineFactory();
+        if (pipeline != null && checkpointJournal != null) {
+            BatchExecutor.getInstance().logWarning("Lines go through a pipeline,"
+                    + " no checkpoint will be recorded.");
+        }
+
+        if (!committed.isEmpty() && state instanceof ByteSizeBatchState) {
+            ((ByteSizeBatchState) state).incrementUnitsProcessed(committed.getTotalLength());
+        }
     }
 
     public void launch() throws BatchException {
@@ -51,17 +160,75 @@ public abstract class Batch<L extends InputLine, W extends Worker<L> > {
         int threadCount = getThreadCount();
         BatchExecutor exeutor = BatchExecutor.getInstance();
 
+        if (inputFile instanceof PrefetchingInputFileReader) {
+            ((PrefetchingInputFileReader<L>) inputFile).start();
+        }
+
+        WorkerMonitor monitor = new WorkerMonitor();
+        if (router != null) {
+            threadCount = router.getPartitionCount();
+        }
+
+        boolean workStealing = isWorkStealingEnabled();
+        if (workStealing && router != null) {
+            exeutor.logWarning("Lines are routed by key, work stealing is disabled.");
+            workStealing = false;
+        }
+
+        ThreadFactory virtualThreads = null;
+        if (isVirtualThreadsEnabled()) {
+            if (workStealing) {
+                exeutor.logWarning("Work stealing runs on platform threads, virtual threads are not used.");
+            } else {
+                virtualThreads = VirtualThreads.factory(getClass().getSimpleName() + "-worker-");
+                if (virtualThreads == null) {
+                    exeutor.logWarning("Virtual threads are not available in this JVM,"
+                            + " workers run on platform threads.");
+                }
+            }
+        }
+
+        if (pipeline != null) {
+            pipeline.start(state, monitor);
+        }
+
+        List<W> contexts = new ArrayList<W>();
         for (int i = 0; i < threadCount; i++) {
-            W worker = workerFactory();
+            W worker = newWorker(monitor);
+            if (router != null) {
+                worker.setInputFile(router.getPartition(i));
+            }
+            monitor.register(worker);
             workers.add(worker);
-            worker.start();
+            if (workStealing) {
+                contexts.add(worker);
+            } else {
+                startWorker(worker, virtualThreads);
+            }
+        }
+        if (workStealing) {
+            this.workStealingExecutor = new WorkStealingExecutor<L>(
+                    inputFile, contexts, state, monitor);
+            workStealingExecutor.start();
         }
 
-        exeutor.logInfo("Started " + threadCount + " worker"
-                + (threadCount > 1 ? "s." : "."));
+        WorkerScaler scaler = null;
+        if (isAutoScalingEnabled()) {
+            if (workStealing || router != null) {
+                exeutor.logWarning("Auto-scaling needs workers reading sections"
+                        + " on their own threads, it is disabled.");
+            } else {
+                scaler = newWorkerScaler(monitor, virtualThreads);
+                scaler.start();
+            }
+        }
 
-        int controlLoopSleepTime = BatchExecutor.getInstance().getIntProperty(
-                Batch.class, "sleepInSeconds", 1);
+        exeutor.logInfo("Started " + threadCount + " worker"
+                + (threadCount > 1 ? "s" : "")
+                + (virtualThreads != null ? " on virtual threads." : "."));
+        if (router != null) {
+            router.start();
+        }
 
         // Launch state display thread
         int delay = BatchExecutor.getInstance().getIntProperty(
@@ -72,34 +239,267 @@ public abstract class Batch<L extends InputLine, W extends Worker<L> > {
                 new StateDisplayer(state),
                 0, delay, TimeUnit.SECONDS);
 
+        // Wait for the last worker to end, or for all to be cancelled
+        boolean interrupted = false;
         while (true) {
-            boolean allDone = true;
-            for (Worker<L> w : workers) {
-                allDone &= ! w.isAlive();
-            }
-            if (allDone) {
-                break;
-            }
-
             try {
-                Thread.sleep(controlLoopSleepTime);
-            } catch (InterruptedException e) {
+                monitor.await();
+                break;
+            } catch (final InterruptedException e) {
+                interrupted = true;
+                monitor.cancel(null);
             }
-
+        }
+        if (scaler != null) {
+            scaler.stop();
+        }
+        if (pipeline != null) {
+            interrupted |= awaitPipeline(monitor);
+        }
+        if (monitor.isCancelled() || (pipeline != null && pipeline.isCancelled())) {
+            exeutor.logWarning("Workers were cancelled, the input was not fully processed.");
         }
 
         stateDisplay.shutdown();
-        this.inputFile.close();
+        if (router != null) {
+            // Also closes the input file
+            router.close();
+        } else {
+            this.inputFile.close();
+        }
+        closeCheckpointJournal();
+        if (duplicateFilter != null) {
+            duplicateFilter.close();
+        }
 
         state.logStatus();
         onComplete();
+        if (stateStore != null) {
+            stateStore.close();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+    }
 
+    /**
+     * @return a worker wired to the batch services, not started.
+     */
+    private W newWorker(WorkerMonitor monitor) throws BatchException {
+        W worker = workerFactory();
+        // Sections are complete before their lines leave the pipeline
+        worker.setCheckpointJournal(pipeline == null ? checkpointJournal : null);
+        worker.setSectionSizer(adaptiveSectionSizer);
+        worker.setDuplicateFilter(duplicateFilter);
+        worker.setStateStore(stateStore);
+        worker.setMonitor(monitor);
+        return worker;
     }
 
+    /**
+     * Starts a worker on its own thread, a virtual one if a factory is given.
+     */
+    private void startWorker(W worker, ThreadFactory virtualThreads) {
+        if (virtualThreads != null) {
+            Thread runner = virtualThreads.newThread(worker);
+            worker.setRunner(runner);
+            runner.start();
+        } else {
+            worker.start();
+        }
+    }
+
+    private WorkerScaler newWorkerScaler(
+            final WorkerMonitor monitor, final ThreadFactory virtualThreads) {
+        List<W> started = new ArrayList<W>(workers);
+        return new WorkerScaler(monitor, started, getMinThreadCount(),
+                Math.max(started.size(), getMaxThreadCount()),
+                getAutoScalingIntervalMillis()) {
+            @Override
+            Worker<?> addWorker() throws BatchException {
+                W worker = newWorker(monitor);
+                if (!monitor.registerIfRunning(worker)) {
+                    return null;
+                }
+                workers.add(worker);
+                startWorker(worker, virtualThreads);
+                return worker;
+            }
+        };
+    }
+
+    /**
+     * Waits for the pipeline to drain once the workers have ended, or
+     * cancels it if the workers were cancelled.
+     * @return true if the waiting thread was interrupted.
+     */
+    private boolean awaitPipeline(WorkerMonitor monitor) {
+        boolean interrupted = false;
+        if (monitor.isCancelled()) {
+            pipeline.cancel();
+        } else {
+            pipeline.sourcesDone();
+        }
+        while (true) {
+            try {
+                pipeline.await();
+                break;
+            } catch (final InterruptedException e) {
+                interrupted = true;
+                pipeline.cancel();
+            }
+        }
+        pipeline.logStatistics();
+        return interrupted;
+    }
+
+    /**
+     * @return the reader workers should read sections from. When lines are
+     * routed by key, this is the reader lines are routed from, and each
+     * worker reads its own partition instead.
+     */
     public InputFileReader<L> getInputFile() {
         return inputFile;
     }
 
+    /**
+     * @return the store holding the workers' state, null if disabled.
+     * It can be read until {@link #onComplete()} has returned.
+     */
+    public StateStore getStateStore() {
+        return stateStore;
+    }
+
+    /**
+     * @return the reader created by {@link #inputFileReaderFactory()}, which
+     * differs from {@link #getInputFile()} when sections are prefetched.
+     */
+    protected InputFileReader<L> getSourceInputFile() {
+        return sourceInputFile;
+    }
+
+    /**
+     * Checkpointing is enabled if a journal path is configured and the
+     * reader can skip committed ranges: the byte ranges of other readers,
+     * e.g. compressed offsets or offsets in several files, could not be used
+     * to resume. On resume, the reader is told to skip the ranges committed
+     * in the journal, and new checkpoints are appended to it. Otherwise the
+     * journal is started over.
+     * @return the ranges already committed, empty unless resuming.
+     */
+    private ByteRangeSet initCheckpointJournal(boolean resume) throws BatchException {
+        String journalPath = getCheckpointJournalPath();
+        if (journalPath == null || journalPath.isEmpty()) {
+            if (resume) {
+                throw BatchStateException.noCheckpointJournal(getClass().getName());
+            }
+            return ByteRangeSet.EMPTY;
+        }
+
+        if (!(sourceInputFile instanceof ResumableInputFileReader)) {
+            if (resume) {
+                throw InputFileException.notResumable(sourceInputFile.getClass().getName());
+            }
+            BatchExecutor.getInstance().logWarning("Reader "
+                    + sourceInputFile.getClass().getName() + " cannot resume from"
+                    + " checkpoints, no checkpoint will be recorded.");
+            return ByteRangeSet.EMPTY;
+        }
+
+        File journalFile = new File(journalPath);
+        ByteRangeSet committed = ByteRangeSet.EMPTY;
+        if (resume) {
+            committed = CheckpointJournal.load(journalFile);
+            ((ResumableInputFileReader<L>) sourceInputFile).skipRanges(committed);
+        }
+        this.checkpointJournal = new CheckpointJournal(journalFile, resume);
+        BatchExecutor.getInstance().logInfo("Recording checkpoints in "
+                + journalFile.getAbsolutePath());
+        return committed;
+    }
+
+    /**
+     * Replaces the reader's section sizer with an adaptive one if a target
+     * section duration is set, keeping the reader's byte budget.
+     */
+    private void initAdaptiveSectionSize() {
+        long targetMillis = getSectionTargetMillis();
+        if (targetMillis <= 0) {
+            return;
+        }
+        BatchExecutor executor = BatchExecutor.getInstance();
+        if (!(sourceInputFile instanceof SizableInputFileReader)) {
+            executor.logWarning("Reader " + sourceInputFile.getClass().getName()
+                    + " does not support adaptive section size, sections keep a fixed size.");
+            return;
+        }
+        SizableInputFileReader<L> reader = (SizableInputFileReader<L>) sourceInputFile;
+        this.adaptiveSectionSizer = new SectionSizer(
+                getSectionSize(),
+                reader.getSectionSizer().getByteBudget(),
+                targetMillis,
+                getMinSectionSize(),
+                getMaxSectionSize());
+        reader.setSectionSizer(adaptiveSectionSizer);
+        executor.logInfo("Adapting section size for sections to take about "
+                + targetMillis + " ms, between " + getMinSectionSize()
+                + " and " + getMaxSectionSize() + " lines.");
+    }
+
+    /**
+     * Tells the reader which columns the workers need, if not all.
+     */
+    private void initColumnProjection() throws InputFileException {
+        ColumnProjection projection = getColumnProjection();
+        if (projection.isAll()) {
+            return;
+        }
+        BatchExecutor executor = BatchExecutor.getInstance();
+        if (!(sourceInputFile instanceof ProjectableInputFileReader)) {
+            executor.logWarning("Reader " + sourceInputFile.getClass().getName()
+                    + " does not support column projection, all columns are read.");
+            return;
+        }
+        ((ProjectableInputFileReader<L>) sourceInputFile).setColumnProjection(projection);
+        executor.logInfo("Reading " + projection + " of the input lines.");
+    }
+
+    /**
+     * Routes lines to the workers by key if a routing key is given, each
+     * worker then reads its own partition of the input.
+     */
+    private void initKeyRouting() {
+        KeyExtractor<L> routingKey = getRoutingKeyExtractor();
+        if (routingKey == null) {
+            return;
+        }
+        this.router = new KeyPartitioningInputFileReader<L>(
+                inputFile, routingKey, getThreadCount(), getRoutingQueueDepth());
+        if (checkpointJournal != null) {
+            BatchExecutor.getInstance().logWarning("Lines are routed by key,"
+                    + " no checkpoint will be recorded.");
+        }
+    }
+
+    /**
+     * Closes the journal, which is deleted if the batch completed without
+     * fatal errors.
+     */
+    private void closeCheckpointJournal() throws BatchException {
+        if (checkpointJournal == null) {
+            return;
+        }
+        checkpointJournal.close();
+        for (BatchException e : state.getErrors()) {
+            if (Level.FATAL.equals(e.getCriticity())) {
+                return;
+            }
+        }
+        BatchExecutor.getInstance().registerFileForCleanup(
+                checkpointJournal.getJournalFile());
+    }
+
     protected abstract W workerFactory() throws BatchException;
 
     protected abstract BatchState batchStateFactory() throws BatchException;
@@ -111,6 +511,27 @@ public abstract class Batch<L extends InputLine, W extends Worker<L> > {
 
     protected abstract void onComplete() throws BatchException;
 
+    /**
+     * Creates the pipeline the lines go through, after the batch state. The
+     * workers of a batch with a pipeline are {@link PipelineWorker}s, which
+     * feed it the lines they read. Checkpoints are then not recorded, as
+     * sections are complete before their lines have gone through the
+     * pipeline. No pipeline by default.
+     * @return the pipeline, or null.
+     * @throws BatchException
+     */
+    protected Pipeline<L> pipelineFactory() throws BatchException {
+        return null;
+    }
+
+    /**
+     * @return the pipeline workers should feed their lines to, null if the
+     * batch has none.
+     */
+    public Pipeline<L> getPipeline() {
+        return pipeline;
+    }
+
     public BatchState getBatchState() {
         return state;
     }
@@ -125,4 +546,175 @@ public abstract class Batch<L extends InputLine, W extends Worker<L> > {
                 BatchExecutor.getInstance().getProperty(getClass(), "sectionSize"));
     }
 
+    /**
+     * The time processing a section should take. When set, the number of
+     * lines per section is adjusted from the measured processing time, see
+     * {@link SectionSizer}. 0 (the default) keeps a fixed section size.
+     * @return the target section processing time in milliseconds
+     */
+    protected long getSectionTargetMillis() {
+        return BatchExecutor.getInstance().getIntProperty(getClass(), "sectionTargetMillis", 0);
+    }
+
+    /**
+     * @return the lowest number of lines per section in adaptive mode.
+     */
+    protected int getMinSectionSize() {
+        return BatchExecutor.getInstance().getIntProperty(getClass(), "minSectionSize", 1);
+    }
+
+    /**
+     * @return the highest number of lines per section in adaptive mode.
+     */
+    protected int getMaxSectionSize() {
+        return BatchExecutor.getInstance().getIntProperty(getClass(), "maxSectionSize", 100000);
+    }
+
+    /**
+     * The columns of the input lines the workers use. Readers supporting it
+     * pass them to the lines they build, which then neither split nor
+     * allocate the other fields, see {@link ColumnProjection}.
+     * @return the columns given by the comma separated column indices of the
+     * columns setting, all columns by default.
+     * @throws InputFileException if the setting is not valid
+     */
+    protected ColumnProjection getColumnProjection() throws InputFileException {
+        return ColumnProjection.parse(
+                BatchExecutor.getInstance().getProperty(getClass(), "columns"));
+    }
+
+    /**
+     * The key lines are routed to the workers by. When given, all the lines
+     * sharing a key are processed by the same worker, in input order, so
+     * workers can keep per-key state without synchronization and merge it in
+     * {@link Worker#jobComplete()}. Workers then read their own partition of
+     * the input, whatever reader they were created with, see
+     * {@link KeyPartitioningInputFileReader}.
+     * @return the routing key, null (the default) to let any worker process
+     * any line.
+     */
+    protected KeyExtractor<L> getRoutingKeyExtractor() {
+        return null;
+    }
+
+    /**
+     * Whether workers get a disk-backed {@link StateStore}, which they
+     * access through {@link Worker#getStateSession()}.
+     * @return the stateStore setting, false by default.
+     */
+    protected boolean isStateStoreEnabled() {
+        return BatchExecutor.getInstance().getBoolProperty(getClass(), "stateStore", false);
+    }
+
+    /**
+     * Whether sections are processed as tasks by a pool of threads stealing
+     * work from each other, rather than each by a worker thread. The workers
+     * are then not started, they serve as the processing contexts of the
+     * pool threads, see {@link WorkStealingExecutor}.
+     * @return the Batch.workStealing setting, false by default.
+     */
+    protected boolean isWorkStealingEnabled() {
+        return BatchExecutor.getInstance().getBoolProperty(
+                Batch.class, "workStealing", false);
+    }
+
+    /**
+     * Whether workers run on virtual threads, on JVMs that have them (Java
+     * 21 and later). Each worker still processes sections one at a time and
+     * calls {@link Worker#sectionComplete()} after each, but blocking in
+     * {@link Worker#processLine(InputLine)} no longer holds a platform
+     * thread, so that I/O-bound batches can use a thread count in the
+     * hundreds or thousands: the thread count caps the number of sections
+     * processed concurrently. Readers synchronize on reads, which pins the
+     * carrier thread during file I/O: prefetching sections keeps workers
+     * off the reader, see {@link #getPrefetchQueueDepth()}. Falls back to
+     * platform threads on older JVMs.
+     * @return the Batch.virtualThreads setting, false by default.
+     */
+    protected boolean isVirtualThreadsEnabled() {
+        return BatchExecutor.getInstance().getBoolProperty(
+                Batch.class, "virtualThreads", false);
+    }
+
+    /**
+     * Whether the worker count is adjusted while the batch runs, starting
+     * from {@link #getThreadCount()}, see {@link WorkerScaler}. Not
+     * available with work stealing or key routing.
+     * @return the Batch.autoScaling setting, false by default.
+     */
+    protected boolean isAutoScalingEnabled() {
+        return BatchExecutor.getInstance().getBoolProperty(
+                Batch.class, "autoScaling", false);
+    }
+
+    /**
+     * @return the lowest number of workers when auto-scaling.
+     */
+    protected int getMinThreadCount() {
+        return BatchExecutor.getInstance().getIntProperty(getClass(), "minThreadCount", 1);
+    }
+
+    /**
+     * @return the highest number of workers when auto-scaling, twice the
+     * number of processors by default.
+     */
+    protected int getMaxThreadCount() {
+        return BatchExecutor.getInstance().getIntProperty(getClass(), "maxThreadCount",
+                2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return the time between two auto-scaling decisions, in milliseconds.
+     */
+    protected long getAutoScalingIntervalMillis() {
+        return BatchExecutor.getInstance().getLongProperty(
+                Batch.class, "autoScalingIntervalMillis", 10000L);
+    }
+
+    /**
+     * The key duplicate lines are identified by. When given, a line whose key
+     * was already seen is dropped before being processed, and counted by
+     * {@link BatchState#notifyDuplicateDropped(InputLine)}, see
+     * {@link DuplicateFilter} for the settings.
+     * @return the deduplication key, null (the default) to process all lines.
+     */
+    protected KeyExtractor<L> getDeduplicationKeyExtractor() {
+        return null;
+    }
+
+    /**
+     * @return the maximum number of routed sections waiting for each worker.
+     */
+    protected int getRoutingQueueDepth() {
+        return BatchExecutor.getInstance().getIntProperty(
+                Batch.class, "routingQueueDepth", 4);
+    }
+
+    /**
+     * @return the path of the checkpoint journal, null (the default) to
+     * disable checkpointing.
+     */
+    protected String getCheckpointJournalPath() {
+        return BatchExecutor.getInstance().getProperty(getClass(), "checkpointJournal");
+    }
+
+    /**
+     * The number of sections read ahead of the workers by dedicated reader
+     * threads. 0 (the default) disables prefetching, workers then read
+     * sections themselves.
+     * @return the prefetch queue depth
+     */
+    protected int getPrefetchQueueDepth() {
+        return BatchExecutor.getInstance().getIntProperty(
+                Batch.class, "prefetchQueueDepth", 0);
+    }
+
+    /**
+     * @return the number of threads reading sections ahead of the workers.
+     */
+    protected int getPrefetchThreadCount() {
+        return BatchExecutor.getInstance().getIntProperty(
+                Batch.class, "prefetchThreads", 1);
+    }
+
 }
@@ -8,6 +8,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.InvalidPropertiesFormatException;
 import java.util.List;
@@ -139,7 +140,11 @@ public final class BatchExecutor {
 
     private BatchSettings settings;
     private BatchLogger logger;
-    private List<File> filesToClean = new ArrayList<File>();
+    /**
+     * Files may be registered from any thread, e.g. by pooled sort spills.
+     */
+    private final List<File> filesToClean =
+        Collections.synchronizedList(new ArrayList<File>());
     
     private BatchExecutor(String settingsFilePath, String name)
     throws InvalidPropertiesFormatException, IOException {
@@ -281,7 +286,11 @@ public final class BatchExecutor {
         }
 
         // Clean registered files
-        for (File f : instance.filesToClean) {
+        List<File> files;
+        synchronized (instance.filesToClean) {
+            files = new ArrayList<File>(instance.filesToClean);
+        }
+        for (File f : files) {
         	try {
 				FileUtils.recursiveDelete(f);
 			} catch (final IOException e) {
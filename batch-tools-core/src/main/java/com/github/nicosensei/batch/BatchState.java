@@ -3,6 +3,7 @@
  */
 package com.github.nicosensei.batch;
 
+import com.github.nicosensei.batch.input.InputFileSection;
 import com.github.nicosensei.batch.input.InputLine;
 
 /**
@@ -13,10 +14,29 @@ public interface BatchState {
 
     void notifyLineProcessed(InputLine line);
 
+    /**
+     * Called once a worker is done with a section, whether its lines were all
+     * processed or some were skipped, before the section is recycled.
+     * @param section the section
+     */
+    void notifySectionProcessed(InputFileSection<? extends InputLine> section);
+
     double getCompletionPercentage();
 
     void logStatus();
 
+    /**
+     * Called instead of {@link #notifyLineProcessed(InputLine)} for a line
+     * dropped as the duplicate of a line already seen.
+     * @param line the dropped line
+     */
+    void notifyDuplicateDropped(InputLine line);
+
+    /**
+     * @return the number of lines dropped as duplicates.
+     */
+    long getDuplicatesDropped();
+
     void notifyError(BatchException e);
     
     BatchException[] getErrors();
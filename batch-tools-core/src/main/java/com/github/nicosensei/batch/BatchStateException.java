@@ -42,6 +42,74 @@ public class BatchStateException extends BatchException {
                 t);
     }
 
+    public static BatchStateException checkpointJournalFailed(
+            String filePath, Exception cause) {
+        return new BatchStateException(
+                "JobState_CHECKPOINT_JOURNAL_FAILED",
+                "Failed to open or load checkpoint journal {0}",
+                new String[] { filePath },
+                Level.FATAL,
+                cause);
+    }
+
+    public static BatchStateException noCheckpointJournal(String batchClass) {
+        return new BatchStateException(
+                "JobState_NO_CHECKPOINT_JOURNAL",
+                "Cannot resume batch {0}, no checkpoint journal is configured",
+                new String[] { batchClass },
+                Level.FATAL,
+                null);
+    }
+
+    public static BatchStateException checkpointFailed(
+            String filePath, Exception cause) {
+        return new BatchStateException(
+                "JobState_CHECKPOINT_FAILED",
+                "Failed to write checkpoint to journal {0}",
+                new String[] { filePath },
+                Level.ERROR,
+                cause);
+    }
+
+    public static BatchStateException duplicateKeySetFailed(
+            String directory, Exception cause) {
+        return new BatchStateException(
+                "JobState_DUPLICATE_KEY_SET_FAILED",
+                "Failed to access the duplicate key set in {0}",
+                new String[] { directory },
+                Level.FATAL,
+                cause);
+    }
+
+    public static BatchStateException stateStoreFailed(
+            String directory, Exception cause) {
+        return new BatchStateException(
+                "JobState_STATE_STORE_FAILED",
+                "Failed to access the state store in {0}",
+                new String[] { directory },
+                Level.FATAL,
+                cause);
+    }
+
+    public static BatchStateException invalidStateValue(String key, int length) {
+        return new BatchStateException(
+                "JobState_INVALID_STATE_VALUE",
+                "State value of key {0} is {1} bytes long, expected {2}",
+                new String[] { key, Integer.toString(length), "8" },
+                Level.ERROR,
+                null);
+    }
+
+    public static BatchStateException pipelineStageFailed(
+            String stageName, Throwable t) {
+        return new BatchStateException(
+                "JobState_PIPELINE_STAGE_FAILED",
+                "Pipeline stage {0} failed: {1}",
+                new String[] { stageName, t.toString() },
+                Level.FATAL,
+                t);
+    }
+
     public static BatchStateException copyFailed(Throwable t) {
         return new BatchStateException(
                 "JobState_COPY_FAILED",
@@ -0,0 +1,179 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A scalable Bloom filter whose bits live off the heap, in direct buffers.
+ *
+ * The filter starts with one stage sized for an expected number of keys and
+ * a false positive rate. When a stage is full, a stage twice as large with
+ * half the false positive rate is added, so the overall false positive rate
+ * stays under twice the initial one however many keys are added.
+ *
+ * Not thread-safe.
+ *
+ * @author ngiraud
+ *
+ */
+public class BloomFilter {
+
+    /**
+     * The largest stage, in bytes.
+     */
+    private static final long MAX_STAGE_BYTES = Integer.MAX_VALUE & ~7L;
+
+    private static final double LN2 = Math.log(2);
+
+    private static final class Stage {
+
+        private final ByteBuffer bits;
+        private final long bitCount;
+        private final int hashCount;
+        private final long capacity;
+        private long keyCount = 0L;
+
+        private Stage(long capacity, double falsePositiveRate) {
+            long bitCount = (long) Math.ceil(
+                    -capacity * Math.log(falsePositiveRate) / (LN2 * LN2));
+            long bytes = Math.min(MAX_STAGE_BYTES, Math.max(8L, (bitCount + 7) / 8));
+            this.bitCount = 8L * bytes;
+            this.capacity = Math.max(1L, Math.min(capacity,
+                    (long) (this.bitCount * LN2 * LN2 / -Math.log(falsePositiveRate))));
+            this.hashCount = Math.max(1,
+                    (int) Math.round((double) this.bitCount / this.capacity * LN2));
+            this.bits = ByteBuffer.allocateDirect((int) bytes);
+        }
+
+        private boolean mightContain(long h1, long h2) {
+            long h = h1;
+            for (int i = 0; i < hashCount; i++) {
+                long bit = (h & Long.MAX_VALUE) % bitCount;
+                if ((bits.get((int) (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                    return false;
+                }
+                h += h2;
+            }
+            return true;
+        }
+
+        private void put(long h1, long h2) {
+            long h = h1;
+            for (int i = 0; i < hashCount; i++) {
+                long bit = (h & Long.MAX_VALUE) % bitCount;
+                int index = (int) (bit >>> 3);
+                bits.put(index, (byte) (bits.get(index) | (1 << (bit & 7))));
+                h += h2;
+            }
+            keyCount++;
+        }
+
+    }
+
+    private final List<Stage> stages = new ArrayList<Stage>();
+
+    private final double falsePositiveRate;
+
+    private long keyCount = 0L;
+
+    /**
+     * @param expectedKeys the number of keys the first stage is sized for
+     * @param falsePositiveRate the false positive rate of the first stage
+     */
+    public BloomFilter(long expectedKeys, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException(
+                    "False positive rate out of ]0, 1[: " + falsePositiveRate);
+        }
+        this.falsePositiveRate = falsePositiveRate;
+        stages.add(new Stage(Math.max(1L, expectedKeys), falsePositiveRate));
+    }
+
+    /**
+     * @param hash the 64 bit hash of a key, see {@link #hash(CharSequence)}
+     * @return false if the key was never added, true if it probably was.
+     */
+    public boolean mightContain(long hash) {
+        long h2 = secondHash(hash);
+        for (Stage s : stages) {
+            if (s.mightContain(hash, h2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a key.
+     * @param hash the 64 bit hash of the key, see {@link #hash(CharSequence)}
+     * @return false if the key probably was already added, true otherwise.
+     */
+    public boolean add(long hash) {
+        if (mightContain(hash)) {
+            return false;
+        }
+        Stage current = stages.get(stages.size() - 1);
+        if (current.keyCount >= current.capacity) {
+            current = new Stage(2 * current.capacity,
+                    falsePositiveRate / (1L << Math.min(stages.size(), 60)));
+            stages.add(current);
+        }
+        current.put(hash, secondHash(hash));
+        keyCount++;
+        return true;
+    }
+
+    /**
+     * @return the number of keys added.
+     */
+    public long getKeyCount() {
+        return keyCount;
+    }
+
+    public int getStageCount() {
+        return stages.size();
+    }
+
+    /**
+     * @return the off-heap memory used by the filter, in bytes.
+     */
+    public long getByteSize() {
+        long bytes = 0L;
+        for (Stage s : stages) {
+            bytes += s.bits.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * @param key a key
+     * @return a 64 bit hash of the key (FNV-1a, with a final mix).
+     */
+    public static long hash(CharSequence key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long secondHash(long hash) {
+        // Odd, so that successive probes do not cycle early
+        return mix(hash ^ 0x9e3779b97f4a7c15L) | 1L;
+    }
+
+    private static long mix(long h) {
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= (h >>> 33);
+        return h;
+    }
+
+}
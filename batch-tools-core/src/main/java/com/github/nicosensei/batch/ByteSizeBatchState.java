@@ -5,13 +5,21 @@ package com.github.nicosensei.batch;
 
 import java.io.File;
 import java.io.UnsupportedEncodingException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.github.nicosensei.batch.input.InputFileReader;
+import com.github.nicosensei.batch.input.InputFileSection;
 import com.github.nicosensei.batch.input.InputLine;
 import com.github.nicosensei.commons.exceptions.Unexpected;
 import com.github.nicosensei.commons.utils.datatype.ByteCountFormatter;
 
 /**
+ * Progress in bytes of input. Progress is advanced when a section has been
+ * processed, by the byte length the reader recorded for it. For sections
+ * without a byte length, the lines of the section are encoded again to
+ * measure them. Either way lines skipped by the worker count as processed
+ * input.
+ *
  * @author ngiraud
  *
  */
@@ -22,7 +30,7 @@ public class ByteSizeBatchState extends AbstractBatchState {
     
     private final static int EOL_BYTES;
     
-    private long processedLines = 0L;
+    private final AtomicLong processedLines = new AtomicLong(0L);
     
     static {
     	try {
@@ -36,22 +44,40 @@ public class ByteSizeBatchState extends AbstractBatchState {
         super(new File(inputFilePath).length());
     }
 
+    /**
+     * @param bytesToProcess the total input size in bytes
+     */
+    protected ByteSizeBatchState(final long bytesToProcess) {
+        super(bytesToProcess);
+    }
+
     @Override
     public void notifyLineProcessed(InputLine line) {
-        try {
-            // Also add the newline size (not brought back by the reader)
-            incrementUnitsProcessed(line.getLine().getBytes(fileEncoding).length + EOL_BYTES);
-            processedLines++;
-        } catch (UnsupportedEncodingException e) {
-            throw new Unexpected(e);
+        processedLines.incrementAndGet();
+    }
+
+    @Override
+    public synchronized void notifySectionProcessed(InputFileSection<? extends InputLine> section) {
+        long bytes = section.getByteLength();
+        if (bytes < 0) {
+            bytes = 0L;
+            try {
+                for (InputLine line : section.getLines()) {
+                    // Also add the newline size (not brought back by the reader)
+                    bytes += line.getLine().getBytes(fileEncoding).length + EOL_BYTES;
+                }
+            } catch (UnsupportedEncodingException e) {
+                throw new Unexpected(e);
+            }
         }
+        incrementUnitsProcessed(bytes);
     }
 
     /**
 	 * @return the processedLines
 	 */
 	public long getProcessedLines() {
-		return processedLines;
+		return processedLines.get();
 	}
 
 	@Override
@@ -61,7 +87,8 @@ public class ByteSizeBatchState extends AbstractBatchState {
                 + "/"
                 + ByteCountFormatter.humanReadableByteCount(getUnitsToProcess())
         + " processed ("
-        + PERCENTAGE.format(getCompletionPercentage()) + "%).");
+        + PERCENTAGE.format(getCompletionPercentage()) + "%)"
+        + getDuplicatesStatus() + ".");
     }
 
 
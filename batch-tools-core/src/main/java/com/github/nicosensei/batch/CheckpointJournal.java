@@ -0,0 +1,137 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.github.nicosensei.batch.input.ByteRangeSet;
+import com.github.nicosensei.commons.utils.datatype.ByteCountFormatter;
+
+/**
+ * Append-only journal of the input byte ranges of completed sections, used
+ * to resume a batch that did not complete.
+ *
+ * Each record is a pair of longs: the start and end offsets of a section.
+ * Records are flushed as they are written, one per section, so a killed
+ * batch loses at most the sections that were in flight, which are then
+ * replayed. A truncated last record is ignored when loading the journal.
+ *
+ * @author ngiraud
+ *
+ */
+public class CheckpointJournal {
+
+    private static final int RECORD_SIZE = 16;
+
+    private final File journalFile;
+
+    private final DataOutputStream out;
+
+    private long recordCount = 0L;
+
+    /**
+     * Opens the journal for writing.
+     * @param journalFile the journal file
+     * @param append if true, records are appended to the existing journal,
+     * otherwise the journal is started over.
+     * @throws BatchStateException
+     */
+    public CheckpointJournal(File journalFile, boolean append)
+    throws BatchStateException {
+        this.journalFile = journalFile;
+        try {
+            if (append && journalFile.exists()) {
+                // Drop a record that was being written when the batch died
+                long validLength = journalFile.length() - (journalFile.length() % RECORD_SIZE);
+                FileOutputStream fos = new FileOutputStream(journalFile, true);
+                fos.getChannel().truncate(validLength);
+                this.out = new DataOutputStream(new BufferedOutputStream(fos));
+            } else {
+                this.out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(journalFile, false)));
+            }
+        } catch (final IOException e) {
+            throw BatchStateException.checkpointJournalFailed(
+                    journalFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Records that a section has been completed.
+     * @param startOffset the section start offset
+     * @param endOffset the section end offset
+     * @throws BatchStateException
+     */
+    public synchronized void commit(long startOffset, long endOffset)
+    throws BatchStateException {
+        try {
+            out.writeLong(startOffset);
+            out.writeLong(endOffset);
+            out.flush();
+            recordCount++;
+        } catch (final IOException e) {
+            throw BatchStateException.checkpointFailed(
+                    journalFile.getAbsolutePath(), e);
+        }
+    }
+
+    public synchronized void close() throws BatchStateException {
+        try {
+            out.close();
+        } catch (final IOException e) {
+            throw BatchStateException.checkpointFailed(
+                    journalFile.getAbsolutePath(), e);
+        }
+        BatchExecutor.getInstance().logInfo("Checkpoint journal " + journalFile.getAbsolutePath()
+                + ": " + recordCount + " sections committed.");
+    }
+
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    /**
+     * Reads the ranges committed in a journal.
+     * @param journalFile the journal file
+     * @return the committed ranges, empty if the journal does not exist.
+     * @throws BatchStateException
+     */
+    public static ByteRangeSet load(File journalFile) throws BatchStateException {
+        if (!journalFile.exists()) {
+            return ByteRangeSet.EMPTY;
+        }
+
+        int recordCount = (int) (journalFile.length() / RECORD_SIZE);
+        long[] ranges = new long[2 * recordCount];
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(journalFile)));
+            try {
+                for (int i = 0; i < ranges.length; i++) {
+                    ranges[i] = in.readLong();
+                }
+            } finally {
+                in.close();
+            }
+        } catch (final IOException e) {
+            throw BatchStateException.checkpointJournalFailed(
+                    journalFile.getAbsolutePath(), e);
+        }
+
+        ByteRangeSet committed = new ByteRangeSet(ranges, recordCount);
+        BatchExecutor.getInstance().logInfo("Loaded " + recordCount
+                + " checkpoints from " + journalFile.getAbsolutePath() + ", "
+                + ByteCountFormatter.humanReadableByteCount(committed.getTotalLength())
+                + " already processed.");
+        return committed;
+    }
+
+}
@@ -0,0 +1,519 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A set of string keys kept on disk, to tell exactly whether a key was seen
+ * without holding all the keys on the heap.
+ *
+ * Keys are appended to a log file. An open addressing hash table of
+ * (hash, log offset) slots, split in memory-mapped segments, locates them.
+ * Looking a key up only reads the log when a slot has the same 64 bit hash,
+ * so a lookup costs about one log read for a key that is present and none
+ * for a key that is not.
+ *
+ * Tables double in size when half full. A table that reached the largest
+ * size that can be mapped at once is split in two by one more bit of the
+ * hash instead (extendible hashing), so a segment holds a directory of
+ * tables and no table gets more than half full. Mappings are released as
+ * soon as a table is replaced, rather than when garbage collected.
+ *
+ * The files are deleted on {@link #close()}, and registered for cleanup
+ * in case the batch does not get there.
+ *
+ * Thread-safe. Each segment has its own lock, so keys of different segments,
+ * see {@link #segmentOf(long)}, are added concurrently. Only appending keys
+ * to the log and reading them back are serialized, under the set's lock.
+ *
+ * @author ngiraud
+ *
+ */
+public class DiskKeySet {
+
+    private static final int SEGMENT_BITS = 4;
+
+    /**
+     * The number of hash table segments.
+     */
+    public static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+
+    private static final int SLOT_BYTES = 16;
+
+    private static final int INITIAL_SLOTS = 1 << 14;
+
+    /**
+     * Largest table, so that a table can be mapped at once.
+     */
+    private static final int MAX_SLOTS = 1 << 26;
+
+    /**
+     * Largest directory of a segment, 2^MAX_DEPTH tables. A table is chosen
+     * by the hash bits right below the segment bits, a slot by the lowest.
+     */
+    private static final int MAX_DEPTH = 16;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * A memory-mapped open addressing table. A slot holds the key hash and
+     * the log offset of the key plus one, 0 meaning the slot is free.
+     *
+     * Called under the lock of its segment.
+     */
+    private final class Table {
+
+        private final String name;
+        private final int depth;
+        private File file;
+        private RandomAccessFile raf;
+        private MappedByteBuffer slots;
+        private int slotCount;
+        private int keyCount = 0;
+
+        /**
+         * @param name the name of the table's files
+         * @param depth the number of hash bits that choose this table
+         * @param slotCount the initial number of slots
+         */
+        private Table(String name, int depth, int slotCount) throws IOException {
+            this.name = name;
+            this.depth = depth;
+            map(slotCount);
+        }
+
+        private void map(int slotCount) throws IOException {
+            this.slotCount = slotCount;
+            this.file = new File(directory, name + "-" + slotCount + ".idx");
+            BatchExecutor.getInstance().registerFileForCleanup(file);
+            this.raf = new RandomAccessFile(file, "rw");
+            raf.setLength((long) slotCount * SLOT_BYTES);
+            this.slots = raf.getChannel().map(MapMode.READ_WRITE, 0, (long) slotCount * SLOT_BYTES);
+        }
+
+        /**
+         * @return the free slot for the key, or -1 if the key is present.
+         */
+        private int probe(String key, long hash, boolean knownAbsent) throws IOException {
+            int mask = slotCount - 1;
+            int slot = (int) hash & mask;
+            while (true) {
+                int pos = slot * SLOT_BYTES;
+                long offset = slots.getLong(pos + 8);
+                if (offset == 0L) {
+                    return slot;
+                }
+                if (!knownAbsent && slots.getLong(pos) == hash
+                        && key.equals(readKey(offset - 1))) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void put(int slot, long hash, long offset) {
+            int pos = slot * SLOT_BYTES;
+            slots.putLong(pos, hash);
+            slots.putLong(pos + 8, offset);
+            keyCount++;
+        }
+
+        /**
+         * Puts a slot taken from another table.
+         */
+        private void insert(long hash, long offset) {
+            int mask = slotCount - 1;
+            int slot = (int) hash & mask;
+            while (slots.getLong(slot * SLOT_BYTES + 8) != 0L) {
+                slot = (slot + 1) & mask;
+            }
+            put(slot, hash, offset);
+        }
+
+        /**
+         * Copies the slots of this table to the two tables it is split in.
+         * @param bit the hash bit that chooses the table, see
+         * {@link DiskKeySet#hashBit(long, int)}
+         */
+        private void copyTo(Table low, Table high, int bit) {
+            for (int s = 0; s < slotCount; s++) {
+                long offset = slots.getLong(s * SLOT_BYTES + 8);
+                if (offset == 0L) {
+                    continue;
+                }
+                long hash = slots.getLong(s * SLOT_BYTES);
+                (hashBit(hash, bit) != 0 ? high : low).insert(hash, offset);
+            }
+        }
+
+        private void grow() throws IOException {
+            MappedByteBuffer oldSlots = slots;
+            int oldCount = slotCount;
+            RandomAccessFile oldRaf = raf;
+            File oldFile = file;
+            this.keyCount = 0;
+            map(2 * oldCount);
+            for (int s = 0; s < oldCount; s++) {
+                long offset = oldSlots.getLong(s * SLOT_BYTES + 8);
+                if (offset != 0L) {
+                    insert(oldSlots.getLong(s * SLOT_BYTES), offset);
+                }
+            }
+            release(oldSlots, oldRaf, oldFile);
+        }
+
+        private void close() throws IOException {
+            MappedByteBuffer s = slots;
+            this.slots = null;
+            release(s, raf, file);
+        }
+
+    }
+
+    /**
+     * A hash table segment: a directory of tables, indexed by the hash bits
+     * right below the segment bits.
+     *
+     * Called under the segment's lock.
+     */
+    private final class Segment {
+
+        private final int index;
+        private Table[] tables;
+        private int depth = 0;
+        private int tableCount = 0;
+
+        private Segment(int index) throws IOException {
+            this.index = index;
+            this.tables = new Table[] { newTable(0, Math.min(INITIAL_SLOTS, maxSlots)) };
+        }
+
+        private Table newTable(int depth, int slotCount) throws IOException {
+            return new Table(prefix + "-" + index + "-" + (tableCount++), depth, slotCount);
+        }
+
+        /**
+         * @return true if the key was added, false if it was present.
+         */
+        private boolean add(String key, long hash, boolean knownAbsent) throws IOException {
+            Table t = tables[depth == 0 ? 0 : (int) ((hash << SEGMENT_BITS) >>> (64 - depth))];
+            if (t.keyCount == t.slotCount - 1) {
+                throw new IOException("Key set table " + t.file + " is full");
+            }
+            int slot = t.probe(key, hash, knownAbsent);
+            if (slot < 0) {
+                return false;
+            }
+            t.put(slot, hash, appendKey(key) + 1);
+            if (2 * t.keyCount > t.slotCount) {
+                if (t.slotCount < maxSlots) {
+                    t.grow();
+                } else if (t.depth < MAX_DEPTH) {
+                    split(t);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Replaces a table by two, chosen by one more bit of the hash.
+         */
+        private void split(Table t) throws IOException {
+            if (t.depth == depth) {
+                Table[] doubled = new Table[2 * tables.length];
+                for (int i = 0; i < doubled.length; i++) {
+                    doubled[i] = tables[i >> 1];
+                }
+                tables = doubled;
+                depth++;
+            }
+            Table low = newTable(t.depth + 1, t.slotCount);
+            Table high = newTable(t.depth + 1, t.slotCount);
+            t.copyTo(low, high, t.depth);
+            int shift = depth - t.depth - 1;
+            for (int i = 0; i < tables.length; i++) {
+                if (tables[i] == t) {
+                    tables[i] = (((i >> shift) & 1) != 0 ? high : low);
+                }
+            }
+            t.close();
+        }
+
+        private void close() throws IOException {
+            IOException failure = null;
+            Table last = null;
+            for (Table t : tables) {
+                if (t == last) {
+                    continue; // tables of lower depth fill consecutive entries
+                }
+                last = t;
+                try {
+                    t.close();
+                } catch (final IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+    }
+
+    private final File directory;
+
+    private final String prefix;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    private final int maxSlots;
+
+    private final File logFile;
+
+    private final RandomAccessFile log;
+
+    private final FileChannel logChannel;
+
+    /**
+     * Keys appended but not written to the log yet. The write buffer, the
+     * read buffer and the log size are guarded by the set's lock.
+     */
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+    /**
+     * The log offset where the next key goes.
+     */
+    private long logSize = 0L;
+
+    private final AtomicLong keyCount = new AtomicLong(0L);
+
+    private byte[] readBuffer = new byte[256];
+
+    /**
+     * @param directory the directory to create the files in, null for the
+     * default temporary directory
+     * @throws IOException
+     */
+    public DiskKeySet(File directory) throws IOException {
+        this(directory, MAX_SLOTS);
+    }
+
+    /**
+     * @param directory the directory to create the files in, null for the
+     * default temporary directory
+     * @param maxSlots the size of the largest table, a power of 2
+     * @throws IOException
+     */
+    DiskKeySet(File directory, int maxSlots) throws IOException {
+        this.maxSlots = maxSlots;
+        this.logFile = File.createTempFile("keyset", ".log", directory);
+        BatchExecutor.getInstance().registerFileForCleanup(logFile);
+        this.directory = logFile.getParentFile();
+        String name = logFile.getName();
+        this.prefix = name.substring(0, name.length() - ".log".length());
+        this.log = new RandomAccessFile(logFile, "rw");
+        this.logChannel = log.getChannel();
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(i);
+        }
+    }
+
+    /**
+     * Adds a key.
+     * @param key the key
+     * @param hash the 64 bit hash of the key
+     * @return true if the key was added, false if it was already present.
+     * @throws IOException
+     */
+    public boolean add(String key, long hash) throws IOException {
+        return add(key, hash, false);
+    }
+
+    /**
+     * Adds a key known not to be present, without looking it up.
+     * @param key the key
+     * @param hash the 64 bit hash of the key
+     * @throws IOException
+     */
+    public void addAbsent(String key, long hash) throws IOException {
+        add(key, hash, true);
+    }
+
+    /**
+     * @return the number of keys in the set.
+     */
+    public long size() {
+        return keyCount.get();
+    }
+
+    /**
+     * @param hash the 64 bit hash of a key
+     * @return the index of the segment the key goes to, from 0 to
+     * {@link #SEGMENT_COUNT} excluded. The segment is chosen by the highest
+     * bits of the hash, slots within the segment by the lowest.
+     */
+    public static int segmentOf(long hash) {
+        return (int) (hash >>> (64 - SEGMENT_BITS));
+    }
+
+    /**
+     * Closes and deletes the files.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Segment s : segments) {
+            try {
+                synchronized (s) {
+                    s.close();
+                }
+            } catch (final IOException e) {
+                failure = e;
+            }
+        }
+        log.close();
+        logFile.delete();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private boolean add(String key, long hash, boolean knownAbsent) throws IOException {
+        Segment s = segments[segmentOf(hash)];
+        boolean added;
+        synchronized (s) {
+            added = s.add(key, hash, knownAbsent);
+        }
+        if (added) {
+            keyCount.incrementAndGet();
+        }
+        return added;
+    }
+
+    /**
+     * @return the log offset of the key.
+     */
+    private synchronized long appendKey(String key) throws IOException {
+        byte[] bytes = key.getBytes(ENCODING);
+        if (writeBuffer.remaining() < 4 + bytes.length) {
+            flush();
+        }
+        long offset = logSize;
+        if (4 + bytes.length > writeBuffer.capacity()) {
+            ByteBuffer b = ByteBuffer.allocate(4 + bytes.length);
+            b.putInt(bytes.length).put(bytes).flip();
+            while (b.hasRemaining()) {
+                logChannel.write(b, logSize + b.position());
+            }
+        } else {
+            writeBuffer.putInt(bytes.length).put(bytes);
+        }
+        logSize += 4 + bytes.length;
+        return offset;
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        long position = logSize - writeBuffer.remaining();
+        while (writeBuffer.hasRemaining()) {
+            logChannel.write(writeBuffer, position + writeBuffer.position());
+        }
+        writeBuffer.clear();
+    }
+
+    private synchronized String readKey(long offset) throws IOException {
+        long buffered = logSize - writeBuffer.position();
+        if (offset >= buffered) {
+            // Still in the write buffer
+            int pos = (int) (offset - buffered);
+            int length = writeBuffer.getInt(pos);
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = writeBuffer.get(pos + 4 + i);
+            }
+            return new String(bytes, ENCODING);
+        }
+        ByteBuffer header = ByteBuffer.allocate(4);
+        readFully(header, offset);
+        int length = header.getInt(0);
+        if (readBuffer.length < length) {
+            readBuffer = Arrays.copyOf(readBuffer, Math.max(length, 2 * readBuffer.length));
+        }
+        readFully(ByteBuffer.wrap(readBuffer, 0, length), offset + 4);
+        return new String(readBuffer, 0, length, ENCODING);
+    }
+
+    /**
+     * @return the bit of the hash that follows the segment bits and the
+     * given number of directory bits.
+     */
+    private static int hashBit(long hash, int depth) {
+        return (int) ((hash << (SEGMENT_BITS + depth)) >>> 63);
+    }
+
+    /**
+     * Unmaps a table and deletes its file. A mapping otherwise holds on to
+     * address space, and on some systems to the file, until garbage collected.
+     */
+    private static void release(MappedByteBuffer slots, RandomAccessFile raf, File file)
+    throws IOException {
+        if (slots != null) {
+            unmap(slots);
+        }
+        raf.close();
+        file.delete();
+    }
+
+    /**
+     * Frees the memory of a mapped buffer now, which no public API allows:
+     * through Unsafe.invokeCleaner on Java 9 and later, through the buffer's
+     * cleaner before. If neither is accessible, the buffer is left to the
+     * garbage collector. The buffer must not be used afterwards.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (final NoSuchMethodException e) {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (final Exception e) {
+            // Left to the garbage collector
+        }
+    }
+
+    private void readFully(ByteBuffer b, long offset) throws IOException {
+        long position = offset;
+        while (b.hasRemaining()) {
+            int n = logChannel.read(b, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of key log " + logFile);
+            }
+            position += n;
+        }
+    }
+
+}
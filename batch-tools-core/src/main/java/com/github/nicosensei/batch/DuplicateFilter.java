@@ -0,0 +1,212 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.nicosensei.batch.input.InputLine;
+import com.github.nicosensei.batch.input.KeyExtractor;
+
+/**
+ * Tells the workers which lines repeat the key of a line already seen, so
+ * that duplicates are dropped before being processed.
+ *
+ * Keys are recorded in an off-heap {@link BloomFilter} sized for the
+ * DuplicateFilter.expectedKeys setting, with the
+ * DuplicateFilter.falsePositiveRate false positive rate. By default, a line
+ * the filter has probably seen is a duplicate, so that rate of unique lines
+ * is dropped too. When DuplicateFilter.exact is true, keys are also recorded
+ * in a {@link DiskKeySet} in the DuplicateFilter.directory directory, which
+ * confirms each probable duplicate, so that only actual duplicates are
+ * dropped at the cost of writing every key to disk.
+ *
+ * Keys are not kept across runs: a resumed batch does not know the keys of
+ * the input skipped from the checkpoint journal.
+ *
+ * Thread-safe. Keys are spread by hash over {@link DiskKeySet#SEGMENT_COUNT}
+ * stripes, each with its own Bloom filter and lock, the stripe of a key
+ * being the key set segment it goes to. Checking and recording a key only
+ * locks its stripe, so workers seeing keys of different stripes do not wait
+ * for each other, while two lines with the same key are still checked one
+ * after the other.
+ *
+ * @author ngiraud
+ *
+ */
+public class DuplicateFilter<L extends InputLine> {
+
+    private static final long DEFAULT_EXPECTED_KEYS = BatchExecutor.getInstance().getLongProperty(
+            DuplicateFilter.class, "expectedKeys", 10000000L);
+
+    private static final String FALSE_POSITIVE_RATE = BatchExecutor.getInstance().getProperty(
+            DuplicateFilter.class, "falsePositiveRate");
+
+    private static final boolean DEFAULT_EXACT = BatchExecutor.getInstance().getBoolProperty(
+            DuplicateFilter.class, "exact", false);
+
+    private static final String DEFAULT_DIRECTORY = BatchExecutor.getInstance().getProperty(
+            DuplicateFilter.class, "directory");
+
+    private final KeyExtractor<L> keyExtractor;
+
+    /**
+     * The Bloom filter of each stripe, also the stripe's lock.
+     */
+    private final BloomFilter[] bloomFilters = new BloomFilter[DiskKeySet.SEGMENT_COUNT];
+
+    /**
+     * Confirms probable duplicates, null unless exact.
+     */
+    private final DiskKeySet keySet;
+
+    private final String keySetDirectory;
+
+    private final AtomicLong duplicateCount = new AtomicLong(0L);
+
+    /**
+     * Probable duplicates the key set found to be new keys.
+     */
+    private final AtomicLong falsePositiveCount = new AtomicLong(0L);
+
+    /**
+     * @param keyExtractor extracts the key duplicates are identified by
+     * @param expectedKeys the number of distinct keys the Bloom filters are
+     * first sized for, they grow past it
+     * @param falsePositiveRate the false positive rate of the Bloom filter
+     * @param exact whether to confirm probable duplicates on disk
+     * @param directory where the key set files go if exact, null for the
+     * default temporary directory
+     * @throws BatchStateException
+     */
+    public DuplicateFilter(
+            KeyExtractor<L> keyExtractor,
+            long expectedKeys,
+            double falsePositiveRate,
+            boolean exact,
+            File directory) throws BatchStateException {
+        this.keyExtractor = keyExtractor;
+        long stripeKeys = Math.max(1L, expectedKeys / bloomFilters.length);
+        for (int i = 0; i < bloomFilters.length; i++) {
+            bloomFilters[i] = new BloomFilter(stripeKeys, falsePositiveRate);
+        }
+        this.keySetDirectory = (directory == null
+                ? System.getProperty("java.io.tmpdir") : directory.getAbsolutePath());
+        if (exact) {
+            try {
+                this.keySet = new DiskKeySet(directory);
+            } catch (final IOException e) {
+                throw BatchStateException.duplicateKeySetFailed(keySetDirectory, e);
+            }
+        } else {
+            this.keySet = null;
+        }
+
+        BatchExecutor.getInstance().logInfo("Dropping duplicate lines, "
+                + getBloomFilterByteSize() / 1024 + " KB Bloom filter for "
+                + expectedKeys + " keys"
+                + (exact ? ", confirmed by a key set in " + keySetDirectory + "." : "."));
+    }
+
+    public DuplicateFilter(KeyExtractor<L> keyExtractor) throws BatchStateException {
+        this(keyExtractor, DEFAULT_EXPECTED_KEYS,
+                (FALSE_POSITIVE_RATE == null ? 0.001 : Double.parseDouble(FALSE_POSITIVE_RATE)),
+                DEFAULT_EXACT,
+                (DEFAULT_DIRECTORY == null || DEFAULT_DIRECTORY.isEmpty()
+                        ? null : new File(DEFAULT_DIRECTORY)));
+    }
+
+    /**
+     * Records the key of a line.
+     * @param line the line
+     * @return true if a line with the same key was seen before.
+     * @throws BatchStateException if the key set cannot be accessed
+     */
+    public boolean isDuplicate(L line) throws BatchStateException {
+        String key = keyExtractor.extractKey(line);
+        long hash = BloomFilter.hash(key);
+        boolean duplicate;
+        BloomFilter stripe = bloomFilters[DiskKeySet.segmentOf(hash)];
+        synchronized (stripe) {
+            duplicate = !stripe.add(hash);
+            if (keySet != null) {
+                try {
+                    if (duplicate) {
+                        duplicate = !keySet.add(key, hash);
+                        if (!duplicate) {
+                            falsePositiveCount.incrementAndGet();
+                        }
+                    } else {
+                        keySet.addAbsent(key, hash);
+                    }
+                } catch (final IOException e) {
+                    throw BatchStateException.duplicateKeySetFailed(keySetDirectory, e);
+                }
+            }
+        }
+        if (duplicate) {
+            duplicateCount.incrementAndGet();
+        }
+        return duplicate;
+    }
+
+    /**
+     * @return the number of duplicates found so far.
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    /**
+     * @return the number of probable duplicates that turned out to be new
+     * keys, always 0 unless exact.
+     */
+    public long getFalsePositiveCount() {
+        return falsePositiveCount.get();
+    }
+
+    public boolean isExact() {
+        return keySet != null;
+    }
+
+    /**
+     * @return the off-heap memory used by the Bloom filters, in bytes.
+     */
+    private long getBloomFilterByteSize() {
+        long bytes = 0L;
+        for (BloomFilter b : bloomFilters) {
+            synchronized (b) {
+                bytes += b.getByteSize();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Logs the counts and deletes the key set files. Called once the workers
+     * are done.
+     * @throws BatchStateException
+     */
+    public void close() throws BatchStateException {
+        long keyCount = 0L;
+        for (BloomFilter b : bloomFilters) {
+            synchronized (b) {
+                keyCount += b.getKeyCount();
+            }
+        }
+        long falsePositives = falsePositiveCount.get();
+        BatchExecutor.getInstance().logInfo("Dropped " + duplicateCount.get()
+                + " duplicates of " + (keyCount + falsePositives) + " keys"
+                + (keySet != null ? ", " + falsePositives + " false positives avoided." : "."));
+        if (keySet != null) {
+            try {
+                keySet.close();
+            } catch (final IOException e) {
+                throw BatchStateException.duplicateKeySetFailed(keySetDirectory, e);
+            }
+        }
+    }
+
+}
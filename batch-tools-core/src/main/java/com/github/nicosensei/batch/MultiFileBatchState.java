@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.io.File;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.github.nicosensei.batch.input.InputLine;
+import com.github.nicosensei.batch.input.MultiFileReader;
+import com.github.nicosensei.batch.input.MultiFileReader.FileListener;
+import com.github.nicosensei.commons.utils.datatype.ByteCountFormatter;
+
+/**
+ * Progress of a batch reading several files with a {@link MultiFileReader},
+ * based on the total size of the files. Also tracks which files are being
+ * read and which are completed.
+ *
+ * @author ngiraud
+ *
+ */
+public class MultiFileBatchState extends ByteSizeBatchState
+implements FileListener {
+
+    private final int fileCount;
+
+    private final Set<File> filesInProgress = new LinkedHashSet<File>();
+
+    private final Set<File> filesCompleted = new LinkedHashSet<File>();
+
+    /**
+     * Builds the state and registers it as a listener of the reader.
+     * @param reader the batch input reader
+     */
+    public MultiFileBatchState(MultiFileReader<?> reader) {
+        super(reader.getTotalSize());
+        this.fileCount = reader.getFiles().size();
+        reader.addFileListener(this);
+    }
+
+    @Override
+    public synchronized void notifyLineProcessed(InputLine line) {
+        super.notifyLineProcessed(line);
+    }
+
+    @Override
+    public synchronized void fileStarted(File file) {
+        filesInProgress.add(file);
+    }
+
+    @Override
+    public synchronized void fileCompleted(File file) {
+        filesInProgress.remove(file);
+        filesCompleted.add(file);
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public synchronized int getCompletedFileCount() {
+        return filesCompleted.size();
+    }
+
+    /**
+     * @return the files being processed.
+     */
+    public synchronized File[] getFilesInProgress() {
+        return filesInProgress.toArray(new File[filesInProgress.size()]);
+    }
+
+    @Override
+    public synchronized void logStatus() {
+        BatchExecutor.getInstance().logInfo(
+                ByteCountFormatter.humanReadableByteCount(getUnitsProcessed())
+                + "/"
+                + ByteCountFormatter.humanReadableByteCount(getUnitsToProcess())
+                + " processed ("
+                + PERCENTAGE.format(getCompletionPercentage()) + "%), "
+                + filesCompleted.size() + "/" + fileCount + " files completed, "
+                + filesInProgress.size() + " in progress"
+                + getDuplicatesStatus() + ".");
+    }
+
+}
@@ -0,0 +1,363 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+
+import com.github.nicosensei.batch.input.InputLine;
+
+/**
+ * Processes the input lines through a chain of stages, for instance parse,
+ * transform then write, each stage having its own threads. Stages are
+ * connected by bounded queues, which items go through by batches of
+ * Pipeline.transferSize items, and which hold at most
+ * Pipeline.queueCapacity batches: a stage emitting faster than the next one
+ * consumes is held back once the queue between them is full, so that a slow
+ * sink does not let items pile up in memory.
+ *
+ * The workers of the batch are the source of the pipeline: a
+ * {@link PipelineWorker} emits the lines it reads to the first stage. The
+ * pipeline ends once the workers have ended and every stage has drained its
+ * queue. A fatal error in a stage cancels the pipeline and the workers.
+ *
+ * Stages are added before the pipeline starts. The items a stage emits must
+ * be of the type the next stage consumes, which is not checked.
+ *
+ * @author ngiraud
+ *
+ */
+public class Pipeline<L extends InputLine> {
+
+    private static final int DEFAULT_QUEUE_CAPACITY = BatchExecutor.getInstance().getIntProperty(
+            Pipeline.class, "queueCapacity", 16);
+
+    private static final int DEFAULT_TRANSFER_SIZE = BatchExecutor.getInstance().getIntProperty(
+            Pipeline.class, "transferSize", 256);
+
+    private final class Stage {
+
+        private final String name;
+
+        private final int threadCount;
+
+        private final PipelineStageFactory<Object, Object> factory;
+
+        private final StageQueue<Object> input;
+
+        /**
+         * The next stage's input, null for the last stage.
+         */
+        private StageQueue<Object> output = null;
+
+        private final List<StageThread> threads = new ArrayList<StageThread>();
+
+        private final AtomicInteger runningCount = new AtomicInteger(0);
+
+        private final AtomicLong emittedCount = new AtomicLong(0L);
+
+        private final AtomicLong errorCount = new AtomicLong(0L);
+
+        private volatile long startNanos = 0L;
+
+        private volatile long endNanos = 0L;
+
+        private Stage(
+                String name,
+                int threadCount,
+                PipelineStageFactory<Object, Object> factory,
+                StageQueue<Object> input) {
+            this.name = name;
+            this.threadCount = threadCount;
+            this.factory = factory;
+            this.input = input;
+        }
+
+        private void threadDone() {
+            if (runningCount.decrementAndGet() == 0) {
+                endNanos = System.nanoTime();
+            }
+        }
+
+        private void logStatistics() {
+            long end = endNanos > 0 ? endNanos : System.nanoTime();
+            long consumed = input.getItemCount();
+            double seconds = Math.max(1L, end - startNanos) / 1e9;
+            BatchExecutor.getInstance().logInfo(String.format(
+                    "Stage %s (%d thread%s): %d items in, %d out, %.0f items/s,"
+                    + " %d errors, input queue %.0f%% full on average,"
+                    + " waited %d ms for input, upstream waited %d ms for room.",
+                    name, threadCount, threadCount > 1 ? "s" : "",
+                    consumed, emittedCount.get(), consumed / seconds,
+                    errorCount.get(), input.getAverageOccupancy(),
+                    input.getConsumerWaitNanos() / 1000000L / threadCount,
+                    input.getProducerWaitNanos() / 1000000L));
+        }
+
+    }
+
+    private final class StageThread extends Thread {
+
+        private final Stage stage;
+
+        private StageThread(Stage stage, int index) {
+            super("Pipeline-" + stage.name + "-" + index);
+            this.stage = stage;
+        }
+
+        @Override
+        public void run() {
+            StageEmitter<Object> output = new StageEmitter<Object>(
+                    stage.output, transferSize);
+            try {
+                PipelineStage<Object, Object> instance = stage.factory.newStage();
+                List<Object> batch;
+                while (!cancelled && (batch = stage.input.take()) != null) {
+                    for (Object item : batch) {
+                        if (cancelled) {
+                            break;
+                        }
+                        process(instance, item, output);
+                    }
+                    output.flush();
+                }
+                if (!cancelled) {
+                    instance.stageComplete(output);
+                    output.flush();
+                }
+            } catch (final InterruptedException e) {
+                // Cancelled
+            } catch (final BatchException e) {
+                handleStageException(stage, e);
+            } catch (final RuntimeException e) {
+                handleStageException(stage,
+                        BatchStateException.pipelineStageFailed(stage.name, e));
+            } finally {
+                stage.emittedCount.addAndGet(output.getEmittedCount());
+                if (stage.output != null) {
+                    stage.output.producerDone();
+                }
+                stage.threadDone();
+            }
+        }
+
+        private void process(
+                PipelineStage<Object, Object> instance,
+                Object item,
+                StageEmitter<Object> output) throws BatchException {
+            try {
+                instance.process(item, output);
+            } catch (final BatchException e) {
+                if (Level.FATAL.equals(e.getCriticity())) {
+                    throw e;
+                }
+                handleStageException(stage, e);
+            } catch (final RuntimeException e) {
+                throw BatchStateException.pipelineStageFailed(stage.name, e);
+            }
+        }
+
+    }
+
+    private final List<Stage> stages = new ArrayList<Stage>();
+
+    private final int queueCapacity;
+
+    private final int transferSize;
+
+    /**
+     * The first stage's input.
+     */
+    private final StageQueue<Object> head;
+
+    private BatchState state;
+
+    private WorkerMonitor monitor;
+
+    private boolean started = false;
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param queueCapacity the maximum number of batches queued between
+     * two stages
+     * @param transferSize the number of items in a batch
+     */
+    public Pipeline(int queueCapacity, int transferSize) {
+        this.queueCapacity = queueCapacity;
+        this.transferSize = transferSize;
+        this.head = new StageQueue<Object>(queueCapacity, 1);
+    }
+
+    public Pipeline() {
+        this(DEFAULT_QUEUE_CAPACITY, DEFAULT_TRANSFER_SIZE);
+    }
+
+    /**
+     * Adds a stage after the last one.
+     * @param name the stage name, used in thread names and statistics
+     * @param threadCount the number of threads running the stage
+     * @param factory creates the stage instances, one per thread
+     * @return this pipeline.
+     */
+    @SuppressWarnings("unchecked")
+    public <I, O> Pipeline<L> addStage(
+            String name, int threadCount, PipelineStageFactory<I, O> factory) {
+        if (started) {
+            throw new IllegalStateException("Pipeline already started.");
+        }
+        if (threadCount < 1) {
+            throw new IllegalArgumentException(
+                    "Stage " + name + " needs at least one thread.");
+        }
+        StageQueue<Object> input = head;
+        if (!stages.isEmpty()) {
+            Stage previous = stages.get(stages.size() - 1);
+            input = new StageQueue<Object>(queueCapacity, previous.threadCount);
+            previous.output = input;
+        }
+        stages.add(new Stage(name, threadCount,
+                (PipelineStageFactory<Object, Object>) factory, input));
+        return this;
+    }
+
+    public int getStageCount() {
+        return stages.size();
+    }
+
+    /**
+     * @param index the index of a stage, in the order stages were added
+     * @return the stage name.
+     */
+    public String getStageName(int index) {
+        return stages.get(index).name;
+    }
+
+    /**
+     * @param index the index of a stage, in the order stages were added
+     * @return the number of items queued to the stage so far.
+     */
+    public long getStageInputCount(int index) {
+        return stages.get(index).input.getItemCount();
+    }
+
+    /**
+     * @param index the index of a stage, in the order stages were added
+     * @return the number of items the stage emitted so far.
+     */
+    public long getStageOutputCount(int index) {
+        return stages.get(index).emittedCount.get();
+    }
+
+    /**
+     * @param index the index of a stage, in the order stages were added
+     * @return the number of items the stage failed to process so far.
+     */
+    public long getStageErrorCount(int index) {
+        return stages.get(index).errorCount.get();
+    }
+
+    /**
+     * @return an output to the first stage, for a single source thread.
+     */
+    @SuppressWarnings("unchecked")
+    StageEmitter<L> openSource() {
+        return new StageEmitter<L>((StageQueue<L>) (StageQueue<?>) head, transferSize);
+    }
+
+    /**
+     * Starts the stage threads.
+     * @param state where stage errors are recorded
+     * @param monitor cancelled along with the pipeline
+     */
+    void start(BatchState state, WorkerMonitor monitor) {
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("Pipeline has no stage.");
+        }
+        this.state = state;
+        this.monitor = monitor;
+        this.started = true;
+        long now = System.nanoTime();
+        for (Stage stage : stages) {
+            stage.startNanos = now;
+            stage.runningCount.set(stage.threadCount);
+            for (int i = 0; i < stage.threadCount; i++) {
+                StageThread t = new StageThread(stage, i);
+                stage.threads.add(t);
+                t.start();
+            }
+        }
+    }
+
+    /**
+     * Called once the sources have flushed their last lines.
+     */
+    void sourcesDone() {
+        head.producerDone();
+    }
+
+    /**
+     * Waits until every stage has drained its input, or the pipeline was
+     * cancelled.
+     * @throws InterruptedException
+     */
+    void await() throws InterruptedException {
+        for (Stage stage : stages) {
+            for (StageThread t : stage.threads) {
+                t.join();
+            }
+        }
+    }
+
+    /**
+     * Stops the stages as soon as possible, dropping the queued items.
+     */
+    void cancel() {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+        }
+        BatchExecutor.getInstance().logInfo("Cancelling pipeline.");
+        for (Stage stage : stages) {
+            stage.input.cancel();
+            for (StageThread t : stage.threads) {
+                t.interrupt();
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void logStatistics() {
+        for (Stage stage : stages) {
+            stage.logStatistics();
+        }
+    }
+
+    private void handleStageException(Stage stage, BatchException e) {
+        BatchExecutor executor = BatchExecutor.getInstance();
+        executor.logError(e);
+        stage.errorCount.incrementAndGet();
+        if (state != null) {
+            state.notifyError(e);
+        }
+        if (Level.FATAL.equals(e.getCriticity())) {
+            executor.logInfo("Fatal error " + e.getClass().getSimpleName()
+                    + " in pipeline stage " + stage.name);
+            cancel();
+            if (monitor != null) {
+                monitor.cancel(null);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+/**
+ * Where a pipeline stage sends the items it produces, to the next stage.
+ *
+ * Items are handed over to the next stage in batches: emitting an item
+ * blocks while the queue to the next stage is full, which slows the stage
+ * down to the pace of the next one.
+ *
+ * Used by a single thread.
+ *
+ * @author ngiraud
+ *
+ */
+public interface PipelineOutput<O> {
+
+    /**
+     * Sends an item to the next stage. Items emitted after the pipeline was
+     * cancelled are dropped.
+     * @param item the item
+     */
+    void emit(O item);
+
+}
@@ -0,0 +1,39 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+/**
+ * A step of a {@link Pipeline}: consumes the items produced by the previous
+ * stage, or the input lines for the first stage, and emits items to the
+ * next one. The items emitted by the last stage are dropped.
+ *
+ * A stage has one instance per thread, created by its
+ * {@link PipelineStageFactory}, so it does not need to be thread-safe.
+ *
+ * @author ngiraud
+ *
+ */
+public abstract class PipelineStage<I, O> {
+
+    /**
+     * Processes an item.
+     * @param item the item to process
+     * @param output where to send the items produced, if any
+     * @throws BatchException a fatal error cancels the whole batch, other
+     * errors are recorded and the item is skipped.
+     */
+    protected abstract void process(I item, PipelineOutput<O> output)
+    throws BatchException;
+
+    /**
+     * Called once there are no more items for this stage instance, unless
+     * the pipeline was cancelled. Does nothing by default, sub-classes can
+     * override it to emit aggregates or close the resources they write to.
+     * @param output where to send the items produced, if any
+     * @throws BatchException
+     */
+    protected void stageComplete(PipelineOutput<O> output) throws BatchException {
+    }
+
+}
@@ -0,0 +1,16 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+/**
+ * Creates the instances of a {@link PipelineStage}, one per stage thread.
+ *
+ * @author ngiraud
+ *
+ */
+public interface PipelineStageFactory<I, O> {
+
+    PipelineStage<I, O> newStage() throws BatchException;
+
+}
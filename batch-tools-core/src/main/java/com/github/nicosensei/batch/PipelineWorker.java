@@ -0,0 +1,42 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import com.github.nicosensei.batch.input.InputFileReader;
+import com.github.nicosensei.batch.input.InputLine;
+
+/**
+ * A worker feeding the lines it reads to the first stage of a
+ * {@link Pipeline}, by batches flushed at least once per section. Lines
+ * are reported as processed once handed over to the pipeline.
+ *
+ * @author ngiraud
+ *
+ */
+public class PipelineWorker<L extends InputLine> extends Worker<L> {
+
+    private final StageEmitter<L> output;
+
+    public PipelineWorker(
+            InputFileReader<L> input, BatchState state, Pipeline<L> pipeline) {
+        super(input, state);
+        this.output = pipeline.openSource();
+    }
+
+    @Override
+    protected void processLine(L line) throws BatchException {
+        output.emit(line);
+    }
+
+    @Override
+    protected void sectionComplete() throws BatchException {
+        output.flush();
+    }
+
+    @Override
+    protected void jobComplete() throws BatchException {
+        output.flush();
+    }
+
+}
@@ -8,7 +8,7 @@ import java.io.StringWriter;
 import java.util.LinkedList;
 import java.util.List;
 
-import com.github.nicosensei.batch.input.AbstractInputFileReader;
+import com.github.nicosensei.batch.input.InputFileReader;
 import com.github.nicosensei.batch.input.InputLine;
 
 
@@ -26,7 +26,7 @@ public abstract class ResultFileBatchWorker<L extends InputLine> extends Worker<
      * @param state
      */
     protected ResultFileBatchWorker(
-            AbstractInputFileReader<L> input, BatchState state) {
+            InputFileReader<L> input, BatchState state) {
         super(input, state);
     }
 
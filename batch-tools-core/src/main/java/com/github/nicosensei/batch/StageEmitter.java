@@ -0,0 +1,71 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buffers the items emitted by a thread and queues them by batches to the
+ * next pipeline stage. Drops them if there is no next stage.
+ *
+ * Not synchronized.
+ *
+ * @author ngiraud
+ *
+ */
+final class StageEmitter<T> implements PipelineOutput<T> {
+
+    /**
+     * The next stage's queue, null if there is none.
+     */
+    private final StageQueue<T> queue;
+
+    private final int transferSize;
+
+    private List<T> buffer;
+
+    private long emittedCount = 0L;
+
+    StageEmitter(StageQueue<T> queue, int transferSize) {
+        this.queue = queue;
+        this.transferSize = Math.max(1, transferSize);
+        this.buffer = new ArrayList<T>(this.transferSize);
+    }
+
+    @Override
+    public void emit(T item) {
+        emittedCount++;
+        if (queue == null) {
+            return;
+        }
+        buffer.add(item);
+        if (buffer.size() >= transferSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Queues the buffered items, waiting for room in the queue. The items
+     * are dropped if the thread is interrupted.
+     */
+    void flush() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        List<T> batch = buffer;
+        buffer = new ArrayList<T>(transferSize);
+        try {
+            queue.put(batch);
+        } catch (final InterruptedException e) {
+            // Cancelled
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    long getEmittedCount() {
+        return emittedCount;
+    }
+
+}
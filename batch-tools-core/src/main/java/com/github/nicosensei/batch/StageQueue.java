@@ -0,0 +1,150 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue of item batches between two pipeline stages. Producers
+ * block while it is full, and consumers while it is empty. It ends once
+ * all its producers are done and it has been drained.
+ *
+ * Keeps track of how full it is and how long producers and consumers
+ * waited on it.
+ *
+ * Thread-safe.
+ *
+ * @author ngiraud
+ *
+ */
+final class StageQueue<T> {
+
+    /**
+     * Marks the end of the queue, put back by each consumer reaching it
+     * so that the next one also sees it.
+     */
+    private final List<T> end = new ArrayList<T>(0);
+
+    private final BlockingQueue<List<T>> batches;
+
+    private final int capacity;
+
+    private final AtomicInteger producerCount;
+
+    private final AtomicLong itemCount = new AtomicLong(0L);
+
+    private final AtomicLong batchCount = new AtomicLong(0L);
+
+    /**
+     * The sum of the number of batches queued, sampled on each put.
+     */
+    private final AtomicLong occupancySum = new AtomicLong(0L);
+
+    private final AtomicLong producerWaitNanos = new AtomicLong(0L);
+
+    private final AtomicLong consumerWaitNanos = new AtomicLong(0L);
+
+    /**
+     * @param capacity the maximum number of batches queued
+     * @param producerCount the number of producers, each calling
+     * {@link #producerDone()} once
+     */
+    StageQueue(int capacity, int producerCount) {
+        this.capacity = Math.max(1, capacity);
+        this.batches = new ArrayBlockingQueue<List<T>>(this.capacity);
+        this.producerCount = new AtomicInteger(producerCount);
+    }
+
+    /**
+     * Queues a batch, waiting for room if the queue is full.
+     * @throws InterruptedException
+     */
+    void put(List<T> batch) throws InterruptedException {
+        occupancySum.addAndGet(batches.size());
+        if (!batches.offer(batch)) {
+            long start = System.nanoTime();
+            batches.put(batch);
+            producerWaitNanos.addAndGet(System.nanoTime() - start);
+        }
+        batchCount.incrementAndGet();
+        itemCount.addAndGet(batch.size());
+    }
+
+    /**
+     * Takes a batch, waiting for one if the queue is empty.
+     * @return the batch, or null once the queue has ended.
+     * @throws InterruptedException
+     */
+    List<T> take() throws InterruptedException {
+        List<T> batch = batches.poll();
+        if (batch == null) {
+            long start = System.nanoTime();
+            batch = batches.take();
+            consumerWaitNanos.addAndGet(System.nanoTime() - start);
+        }
+        if (batch == end) {
+            // Room was just made for it
+            batches.offer(end);
+            return null;
+        }
+        return batch;
+    }
+
+    /**
+     * Called once by each producer, the queue ends after the last one.
+     */
+    void producerDone() {
+        if (producerCount.decrementAndGet() > 0) {
+            return;
+        }
+        try {
+            batches.put(end);
+        } catch (final InterruptedException e) {
+            // Cancelled, the queue is ended by cancel()
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drops the queued batches and ends the queue.
+     */
+    void cancel() {
+        batches.clear();
+        batches.offer(end);
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getItemCount() {
+        return itemCount.get();
+    }
+
+    /**
+     * @return how full the queue was on average when batches were put, as
+     * a percentage of its capacity.
+     */
+    double getAverageOccupancy() {
+        long count = batchCount.get();
+        if (count == 0) {
+            return 0d;
+        }
+        return 100d * occupancySum.get() / (count * capacity);
+    }
+
+    long getProducerWaitNanos() {
+        return producerWaitNanos.get();
+    }
+
+    long getConsumerWaitNanos() {
+        return consumerWaitNanos.get();
+    }
+
+}
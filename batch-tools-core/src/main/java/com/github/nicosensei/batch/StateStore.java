@@ -0,0 +1,350 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.github.nicosensei.commons.exceptions.Unexpected;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.Durability;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+import com.sleepycat.je.Transaction;
+
+/**
+ * A key/value store on disk, in an embedded Berkeley DB environment, for
+ * worker state larger than the heap.
+ *
+ * The environment goes to a new directory in StateStore.directory, or in the
+ * default temporary directory, which is registered for cleanup: the store
+ * only lives as long as the batch. Its cache takes StateStore.cacheSizeInMb
+ * of heap.
+ *
+ * Each worker accesses the store through its own {@link Session}, which
+ * buffers the writes of a section and applies them in a single transaction
+ * when the section is complete, and caches the values it read. A commit is
+ * atomic, but not durable: transactions are not synced to disk, since the
+ * store does not outlive the batch anyway. Reads only see committed values.
+ *
+ * Thread-safe.
+ *
+ * @author ngiraud
+ *
+ */
+public class StateStore {
+
+    private static final String DEFAULT_DIRECTORY = BatchExecutor.getInstance().getProperty(
+            StateStore.class, "directory");
+
+    private static final int DEFAULT_CACHE_SIZE_IN_MB = BatchExecutor.getInstance().getIntProperty(
+            StateStore.class, "cacheSizeInMb", 64);
+
+    private static final int DEFAULT_SESSION_CACHE_ENTRIES = BatchExecutor.getInstance().getIntProperty(
+            StateStore.class, "sessionCacheEntries", 10000);
+
+    private static final String DATABASE_NAME = "state";
+
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * Marks a deleted or absent key in the session buffers.
+     */
+    private static final byte[] ABSENT = new byte[0];
+
+    /**
+     * The access to the store of a single thread. Writes are buffered until
+     * {@link #commit()}, and values read are kept in a least recently used
+     * cache of StateStore.sessionCacheEntries entries.
+     *
+     * The cache is not told about writes made by other sessions, so several
+     * sessions should not update the same keys: route lines to workers by
+     * key, see {@link Batch#getRoutingKeyExtractor()}, or disable the cache.
+     *
+     * Values are not copied, they must not be modified once put or read.
+     *
+     * Not thread-safe.
+     */
+    public final class Session {
+
+        /**
+         * Writes not committed yet, in order, deletions as {@link #ABSENT}.
+         */
+        private final Map<String, byte[]> pending = new LinkedHashMap<String, byte[]>();
+
+        private final Map<String, byte[]> cache;
+
+        private Session(final int cacheEntries) {
+            this.cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                    return size() > cacheEntries;
+                }
+            };
+        }
+
+        /**
+         * @param key a key
+         * @return the value of the key, as written by this session if not
+         * committed yet, null if there is none.
+         * @throws BatchStateException
+         */
+        public byte[] get(String key) throws BatchStateException {
+            byte[] value = pending.get(key);
+            if (value == null) {
+                value = cache.get(key);
+            }
+            if (value == null) {
+                value = read(key);
+                cache.put(key, (value == null ? ABSENT : value));
+            }
+            return (value == ABSENT ? null : value);
+        }
+
+        public void put(String key, byte[] value) {
+            pending.put(key, value);
+        }
+
+        public void delete(String key) {
+            pending.put(key, ABSENT);
+        }
+
+        public String getString(String key) throws BatchStateException {
+            byte[] value = get(key);
+            return (value == null ? null : decode(value));
+        }
+
+        public void putString(String key, String value) {
+            put(key, encode(value));
+        }
+
+        /**
+         * @return the long value of the key, 0 if there is none.
+         * @throws BatchStateException if the value is not a long
+         */
+        public long getLong(String key) throws BatchStateException {
+            byte[] value = get(key);
+            if (value == null) {
+                return 0L;
+            }
+            if (value.length != 8) {
+                throw BatchStateException.invalidStateValue(key, value.length);
+            }
+            long l = 0L;
+            for (int i = 0; i < 8; i++) {
+                l = (l << 8) | (value[i] & 0xFF);
+            }
+            return l;
+        }
+
+        public void putLong(String key, long value) {
+            byte[] bytes = new byte[8];
+            for (int i = 7; i >= 0; i--) {
+                bytes[i] = (byte) value;
+                value >>>= 8;
+            }
+            put(key, bytes);
+        }
+
+        /**
+         * Adds to the long value of a key.
+         * @return the new value.
+         * @throws BatchStateException
+         */
+        public long add(String key, long delta) throws BatchStateException {
+            long value = getLong(key) + delta;
+            putLong(key, value);
+            return value;
+        }
+
+        /**
+         * @return the number of writes not committed yet.
+         */
+        public int getPendingWriteCount() {
+            return pending.size();
+        }
+
+        /**
+         * Applies the buffered writes to the store, all of them or, if it
+         * fails, none. The writes are then still buffered.
+         * @throws BatchStateException
+         */
+        public void commit() throws BatchStateException {
+            if (pending.isEmpty()) {
+                return;
+            }
+            write(pending);
+            for (Map.Entry<String, byte[]> e : pending.entrySet()) {
+                cache.put(e.getKey(), e.getValue());
+            }
+            pending.clear();
+        }
+
+        /**
+         * Discards the buffered writes.
+         */
+        public void rollback() {
+            pending.clear();
+        }
+
+    }
+
+    private final File directory;
+
+    private final Environment environment;
+
+    private final Database database;
+
+    private final int sessionCacheEntries;
+
+    /**
+     * @param directory the directory to create the store in, null for the
+     * default temporary directory
+     * @param cacheSizeInMb the size of the environment cache
+     * @param sessionCacheEntries the number of values cached by each session
+     * @throws BatchStateException
+     */
+    public StateStore(File directory, int cacheSizeInMb, int sessionCacheEntries)
+    throws BatchStateException {
+        this.sessionCacheEntries = Math.max(0, sessionCacheEntries);
+        try {
+            File dir = File.createTempFile("state", ".bdb", directory);
+            if (!dir.delete() || !dir.mkdir()) {
+                throw new IOException("Cannot create directory " + dir);
+            }
+            this.directory = dir;
+        } catch (final IOException e) {
+            throw BatchStateException.stateStoreFailed(
+                    (directory == null ? System.getProperty("java.io.tmpdir")
+                            : directory.getAbsolutePath()), e);
+        }
+        BatchExecutor.getInstance().registerFileForCleanup(this.directory);
+
+        try {
+            EnvironmentConfig envConfig = new EnvironmentConfig();
+            envConfig.setAllowCreate(true);
+            envConfig.setTransactional(true);
+            envConfig.setDurability(Durability.COMMIT_NO_SYNC);
+            envConfig.setCacheSize(1024L * 1024L * cacheSizeInMb);
+            this.environment = new Environment(this.directory, envConfig);
+
+            DatabaseConfig dbConfig = new DatabaseConfig();
+            dbConfig.setAllowCreate(true);
+            dbConfig.setTransactional(true);
+            this.database = environment.openDatabase(null, DATABASE_NAME, dbConfig);
+        } catch (final DatabaseException e) {
+            throw BatchStateException.stateStoreFailed(this.directory.getAbsolutePath(), e);
+        }
+
+        BatchExecutor.getInstance().logInfo("State store opened in "
+                + this.directory.getAbsolutePath());
+    }
+
+    public StateStore() throws BatchStateException {
+        this((DEFAULT_DIRECTORY == null || DEFAULT_DIRECTORY.isEmpty()
+                ? null : new File(DEFAULT_DIRECTORY)),
+                DEFAULT_CACHE_SIZE_IN_MB, DEFAULT_SESSION_CACHE_ENTRIES);
+    }
+
+    /**
+     * @return a new session, to be used by the calling thread only.
+     */
+    public Session openSession() {
+        return new Session(sessionCacheEntries);
+    }
+
+    /**
+     * @return the number of keys in the store.
+     * @throws BatchStateException
+     */
+    public long count() throws BatchStateException {
+        try {
+            return database.count();
+        } catch (final DatabaseException e) {
+            throw BatchStateException.stateStoreFailed(directory.getAbsolutePath(), e);
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Closes the store. Its files are deleted with the other registered
+     * files.
+     * @throws BatchStateException
+     */
+    public void close() throws BatchStateException {
+        try {
+            database.close();
+            environment.close();
+        } catch (final DatabaseException e) {
+            throw BatchStateException.stateStoreFailed(directory.getAbsolutePath(), e);
+        }
+    }
+
+    private byte[] read(String key) throws BatchStateException {
+        DatabaseEntry value = new DatabaseEntry();
+        try {
+            OperationStatus status = database.get(
+                    null, new DatabaseEntry(encode(key)), value, LockMode.READ_COMMITTED);
+            return (OperationStatus.SUCCESS.equals(status) ? value.getData() : null);
+        } catch (final DatabaseException e) {
+            throw BatchStateException.stateStoreFailed(directory.getAbsolutePath(), e);
+        }
+    }
+
+    private void write(Map<String, byte[]> writes) throws BatchStateException {
+        Transaction txn = null;
+        try {
+            txn = environment.beginTransaction(null, null);
+            for (Map.Entry<String, byte[]> e : writes.entrySet()) {
+                DatabaseEntry key = new DatabaseEntry(encode(e.getKey()));
+                if (e.getValue() == ABSENT) {
+                    database.delete(txn, key);
+                } else {
+                    database.put(txn, key, new DatabaseEntry(e.getValue()));
+                }
+            }
+            txn.commit();
+            txn = null;
+        } catch (final DatabaseException e) {
+            throw BatchStateException.stateStoreFailed(directory.getAbsolutePath(), e);
+        } finally {
+            if (txn != null) {
+                try {
+                    txn.abort();
+                } catch (final DatabaseException e) {
+                    BatchExecutor.getInstance().logError(e);
+                }
+            }
+        }
+    }
+
+    private static byte[] encode(String s) {
+        try {
+            return s.getBytes(ENCODING);
+        } catch (final UnsupportedEncodingException e) {
+            throw new Unexpected(e);
+        }
+    }
+
+    private static String decode(byte[] b) {
+        try {
+            return new String(b, ENCODING);
+        } catch (final UnsupportedEncodingException e) {
+            throw new Unexpected(e);
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads when the JVM supports them (Java 21 and later),
+ * through reflection since the sources target older JVMs.
+ *
+ * @author ngiraud
+ *
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @param namePrefix the prefix of the thread names, followed by a counter
+     * @return a factory of unstarted virtual threads, or null if the JVM has
+     * no virtual threads.
+     */
+    static ThreadFactory factory(String namePrefix) {
+        try {
+            // Thread.ofVirtual().name(namePrefix, 0).factory()
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, namePrefix, 0L);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (final NoSuchMethodException e) {
+            return null;
+        } catch (final ClassNotFoundException e) {
+            return null;
+        } catch (final IllegalAccessException e) {
+            return null;
+        } catch (final InvocationTargetException e) {
+            // Preview feature not enabled
+            return null;
+        }
+    }
+
+}
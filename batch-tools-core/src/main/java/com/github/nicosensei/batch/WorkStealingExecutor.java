@@ -0,0 +1,373 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.nicosensei.batch.input.InputFileException;
+import com.github.nicosensei.batch.input.InputFileReader;
+import com.github.nicosensei.batch.input.InputFileSection;
+import com.github.nicosensei.batch.input.InputLine;
+
+/**
+ * Runs the workers of a batch as tasks on a pool of threads that steal work
+ * from each other, instead of as threads each processing whole sections.
+ *
+ * Each pool thread has a {@link Worker} as processing context, whose hooks
+ * it calls, and a deque of tasks, a task being a range of the lines of a
+ * section. A thread with no task takes the oldest task of another thread,
+ * or reads a new section from the input when there is none. While a thread
+ * processes a task of at least twice WorkStealingExecutor.minSplitLines
+ * lines, it hands the second half over to its deque whenever another thread
+ * is idle, so that a large section ends up processed by all the threads
+ * instead of holding back the end of the batch.
+ *
+ * Each thread reads until the input tells it there is no more input for it,
+ * which for a reader handing each thread its own part of the input, like a
+ * {@link com.github.nicosensei.batch.input.SplittingFileReader}, does not
+ * mean the other threads are done reading. The input is exhausted once every
+ * thread has seen its end, and the threads stop once it is and all the tasks
+ * are processed.
+ *
+ * A section may thus be processed by several workers: each calls
+ * {@link Worker#sectionComplete()} once it is done with its part, so that
+ * hook is called once per part rather than once per section, see there. The
+ * section is checkpointed once all the parts are complete, and only if
+ * they all succeeded.
+ *
+ * @author ngiraud
+ *
+ */
+public class WorkStealingExecutor<L extends InputLine> {
+
+    private static final int DEFAULT_MIN_SPLIT_LINES = BatchExecutor.getInstance().getIntProperty(
+            WorkStealingExecutor.class, "minSplitLines", 64);
+
+    /**
+     * How long an idle thread waits before looking for work again, in
+     * case it was not notified.
+     */
+    private static final long IDLE_WAIT_MILLIS = 50L;
+
+    /**
+     * A section being processed.
+     */
+    private final class SectionTask {
+
+        private final InputFileSection<L> section;
+
+        /**
+         * The lines to process, as pre-processed.
+         */
+        private final List<L> lines;
+
+        /**
+         * The number of parts not complete yet.
+         */
+        private final AtomicInteger pendingParts = new AtomicInteger(1);
+
+        private volatile boolean failed = false;
+
+        private SectionTask(InputFileSection<L> section, List<L> lines) {
+            this.section = section;
+            this.lines = lines;
+        }
+
+    }
+
+    /**
+     * A range of the lines of a section.
+     */
+    private final class Part {
+
+        private final SectionTask task;
+        private final int from;
+        private final int to;
+
+        private Part(SectionTask task, int from, int to) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+        }
+
+    }
+
+    private final class PoolThread extends Thread {
+
+        private final Worker<L> worker;
+
+        private final LinkedBlockingDeque<Part> deque = new LinkedBlockingDeque<Part>();
+
+        /**
+         * Whether this thread has seen the end of the input.
+         */
+        private boolean inputDone = false;
+
+        private PoolThread(int index, Worker<L> worker) {
+            super(WorkStealingExecutor.class.getSimpleName() + "-" + index);
+            this.worker = worker;
+            worker.setRunner(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (worker.isActive()) {
+                    Part part = deque.pollLast();
+                    if (part == null) {
+                        part = steal();
+                    }
+                    if (part == null && !inputDone) {
+                        part = read();
+                    }
+                    if (part != null) {
+                        process(part);
+                    } else if (inputExhausted && outstandingParts.get() == 0) {
+                        break;
+                    } else {
+                        idle();
+                    }
+                }
+                worker.completeJob();
+            } finally {
+                monitor.workerDone(worker);
+            }
+        }
+
+        private Part steal() {
+            int start = (int) (stealCursor.incrementAndGet() % threads.size());
+            for (int i = 0; i < threads.size(); i++) {
+                PoolThread victim = threads.get((start + i) % threads.size());
+                if (victim != this) {
+                    Part part = victim.deque.pollFirst();
+                    if (part != null) {
+                        stolenParts.incrementAndGet();
+                        return part;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Reads a section and makes a part of all its lines.
+         */
+        private Part read() {
+            // Counted before the end of the input may be seen, so that
+            // other threads do not stop while this part is on its way
+            outstandingParts.incrementAndGet();
+            InputFileSection<L> section;
+            try {
+                section = input.readSection();
+            } catch (final InputFileException e) {
+                outstandingParts.decrementAndGet();
+                worker.handleBatchException(e);
+                return null;
+            }
+            if (section.noMoreInput()) {
+                inputDone = true;
+                if (inputDoneThreads.incrementAndGet() == threads.size()) {
+                    inputExhausted = true;
+                    wakeUp();
+                }
+            }
+            List<L> lines;
+            try {
+                lines = worker.preProcessSection(section);
+            } catch (final BatchException e) {
+                worker.handleBatchException(e);
+                state.notifySectionProcessed(section);
+                section.recycle();
+                if (outstandingParts.decrementAndGet() == 0 && inputExhausted) {
+                    wakeUp();
+                }
+                return null;
+            }
+            SectionTask task = new SectionTask(section, lines);
+            return new Part(task, 0, lines.size());
+        }
+
+        private void process(Part part) {
+            SectionTask task = part.task;
+            int from = part.from;
+            int to = part.to;
+            long start = System.nanoTime();
+            try {
+                while (from < to) {
+                    if (idleThreads.get() > 0 && to - from >= 2 * minSplitLines) {
+                        int middle = (from + to) >>> 1;
+                        task.pendingParts.incrementAndGet();
+                        outstandingParts.incrementAndGet();
+                        deque.addLast(new Part(task, middle, to));
+                        splitParts.incrementAndGet();
+                        wakeUp();
+                        to = middle;
+                    }
+                    int end = Math.min(to, from + minSplitLines);
+                    if (!worker.processLines(task.lines, from, end)) {
+                        // Cancelled
+                        task.failed = true;
+                        worker.abandonSection();
+                        return;
+                    }
+                    from = end;
+                }
+                worker.completeSection(to - part.from, System.nanoTime() - start);
+            } catch (final BatchException e) {
+                task.failed = true;
+                worker.abandonSection();
+                worker.handleBatchException(e);
+            } finally {
+                partDone(part, worker);
+            }
+        }
+
+        private void idle() {
+            idleThreads.incrementAndGet();
+            try {
+                synchronized (signal) {
+                    signal.wait(IDLE_WAIT_MILLIS);
+                }
+            } catch (final InterruptedException e) {
+                // Cancelled, or woken up
+            } finally {
+                idleThreads.decrementAndGet();
+            }
+        }
+
+    }
+
+    private final InputFileReader<L> input;
+
+    private final BatchState state;
+
+    private final WorkerMonitor monitor;
+
+    private final int minSplitLines;
+
+    private final List<PoolThread> threads = new ArrayList<PoolThread>();
+
+    /**
+     * Idle threads wait on it for work.
+     */
+    private final Object signal = new Object();
+
+    private final AtomicInteger idleThreads = new AtomicInteger(0);
+
+    /**
+     * The number of parts queued or being processed.
+     */
+    private final AtomicInteger outstandingParts = new AtomicInteger(0);
+
+    /**
+     * The number of threads that have seen the end of the input.
+     */
+    private final AtomicInteger inputDoneThreads = new AtomicInteger(0);
+
+    private final AtomicLong stealCursor = new AtomicLong(0L);
+
+    private final AtomicLong splitParts = new AtomicLong(0L);
+
+    private final AtomicLong stolenParts = new AtomicLong(0L);
+
+    /**
+     * Whether every thread has seen the end of the input.
+     */
+    private volatile boolean inputExhausted = false;
+
+    /**
+     * @param input the reader to read sections from
+     * @param workers the processing contexts, one per pool thread, not
+     * started and already registered with the monitor
+     * @param state the batch state
+     * @param monitor told when each worker is done
+     * @param minSplitLines the smallest number of lines split from a task
+     */
+    WorkStealingExecutor(
+            InputFileReader<L> input,
+            List<? extends Worker<L>> workers,
+            BatchState state,
+            WorkerMonitor monitor,
+            int minSplitLines) {
+        this.input = input;
+        this.state = state;
+        this.monitor = monitor;
+        this.minSplitLines = Math.max(1, minSplitLines);
+        for (Worker<L> w : workers) {
+            threads.add(new PoolThread(threads.size(), w));
+        }
+    }
+
+    WorkStealingExecutor(
+            InputFileReader<L> input,
+            List<? extends Worker<L>> workers,
+            BatchState state,
+            WorkerMonitor monitor) {
+        this(input, workers, state, monitor, DEFAULT_MIN_SPLIT_LINES);
+    }
+
+    /**
+     * Starts the pool threads.
+     */
+    void start() {
+        for (PoolThread t : threads) {
+            t.start();
+        }
+        BatchExecutor.getInstance().logInfo("Started " + threads.size()
+                + " work stealing threads, splitting tasks down to "
+                + minSplitLines + " lines.");
+    }
+
+    /**
+     * @return the number of tasks split off a larger one.
+     */
+    public long getSplitCount() {
+        return splitParts.get();
+    }
+
+    /**
+     * @return the number of tasks taken from another thread.
+     */
+    public long getStealCount() {
+        return stolenParts.get();
+    }
+
+    public void logStatistics() {
+        BatchExecutor.getInstance().logInfo("Work stealing: " + getSplitCount()
+                + " tasks split, " + getStealCount() + " stolen, "
+                + idleThreads.get() + " threads idle.");
+    }
+
+    /**
+     * Completes the section once its last part is done.
+     */
+    private void partDone(Part part, Worker<L> worker) {
+        SectionTask task = part.task;
+        if (task.pendingParts.decrementAndGet() == 0) {
+            if (!task.failed) {
+                try {
+                    worker.checkpoint(task.section);
+                } catch (final BatchException e) {
+                    worker.handleBatchException(e);
+                }
+            }
+            state.notifySectionProcessed(task.section);
+            task.section.recycle();
+        }
+        if (outstandingParts.decrementAndGet() == 0 && inputExhausted) {
+            wakeUp();
+        }
+    }
+
+    private void wakeUp() {
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+}
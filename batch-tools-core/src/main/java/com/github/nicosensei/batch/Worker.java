@@ -11,9 +11,23 @@ import com.github.nicosensei.batch.input.InputFileException;
 import com.github.nicosensei.batch.input.InputFileReader;
 import com.github.nicosensei.batch.input.InputFileSection;
 import com.github.nicosensei.batch.input.InputLine;
+import com.github.nicosensei.batch.input.SectionSizer;
+import com.github.nicosensei.batch.input.ThreadBoundInputFileReader;
 
 
 /**
+ * Processes sections of the input. By default a worker is a thread reading
+ * and processing sections until the input is exhausted. When the batch uses
+ * a {@link WorkStealingExecutor}, the worker is not started: it is the
+ * processing context of one of the pool threads, whose hooks are called by
+ * that thread only.
+ *
+ * With work stealing, a section may be split in parts processed by several
+ * workers, so the hooks of one worker do not see a whole section: a worker
+ * calls {@link #preProcessSection(InputFileSection)} for the sections it
+ * reads, {@link #processLine(InputLine)} for the lines of the parts it
+ * processes, and {@link #sectionComplete()} once for each part, see there.
+ *
  * @author ngiraud
  *
  */
@@ -25,7 +39,52 @@ public abstract class Worker<L extends InputLine> extends Thread {
 
     protected BatchExecutor executor;
 
-    private boolean alive = true;
+    private volatile boolean alive = true;
+
+    /**
+     * Set to stop the worker once its current section is complete.
+     */
+    private volatile boolean retired = false;
+
+    /**
+     * Set once {@link #run()} returned.
+     */
+    private volatile boolean ended = false;
+
+    /**
+     * Told when this worker ends or fails fatally, null if not monitored.
+     */
+    private WorkerMonitor monitor = null;
+
+    /**
+     * Where completed sections are recorded, null if checkpointing is disabled.
+     */
+    private CheckpointJournal checkpointJournal = null;
+
+    /**
+     * Told how long sections take to process, null if sections have a fixed size.
+     */
+    private SectionSizer sectionSizer = null;
+
+    /**
+     * Tells which lines are duplicates to drop, null if none are dropped.
+     */
+    private DuplicateFilter<L> duplicateFilter = null;
+
+    /**
+     * The store worker state goes to, null if the batch has none.
+     */
+    private StateStore stateStore = null;
+
+    /**
+     * This worker's access to the state store, opened on first use.
+     */
+    private StateStore.Session stateSession = null;
+
+    /**
+     * The thread running this worker's hooks, interrupted on cancel.
+     */
+    private volatile Thread runner = this;
 
     protected Worker(InputFileReader<L> input, BatchState state) {
         this.input = input;
@@ -38,10 +97,22 @@ public abstract class Worker<L extends InputLine> extends Thread {
      */
     @Override
     public void run() {
-        while (alive) {
+        try {
+            work();
+        } finally {
+            ended = true;
+            if (monitor != null) {
+                monitor.workerDone(this);
+            }
+        }
+    }
+
+    private void work() {
+        while (alive && !(retired && releaseInput())) {
 
             // Read a section from the input file
             InputFileSection<L> section = null;
+            long readStart = System.nanoTime();
             try {
                 section = input.readSection();
             } catch (InputFileException e) {
@@ -49,41 +120,251 @@ public abstract class Worker<L extends InputLine> extends Thread {
             	continue;
             }
 
+            boolean noMoreInput = section.noMoreInput();
+            if (monitor != null) {
+                monitor.sectionRead(System.nanoTime() - readStart, noMoreInput);
+            }
+            int lineCount = section.getLines().size();
+            long startTime = System.nanoTime();
             try {
                 // Process it
-                for (L line : preProcessSection(section)) {
-                    processLine(line);
-                    state.notifyLineProcessed(line);
+                List<L> lines = preProcessSection(section);
+                if (!processLines(lines, 0, lines.size())) {
+                    // Cancelled, the section is left incomplete
+                    abandonSection();
+                    break;
                 }
-
-                sectionComplete();
+                completeSection(lineCount, System.nanoTime() - startTime);
+                checkpoint(section);
             } catch (BatchException e) {
+                abandonSection();
                 handleBatchException(e);
+            } finally {
+                state.notifySectionProcessed(section);
+                section.recycle();
             }
 
             // Stop if there's no more input available
-            if (section.noMoreInput()) {
+            if (noMoreInput) {
                 break;
             }
         }
+        if (!alive) {
+            releaseInput();
+        }
+        completeJob();
+    }
+
+    /**
+     * Hands the part of the input bound to this worker's thread, if any,
+     * back to the other workers before this worker stops early.
+     * @return false if the worker should read on, as no other worker would
+     * read its part.
+     */
+    private boolean releaseInput() {
+        if (!(input instanceof ThreadBoundInputFileReader)) {
+            return true;
+        }
+        try {
+            return ((ThreadBoundInputFileReader<L>) input).release();
+        } catch (final InputFileException e) {
+            handleBatchException(e);
+            return true;
+        }
+    }
+
+    /**
+     * Processes lines of a section.
+     * @param lines the lines returned by {@link #preProcessSection(InputFileSection)}
+     * @param from the index of the first line to process
+     * @param to the index after the last line to process
+     * @return false if the worker was cancelled before the last line.
+     * @throws BatchException
+     */
+    final boolean processLines(List<L> lines, int from, int to) throws BatchException {
+        for (L line : lines.subList(from, to)) {
+            if (!alive) {
+                return false;
+            }
+            if (duplicateFilter != null && duplicateFilter.isDuplicate(line)) {
+                state.notifyDuplicateDropped(line);
+                continue;
+            }
+            processLine(line);
+            state.notifyLineProcessed(line);
+        }
+        return alive;
+    }
+
+    /**
+     * Completes the processing of lines, commits the state they produced
+     * and reports the time they took.
+     * @param lineCount the number of lines processed
+     * @param nanos the time they took
+     * @throws BatchException
+     */
+    final void completeSection(int lineCount, long nanos) throws BatchException {
+        sectionComplete();
+        if (stateSession != null) {
+            stateSession.commit();
+        }
+        if (monitor != null) {
+            monitor.linesProcessed(lineCount);
+        }
+        if (sectionSizer != null) {
+            sectionSizer.sectionProcessed(lineCount, nanos);
+        }
+    }
+
+    /**
+     * Discards the state produced by lines left incomplete.
+     */
+    final void abandonSection() {
+        if (stateSession != null) {
+            stateSession.rollback();
+        }
+    }
+
+    /**
+     * Calls {@link #jobComplete()}, unless the worker was stopped.
+     */
+    final void completeJob() {
         if (alive) {
             try {
                 jobComplete();
+                if (stateSession != null) {
+                    stateSession.commit();
+                }
             } catch (BatchException e) {
                 handleBatchException(e);
             }
         }
     }
 
+    /**
+     * @return false once the worker was cancelled or failed fatally.
+     */
+    final boolean isActive() {
+        return alive;
+    }
+
+    /**
+     * @return true once the worker ran and stopped, whatever the reason. A
+     * retired worker only stops once it handed its input over.
+     */
+    final boolean hasEnded() {
+        return ended;
+    }
+
     public BatchState getBatchState() {
         return state;
     }
 
+    /**
+     * Stops the worker as soon as possible: the section being processed is
+     * left incomplete, and {@link #jobComplete()} is not called. The thread
+     * is interrupted, to stop waiting for input.
+     */
+    void cancel() {
+        if (!alive) {
+            return;
+        }
+        alive = false;
+        executor.logInfo("Cancelling worker " + getName());
+        runner.interrupt();
+    }
+
+    /**
+     * Stops the worker once its current section is complete, after which
+     * {@link #jobComplete()} is called as if the input was exhausted. A
+     * worker reading a part of the input bound to its thread hands it back
+     * first, or reads on if no other worker would read it.
+     */
+    void retire() {
+        retired = true;
+    }
+
+    /**
+     * @return the thread running this worker's hooks.
+     */
+    Thread getRunner() {
+        return runner;
+    }
+
+    /**
+     * Sets the thread running this worker's hooks, when not the worker
+     * itself.
+     */
+    void setRunner(Thread runner) {
+        this.runner = runner;
+    }
+
+    void setMonitor(WorkerMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    /**
+     * Replaces the reader sections are read from, before the worker starts.
+     */
+    void setInputFile(InputFileReader<L> input) {
+        this.input = input;
+    }
+
+    void setSectionSizer(SectionSizer sectionSizer) {
+        this.sectionSizer = sectionSizer;
+    }
+
+    /**
+     * The worker's access to the batch state store. Values written while
+     * processing a section are applied to the store once
+     * {@link #sectionComplete()} has returned, and discarded if processing
+     * the section failed. Values written by {@link #jobComplete()} are
+     * applied once it has returned.
+     * @return the session of this worker, to be used from the worker thread.
+     * @throws IllegalStateException if the batch has no state store, see
+     * {@link Batch#isStateStoreEnabled()}
+     */
+    protected StateStore.Session getStateSession() {
+        if (stateSession == null) {
+            if (stateStore == null) {
+                throw new IllegalStateException("The batch has no state store.");
+            }
+            stateSession = stateStore.openSession();
+        }
+        return stateSession;
+    }
+
+    void setStateStore(StateStore stateStore) {
+        this.stateStore = stateStore;
+    }
+
+    void setDuplicateFilter(DuplicateFilter<L> duplicateFilter) {
+        this.duplicateFilter = duplicateFilter;
+    }
+
+    void setCheckpointJournal(CheckpointJournal checkpointJournal) {
+        this.checkpointJournal = checkpointJournal;
+    }
+
+    void checkpoint(InputFileSection<L> section) throws BatchException {
+        if (checkpointJournal == null) {
+            return;
+        }
+        long start = section.getStartOffset();
+        long end = section.getEndOffset();
+        if (start >= 0 && end > start) {
+            checkpointJournal.commit(start, end);
+        }
+    }
+
     protected abstract void processLine(L line) throws BatchException;
     
     /**
      * By default simply return all the lines in the section. Sub-classes can override this 
      * method to perform specific processing (aggregation, filtering).
+     * The section is recycled once {@link #sectionComplete()} has returned, on
+     * every worker that processed a part of it with work stealing, so neither
+     * it nor its list of lines should be kept beyond that point.
      * @param section
      * @return
      * @throws BatchException
@@ -92,6 +373,21 @@ public abstract class Worker<L extends InputLine> extends Thread {
     	return section.getLines();
     }
     
+    /**
+     * Called once the lines of a section given to this worker are processed,
+     * before the section is checkpointed. State kept per section, such as
+     * buffered results, should be flushed here.
+     *
+     * With a {@link WorkStealingExecutor}, this is called once per part of a
+     * section rather than once per section: each worker that processed a part
+     * calls it, on its own thread, after its last line of the part, and the
+     * calls for the parts of a section run concurrently. Only the lines of
+     * that part went through {@link #processLine(InputLine)} on this worker
+     * since the previous call, so the hook must not assume it saw all the
+     * lines of a section, nor that other parts are done. The section is
+     * checkpointed once the hook returned for all its parts.
+     * @throws BatchException
+     */
     protected abstract void sectionComplete() throws BatchException;
     protected abstract void jobComplete() throws BatchException;
 
@@ -104,6 +400,9 @@ public abstract class Worker<L extends InputLine> extends Thread {
                     "Fatal error "
                     + e.getClass().getSimpleName());
             this.alive = false;
+            if (monitor != null) {
+                monitor.cancel(this);
+            }
         }
     }
 
@@ -0,0 +1,148 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the running workers of a batch: the batch waits on it
+ * until the last worker ends, without polling, and a worker failing with
+ * a fatal error cancels the other workers through it.
+ *
+ * Workers are registered before they start, and report their end once.
+ * It also sums what the workers report of their progress, which
+ * {@link WorkerScaler} samples.
+ *
+ * Thread-safe.
+ *
+ * @author ngiraud
+ *
+ */
+final class WorkerMonitor {
+
+    private final List<Worker<?>> workers = new CopyOnWriteArrayList<Worker<?>>();
+
+    private int runningCount = 0;
+
+    private volatile boolean cancelled = false;
+
+    private volatile boolean inputExhausted = false;
+
+    private final AtomicLong linesProcessed = new AtomicLong(0L);
+
+    private final AtomicLong readNanos = new AtomicLong(0L);
+
+    /**
+     * Registers a worker about to start.
+     */
+    synchronized void register(Worker<?> worker) {
+        workers.add(worker);
+        runningCount++;
+        if (cancelled) {
+            worker.cancel();
+        }
+    }
+
+    /**
+     * Registers a worker started while the batch runs.
+     * @return false if the workers have all ended or were cancelled, the
+     * worker must then not be started.
+     */
+    synchronized boolean registerIfRunning(Worker<?> worker) {
+        if (runningCount == 0 || cancelled || inputExhausted) {
+            return false;
+        }
+        register(worker);
+        return true;
+    }
+
+    /**
+     * Called by a worker when it ends, whatever the reason.
+     */
+    synchronized void workerDone(Worker<?> worker) {
+        runningCount--;
+        if (runningCount == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Cancels all the workers but the one given.
+     * @param cause the worker cancelling the others, may be null
+     */
+    void cancel(Worker<?> cause) {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+        }
+        for (Worker<?> w : workers) {
+            if (w != cause) {
+                w.cancel();
+            }
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Called by a worker after reading a section.
+     * @param nanos the time the read took
+     * @param noMoreInput whether the section was the last one
+     */
+    void sectionRead(long nanos, boolean noMoreInput) {
+        readNanos.addAndGet(nanos);
+        if (noMoreInput) {
+            inputExhausted = true;
+        }
+    }
+
+    /**
+     * Called by a worker once it has completed lines.
+     */
+    void linesProcessed(int lineCount) {
+        linesProcessed.addAndGet(lineCount);
+    }
+
+    /**
+     * @return true once a worker has read the last section.
+     */
+    boolean isInputExhausted() {
+        return inputExhausted;
+    }
+
+    /**
+     * @return the number of lines completed by the workers so far.
+     */
+    long getLinesProcessed() {
+        return linesProcessed.get();
+    }
+
+    /**
+     * @return the total time the workers spent reading sections.
+     */
+    long getReadNanos() {
+        return readNanos.get();
+    }
+
+    /**
+     * Waits until all the registered workers have ended.
+     * @throws InterruptedException
+     */
+    synchronized void await() throws InterruptedException {
+        while (runningCount > 0) {
+            wait();
+        }
+    }
+
+    synchronized int getRunningCount() {
+        return runningCount;
+    }
+
+}
@@ -0,0 +1,323 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds or retires workers while the batch runs, to find the worker count
+ * with the best throughput between a minimum and a maximum.
+ *
+ * At each interval, the scaler measures the lines completed per second,
+ * the share of the processors used by the workers, and the share of the
+ * workers' time spent waiting for the reader. It then hill-climbs:
+ * <ul>
+ * <li>when workers mostly wait for the reader, more workers would not read
+ * any faster, so one is retired;</li>
+ * <li>when the processors are saturated, no worker is added;</li>
+ * <li>when throughput improved since the last move, the scaler moves again
+ * in the same direction, and when it dropped, in the other direction;</li>
+ * <li>when throughput stayed flat after adding a worker, that worker is
+ * retired, as it did not pay off.</li>
+ * </ul>
+ * Retired workers complete their current section, then their job. A worker
+ * reading a part of the input no other worker would take over reads on
+ * though, so workers are counted until they actually end, and no other
+ * worker is retired meanwhile beyond the minimum. Workers that end on their
+ * own are no longer counted either. Scaling stops once the last section has
+ * been read. Every decision is logged.
+ *
+ * @author ngiraud
+ *
+ */
+abstract class WorkerScaler implements Runnable {
+
+    /**
+     * The relative throughput change below which throughput is flat.
+     */
+    private static final double TOLERANCE = BatchExecutor.getInstance().getIntProperty(
+            WorkerScaler.class, "tolerancePercent", 5) / 100d;
+
+    /**
+     * The share of the workers' time spent reading above which the reader
+     * is the bottleneck.
+     */
+    private static final double READER_BOUND = BatchExecutor.getInstance().getIntProperty(
+            WorkerScaler.class, "readerBoundPercent", 50) / 100d;
+
+    /**
+     * The share of the processors used above which they are saturated.
+     */
+    private static final double CPU_BOUND = BatchExecutor.getInstance().getIntProperty(
+            WorkerScaler.class, "cpuBoundPercent", 90) / 100d;
+
+    private final WorkerMonitor monitor;
+
+    private final int minCount;
+
+    private final int maxCount;
+
+    private final long intervalMillis;
+
+    /**
+     * The workers still running, newest last, retiring ones included.
+     */
+    private final List<Worker<?>> active = new ArrayList<Worker<?>>();
+
+    /**
+     * The running workers asked to retire.
+     */
+    private final Set<Worker<?>> retiring = new HashSet<Worker<?>>();
+
+    /**
+     * The CPU time of each active worker thread at the last sample.
+     */
+    private final Map<Worker<?>, Long> lastCpuNanos = new HashMap<Worker<?>, Long>();
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final boolean cpuTimeSupported;
+
+    private final int processors = Runtime.getRuntime().availableProcessors();
+
+    private ScheduledThreadPoolExecutor timer;
+
+    private long lastSampleNanos;
+
+    private long lastLines;
+
+    private long lastReadNanos;
+
+    /**
+     * The throughput measured before the last move, negative before the
+     * first measure.
+     */
+    private double lastThroughput = -1d;
+
+    /**
+     * The direction of the last move, +1, -1 or 0 if none.
+     */
+    private int lastMove = 0;
+
+    private int decisionCount = 0;
+
+    /**
+     * @param monitor the monitor of the workers, which sums their progress
+     * @param workers the workers already started
+     * @param minCount the minimum worker count
+     * @param maxCount the maximum worker count
+     * @param intervalMillis the time between decisions
+     */
+    WorkerScaler(
+            WorkerMonitor monitor,
+            List<? extends Worker<?>> workers,
+            int minCount,
+            int maxCount,
+            long intervalMillis) {
+        this.monitor = monitor;
+        this.minCount = Math.max(1, minCount);
+        this.maxCount = Math.max(this.minCount, maxCount);
+        this.intervalMillis = intervalMillis;
+        this.active.addAll(workers);
+        this.cpuTimeSupported = threads.isThreadCpuTimeSupported()
+                && threads.isThreadCpuTimeEnabled();
+    }
+
+    /**
+     * Creates and starts a worker.
+     * @return the worker, or null if the batch is ending.
+     * @throws BatchException
+     */
+    abstract Worker<?> addWorker() throws BatchException;
+
+    /**
+     * Starts making decisions.
+     */
+    void start() {
+        lastSampleNanos = System.nanoTime();
+        lastLines = monitor.getLinesProcessed();
+        lastReadNanos = monitor.getReadNanos();
+        sampleCpu();
+        timer = new ScheduledThreadPoolExecutor(1);
+        timer.scheduleWithFixedDelay(
+                this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        BatchExecutor.getInstance().logInfo("Auto-scaling between " + minCount
+                + " and " + maxCount + " workers, every " + intervalMillis + " ms.");
+    }
+
+    void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of decisions made.
+     */
+    synchronized int getDecisionCount() {
+        return decisionCount;
+    }
+
+    /**
+     * @return the number of workers still running, retiring ones included.
+     */
+    synchronized int getActiveCount() {
+        return active.size();
+    }
+
+    @Override
+    public void run() {
+        try {
+            decide();
+        } catch (final BatchException e) {
+            BatchExecutor.getInstance().logError(e);
+        } catch (final RuntimeException e) {
+            // Keep the timer running
+            BatchExecutor.getInstance().logWarning("Auto-scaling failed: " + e);
+        }
+    }
+
+    private synchronized void decide() throws BatchException {
+        if (monitor.isInputExhausted() || monitor.isCancelled()) {
+            stop();
+            return;
+        }
+
+        pruneEndedWorkers();
+        if (active.isEmpty()) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long lines = monitor.getLinesProcessed();
+        long readNanos = monitor.getReadNanos();
+        double elapsedNanos = Math.max(1L, now - lastSampleNanos);
+        double throughput = (lines - lastLines) * 1e9 / elapsedNanos;
+        double readerWait = (readNanos - lastReadNanos) / (elapsedNanos * active.size());
+        double cpu = sampleCpu() / (elapsedNanos * processors);
+        lastSampleNanos = now;
+        lastLines = lines;
+        lastReadNanos = readNanos;
+        if (lines == 0L) {
+            // Nothing completed yet, nothing to compare with
+            return;
+        }
+
+        int move;
+        String reason;
+        double change = lastThroughput > 0d
+                ? (throughput - lastThroughput) / lastThroughput : 0d;
+        if (readerWait > READER_BOUND) {
+            move = -1;
+            reason = "workers wait for the reader";
+        } else if (lastThroughput < 0d) {
+            move = 1;
+            reason = "first measure";
+        } else if (change > TOLERANCE) {
+            move = lastMove != 0 ? lastMove : 1;
+            reason = "throughput improved";
+        } else if (change < -TOLERANCE) {
+            move = lastMove != 0 ? -lastMove : -1;
+            reason = "throughput dropped";
+        } else if (lastMove > 0) {
+            move = -1;
+            reason = "throughput flat since the last worker was added";
+        } else {
+            move = 0;
+            reason = "throughput flat";
+        }
+        if (move > 0 && cpu >= CPU_BOUND) {
+            move = 0;
+            reason = "processors saturated";
+        }
+
+        int before = active.size();
+        // Retiring workers may read on, only the others can be retired
+        int staying = before - retiring.size();
+        int target = before;
+        if (move > 0 && before < maxCount) {
+            Worker<?> w = addWorker();
+            if (w == null) {
+                stop();
+                return;
+            }
+            active.add(w);
+            lastCpuNanos.put(w, cpuNanos(w));
+            target++;
+        } else if (move < 0 && staying > minCount) {
+            for (int i = active.size() - 1; i >= 0; i--) {
+                Worker<?> w = active.get(i);
+                if (retiring.add(w)) {
+                    w.retire();
+                    break;
+                }
+            }
+            target--;
+        } else if (move != 0) {
+            reason += ", at the " + (move > 0 ? "maximum" : "minimum");
+        }
+        lastMove = target - before;
+        lastThroughput = throughput;
+        decisionCount++;
+
+        BatchExecutor.getInstance().logInfo(String.format(
+                "Auto-scaling: %d -> %d workers, %.0f lines/s (%+.0f%%), CPU %s,"
+                + " reader wait %.0f%%: %s.",
+                before, target, throughput, 100d * change,
+                cpuTimeSupported ? String.format("%.0f%%", 100d * cpu) : "n/a",
+                100d * readerWait, reason));
+    }
+
+    /**
+     * Stops counting the workers that ended, retired or not.
+     */
+    private void pruneEndedWorkers() {
+        for (Iterator<Worker<?>> it = active.iterator(); it.hasNext(); ) {
+            Worker<?> w = it.next();
+            if (w.hasEnded()) {
+                it.remove();
+                retiring.remove(w);
+                lastCpuNanos.remove(w);
+            }
+        }
+    }
+
+    /**
+     * @return the CPU time used by the active workers since the last
+     * sample, 0 if it cannot be measured.
+     */
+    private long sampleCpu() {
+        if (!cpuTimeSupported) {
+            return 0L;
+        }
+        long total = 0L;
+        for (Worker<?> w : active) {
+            long cpu = cpuNanos(w);
+            Long last = lastCpuNanos.put(w, cpu);
+            if (last != null && cpu > last) {
+                total += cpu - last;
+            }
+        }
+        return total;
+    }
+
+    private long cpuNanos(Worker<?> w) {
+        if (!cpuTimeSupported) {
+            return 0L;
+        }
+        // -1 once the thread has ended, or for virtual threads
+        return Math.max(0L, threads.getThreadCpuTime(w.getRunner().getId()));
+    }
+
+}
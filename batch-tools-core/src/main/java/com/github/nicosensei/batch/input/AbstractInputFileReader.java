@@ -6,11 +6,11 @@ package com.github.nicosensei.batch.input;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
-import java.util.LinkedList;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.List;
 
 import com.github.nicosensei.batch.BatchExecutor;
@@ -18,26 +18,47 @@ import com.github.nicosensei.batch.BatchExecutor;
 
 /**
  * Allows buffered reading of sections (fixed number of lines) of a text file.
+ *
+ * With encodings where line breaks can be found in the bytes (UTF-8,
+ * ISO-8859-x, US-ASCII...), lines are read by a {@link ChannelLineReader},
+ * which decodes ASCII lines without a charset decoder and gives sections
+ * their byte range. Lines are then terminated by LF or CR LF only. Other
+ * encodings are read through a {@link BufferedReader}.
+ *
  * Synchronized.
  *
  * @author ngiraud
  *
  */
 public abstract class AbstractInputFileReader<L extends InputLine>
-implements InputFileReader<L> {
+implements SizableInputFileReader<L>,
+ProjectableInputFileReader<L> {
 
     private static final String ENCODING = BatchExecutor.getInstance().getProperty(
             InputFileReader.class, "encoding");
 
     /**
-     * Number of lines per section.
+     * Decides when a section is full.
      */
-    private int sectionSize = -1;
+    private volatile SectionSizer sectionSizer;
+
+    /**
+     * The columns to build lines with.
+     */
+    private volatile ColumnProjection columnProjection = ColumnProjection.ALL;
 
     private boolean ignoreEmptyLines = true;
 
+    private final SectionPool<L> sectionPool;
+
+    /**
+     * Line reader for the input file, if the encoding allows it.
+     */
+    private ChannelLineReader lineReader;
+
     /**
-     * Buffered reader for the input file.
+     * Buffered reader for the input file, if the encoding does not allow
+     * finding line breaks in bytes.
      */
     private BufferedReader inputFile;
 
@@ -55,17 +76,23 @@ implements InputFileReader<L> {
         this.ignoreEmptyLines = ignoreEmptyLines;
 
         try {
-
-            this.inputFile = new BufferedReader(
-                    new InputStreamReader(new FileInputStream(inputFile),
-                            getEncoding()));
+            Charset charset = Charset.forName(getEncoding());
+            FileInputStream in = new FileInputStream(inputFile);
+            if (ChannelLineReader.isSplittable(charset)) {
+                this.lineReader = new ChannelLineReader(in.getChannel(), charset);
+            } else {
+                this.inputFile = new BufferedReader(new InputStreamReader(in, charset));
+            }
+        } catch (IllegalCharsetNameException e) {
+            throw InputFileException.ioError(inputFilePath, e);
+        } catch (UnsupportedCharsetException e) {
+            throw InputFileException.ioError(inputFilePath, e);
         } catch (FileNotFoundException e) {
             throw InputFileException.fileNotFound(inputFile);
-        } catch (UnsupportedEncodingException e) {
-            throw InputFileException.ioError(inputFilePath, e);
         }
 
-        this.sectionSize = sectionSize;
+        this.sectionSizer = new SectionSizer(sectionSize);
+        this.sectionPool = new SectionPool<L>(sectionSize);
 
         BatchExecutor.getInstance().logInfo("Processing input file by chunks of "
                 + sectionSize + " lines.");
@@ -77,7 +104,11 @@ implements InputFileReader<L> {
      */
     public synchronized void close() throws InputFileException {
         try {
-            inputFile.close();
+            if (lineReader != null) {
+                lineReader.close();
+            } else {
+                inputFile.close();
+            }
         } catch (IOException e) {
             throw InputFileException.closeFailed(inputFilePath, e);
         }
@@ -91,25 +122,33 @@ implements InputFileReader<L> {
     public synchronized InputFileSection<L> readSection()
     throws InputFileException {
 
-        List<L> lines = new LinkedList<L>();
-
-        while (lines.size() < sectionSize) {
-            String l;
-            try {
-                l = inputFile.readLine();
-            } catch (IOException e) {
-                throw InputFileException.readError(inputFilePath, e);
-            }
+        InputFileSection<L> section = sectionPool.acquire();
+        List<L> lines = section.getLines();
+
+        SectionSizer sizer = sectionSizer;
+        long sectionStart = (lineReader != null ? lineReader.getPosition() : 0L);
+        // Without a line reader, the byte budget is approximated by char counts
+        long sectionChars = 0L;
+        boolean eof = false;
+        while (!sizer.isFull(lines.size(), lineReader != null
+                ? lineReader.getPosition() - sectionStart : sectionChars)) {
+            String l = readOneLine();
             if (l == null) {
+                eof = true;
                 break;
             }
+            sectionChars += l.length() + 1;
             if (ignoreEmptyLines && lineIsEmpty(l)) {
                 continue; // skip empty lines
             }
             lines.add(parseLine(l));
         }
 
-        return new InputFileSection<L>(lines, lines.size() < sectionSize);
+        if (lineReader != null) {
+            section.setByteRange(sectionStart, lineReader.getPosition());
+        }
+        section.setNoMoreInput(eof);
+        return section;
 
     }
 
@@ -123,12 +162,7 @@ implements InputFileReader<L> {
         L line = null;
         while (line == null) {
 
-            String l;
-            try {
-                l = inputFile.readLine();
-            } catch (IOException e) {
-                throw InputFileException.readError(inputFilePath, e);
-            }
+            String l = readOneLine();
             if (l == null) {
                 break;
             }
@@ -167,38 +201,72 @@ implements InputFileReader<L> {
 
     public synchronized void countLines(String inputFile)
     throws InputFileException {
-        this.usableLineCount = 0;
+        countLines(inputFile, false);
+    }
 
-        try {
-            BufferedReader tmp =
-                new BufferedReader(new FileReader(inputFile));
+    /**
+     * Counts the lines of a file, see {@link LineCounter}. With encodings
+     * where line breaks cannot be found in the bytes, the file is decoded and
+     * its lines counted sequentially, and the counts are always exact.
+     * @param inputFile the file to count the lines of
+     * @param estimate if true, the counts are extrapolated from samples of
+     * the file, which is enough to display progress on huge files.
+     * @throws InputFileException
+     */
+    public synchronized void countLines(String inputFile, boolean estimate)
+    throws InputFileException {
+        if (lineReader == null) {
+            countDecodedLines(inputFile);
+            return;
+        }
+        LineCounter counter = new LineCounter(inputFile, getEncoding());
+        LineCounter.Counts counts = (estimate ? counter.estimate() : counter.count());
 
+        this.emptyLineCount = (int) counts.getEmptyLineCount();
+        this.usableLineCount = (int) (ignoreEmptyLines
+                ? counts.getNonEmptyLineCount() : counts.getLineCount());
+
+        BatchExecutor.getInstance().logInfo(
+                (estimate ? "About " : "") + usableLineCount + " lines to process in " + inputFile);
+    }
+
+    private void countDecodedLines(String inputFile) throws InputFileException {
+        this.usableLineCount = 0;
+        this.emptyLineCount = 0;
+        try {
+            BufferedReader tmp = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(inputFile), getEncoding()));
             try {
-            	String l = null;
-            	while ((l = tmp.readLine()) != null) {
-
-            		if (lineIsEmpty(l)) {
-            			this.emptyLineCount++;
-            			if (! ignoreEmptyLines) {
-            				this.usableLineCount++;
-            			}
-            		} else {
-            			this.usableLineCount++;
-            		}
-
-            	}
+                String l = null;
+                while ((l = tmp.readLine()) != null) {
+                    if (lineIsEmpty(l)) {
+                        this.emptyLineCount++;
+                        if (!ignoreEmptyLines) {
+                            this.usableLineCount++;
+                        }
+                    } else {
+                        this.usableLineCount++;
+                    }
+                }
             } finally {
-            	tmp.close();
+                tmp.close();
             }
-
-            BatchExecutor.getInstance().logInfo(
-                    usableLineCount + " lines to process in " + inputFile);
-
         } catch (FileNotFoundException e) {
             throw InputFileException.fileNotFound(inputFile);
         } catch (IOException e) {
             throw InputFileException.readError(inputFile, e);
         }
+
+        BatchExecutor.getInstance().logInfo(
+                usableLineCount + " lines to process in " + inputFile);
+    }
+
+    private String readOneLine() throws InputFileException {
+        try {
+            return (lineReader != null ? lineReader.readLine() : inputFile.readLine());
+        } catch (IOException e) {
+            throw InputFileException.readError(inputFilePath, e);
+        }
     }
 
     private boolean lineIsEmpty(String l) {
@@ -207,7 +275,27 @@ implements InputFileReader<L> {
 
 	@Override
 	public int getSectionSize() {
-		return sectionSize;
+		return sectionSizer.getLineLimit();
 	}
 
+    @Override
+    public void setSectionSizer(SectionSizer sectionSizer) {
+        this.sectionSizer = sectionSizer;
+    }
+
+    @Override
+    public SectionSizer getSectionSizer() {
+        return sectionSizer;
+    }
+
+    @Override
+    public void setColumnProjection(ColumnProjection projection) {
+        this.columnProjection = projection;
+    }
+
+    @Override
+    public ColumnProjection getColumnProjection() {
+        return columnProjection;
+    }
+
 }
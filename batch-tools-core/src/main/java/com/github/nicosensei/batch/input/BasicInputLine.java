@@ -5,6 +5,10 @@ package com.github.nicosensei.batch.input;
 
 /**
  * Base abstract class for input lines.
+ *
+ * Built with a {@link ColumnProjection}, the line only holds the projected
+ * fields, the others being null, and keeps the original line as is.
+ *
  * @author ngiraud
  *
  */
@@ -15,14 +19,37 @@ public abstract class BasicInputLine implements InputLine {
     private final String fieldSeparator;
     private final String[] fields;
 
+    /**
+     * The original line, only kept with a projection.
+     */
+    private final String line;
+
     protected BasicInputLine(String line, String fieldSeparator) {
+        this(line, fieldSeparator, ColumnProjection.ALL);
+    }
+
+    /**
+     * @param line the line
+     * @param fieldSeparator the separator regular expression
+     * @param projection the fields to keep
+     */
+    protected BasicInputLine(
+            String line,
+            String fieldSeparator,
+            ColumnProjection projection) {
     	if (fieldSeparator.equals(DEFAULT_SEP)
     			|| fieldSeparator.matches(DEFAULT_SEP)) {
     		this.fieldSeparator = " ";
     	} else {
     		this.fieldSeparator = fieldSeparator;
     	}
-        this.fields = line.split(fieldSeparator);
+        if (projection.isAll()) {
+            this.fields = line.split(fieldSeparator);
+            this.line = null;
+        } else {
+            this.fields = new LazyInputLine(line, fieldSeparator, projection).getFields();
+            this.line = line;
+        }
     }
 
     @Override
@@ -32,11 +59,17 @@ public abstract class BasicInputLine implements InputLine {
 
     @Override
     public String getLine() {
-        String l = "";
-        for (String f : this.fields) {
-            l += f + fieldSeparator;
+        if (line != null) {
+            return line;
+        }
+        StringBuilder l = new StringBuilder();
+        for (int i = 0; i < this.fields.length; i++) {
+            if (i > 0) {
+                l.append(fieldSeparator);
+            }
+            l.append(this.fields[i]);
         }
-        return l.substring(0, l.lastIndexOf(fieldSeparator));
+        return l.toString();
     }
 
     @Override
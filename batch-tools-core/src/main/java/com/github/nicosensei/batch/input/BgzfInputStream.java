@@ -0,0 +1,291 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decodes block gzip (BGZF) input, where the data is split into gzip members
+ * of at most 64KB that each record their compressed size in the header.
+ *
+ * Members can thus be read without decompressing them: the calling thread
+ * reads the compressed members ahead and hands them to a pool of threads
+ * that inflate them in parallel. Decoded members are returned in order.
+ *
+ * Not synchronized.
+ *
+ * @author ngiraud
+ *
+ */
+public class BgzfInputStream extends InputStream {
+
+    private static final int ID1 = 31;
+    private static final int ID2 = 139;
+    private static final int CM_DEFLATE = 8;
+    private static final int FLG_FEXTRA = 4;
+
+    /**
+     * Size of the fixed part of the member header, up to XLEN included.
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * Size of the CRC32 and ISIZE trailer.
+     */
+    private static final int TRAILER_SIZE = 8;
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger(0);
+
+    private final InputStream in;
+
+    private final ExecutorService inflaters;
+
+    /**
+     * Members being inflated, in input order.
+     */
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+
+    /**
+     * The maximum number of members read ahead.
+     */
+    private final int readAhead;
+
+    private boolean inputExhausted = false;
+
+    private byte[] block = new byte[0];
+
+    private int blockPos = 0;
+
+    private long membersRead = 0L;
+
+    /**
+     * @param in the compressed input
+     * @param threadCount the number of inflating threads
+     */
+    public BgzfInputStream(InputStream in, int threadCount) {
+        this.in = in;
+        this.readAhead = 4 * threadCount;
+        final int poolIndex = POOL_COUNT.incrementAndGet();
+        this.inflaters = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final AtomicInteger threadIndex = new AtomicInteger(0);
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "BgzfInflater-" + poolIndex
+                        + "-" + threadIndex.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Checks whether a stream starts with a BGZF member header, without
+     * consuming it.
+     * @param in the stream, which must support mark
+     * @return true if the stream is block gzip.
+     * @throws IOException
+     */
+    public static boolean isBgzf(InputStream in) throws IOException {
+        byte[] h = new byte[HEADER_SIZE + 4];
+        in.mark(h.length);
+        try {
+            int n = 0;
+            while (n < h.length) {
+                int r = in.read(h, n, h.length - n);
+                if (r < 0) {
+                    return false;
+                }
+                n += r;
+            }
+        } finally {
+            in.reset();
+        }
+        return (h[0] & 0xff) == ID1 && (h[1] & 0xff) == ID2
+                && (h[2] & 0xff) == CM_DEFLATE && (h[3] & FLG_FEXTRA) != 0
+                && h[12] == 'B' && h[13] == 'C';
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return (n < 0 ? -1 : b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (blockPos == block.length) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, block.length - blockPos);
+        System.arraycopy(block, blockPos, b, off, n);
+        blockPos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return block.length - blockPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflaters.shutdownNow();
+        in.close();
+    }
+
+    /**
+     * @return the number of members read from the input so far.
+     */
+    public long getMembersRead() {
+        return membersRead;
+    }
+
+    private boolean nextBlock() throws IOException {
+        while (!inputExhausted && pending.size() < readAhead) {
+            final byte[] member = readMember();
+            if (member == null) {
+                inputExhausted = true;
+                break;
+            }
+            membersRead++;
+            pending.add(inflaters.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return inflate(member);
+                }
+            }));
+        }
+
+        if (pending.isEmpty()) {
+            return false;
+        }
+        try {
+            this.block = pending.removeFirst().get();
+        } catch (final InterruptedException e) {
+            throw new IOException(e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        this.blockPos = 0;
+        return true;
+    }
+
+    /**
+     * Reads a whole compressed member.
+     * @return the member bytes, or null at the end of the input.
+     * @throws IOException
+     */
+    private byte[] readMember() throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        header[0] = (byte) first;
+        readFully(header, 1, HEADER_SIZE - 1);
+        if ((header[0] & 0xff) != ID1 || (header[1] & 0xff) != ID2
+                || (header[2] & 0xff) != CM_DEFLATE || (header[3] & FLG_FEXTRA) == 0) {
+            throw new ZipException("Not a BGZF member header");
+        }
+
+        int xlen = uint16(header, 10);
+        byte[] extra = new byte[xlen];
+        readFully(extra, 0, xlen);
+        int blockSize = -1;
+        int i = 0;
+        while (i + 4 <= xlen) {
+            int slen = uint16(extra, i + 2);
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && slen == 2) {
+                blockSize = uint16(extra, i + 4) + 1;
+            }
+            i += 4 + slen;
+        }
+        if (blockSize < 0) {
+            throw new ZipException("BGZF member without block size");
+        }
+
+        byte[] member = new byte[blockSize - HEADER_SIZE - xlen];
+        readFully(member, 0, member.length);
+        return member;
+    }
+
+    /**
+     * @param member the member bytes following the header: deflated data,
+     * CRC32 and uncompressed size
+     * @return the decompressed member
+     */
+    private static byte[] inflate(byte[] member) throws IOException {
+        int trailer = member.length - TRAILER_SIZE;
+        long expectedCrc = uint32(member, trailer);
+        int size = (int) uint32(member, trailer + 4);
+
+        byte[] out = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member, 0, trailer);
+            int n = 0;
+            while (n < size) {
+                int r = inflater.inflate(out, n, size - n);
+                if (r == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new ZipException("Truncated BGZF member");
+                }
+                n += r;
+            }
+        } catch (final DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(out, 0, size);
+        if (crc.getValue() != expectedCrc) {
+            throw new ZipException("BGZF member CRC mismatch");
+        }
+        return out;
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            int r = in.read(b, off + n, len - n);
+            if (r < 0) {
+                throw new EOFException("Truncated BGZF member");
+            }
+            n += r;
+        }
+    }
+
+    private static int uint16(byte[] b, int off) {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+    }
+
+    private static long uint32(byte[] b, int off) {
+        return (uint16(b, off) | ((long) uint16(b, off + 2) << 16)) & 0xffffffffL;
+    }
+
+}
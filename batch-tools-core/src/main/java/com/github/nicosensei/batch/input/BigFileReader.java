@@ -4,16 +4,17 @@
 package com.github.nicosensei.batch.input;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
-import java.util.LinkedList;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.List;
 
-import org.apache.commons.io.input.CountingInputStream;
-
 import com.github.nicosensei.batch.BatchExecutor;
 import com.github.nicosensei.commons.utils.datatype.ByteCountFormatter;
 
@@ -22,10 +23,36 @@ import com.github.nicosensei.commons.utils.datatype.ByteCountFormatter;
  * This reader is intended for huge input files (several gigas or dozen of gigas) where the batch will run 
  * for a long time and we cannot guarantee that the file handler will stay valid (NFS mounts for instance).
  * 
+ * Line breaks are found directly in the bytes, so the exact offset of every line is known: reading 
+ * resumes on the right line after an I/O error, sections report the byte range they cover and reading
+ * can start at a given line offset. This requires an encoding where a LF byte can only stand for a line 
+ * feed (UTF-8, ISO-8859-x, US-ASCII...). Other encodings (UTF-16, UTF-32...) are decoded through a 
+ * {@link BufferedReader}, like {@link AbstractInputFileReader} does: line offsets and section byte 
+ * ranges are then unknown (-1), so reading can neither start at an offset, skip ranges nor retry 
+ * after an I/O error, and follow mode is not available.
+ * 
+ * In follow mode (BigFileReader.follow setting or {@link #setFollowing(boolean)}), the reader keeps
+ * reading a file that is still being written, like tail -F: at the end of the file it waits for more
+ * bytes instead of reporting that there is no more input, until following is stopped. The file is 
+ * polled, the interval doubling from BigFileReader.followMinPollMillis up to 
+ * BigFileReader.followMaxPollMillis while nothing is appended. A section that holds lines is handed
+ * out at the latest BigFileReader.followLatencyMillis after its first line was read. An unterminated 
+ * last line is only read once terminated. When the file is truncated below the current offset, it
+ * is read again from the start. When it is rotated (renamed and replaced), the old file is read to its end, then the new 
+ * one from its start. Rotation is detected by comparing the size of the open file with the size of 
+ * the file at the input path, so a new file that has exactly the size of the old one is only noticed 
+ * once it grows. Byte offsets restart at 0 after a truncation or a rotation.
+ * 
+ * Records can span several lines (e.g. CSV quoted fields holding line breaks): subclasses tell where 
+ * a record ends by overriding {@link #isRecordComplete(CharSequence, int)}. The lines of a record are 
+ * then parsed at once, with their original terminators, and sections always end on a record boundary.
+ * 
  * @author ngiraud
  *
  */
-public abstract class BigFileReader<L extends InputLine> implements InputFileReader<L> {
+public abstract class BigFileReader<L extends InputLine>
+implements ResumableInputFileReader<L>, SizableInputFileReader<L>,
+ProjectableInputFileReader<L> {
 
     private static final String DEFAULT_ENCODING = BatchExecutor.getInstance().getProperty(
             InputFileReader.class, "encoding");
@@ -41,44 +68,155 @@ public abstract class BigFileReader<L extends InputLine> implements InputFileRea
      */
     private int RETRY_DELAY_MS = 1000 * BatchExecutor.getInstance().getIntProperty(
     		BigFileReader.class, "readRetryDelaySeconds", 1);
+    
+    private static final boolean FOLLOW = BatchExecutor.getInstance().getBoolProperty(
+    		BigFileReader.class, "follow", false);
+    
+    private static final long FOLLOW_MIN_POLL_MILLIS = BatchExecutor.getInstance().getLongProperty(
+    		BigFileReader.class, "followMinPollMillis", 10L);
+    
+    private static final long FOLLOW_MAX_POLL_MILLIS = BatchExecutor.getInstance().getLongProperty(
+    		BigFileReader.class, "followMaxPollMillis", 1000L);
+    
+    private static final long FOLLOW_LATENCY_MILLIS = BatchExecutor.getInstance().getLongProperty(
+    		BigFileReader.class, "followLatencyMillis", 1000L);
+    
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * Decides when a section is full.
+     */
+    private volatile SectionSizer sectionSizer;
 
     /**
-     * Number of lines per section.
+     * The columns to build lines with.
      */
-    private int sectionSize = -1;
+    private volatile ColumnProjection columnProjection = ColumnProjection.ALL;
 
     private boolean ignoreEmptyLines = true;
+
+    private final SectionPool<L> sectionPool;
     
     /**
      * The underlying input stream
      */
-    private CountingInputStream inStream;
+    private FileInputStream inStream;
     
     /**
-     * The offset we are at in the input stream.
+     * The offset of the next line to read.
      */
     private long offset;
     
     /**
-     * Buffered reader for the input file.
+     * The offset of the last line read.
+     */
+    private long lineOffset = -1L;
+    
+    /**
+     * Line reader for the input file.
      */
-    private BufferedReader bufReader;
+    private ChannelLineReader lineReader;
+    
+    /**
+     * Reader for the input file when line breaks cannot be found in the bytes, null otherwise.
+     */
+    private BufferedReader decodedReader;
+    
+    /**
+     * Whether line breaks are found in the bytes, see {@link ChannelLineReader#isSplittable(Charset)}.
+     */
+    private final boolean splittable;
 
     private final String inputFilePath;
     
     private final String inputFileEncoding;
     
+    private final Charset charset;
+    
+    /**
+     * Ranges that should not be read, see {@link #skipRanges(ByteRangeSet)}.
+     */
+    private ByteRangeSet skippedRanges = ByteRangeSet.EMPTY;
+    
+    /**
+     * The start of the next range to skip.
+     */
+    private long nextSkipStart = Long.MAX_VALUE;
+    
+    /**
+     * Whether to wait for more input at the end of the file.
+     */
+    private volatile boolean following = FOLLOW;
+    
+    /**
+     * Waited on between polls in follow mode, notified when following stops.
+     */
+    private final Object followMonitor = new Object();
+    
+    /**
+     * The number of times the file was read again from the start after a truncation or a rotation.
+     */
+    private int reopenCount = 0;
+    
+    /**
+     * The lines of a record cut by the end of the file in follow mode, with their terminators, 
+     * null if there is none.
+     */
+    private StringBuilder partialRecord;
+    
+    /**
+     * The offset of the first line of the partial record.
+     */
+    private long partialRecordOffset;
+    
+    /**
+     * The length of the partial record without the terminator of its last line.
+     */
+    private int partialRecordEnd;
+    
+    /**
+     * @param inputFile the input file path
+     * @param inputFileEncoding the input file encoding
+     * @param sectionSize the number of lines per section
+     * @param ignoreEmptyLines whether to skip empty lines
+     * @param startOffset the offset to start reading from, must be the offset of a line start
+     * @throws InputFileException
+     */
     public BigFileReader(
             String inputFile,
             String inputFileEncoding,
             int sectionSize,
-            boolean ignoreEmptyLines) throws InputFileException {
+            boolean ignoreEmptyLines,
+            long startOffset) throws InputFileException {
 
     	this.inputFilePath = inputFile;
     	this.inputFileEncoding = inputFileEncoding;
         this.ignoreEmptyLines = ignoreEmptyLines;
-        this.sectionSize = sectionSize;
+        this.sectionSizer = new SectionSizer(sectionSize);
+        this.sectionPool = new SectionPool<L>(sectionSize);
+        this.offset = startOffset;
+        try {
+        	this.charset = Charset.forName(inputFileEncoding);
+        } catch (final IllegalCharsetNameException e) {
+        	throw InputFileException.ioError(inputFile, e);
+        } catch (final UnsupportedCharsetException e) {
+        	throw InputFileException.ioError(inputFile, e);
+        }
+        this.splittable = ChannelLineReader.isSplittable(charset);
+        if (!splittable) {
+        	if (startOffset > 0) {
+        		throw InputFileException.unsplittableEncoding(inputFile, inputFileEncoding);
+        	}
+        	if (following) {
+        		BatchExecutor.getInstance().logWarning("Cannot follow input file " + inputFile 
+        				+ " with encoding " + inputFileEncoding + ", it is read once.");
+        		this.following = false;
+        	}
+        }
         resetInput();
+        if (following) {
+        	BatchExecutor.getInstance().logInfo("Following input file " + inputFile);
+        }
         BatchExecutor.getInstance().logInfo("Input encoding set to " + inputFileEncoding);
         BatchExecutor.getInstance().logInfo("Processing input file by chunks of "
                 + sectionSize + " lines.");
@@ -86,21 +224,36 @@ public abstract class BigFileReader<L extends InputLine> implements InputFileRea
     
     public BigFileReader(
             String inputFile,
+            String inputFileEncoding,
             int sectionSize,
             boolean ignoreEmptyLines) throws InputFileException {
-    	this(inputFile, DEFAULT_ENCODING, sectionSize, ignoreEmptyLines);
+    	this(inputFile, inputFileEncoding, sectionSize, ignoreEmptyLines, 0L);
+    }
+    
+    public BigFileReader(
+            String inputFile,
+            int sectionSize,
+            boolean ignoreEmptyLines) throws InputFileException {
+    	this(inputFile, DEFAULT_ENCODING, sectionSize, ignoreEmptyLines, 0L);
     }
     
     /**
-     * Closes the reader.
+     * Closes the reader. Following stops first, so that a reader waiting for input returns and 
+     * releases the lock.
      * @throws InputFileException
      */
-    public synchronized void close() throws InputFileException {
-        try {
-            bufReader.close();
-        } catch (IOException e) {
-            throw InputFileException.closeFailed(inputFilePath, e);
-        }
+    public void close() throws InputFileException {
+    	this.following = false;
+    	synchronized (followMonitor) {
+    		followMonitor.notifyAll();
+    	}
+    	synchronized (this) {
+    		try {
+    			inStream.close();
+    		} catch (IOException e) {
+    			throw InputFileException.closeFailed(inputFilePath, e);
+    		}
+    	}
     }
 
     /**
@@ -111,20 +264,67 @@ public abstract class BigFileReader<L extends InputLine> implements InputFileRea
     public synchronized InputFileSection<L> readSection()
     throws InputFileException {
 
-        List<L> lines = new LinkedList<L>();
+        InputFileSection<L> section = sectionPool.acquire();
+        List<L> lines = section.getLines();
+        skipRangeIfReached();
+        long sectionStart = partialRecord == null ? offset : partialRecordOffset;
 
-        while (lines.size() < sectionSize) {
-            String l = readOneLine();
+        SectionSizer sizer = sectionSizer;
+        boolean eof = false;
+        long sectionEnd = -1L;
+        long flushDeadline = NO_DEADLINE;
+        // Without a line reader, the byte budget is approximated by char counts
+        long sectionChars = 0L;
+        holdUnterminatedLine();
+        while (!sizer.isFull(lines.size(), 
+        		splittable ? lineReader.getPosition() - sectionStart : sectionChars)) {
+            if (offset >= nextSkipStart) {
+                break; // end the section where the skipped range starts
+            }
+            String l = readRecord();
+            if (l == null && following) {
+            	long position = lineReader.getPosition();
+            	int reopened = reopenCount;
+            	if (awaitInput(flushDeadline)) {
+            		if (reopenCount != reopened) {
+            			// The file was truncated or rotated
+            			if (!lines.isEmpty()) {
+            				sectionEnd = position;
+            				break;
+            			}
+            			sectionStart = offset;
+            		}
+            		continue;
+            	}
+            	if (following) {
+            		if (partialRecord != null) {
+            			sectionEnd = partialRecordOffset; // the next section reads the record
+            		}
+            		break; // hand out the lines read so far
+            	}
+            }
+            if (l == null) {
+            	l = takeLastRecord();
+            }
             if (l == null) {
+                eof = true;
                 break;
             }
+            sectionChars += l.length() + 1;
             if (ignoreEmptyLines && lineIsEmpty(l)) {
                 continue; // skip empty lines
             }
-            lines.add(parseLine(l));
+            if (lines.isEmpty() && following) {
+            	flushDeadline = System.nanoTime() + 1000000L * FOLLOW_LATENCY_MILLIS;
+            }
+            section.addLine(parseLine(l), lineOffset);
         }
 
-        return new InputFileSection<L>(lines, lines.size() < sectionSize);
+        if (splittable) {
+        	section.setByteRange(sectionStart, sectionEnd < 0 ? lineReader.getPosition() : sectionEnd);
+        }
+        section.setNoMoreInput(eof);
+        return section;
 
     }
 
@@ -135,9 +335,16 @@ public abstract class BigFileReader<L extends InputLine> implements InputFileRea
      */
     public synchronized L readLine() throws InputFileException {
     	L line = null;
+    	holdUnterminatedLine();
         while (line == null) {
 
-            String l = readOneLine();
+            String l = readRecord();
+            if (l == null && following && awaitInput(NO_DEADLINE)) {
+            	continue;
+            }
+            if (l == null) {
+            	l = takeLastRecord();
+            }
             if (l == null) {
                 break;
             }
@@ -150,6 +357,22 @@ public abstract class BigFileReader<L extends InputLine> implements InputFileRea
 
     }
 
+    @Override
+    public synchronized void skipRanges(ByteRangeSet ranges) {
+    	if (!splittable) {
+    		if (!ranges.isEmpty()) {
+    			BatchExecutor.getInstance().logWarning("Cannot skip ranges of input file " 
+    					+ inputFilePath + " with encoding " + inputFileEncoding + ", it is read entirely.");
+    		}
+    		return;
+    	}
+    	this.skippedRanges = ranges;
+    	this.nextSkipStart = ranges.nextStart(offset);
+    	BatchExecutor.getInstance().logInfo("Will skip " 
+    			+ ByteCountFormatter.humanReadableByteCount(ranges.getTotalLength()) 
+    			+ " in " + ranges.size() + " ranges from input file " + inputFilePath);
+    }
+
     @Override
     public String getEncoding() {
         return inputFileEncoding;
@@ -157,15 +380,156 @@ public abstract class BigFileReader<L extends InputLine> implements InputFileRea
 
     @Override
 	public int getSectionSize() {
-		return sectionSize;
+		return sectionSizer.getLineLimit();
 	}
 
+    @Override
+    public void setSectionSizer(SectionSizer sectionSizer) {
+        this.sectionSizer = sectionSizer;
+    }
+
+    @Override
+    public SectionSizer getSectionSizer() {
+        return sectionSizer;
+    }
+
+    @Override
+    public void setColumnProjection(ColumnProjection projection) {
+        this.columnProjection = projection;
+    }
+
+    @Override
+    public ColumnProjection getColumnProjection() {
+        return columnProjection;
+    }
+
 	protected abstract L parseLine(String line) throws InputFileException;
 
     protected String getInputFilePath() {
         return inputFilePath;
     }
+    
+    /**
+     * Can be used by {@link #parseLine(String)} implementations to record where the line comes from.
+     * @return the offset of the first byte of the last line read.
+     */
+    protected long getLineOffset() {
+    	return lineOffset;
+    }
+    
+    /**
+     * Starts or stops following the input file. When following stops, readers waiting for input 
+     * return, and the end of the file ends the input again.
+     * @param following whether to wait for more input at the end of the file
+     */
+    public void setFollowing(boolean following) {
+    	if (following && !splittable) {
+    		BatchExecutor.getInstance().logWarning("Cannot follow input file " + inputFilePath 
+    				+ " with encoding " + inputFileEncoding + ".");
+    		return;
+    	}
+    	this.following = following;
+    	if (!following) {
+    		synchronized (followMonitor) {
+    			followMonitor.notifyAll();
+    		}
+    	}
+    }
+    
+    public boolean isFollowing() {
+    	return following;
+    }
+    
+    /**
+     * @return the offset of the next line to read, -1 if the encoding does not allow knowing it.
+     */
+    public synchronized long getPosition() {
+    	return splittable ? lineReader.getPosition() : -1L;
+    }
 
+    /**
+     * Tells whether the text read so far is a whole record. By default, a record is a line.
+     * @param text the lines of the record read so far, with their terminators
+     * @param from 0 for the first line of a record, otherwise the end of the text last found 
+     * incomplete, see {@link RecordCodec#isComplete(CharSequence, int)}
+     * @return false if the record goes on on the next line.
+     */
+    protected boolean isRecordComplete(CharSequence text, int from) {
+    	return true;
+    }
+    
+    /**
+     * Reads the lines of the next record. A record left incomplete by the end of the input is 
+     * returned as is, unless the file is followed: it is then kept as a partial record, which 
+     * the next call goes on reading.
+     * @return the record, or null if there are no more lines to read.
+     * @throws InputFileException
+     */
+    private String readRecord() throws InputFileException {
+    	StringBuilder record = partialRecord;
+    	long recordOffset = partialRecordOffset;
+    	int scanned = partialRecordEnd;
+    	this.partialRecord = null;
+    	if (record == null) {
+    		String l = readOneLine();
+    		if (l == null || isRecordComplete(l, 0)) {
+    			return l;
+    		}
+    		recordOffset = lineOffset;
+    		scanned = l.length();
+    		record = new StringBuilder(l).append(lineTerminator());
+    	}
+    	while (true) {
+    		String l = readOneLine();
+    		if (l == null) {
+    			if (following) {
+    				this.partialRecord = record;
+    				this.partialRecordOffset = recordOffset;
+    				this.partialRecordEnd = scanned;
+    				return null;
+    			}
+    			record.setLength(scanned);
+    			break;
+    		}
+    		record.append(l);
+    		if (isRecordComplete(record, scanned)) {
+    			break;
+    		}
+    		scanned = record.length();
+    		record.append(lineTerminator());
+    	}
+    	this.lineOffset = recordOffset;
+    	return record.toString();
+    }
+    
+    /**
+     * @return the terminator of the last line read, kept within multi-line records.
+     */
+    private String lineTerminator() {
+    	return splittable ? lineReader.getLineTerminator() : "\n";
+    }
+    
+    /**
+     * Once following stopped, takes what is left at the end of the file: the partial record 
+     * and the unterminated line.
+     * @return the last record, or null if nothing is left.
+     */
+    private String takeLastRecord() {
+    	String l = takeUnterminatedLine();
+    	if (partialRecord == null) {
+    		return l;
+    	}
+    	if (l != null) {
+    		partialRecord.append(l);
+    	} else {
+    		partialRecord.setLength(partialRecordEnd);
+    	}
+    	String record = partialRecord.toString();
+    	this.lineOffset = partialRecordOffset;
+    	this.partialRecord = null;
+    	return record;
+    }
+    
     private boolean lineIsEmpty(String l) {
         return l.trim().isEmpty();
     }
@@ -174,11 +538,26 @@ public abstract class BigFileReader<L extends InputLine> implements InputFileRea
     	
     	BatchExecutor executor = BatchExecutor.getInstance();
     	
+    	if (!splittable) {
+    		try {
+    			return decodedReader.readLine();
+    		} catch (final IOException ioe) {
+    			// Decoded input cannot be resumed at the line being read
+    			throw InputFileException.readError(inputFilePath, ioe);
+    		}
+    	}
+    	
     	int tryCount = 1;
-    	this.offset = inStream.getByteCount();
+    	this.offset = lineReader.getPosition();
+    	skipRangeIfReached();
     	while (true) {
     		try {
-    			return bufReader.readLine();
+    			String line = lineReader.readLine();
+    			if (line != null) {
+    				this.lineOffset = lineReader.getLineOffset();
+    			}
+    			this.offset = lineReader.getPosition();
+    			return line;
         	} catch (final IOException ioe) {
         		if (tryCount > READ_RETRIES) {
         			executor.logInfo("Failed reading from " + inputFilePath + " after " + tryCount + " tries");
@@ -197,25 +576,150 @@ public abstract class BigFileReader<L extends InputLine> implements InputFileRea
     	}
     }
     
+    private void holdUnterminatedLine() {
+    	if (splittable) {
+    		lineReader.setHoldUnterminatedLine(following);
+    	}
+    }
+    
+    private String takeUnterminatedLine() {
+    	if (!splittable) {
+    		return null;
+    	}
+    	String line = lineReader.takeUnterminatedLine();
+    	if (line != null) {
+    		this.lineOffset = lineReader.getLineOffset();
+    		this.offset = lineReader.getPosition();
+    	}
+    	return line;
+    }
+    
+    /**
+     * Waits until more bytes may be read from the input file, polling it at growing intervals.
+     * @param deadline the {@link System#nanoTime()} at which to stop waiting, or NO_DEADLINE
+     * @return true if there are bytes to read, false if the deadline passed or following stopped.
+     * @throws InputFileException
+     */
+    private boolean awaitInput(long deadline) throws InputFileException {
+    	long pollMillis = FOLLOW_MIN_POLL_MILLIS;
+    	while (following) {
+    		if (inputAvailable()) {
+    			return true;
+    		}
+    		long waitMillis = pollMillis;
+    		if (deadline != NO_DEADLINE) {
+    			long remaining = (deadline - System.nanoTime()) / 1000000L;
+    			if (remaining <= 0) {
+    				return false;
+    			}
+    			waitMillis = Math.min(pollMillis, remaining);
+    		}
+    		synchronized (followMonitor) {
+    			if (!following) {
+    				break;
+    			}
+    			try {
+    				followMonitor.wait(waitMillis);
+    			} catch (final InterruptedException e) {
+    				BatchExecutor.getInstance().logInfo("Interrupted, stopped following " + inputFilePath);
+    				this.following = false;
+    				Thread.currentThread().interrupt();
+    				break;
+    			}
+    		}
+    		pollMillis = Math.min(2 * pollMillis, FOLLOW_MAX_POLL_MILLIS);
+    	}
+    	return false;
+    }
+    
+    /**
+     * Checks whether the input file has grown, was truncated or was rotated, reopening it in the 
+     * last two cases.
+     * @return true if there are bytes to read.
+     * @throws InputFileException
+     */
+    private boolean inputAvailable() throws InputFileException {
+    	try {
+    		FileChannel channel = inStream.getChannel();
+    		long readPosition = channel.position();
+    		long size = channel.size();
+    		if (size > readPosition) {
+    			return true;
+    		}
+    		if (size < readPosition) {
+    			BatchExecutor.getInstance().logInfo("Input file " + inputFilePath 
+    					+ " was truncated, reading it again from the start");
+    			reopenFromStart();
+    			return true;
+    		}
+    		
+    		File file = new File(inputFilePath);
+    		if (!file.exists() || file.length() == size || channel.size() > readPosition) {
+    			return channel.size() > readPosition;
+    		}
+    		
+    		// The input path now leads to another file, the open one is read entirely
+    		if (lineReader.hasUnterminatedLine()) {
+    			lineReader.setHoldUnterminatedLine(false);
+    			return true;
+    		}
+    		BatchExecutor.getInstance().logInfo("Input file " + inputFilePath 
+    				+ " was rotated, reading the new file");
+    		reopenFromStart();
+    		return true;
+    	} catch (final IOException e) {
+    		throw InputFileException.readError(inputFilePath, e);
+    	}
+    }
+    
+    private void reopenFromStart() throws InputFileException {
+    	if (partialRecord != null) {
+    		BatchExecutor.getInstance().logWarning("Dropped the incomplete record at offset " 
+    				+ partialRecordOffset + " of input file " + inputFilePath);
+    		this.partialRecord = null;
+    	}
+    	this.offset = 0L;
+    	this.reopenCount++;
+    	this.skippedRanges = ByteRangeSet.EMPTY;
+    	this.nextSkipStart = Long.MAX_VALUE;
+    	resetInput();
+    }
+    
+    private void skipRangeIfReached() throws InputFileException {
+    	if (offset < nextSkipStart) {
+    		return;
+    	}
+    	long resumeAt = skippedRanges.skip(offset);
+    	if (resumeAt > offset) {
+    		this.offset = resumeAt;
+    		resetInput();
+    	}
+    	this.nextSkipStart = skippedRanges.nextStart(offset);
+    }
+    
     private void resetInput() throws InputFileException {
     	try {
-    		if (this.bufReader != null) {
-    			this.bufReader.close(); // should close inner stream
+    		if (this.inStream != null) {
+    			this.inStream.close(); // also closes the channel
     		}
     		
-    		this.inStream = new CountingInputStream(new FileInputStream(inputFilePath));
+    		this.inStream = new FileInputStream(inputFilePath);
+    		if (!splittable) {
+    			this.decodedReader = new BufferedReader(new InputStreamReader(inStream, charset));
+    			return;
+    		}
+    		FileChannel channel = this.inStream.getChannel();
     		if (this.offset > 0) {
-    			this.inStream.skip(this.offset); // skip to latest offset
+    			channel.position(this.offset); // resume on the line being read
     			BatchExecutor.getInstance().logInfo("Skipped " 
     					+ ByteCountFormatter.humanReadableByteCount(this.offset) 
     					+ " from input file " + inputFilePath);
     		}
-            this.bufReader = new BufferedReader(
-                    new InputStreamReader(this.inStream, getEncoding()));
+            this.lineReader = new ChannelLineReader(
+            		channel, this.offset, Long.MAX_VALUE, charset, ChannelLineReader.DEFAULT_BUFFER_SIZE);
+            this.lineReader.setHoldUnterminatedLine(following);
     	} catch (final FileNotFoundException e) {
             throw InputFileException.fileNotFound(inputFilePath);
-        } catch (final UnsupportedEncodingException e) {
-            throw InputFileException.ioError(inputFilePath, e);
         } catch (final IOException ioe) {
     		throw InputFileException.readError(inputFilePath, ioe);
     	}    	
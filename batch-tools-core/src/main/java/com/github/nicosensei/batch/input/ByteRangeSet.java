@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * An immutable set of byte ranges of a file. Ranges are given as
+ * [start, end[ pairs and are stored sorted, overlapping or adjacent ranges
+ * being merged.
+ *
+ * @author ngiraud
+ *
+ */
+public final class ByteRangeSet {
+
+    public static final ByteRangeSet EMPTY = new ByteRangeSet(new long[0], 0);
+
+    private final long[] starts;
+
+    private final long[] ends;
+
+    /**
+     * @param ranges start and end offset pairs, in any order
+     * @param rangeCount the number of pairs to use
+     */
+    public ByteRangeSet(long[] ranges, int rangeCount) {
+        // Sort pairs by start offset
+        Integer[] order = new Integer[rangeCount];
+        for (int i = 0; i < rangeCount; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        final long[] r = ranges;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long sa = r[2 * a.intValue()];
+                long sb = r[2 * b.intValue()];
+                return (sa < sb ? -1 : (sa == sb ? 0 : 1));
+            }
+        });
+
+        long[] s = new long[rangeCount];
+        long[] e = new long[rangeCount];
+        int count = 0;
+        for (Integer i : order) {
+            long start = r[2 * i.intValue()];
+            long end = r[2 * i.intValue() + 1];
+            if (end <= start) {
+                continue;
+            }
+            if (count > 0 && start <= e[count - 1]) {
+                e[count - 1] = Math.max(e[count - 1], end);
+            } else {
+                s[count] = start;
+                e[count] = end;
+                count++;
+            }
+        }
+        this.starts = Arrays.copyOf(s, count);
+        this.ends = Arrays.copyOf(e, count);
+    }
+
+    /**
+     * @param offset an offset
+     * @return the end of the range the offset falls in, or the offset itself
+     * if it is not in any range.
+     */
+    public long skip(long offset) {
+        int i = indexOfRangeStartingAtOrBefore(offset);
+        if (i >= 0 && offset < ends[i]) {
+            return ends[i];
+        }
+        return offset;
+    }
+
+    /**
+     * @param offset an offset
+     * @return the start of the first range starting at or after the offset,
+     * or {@link Long#MAX_VALUE} if there is none.
+     */
+    public long nextStart(long offset) {
+        int i = indexOfRangeStartingAtOrBefore(offset);
+        if (i >= 0 && starts[i] == offset) {
+            return offset;
+        }
+        return (i + 1 < starts.length ? starts[i + 1] : Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the number of distinct ranges.
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    public boolean isEmpty() {
+        return starts.length == 0;
+    }
+
+    /**
+     * @return the sum of the range lengths, in bytes.
+     */
+    public long getTotalLength() {
+        long total = 0L;
+        for (int i = 0; i < starts.length; i++) {
+            total += ends[i] - starts[i];
+        }
+        return total;
+    }
+
+    private int indexOfRangeStartingAtOrBefore(long offset) {
+        int i = Arrays.binarySearch(starts, offset);
+        return (i >= 0 ? i : -i - 2);
+    }
+
+}
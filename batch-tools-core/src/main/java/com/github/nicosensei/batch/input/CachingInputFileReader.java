@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+/**
+ * Passes on the sections of another reader while writing the
+ * {@link ColumnarCache} of the input file. The cache is completed when the
+ * reader is closed after all the input was read, and discarded otherwise.
+ *
+ * Sections are written as they are read, under the reader's lock. The cache
+ * records the layout of the source, see {@link ColumnarCache#layoutOf}, taken
+ * when this reader is built: set the column projection of the source before.
+ * Columns left out by a projection are cached empty, and the cache is then
+ * only up to date for that same projection.
+ *
+ * The source must hand out the whole input in order, so a
+ * {@link ThreadBoundInputFileReader} cannot be cached: the end of the range
+ * of one thread would be taken for the end of the input.
+ *
+ * Synchronized.
+ *
+ * @author ngiraud
+ *
+ */
+public class CachingInputFileReader<L extends InputLine> implements InputFileReader<L> {
+
+    private final InputFileReader<L> source;
+
+    private final ColumnarCacheWriter writer;
+
+    /**
+     * Whether the writer is still in use.
+     */
+    private boolean caching = true;
+
+    private boolean allInputRead = false;
+
+    /**
+     * @param source the reader of the text file
+     * @param inputPath the path of the text file
+     * @throws InputFileException if the source is thread-bound
+     */
+    public CachingInputFileReader(InputFileReader<L> source, String inputPath)
+    throws InputFileException {
+        if (source instanceof ThreadBoundInputFileReader) {
+            throw InputFileException.notCacheable(source.getClass().getName());
+        }
+        this.source = source;
+        this.writer = new ColumnarCacheWriter(inputPath, ColumnarCache.layoutOf(source));
+    }
+
+    @Override
+    public synchronized void close() throws InputFileException {
+        try {
+            source.close();
+        } finally {
+            if (caching) {
+                caching = false;
+                if (allInputRead) {
+                    writer.commit();
+                } else {
+                    writer.abort();
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized InputFileSection<L> readSection() throws InputFileException {
+        InputFileSection<L> section = source.readSection();
+        if (caching && !allInputRead) {
+            try {
+                writer.writeBlock(section.getLines(),
+                        section.getStartOffset(), section.getEndOffset());
+            } catch (final InputFileException e) {
+                caching = false;
+                writer.abort();
+                throw e;
+            }
+            allInputRead = section.noMoreInput();
+        }
+        return section;
+    }
+
+    /**
+     * Lines read one by one are not cached, reading a line discards the cache.
+     */
+    @Override
+    public synchronized L readLine() throws InputFileException {
+        if (caching) {
+            caching = false;
+            writer.abort();
+        }
+        return source.readLine();
+    }
+
+    @Override
+    public String getEncoding() {
+        return source.getEncoding();
+    }
+
+    @Override
+    public int getSectionSize() {
+        return source.getSectionSize();
+    }
+
+}
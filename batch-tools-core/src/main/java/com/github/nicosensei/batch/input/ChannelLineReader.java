@@ -0,0 +1,352 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Reads lines from a byte channel, looking for line breaks directly in the
+ * bytes so that the exact offset of every line is known. Lines are terminated
+ * by LF or CR LF.
+ *
+ * Only usable with encodings where a LF byte can only stand for a line feed
+ * (UTF-8, ISO-8859-x, US-ASCII...), see {@link #isSplittable(Charset)}.
+ *
+ * Lines are decoded without a charset decoder when possible: ISO-8859-1
+ * bytes are the chars themselves, and so are UTF-8 and US-ASCII bytes in
+ * lines that only hold ASCII characters. Other lines are fully decoded.
+ *
+ * Reading can be bounded: lines that start at or after the end offset are
+ * not returned, but the last line that starts before it is read entirely.
+ *
+ * When reading a file that is still being written, the reader can hold an
+ * unterminated last line instead of returning it, until its terminator is
+ * appended, see {@link #setHoldUnterminatedLine(boolean)}.
+ *
+ * Not synchronized.
+ *
+ * @author ngiraud
+ *
+ */
+public final class ChannelLineReader {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private final ReadableByteChannel channel;
+
+    private final Charset charset;
+
+    /**
+     * Whether the bytes below 0x80 are the ASCII chars.
+     */
+    private final boolean asciiCompatible;
+
+    /**
+     * Whether every byte is the char of the same code (ISO-8859-1).
+     */
+    private final boolean latin1;
+
+    private final ByteBuffer buffer;
+    private final byte[] bytes;
+
+    /**
+     * Index of the next unread byte in the buffer.
+     */
+    private int bufPos = 0;
+
+    /**
+     * End of valid data in the buffer.
+     */
+    private int bufLimit = 0;
+
+    /**
+     * Holds the beginning of a line that spans several buffer fills.
+     */
+    private byte[] lineBuf = new byte[256];
+
+    /**
+     * Number of bytes held in lineBuf.
+     */
+    private int pending = 0;
+
+    /**
+     * Offset of the first byte held in lineBuf.
+     */
+    private long pendingStart;
+
+    /**
+     * Whether to keep an unterminated last line until it is terminated.
+     */
+    private boolean holdUnterminatedLine = false;
+
+    /**
+     * Offset of the next unread byte.
+     */
+    private long position;
+
+    /**
+     * Offset of the first byte of the last line returned.
+     */
+    private long lineOffset = -1L;
+
+    /**
+     * The terminator of the last line returned.
+     */
+    private String lineTerminator = "";
+
+    /**
+     * Lines starting at or after this offset are not read.
+     */
+    private final long end;
+
+    /**
+     * @param channel the channel to read from, positioned at startOffset
+     * @param startOffset the offset of the channel's current position
+     * @param endOffset lines starting at or after this offset are not read,
+     * use {@link Long#MAX_VALUE} to read until the end of the channel.
+     * @param charset the charset used to decode lines
+     * @param bufferSize the read buffer size in bytes
+     */
+    public ChannelLineReader(
+            ReadableByteChannel channel,
+            long startOffset,
+            long endOffset,
+            Charset charset,
+            int bufferSize) {
+        this.channel = channel;
+        this.position = startOffset;
+        this.end = endOffset;
+        this.charset = charset;
+        String name = charset.name();
+        this.latin1 = "ISO-8859-1".equals(name);
+        this.asciiCompatible = latin1 || "UTF-8".equals(name) || "US-ASCII".equals(name);
+        this.bytes = new byte[bufferSize];
+        this.buffer = ByteBuffer.wrap(bytes);
+    }
+
+    public ChannelLineReader(ReadableByteChannel channel, Charset charset) {
+        this(channel, 0L, Long.MAX_VALUE, charset, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Reads the next line.
+     * @return the line without its terminator, or null if there are no more
+     * lines to read.
+     * @throws IOException
+     */
+    public String readLine() throws IOException {
+        if (pending == 0 && position >= end) {
+            return null;
+        }
+        long start = (pending == 0 ? position : pendingStart);
+        while (true) {
+            if (bufPos == bufLimit && !fill()) {
+                if (holdUnterminatedLine) {
+                    return null;
+                }
+                // Last line has no terminator
+                return takeUnterminatedLine();
+            }
+
+            int lf = indexOfLf(bufPos, bufLimit);
+            if (lf < 0) {
+                int len = bufLimit - bufPos;
+                pending = appendToLineBuf(bufPos, len, pending);
+                pendingStart = start;
+                position += len;
+                bufPos = bufLimit;
+                continue;
+            }
+
+            int len = lf - bufPos;
+            position += len + 1;
+            lineOffset = start;
+            String line;
+            if (pending == 0) {
+                line = decode(bytes, bufPos, terminate(bytes, bufPos, len, true));
+            } else {
+                pending = appendToLineBuf(bufPos, len, pending);
+                line = decode(lineBuf, 0, terminate(lineBuf, 0, pending, true));
+                pending = 0;
+            }
+            bufPos = lf + 1;
+            return line;
+        }
+    }
+
+    /**
+     * Returns the unterminated last line read so far, if any. Only useful
+     * when holding unterminated lines.
+     * @return the line without its terminator, or null if no bytes are held.
+     */
+    public String takeUnterminatedLine() {
+        if (pending == 0) {
+            return null;
+        }
+        lineOffset = pendingStart;
+        String line = decode(lineBuf, 0, terminate(lineBuf, 0, pending, false));
+        pending = 0;
+        return line;
+    }
+
+    /**
+     * @param hold if true, {@link #readLine()} returns null at the end of the
+     * channel rather than a line that has no terminator yet. The line's bytes
+     * are kept, and reading goes on with them once more bytes are available.
+     */
+    public void setHoldUnterminatedLine(boolean hold) {
+        this.holdUnterminatedLine = hold;
+    }
+
+    /**
+     * @return true if the beginning of an unterminated line is held.
+     */
+    public boolean hasUnterminatedLine() {
+        return pending > 0;
+    }
+
+    /**
+     * Skips bytes up to and including the next LF, without decoding them.
+     * @return false if the end of the channel was reached before a LF.
+     * @throws IOException
+     */
+    public boolean skipLine() throws IOException {
+        while (true) {
+            if (bufPos == bufLimit && !fill()) {
+                return false;
+            }
+            int lf = indexOfLf(bufPos, bufLimit);
+            if (lf < 0) {
+                position += bufLimit - bufPos;
+                bufPos = bufLimit;
+                continue;
+            }
+            position += lf + 1 - bufPos;
+            bufPos = lf + 1;
+            return true;
+        }
+    }
+
+    /**
+     * @return the offset of the first byte of the last line returned
+     * by {@link #readLine()}, or -1 if no line has been read yet.
+     */
+    public long getLineOffset() {
+        return lineOffset;
+    }
+
+    /**
+     * @return the terminator of the last line returned, LF or CR LF, or an
+     * empty string if the line has none. A CR ending an unterminated line is
+     * the terminator.
+     */
+    public String getLineTerminator() {
+        return lineTerminator;
+    }
+
+    /**
+     * @return the offset of the next unread byte, that is the offset right
+     * after the terminator of the last line read. Held bytes count as unread.
+     */
+    public long getPosition() {
+        return (pending == 0 ? position : pendingStart);
+    }
+
+    /**
+     * @return true if the end offset has been reached.
+     */
+    public boolean isBoundReached() {
+        return position >= end;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @param charset the charset to test
+     * @return true if lines encoded with the given charset can be found by
+     * looking for LF bytes.
+     */
+    public static boolean isSplittable(Charset charset) {
+        byte[] lf = "\n".getBytes(charset);
+        byte[] a = "a".getBytes(charset);
+        return lf.length == 1 && lf[0] == LF && a.length == 1;
+    }
+
+    private boolean fill() throws IOException {
+        buffer.clear();
+        int read = 0;
+        while (read == 0) {
+            read = channel.read(buffer);
+        }
+        if (read < 0) {
+            bufPos = 0;
+            bufLimit = 0;
+            return false;
+        }
+        bufPos = 0;
+        bufLimit = read;
+        return true;
+    }
+
+    private int indexOfLf(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == LF) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int appendToLineBuf(int from, int len, int held) {
+        int required = held + len;
+        if (required > lineBuf.length) {
+            byte[] grown = new byte[Math.max(required, 2 * lineBuf.length)];
+            System.arraycopy(lineBuf, 0, grown, 0, held);
+            lineBuf = grown;
+        }
+        System.arraycopy(bytes, from, lineBuf, held, len);
+        return required;
+    }
+
+    /**
+     * Records the terminator of a line.
+     * @param terminated whether a LF follows the line's bytes
+     * @return the length of the line without a CR before the terminator.
+     */
+    private int terminate(byte[] b, int off, int len, boolean terminated) {
+        if (len > 0 && b[off + len - 1] == CR) {
+            lineTerminator = (terminated ? "\r\n" : "\r");
+            return len - 1;
+        }
+        lineTerminator = (terminated ? "\n" : "");
+        return len;
+    }
+
+    @SuppressWarnings("deprecation")
+    private String decode(byte[] b, int off, int len) {
+        if (latin1 || (asciiCompatible && isAscii(b, off, len))) {
+            // Each byte is a char, no decoding needed
+            return new String(b, 0, off, len);
+        }
+        return new String(b, off, len, charset);
+    }
+
+    private static boolean isAscii(byte[] b, int off, int len) {
+        for (int i = off, end = off + len; i < end; i++) {
+            if (b[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.util.Arrays;
+
+/**
+ * The field indices (0-based columns) a batch needs from its input lines.
+ * Lines built with a projection only split the line up to the last needed
+ * column and only create strings for the needed fields, see
+ * {@link LazyInputLine} and {@link BasicInputLine}.
+ *
+ * Immutable.
+ *
+ * @author ngiraud
+ *
+ */
+public final class ColumnProjection {
+
+    /**
+     * All the columns, no projection.
+     */
+    public static final ColumnProjection ALL = new ColumnProjection(new int[0]);
+
+    /**
+     * Sorted column indices, empty for all columns.
+     */
+    private final int[] columns;
+
+    private ColumnProjection(int[] columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * @param columns the 0-based indices of the needed columns
+     * @return the projection on the given columns
+     * @throws IllegalArgumentException if a column index is negative
+     */
+    public static ColumnProjection of(int... columns) {
+        if (columns.length == 0) {
+            return ALL;
+        }
+        int[] sorted = columns.clone();
+        Arrays.sort(sorted);
+        if (sorted[0] < 0) {
+            throw new IllegalArgumentException("Negative column index " + sorted[0]);
+        }
+        return new ColumnProjection(sorted);
+    }
+
+    /**
+     * Parses a comma separated list of column indices, e.g. "0,3,7".
+     * @param spec the column list, null or empty for all columns
+     * @return the projection
+     * @throws InputFileException if the list is not valid
+     */
+    public static ColumnProjection parse(String spec) throws InputFileException {
+        if (spec == null || spec.trim().isEmpty()) {
+            return ALL;
+        }
+        String[] parts = spec.split(",");
+        int[] columns = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                columns[i] = Integer.parseInt(parts[i].trim());
+            }
+            return of(columns);
+        } catch (final IllegalArgumentException e) {
+            throw InputFileException.invalidColumnProjection(spec);
+        }
+    }
+
+    /**
+     * @return true if this projection keeps all the columns.
+     */
+    public boolean isAll() {
+        return columns.length == 0;
+    }
+
+    /**
+     * @param column a column index
+     * @return true if the column is needed.
+     */
+    public boolean includes(int column) {
+        return columns.length == 0 || Arrays.binarySearch(columns, column) >= 0;
+    }
+
+    /**
+     * @return the highest needed column index, or -1 for all columns.
+     */
+    public int getLastColumn() {
+        return (columns.length == 0 ? -1 : columns[columns.length - 1]);
+    }
+
+    @Override
+    public String toString() {
+        if (columns.length == 0) {
+            return "all columns";
+        }
+        StringBuilder sb = new StringBuilder("columns ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(columns[i]);
+        }
+        return sb.toString();
+    }
+
+}
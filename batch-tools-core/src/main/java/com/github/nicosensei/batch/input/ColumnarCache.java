@@ -0,0 +1,192 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import com.github.nicosensei.batch.BatchExecutor;
+
+/**
+ * A binary, column oriented copy of the parsed records of an input file, so
+ * that batches run repeatedly over the same file only decode and split it
+ * once. The cache is kept in the ColumnarCache.directory setting, or next to
+ * the input file if not set, and is keyed by the input file path, size and
+ * last modification time: it is not used once the input file changes.
+ *
+ * The cache also records the layout of the lines it was written from, see
+ * {@link #layoutOf(InputFileReader)}: the reader and codec classes, the field
+ * delimiter and the column projection. A cache written by another reader, or
+ * with only some of the columns, is not up to date for this layout.
+ *
+ * A batch reads from the cache when it is up to date, and otherwise writes it
+ * while reading the text file, e.g. in its inputFileReaderFactory:
+ * <pre>
+ * MyTextReader text = new MyTextReader(path);
+ * String layout = ColumnarCache.layoutOf(text);
+ * if (ColumnarCache.isUpToDate(path, layout)) {
+ *     text.close();
+ *     return new MyColumnarReader(path, layout); // a ColumnarFileReader
+ * }
+ * return new CachingInputFileReader&lt;MyLine&gt;(text, path);
+ * </pre>
+ *
+ * The file holds one block per section read from the text file. Within a
+ * block, the values of each column are stored one after the other as UTF-8,
+ * with their offsets, so that a field is read without touching the others.
+ * <pre>
+ * header: magic, version, input size, input mtime, input path, layout
+ * block:  input start offset, input end offset, row count, column count,
+ *         field count of each row,
+ *         for each column: data length, row offsets (row count + 1), data
+ * footer: block count, max rows per block, separator, block offsets
+ * trailer: footer offset, magic
+ * </pre>
+ *
+ * @author ngiraud
+ *
+ */
+public final class ColumnarCache {
+
+    static final int MAGIC = 0x42544343;
+
+    static final int VERSION = 2;
+
+    /**
+     * Size of the trailer: footer offset and magic.
+     */
+    static final int TRAILER_SIZE = 12;
+
+    private static final String SUFFIX = ".colcache";
+
+    private ColumnarCache() {
+
+    }
+
+    /**
+     * @param inputPath the input file path
+     * @return the cache file of the given input file, which may not exist.
+     */
+    public static File getCacheFile(String inputPath) {
+        File input = new File(inputPath).getAbsoluteFile();
+        String dir = BatchExecutor.getInstance().getProperty(ColumnarCache.class, "directory");
+        File parent = (dir == null || dir.isEmpty() ? input.getParentFile() : new File(dir));
+        return new File(parent, input.getName() + "."
+                + Integer.toHexString(input.getPath().hashCode()) + SUFFIX);
+    }
+
+    /**
+     * @param source the reader of the text file
+     * @return the layout of the lines the reader builds: its class, the class,
+     * format and delimiter of its codec if it is a {@link RecordFileReader},
+     * and its column projection if it is a {@link ProjectableInputFileReader}.
+     */
+    public static String layoutOf(InputFileReader<?> source) {
+        StringBuilder sb = new StringBuilder(source.getClass().getName());
+        if (source instanceof RecordFileReader) {
+            RecordCodec<?> codec = ((RecordFileReader<?>) source).getCodec();
+            sb.append(';').append(codec.getClass().getName())
+                .append(';').append(codec.getFormatName());
+            if (codec instanceof CsvCodec) {
+                CsvCodec csv = (CsvCodec) codec;
+                sb.append(";delimiter=").append((int) csv.getDelimiter())
+                    .append(",quote=").append((int) csv.getQuote());
+            }
+        }
+        ColumnProjection projection = ColumnProjection.ALL;
+        if (source instanceof ProjectableInputFileReader) {
+            projection = ((ProjectableInputFileReader<?>) source).getColumnProjection();
+        }
+        return sb.append(';').append(projection).toString();
+    }
+
+    /**
+     * @param inputPath the input file path
+     * @param layout the expected layout of the cached lines, see
+     * {@link #layoutOf(InputFileReader)}
+     * @return true if a complete cache of the input file, in its current
+     * state and with the given layout, exists.
+     */
+    public static boolean isUpToDate(String inputPath, String layout) {
+        File cache = getCacheFile(inputPath);
+        if (!cache.isFile()) {
+            return false;
+        }
+        try {
+            return matches(cache, new File(inputPath), layout) && isComplete(cache);
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the cache of an input file by reading all of it.
+     * @param source the reader of the text file, closed once read
+     * @param inputPath the input file path
+     * @throws InputFileException
+     */
+    public static void build(InputFileReader<? extends InputLine> source, String inputPath)
+    throws InputFileException {
+        CachingInputFileReader<? extends InputLine> reader = newCachingReader(source, inputPath);
+        boolean noMoreInput = false;
+        while (!noMoreInput) {
+            InputFileSection<? extends InputLine> s = reader.readSection();
+            noMoreInput = s.noMoreInput();
+            s.recycle();
+        }
+        reader.close();
+    }
+
+    private static <L extends InputLine> CachingInputFileReader<L> newCachingReader(
+            InputFileReader<L> source, String inputPath) throws InputFileException {
+        return new CachingInputFileReader<L>(source, inputPath);
+    }
+
+    /**
+     * @return true if the cache header matches the input file and layout.
+     */
+    static boolean matches(File cache, File input, String layout) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(cache));
+        try {
+            return in.readInt() == MAGIC
+                    && in.readInt() == VERSION
+                    && in.readLong() == input.length()
+                    && in.readLong() == input.lastModified()
+                    && in.readUTF().equals(input.getAbsolutePath())
+                    && in.readUTF().equals(layout);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return true if the cache ends with a trailer.
+     */
+    private static boolean isComplete(File cache) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(cache, "r");
+        try {
+            if (raf.length() < TRAILER_SIZE) {
+                return false;
+            }
+            raf.seek(raf.length() - TRAILER_SIZE);
+            long footerOffset = raf.readLong();
+            return raf.readInt() == MAGIC && footerOffset > 0 && footerOffset < raf.length();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @param lines the lines to check
+     * @return the separator of the first line, or a space if there is none.
+     */
+    static String separatorOf(List<? extends InputLine> lines) {
+        return (lines.isEmpty() ? " " : lines.get(0).getSeparator());
+    }
+
+}
@@ -0,0 +1,242 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.apache.commons.io.output.CountingOutputStream;
+
+import com.github.nicosensei.batch.BatchExecutor;
+
+/**
+ * Writes a {@link ColumnarCache} file, one block per section. The file is
+ * written under a temporary name and only renamed once complete.
+ *
+ * Not synchronized.
+ *
+ * @author ngiraud
+ *
+ */
+final class ColumnarCacheWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File cacheFile;
+
+    private final File tempFile;
+
+    private final File inputFile;
+
+    private final long inputSize;
+
+    private final long inputLastModified;
+
+    private final CountingOutputStream counter;
+
+    private final DataOutputStream out;
+
+    private long[] blockOffsets = new long[64];
+
+    private int blockCount = 0;
+
+    private int maxRows = 0;
+
+    private String separator;
+
+    /**
+     * Per column buffers, reused from block to block.
+     */
+    private byte[][] columnData = new byte[0][];
+    private int[] columnLengths = new int[0];
+    private int[][] columnOffsets = new int[0][];
+
+    /**
+     * @param inputPath the input file path
+     * @param layout the layout of the cached lines
+     * @throws InputFileException
+     */
+    ColumnarCacheWriter(String inputPath, String layout) throws InputFileException {
+        this.inputFile = new File(inputPath).getAbsoluteFile();
+        this.cacheFile = ColumnarCache.getCacheFile(inputPath);
+        this.tempFile = new File(cacheFile.getPath() + ".tmp");
+        this.inputSize = inputFile.length();
+        this.inputLastModified = inputFile.lastModified();
+        try {
+            this.counter = new CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile), 1024 * 1024));
+            this.out = new DataOutputStream(counter);
+            out.writeInt(ColumnarCache.MAGIC);
+            out.writeInt(ColumnarCache.VERSION);
+            out.writeLong(inputSize);
+            out.writeLong(inputLastModified);
+            out.writeUTF(inputFile.getPath());
+            out.writeUTF(layout);
+        } catch (final FileNotFoundException e) {
+            throw InputFileException.fileNotFound(tempFile.getAbsolutePath());
+        } catch (final IOException e) {
+            throw InputFileException.ioError(tempFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Writes the lines of a section as a block. Null fields are written empty.
+     * @param lines the lines
+     * @param startOffset the input offset of the section, -1 if unknown
+     * @param endOffset the input end offset of the section, -1 if unknown
+     * @throws InputFileException
+     */
+    void writeBlock(List<? extends InputLine> lines, long startOffset, long endOffset)
+    throws InputFileException {
+        int rows = lines.size();
+        if (rows == 0) {
+            return;
+        }
+        if (separator == null) {
+            separator = ColumnarCache.separatorOf(lines);
+        }
+
+        int[] fieldCounts = new int[rows];
+        int columns = 0;
+        for (int r = 0; r < rows; r++) {
+            String[] fields = lines.get(r).getFields();
+            fieldCounts[r] = fields.length;
+            if (fields.length > columns) {
+                ensureColumns(fields.length, rows);
+                for (int c = columns; c < fields.length; c++) {
+                    // Rows before this one have no such field
+                    columnLengths[c] = 0;
+                    for (int i = 0; i <= r; i++) {
+                        columnOffsets[c][i] = 0;
+                    }
+                }
+                columns = fields.length;
+            }
+            for (int c = 0; c < columns; c++) {
+                if (c < fields.length && fields[c] != null) {
+                    append(c, fields[c].getBytes(UTF_8));
+                }
+                columnOffsets[c][r + 1] = columnLengths[c];
+            }
+        }
+
+        try {
+            if (blockCount == blockOffsets.length) {
+                long[] grown = new long[2 * blockOffsets.length];
+                System.arraycopy(blockOffsets, 0, grown, 0, blockCount);
+                blockOffsets = grown;
+            }
+            blockOffsets[blockCount++] = counter.getByteCount();
+            maxRows = Math.max(maxRows, rows);
+
+            out.writeLong(startOffset);
+            out.writeLong(endOffset);
+            out.writeInt(rows);
+            out.writeInt(columns);
+            for (int r = 0; r < rows; r++) {
+                out.writeInt(fieldCounts[r]);
+            }
+            for (int c = 0; c < columns; c++) {
+                out.writeInt(columnLengths[c]);
+                for (int r = 0; r <= rows; r++) {
+                    out.writeInt(columnOffsets[c][r]);
+                }
+                out.write(columnData[c], 0, columnLengths[c]);
+            }
+        } catch (final IOException e) {
+            throw InputFileException.ioError(tempFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Completes the cache file, unless the input file changed while it was
+     * read, in which case the cache is discarded.
+     * @throws InputFileException
+     */
+    void commit() throws InputFileException {
+        try {
+            long footerOffset = counter.getByteCount();
+            out.writeInt(blockCount);
+            out.writeInt(maxRows);
+            out.writeUTF(separator == null ? " " : separator);
+            for (int b = 0; b < blockCount; b++) {
+                out.writeLong(blockOffsets[b]);
+            }
+            out.writeLong(footerOffset);
+            out.writeInt(ColumnarCache.MAGIC);
+            out.close();
+        } catch (final IOException e) {
+            abort();
+            throw InputFileException.ioError(tempFile.getAbsolutePath(), e);
+        }
+
+        BatchExecutor executor = BatchExecutor.getInstance();
+        if (inputFile.length() != inputSize || inputFile.lastModified() != inputLastModified) {
+            executor.logWarning("Input file " + inputFile.getPath()
+                    + " changed while being read, discarding its columnar cache.");
+            tempFile.delete();
+            return;
+        }
+        if ((cacheFile.exists() && !cacheFile.delete()) || !tempFile.renameTo(cacheFile)) {
+            executor.logWarning("Failed to replace columnar cache " + cacheFile.getAbsolutePath());
+            tempFile.delete();
+            return;
+        }
+        executor.logInfo("Wrote columnar cache " + cacheFile.getAbsolutePath()
+                + " (" + blockCount + " blocks)");
+    }
+
+    /**
+     * Discards the cache file.
+     */
+    void abort() {
+        try {
+            out.close();
+        } catch (final IOException e) {
+            // Discarding the file anyway
+        }
+        tempFile.delete();
+    }
+
+    private void ensureColumns(int columns, int rows) {
+        if (columns > columnData.length) {
+            byte[][] data = new byte[columns][];
+            int[] lengths = new int[columns];
+            int[][] offsets = new int[columns][];
+            System.arraycopy(columnData, 0, data, 0, columnData.length);
+            System.arraycopy(columnLengths, 0, lengths, 0, columnLengths.length);
+            System.arraycopy(columnOffsets, 0, offsets, 0, columnOffsets.length);
+            for (int c = columnData.length; c < columns; c++) {
+                data[c] = new byte[1024];
+                offsets[c] = new int[rows + 1];
+            }
+            columnData = data;
+            columnLengths = lengths;
+            columnOffsets = offsets;
+        }
+        for (int c = 0; c < columns; c++) {
+            if (columnOffsets[c].length < rows + 1) {
+                columnOffsets[c] = new int[rows + 1];
+            }
+        }
+    }
+
+    private void append(int column, byte[] value) {
+        int required = columnLengths[column] + value.length;
+        if (required > columnData[column].length) {
+            byte[] grown = new byte[Math.max(required, 2 * columnData[column].length)];
+            System.arraycopy(columnData[column], 0, grown, 0, columnLengths[column]);
+            columnData[column] = grown;
+        }
+        System.arraycopy(value, 0, columnData[column], columnLengths[column], value.length);
+        columnLengths[column] = required;
+    }
+
+}
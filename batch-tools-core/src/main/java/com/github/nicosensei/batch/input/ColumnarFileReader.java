@@ -0,0 +1,203 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import com.github.nicosensei.batch.BatchExecutor;
+
+/**
+ * Reads the records of an input file from its {@link ColumnarCache}, one
+ * section per block of the cache, that is per section read from the text
+ * file when the cache was written. Sections keep the byte ranges they had in
+ * the text file, so progress and checkpoints behave as when reading it, and
+ * blocks within committed ranges are skipped on resume.
+ *
+ * Synchronized.
+ *
+ * @author ngiraud
+ *
+ */
+public abstract class ColumnarFileReader<L extends InputLine>
+implements ResumableInputFileReader<L> {
+
+    private final String inputFilePath;
+
+    private final File cacheFile;
+
+    private final FileInputStream inStream;
+
+    private final FileChannel channel;
+
+    private final long[] blockOffsets;
+
+    /**
+     * The offset of the footer, the end of the last block.
+     */
+    private final long footerOffset;
+
+    private final int maxRows;
+
+    private final String separator;
+
+    private final SectionPool<L> sectionPool;
+
+    private int nextBlock = 0;
+
+    private ByteRangeSet skippedRanges = ByteRangeSet.EMPTY;
+
+    /**
+     * Records of the current block not read yet, by {@link #readLine()}.
+     */
+    private ColumnarRecord.Block lineBlock;
+    private int nextRow;
+
+    /**
+     * @param inputFile the path of the text file the cache was written for
+     * @param layout the expected layout of the cached lines, see
+     * {@link ColumnarCache#layoutOf(InputFileReader)}
+     * @throws InputFileException if there is no up to date cache with that layout
+     */
+    public ColumnarFileReader(String inputFile, String layout) throws InputFileException {
+        this.inputFilePath = inputFile;
+        this.cacheFile = ColumnarCache.getCacheFile(inputFile);
+        if (!ColumnarCache.isUpToDate(inputFile, layout)) {
+            throw InputFileException.invalidCache(cacheFile.getAbsolutePath(), inputFile);
+        }
+        try {
+            this.inStream = new FileInputStream(cacheFile);
+        } catch (final FileNotFoundException e) {
+            throw InputFileException.fileNotFound(cacheFile.getAbsolutePath());
+        }
+        this.channel = inStream.getChannel();
+        try {
+            ByteBuffer trailer = ByteBuffer.allocate(ColumnarCache.TRAILER_SIZE);
+            channel.read(trailer, channel.size() - ColumnarCache.TRAILER_SIZE);
+            this.footerOffset = trailer.getLong(0);
+            channel.position(footerOffset);
+            DataInputStream footer = new DataInputStream(Channels.newInputStream(channel));
+            int blockCount = footer.readInt();
+            this.maxRows = footer.readInt();
+            this.separator = footer.readUTF();
+            this.blockOffsets = new long[blockCount];
+            for (int b = 0; b < blockCount; b++) {
+                blockOffsets[b] = footer.readLong();
+            }
+        } catch (final IOException e) {
+            close();
+            throw InputFileException.readError(cacheFile.getAbsolutePath(), e);
+        }
+        this.sectionPool = new SectionPool<L>(Math.max(1, maxRows));
+        BatchExecutor.getInstance().logInfo("Reading " + inputFile + " from columnar cache "
+                + cacheFile.getAbsolutePath() + " (" + blockOffsets.length + " blocks)");
+    }
+
+    @Override
+    public synchronized void close() throws InputFileException {
+        try {
+            inStream.close();
+        } catch (final IOException e) {
+            throw InputFileException.closeFailed(cacheFile.getAbsolutePath(), e);
+        }
+    }
+
+    @Override
+    public synchronized InputFileSection<L> readSection() throws InputFileException {
+        InputFileSection<L> section = sectionPool.acquire();
+        ColumnarRecord.Block block = nextBlock();
+        if (block == null) {
+            section.setNoMoreInput(true);
+            return section;
+        }
+        List<L> lines = section.getLines();
+        for (int r = 0; r < block.getRowCount(); r++) {
+            lines.add(parseRecord(new ColumnarRecord(block, r)));
+        }
+        section.setByteRange(block.getStartOffset(), block.getEndOffset());
+        section.setNoMoreInput(nextBlock >= blockOffsets.length);
+        return section;
+    }
+
+    @Override
+    public synchronized L readLine() throws InputFileException {
+        if (lineBlock == null || nextRow >= lineBlock.getRowCount()) {
+            lineBlock = nextBlock();
+            nextRow = 0;
+            if (lineBlock == null) {
+                return null;
+            }
+        }
+        return parseRecord(new ColumnarRecord(lineBlock, nextRow++));
+    }
+
+    @Override
+    public synchronized void skipRanges(ByteRangeSet ranges) {
+        this.skippedRanges = ranges;
+    }
+
+    /**
+     * @return the encoding of the cache, UTF-8.
+     */
+    @Override
+    public String getEncoding() {
+        return "UTF-8";
+    }
+
+    /**
+     * @return the highest number of records in a block.
+     */
+    @Override
+    public int getSectionSize() {
+        return maxRows;
+    }
+
+    /**
+     * Builds a line from a cached record, typically from its fields.
+     * @param record the record
+     * @return the line
+     * @throws InputFileException
+     */
+    protected abstract L parseRecord(ColumnarRecord record) throws InputFileException;
+
+    protected String getInputFilePath() {
+        return inputFilePath;
+    }
+
+    /**
+     * Maps the next block that is not in a skipped range.
+     * @return the block, or null if there are no more blocks.
+     */
+    private ColumnarRecord.Block nextBlock() throws InputFileException {
+        while (nextBlock < blockOffsets.length) {
+            int b = nextBlock++;
+            long start = blockOffsets[b];
+            long end = (b + 1 < blockOffsets.length ? blockOffsets[b + 1] : footerOffset);
+            ColumnarRecord.Block block;
+            try {
+                block = new ColumnarRecord.Block(
+                        channel.map(FileChannel.MapMode.READ_ONLY, start, end - start),
+                        separator);
+            } catch (final IOException e) {
+                throw InputFileException.readError(cacheFile.getAbsolutePath(), e);
+            }
+            long blockStart = block.getStartOffset();
+            long blockEnd = block.getEndOffset();
+            if (blockStart >= 0 && blockEnd > blockStart
+                    && skippedRanges.skip(blockStart) >= blockEnd) {
+                continue;
+            }
+            return block;
+        }
+        return null;
+    }
+
+}
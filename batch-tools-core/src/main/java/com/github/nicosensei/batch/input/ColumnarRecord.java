@@ -0,0 +1,158 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A record read from a {@link ColumnarCache}. Fields are decoded from the
+ * mapped cache file when accessed, nothing is parsed.
+ *
+ * Not synchronized.
+ *
+ * @author ngiraud
+ *
+ */
+public class ColumnarRecord implements InputLine {
+
+    /**
+     * A block of the cache file, mapped in memory.
+     */
+    static final class Block {
+
+        private final ByteBuffer buffer;
+
+        private final long startOffset;
+
+        private final long endOffset;
+
+        private final int rowCount;
+
+        private final int fieldCountsPosition;
+
+        /**
+         * Position of the row offsets of each column.
+         */
+        private final int[] offsetsPositions;
+
+        /**
+         * Position of the data of each column.
+         */
+        private final int[] dataPositions;
+
+        private final String separator;
+
+        Block(ByteBuffer buffer, String separator) {
+            this.buffer = buffer;
+            this.separator = separator;
+            this.startOffset = buffer.getLong(0);
+            this.endOffset = buffer.getLong(8);
+            this.rowCount = buffer.getInt(16);
+            int columnCount = buffer.getInt(20);
+            this.fieldCountsPosition = 24;
+            this.offsetsPositions = new int[columnCount];
+            this.dataPositions = new int[columnCount];
+            int p = fieldCountsPosition + 4 * rowCount;
+            for (int c = 0; c < columnCount; c++) {
+                int length = buffer.getInt(p);
+                offsetsPositions[c] = p + 4;
+                dataPositions[c] = offsetsPositions[c] + 4 * (rowCount + 1);
+                p = dataPositions[c] + length;
+            }
+        }
+
+        long getStartOffset() {
+            return startOffset;
+        }
+
+        long getEndOffset() {
+            return endOffset;
+        }
+
+        int getRowCount() {
+            return rowCount;
+        }
+
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Block block;
+
+    private final int row;
+
+    private String[] fields;
+
+    ColumnarRecord(Block block, int row) {
+        this.block = block;
+        this.row = row;
+    }
+
+    /**
+     * @return the fields joined by the separator.
+     */
+    @Override
+    public String getLine() {
+        StringBuilder l = new StringBuilder();
+        String[] f = getFields();
+        for (int i = 0; i < f.length; i++) {
+            if (i > 0) {
+                l.append(block.separator);
+            }
+            l.append(f[i]);
+        }
+        return l.toString();
+    }
+
+    @Override
+    public String getSeparator() {
+        return block.separator;
+    }
+
+    @Override
+    public String[] getFields() {
+        if (fields == null) {
+            String[] f = new String[getFieldCount()];
+            for (int i = 0; i < f.length; i++) {
+                f[i] = getField(i);
+            }
+            fields = f;
+        }
+        return fields;
+    }
+
+    public int getFieldCount() {
+        return block.buffer.getInt(block.fieldCountsPosition + 4 * row);
+    }
+
+    /**
+     * @param index the field index
+     * @return the field at the given index
+     * @throws ArrayIndexOutOfBoundsException if there is no such field
+     */
+    @SuppressWarnings("deprecation")
+    public String getField(int index) {
+        if (fields != null) {
+            return fields[index];
+        }
+        if (index < 0 || index >= getFieldCount()) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        ByteBuffer b = block.buffer;
+        int offsets = block.offsetsPositions[index] + 4 * row;
+        int start = block.dataPositions[index] + b.getInt(offsets);
+        int length = block.dataPositions[index] + b.getInt(offsets + 4) - start;
+        byte[] bytes = new byte[length];
+        boolean ascii = true;
+        for (int i = 0; i < length; i++) {
+            byte x = b.get(start + i);
+            bytes[i] = x;
+            ascii &= x >= 0;
+        }
+        // ASCII bytes are the chars themselves, no decoding needed
+        return (ascii ? new String(bytes, 0, 0, length) : new String(bytes, UTF_8));
+    }
+
+}
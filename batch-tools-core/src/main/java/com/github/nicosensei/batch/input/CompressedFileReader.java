@@ -0,0 +1,290 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.List;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import com.github.nicosensei.batch.BatchExecutor;
+
+/**
+ * Reads a compressed text file (gzip, bzip2 or zstd), decoding it as a stream
+ * so that it never has to be decompressed to disk first.
+ *
+ * The compression is given by the CompressedFileReader.compression setting,
+ * or guessed from the file extension when it is not set or set to "auto".
+ * When CompressedFileReader.decoderThreads is greater than 1 and the file is
+ * block gzip (BGZF, as produced by bgzip), members are inflated in parallel
+ * by as many threads, see {@link BgzfInputStream}.
+ *
+ * Sections cover the compressed bytes consumed while they were read, so
+ * byte-based progress is measured against the compressed file size. These
+ * ranges cannot be seeked to: this reader cannot resume from a checkpoint.
+ *
+ * Synchronized.
+ *
+ * @author ngiraud
+ *
+ */
+public abstract class CompressedFileReader<L extends InputLine>
+implements SizableInputFileReader<L>,
+ProjectableInputFileReader<L> {
+
+    private static final String DEFAULT_ENCODING = BatchExecutor.getInstance().getProperty(
+            InputFileReader.class, "encoding");
+
+    private static final String COMPRESSION = BatchExecutor.getInstance().getProperty(
+            CompressedFileReader.class, "compression");
+
+    private static final int DECODER_THREADS = BatchExecutor.getInstance().getIntProperty(
+            CompressedFileReader.class, "decoderThreads", 1);
+
+    /**
+     * Decides when a section is full.
+     */
+    private volatile SectionSizer sectionSizer;
+
+    /**
+     * The columns to build lines with.
+     */
+    private volatile ColumnProjection columnProjection = ColumnProjection.ALL;
+
+    private final boolean ignoreEmptyLines;
+
+    private final SectionPool<L> sectionPool;
+
+    private final String inputFilePath;
+
+    private final String inputFileEncoding;
+
+    private final Compression compression;
+
+    /**
+     * Counts the compressed bytes read from the file.
+     */
+    private final CountingInputStream rawInput;
+
+    private final ChannelLineReader lineReader;
+
+    /**
+     * The compressed bytes consumed when the last section was read.
+     */
+    private long compressedPosition = 0L;
+
+    /**
+     * @param inputFile the input file path
+     * @param inputFileEncoding the encoding of the decoded text
+     * @param sectionSize the number of lines per section
+     * @param ignoreEmptyLines whether to skip empty lines
+     * @param compression the input file compression
+     * @param decoderThreads the number of threads decoding block gzip input
+     * @throws InputFileException
+     */
+    public CompressedFileReader(
+            String inputFile,
+            String inputFileEncoding,
+            int sectionSize,
+            boolean ignoreEmptyLines,
+            Compression compression,
+            int decoderThreads) throws InputFileException {
+
+        this.inputFilePath = inputFile;
+        this.inputFileEncoding = inputFileEncoding;
+        this.sectionSizer = new SectionSizer(sectionSize);
+        this.ignoreEmptyLines = ignoreEmptyLines;
+        this.sectionPool = new SectionPool<L>(sectionSize);
+        this.compression = compression;
+
+        Charset charset;
+        try {
+            charset = Charset.forName(inputFileEncoding);
+        } catch (final IllegalCharsetNameException e) {
+            throw InputFileException.ioError(inputFile, e);
+        } catch (final UnsupportedCharsetException e) {
+            throw InputFileException.ioError(inputFile, e);
+        }
+        if (!ChannelLineReader.isSplittable(charset)) {
+            throw InputFileException.unsplittableEncoding(inputFile, inputFileEncoding);
+        }
+        if (!compression.isAvailable()) {
+            throw InputFileException.unsupportedCompression(inputFile, compression.name());
+        }
+
+        try {
+            this.rawInput = new CountingInputStream(new FileInputStream(inputFile));
+        } catch (final FileNotFoundException e) {
+            throw InputFileException.fileNotFound(inputFile);
+        }
+        try {
+            InputStream decoded = compression.open(rawInput, decoderThreads);
+            this.lineReader = new ChannelLineReader(Channels.newChannel(decoded), charset);
+        } catch (final IOException e) {
+            try {
+                rawInput.close();
+            } catch (final IOException ignored) {
+                // Reporting the decoding error
+            }
+            throw InputFileException.readError(inputFile, e);
+        }
+
+        BatchExecutor executor = BatchExecutor.getInstance();
+        executor.logInfo("Decoding " + compression + " input file " + inputFile
+                + (decoderThreads > 1 ? " with up to " + decoderThreads + " threads" : ""));
+        executor.logInfo("Input encoding set to " + inputFileEncoding);
+        executor.logInfo("Processing input file by chunks of " + sectionSize + " lines.");
+    }
+
+    public CompressedFileReader(
+            String inputFile,
+            String inputFileEncoding,
+            int sectionSize,
+            boolean ignoreEmptyLines) throws InputFileException {
+        this(inputFile, inputFileEncoding, sectionSize, ignoreEmptyLines,
+                Compression.forName(COMPRESSION, inputFile), DECODER_THREADS);
+    }
+
+    public CompressedFileReader(
+            String inputFile,
+            int sectionSize,
+            boolean ignoreEmptyLines) throws InputFileException {
+        this(inputFile, DEFAULT_ENCODING, sectionSize, ignoreEmptyLines);
+    }
+
+    /**
+     * Closes the reader.
+     * @throws InputFileException
+     */
+    @Override
+    public synchronized void close() throws InputFileException {
+        try {
+            lineReader.close();
+        } catch (final IOException e) {
+            throw InputFileException.closeFailed(inputFilePath, e);
+        }
+    }
+
+    /**
+     * Atomically obtain a section of the combined path file
+     * @return
+     * @throws InputFileException
+     */
+    @Override
+    public synchronized InputFileSection<L> readSection()
+    throws InputFileException {
+
+        InputFileSection<L> section = sectionPool.acquire();
+        List<L> lines = section.getLines();
+
+        SectionSizer sizer = sectionSizer;
+        long sectionStart = lineReader.getPosition();
+        boolean eof = false;
+        while (!sizer.isFull(lines.size(), lineReader.getPosition() - sectionStart)) {
+            String l = readOneLine();
+            if (l == null) {
+                eof = true;
+                break;
+            }
+            if (ignoreEmptyLines && lineIsEmpty(l)) {
+                continue; // skip empty lines
+            }
+            lines.add(parseLine(l));
+        }
+
+        long position = rawInput.getByteCount();
+        section.setByteRange(compressedPosition, position);
+        compressedPosition = position;
+        section.setNoMoreInput(eof);
+        return section;
+    }
+
+    /**
+     * Atomically obtain a line of the combined path file
+     * @return
+     * @throws InputFileException
+     */
+    @Override
+    public synchronized L readLine() throws InputFileException {
+        L line = null;
+        while (line == null) {
+            String l = readOneLine();
+            if (l == null) {
+                break;
+            }
+            if (ignoreEmptyLines && lineIsEmpty(l)) {
+                continue; // skip empty lines
+            }
+            line = parseLine(l);
+        }
+        return line;
+    }
+
+    @Override
+    public String getEncoding() {
+        return inputFileEncoding;
+    }
+
+    @Override
+    public int getSectionSize() {
+        return sectionSizer.getLineLimit();
+    }
+
+    @Override
+    public void setSectionSizer(SectionSizer sectionSizer) {
+        this.sectionSizer = sectionSizer;
+    }
+
+    @Override
+    public SectionSizer getSectionSizer() {
+        return sectionSizer;
+    }
+
+    @Override
+    public void setColumnProjection(ColumnProjection projection) {
+        this.columnProjection = projection;
+    }
+
+    @Override
+    public ColumnProjection getColumnProjection() {
+        return columnProjection;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return the number of compressed bytes read from the file so far.
+     */
+    public long getCompressedBytesRead() {
+        return rawInput.getByteCount();
+    }
+
+    protected abstract L parseLine(String line) throws InputFileException;
+
+    protected String getInputFilePath() {
+        return inputFilePath;
+    }
+
+    private String readOneLine() throws InputFileException {
+        try {
+            return lineReader.readLine();
+        } catch (final IOException e) {
+            throw InputFileException.readError(inputFilePath, e);
+        }
+    }
+
+    private boolean lineIsEmpty(String l) {
+        return l.trim().isEmpty();
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * The compression formats input files can be decoded from, see
+ * {@link CompressedFileReader}.
+ *
+ * Zstandard decoding relies on zstd-jni (com.github.luben:zstd-jni), which is
+ * an optional dependency that must be added to the batch classpath.
+ *
+ * @author ngiraud
+ *
+ */
+public enum Compression {
+
+    NONE,
+    GZIP(".gz", ".gzip", ".bgz"),
+    BZIP2(".bz2", ".bzip2"),
+    ZSTD(".zst", ".zstd");
+
+    /**
+     * Value of the compression setting asking to choose by file extension.
+     */
+    public static final String AUTO = "auto";
+
+    private static final String ZSTD_INPUT_STREAM = "com.github.luben.zstd.ZstdInputStream";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String[] extensions;
+
+    private Compression(String... extensions) {
+        this.extensions = extensions;
+    }
+
+    /**
+     * @param path a file path
+     * @return the compression matching the file extension, {@link #NONE}
+     * if the extension is unknown.
+     */
+    public static Compression forFile(String path) {
+        String lowerCasePath = path.toLowerCase(Locale.ENGLISH);
+        for (Compression c : values()) {
+            for (String ext : c.extensions) {
+                if (lowerCasePath.endsWith(ext)) {
+                    return c;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @param name a compression name, or {@link #AUTO}
+     * @param path the file path, used when the name is {@link #AUTO} or null
+     * @return the matching compression
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static Compression forName(String name, String path) {
+        if (name == null || name.isEmpty() || AUTO.equalsIgnoreCase(name)) {
+            return forFile(path);
+        }
+        return valueOf(name.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * @return true if the classes needed to decode this format are available.
+     */
+    public boolean isAvailable() {
+        if (!ZSTD.equals(this)) {
+            return true;
+        }
+        try {
+            Class.forName(ZSTD_INPUT_STREAM);
+            return true;
+        } catch (final ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Wraps a raw input stream into a decoding stream.
+     * @param in the compressed stream
+     * @param decoderThreads the number of threads decompressing block gzip
+     * members in parallel. When it is greater than 1 and the input is block
+     * gzip (BGZF), a {@link BgzfInputStream} is used. Ignored otherwise.
+     * @return the decoded stream
+     * @throws IOException
+     */
+    public InputStream open(InputStream in, int decoderThreads) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        switch (this) {
+        case GZIP:
+            if (decoderThreads > 1 && BgzfInputStream.isBgzf(buffered)) {
+                return new BgzfInputStream(buffered, decoderThreads);
+            }
+            // Reads concatenated gzip members as one stream
+            return new GZIPInputStream(buffered, BUFFER_SIZE);
+        case BZIP2:
+            return new BZip2CompressorInputStream(buffered, true);
+        case ZSTD:
+            return openZstd(buffered);
+        default:
+            return buffered;
+        }
+    }
+
+    private static InputStream openZstd(InputStream in) throws IOException {
+        try {
+            return (InputStream) Class.forName(ZSTD_INPUT_STREAM)
+                    .getConstructor(InputStream.class).newInstance(in);
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (final Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+}
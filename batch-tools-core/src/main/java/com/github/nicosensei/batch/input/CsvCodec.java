@@ -0,0 +1,116 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+/**
+ * Decodes delimiter separated records as specified by RFC 4180: a field may
+ * be enclosed in quotes, and must be when it holds the delimiter, a quote or
+ * a line break. Quotes within a quoted field are doubled. A quoted field can
+ * span several lines.
+ *
+ * Parsing is lenient: a quote that does not start a field is a plain char,
+ * chars between a closing quote and the next delimiter are ignored, and an
+ * unterminated quoted field ends with the record.
+ *
+ * Immutable.
+ *
+ * @author ngiraud
+ *
+ */
+public final class CsvCodec implements RecordCodec<CsvRecord> {
+
+    public static final char DEFAULT_QUOTE = '"';
+
+    /**
+     * Comma separated values.
+     */
+    public static final CsvCodec CSV = new CsvCodec(',');
+
+    /**
+     * Tab separated values.
+     */
+    public static final CsvCodec TSV = new CsvCodec('\t');
+
+    private final char delimiter;
+
+    private final char quote;
+
+    public CsvCodec(char delimiter, char quote) {
+        this.delimiter = delimiter;
+        this.quote = quote;
+    }
+
+    public CsvCodec(char delimiter) {
+        this(delimiter, DEFAULT_QUOTE);
+    }
+
+    /**
+     * @return false if the text ends within a quoted field.
+     */
+    public boolean isComplete(CharSequence text) {
+        return isComplete(text, 0);
+    }
+
+    /**
+     * Text found incomplete ends within a quoted field, so scanning resumes
+     * there.
+     * @return false if the text ends within a quoted field.
+     */
+    @Override
+    public boolean isComplete(CharSequence text, int from) {
+        int len = text.length();
+        int i = from;
+        boolean quoted = (from > 0);
+        boolean fieldStart = true;
+        while (i < len) {
+            if (quoted) {
+                // Skip the rest of the quoted field
+                while (true) {
+                    if (i >= len) {
+                        return false;
+                    }
+                    if (text.charAt(i) == quote) {
+                        if (i + 1 < len && text.charAt(i + 1) == quote) {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                quoted = false;
+                fieldStart = false;
+            } else {
+                char c = text.charAt(i);
+                if (c == quote && fieldStart) {
+                    quoted = true;
+                    i++;
+                    continue;
+                }
+                fieldStart = (c == delimiter);
+            }
+            i++;
+        }
+        return !quoted;
+    }
+
+    @Override
+    public CsvRecord decode(String text, ColumnProjection projection) {
+        return new CsvRecord(text, delimiter, quote, projection);
+    }
+
+    @Override
+    public String getFormatName() {
+        return "CSV";
+    }
+
+    public char getDelimiter() {
+        return delimiter;
+    }
+
+    public char getQuote() {
+        return quote;
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import com.github.nicosensei.batch.BatchExecutor;
+
+/**
+ * Reads a CSV (or TSV...) file, see {@link CsvCodec}. Records are read whole,
+ * even when quoted fields span several lines.
+ *
+ * The delimiter and quote chars are given by the CsvFileReader.delimiter
+ * (',' by default, "\t" or "tab" for tabs) and CsvFileReader.quote settings.
+ * When CsvFileReader.header is true, the first record is the header: it is
+ * read when the reader is created and not handed out to workers.
+ *
+ * @author ngiraud
+ *
+ */
+public class CsvFileReader extends RecordFileReader<CsvRecord> {
+
+    private static final char DELIMITER = toChar(BatchExecutor.getInstance().getProperty(
+            CsvFileReader.class, "delimiter"), ',');
+
+    private static final char QUOTE = toChar(BatchExecutor.getInstance().getProperty(
+            CsvFileReader.class, "quote"), CsvCodec.DEFAULT_QUOTE);
+
+    private static final boolean HEADER = BatchExecutor.getInstance().getBoolProperty(
+            CsvFileReader.class, "header", false);
+
+    private final CsvRecord header;
+
+    /**
+     * @param inputFile the input file path
+     * @param inputFileEncoding the input file encoding
+     * @param sectionSize the number of records per section
+     * @param codec the CSV dialect
+     * @param header whether the first record is a header
+     * @throws InputFileException
+     */
+    public CsvFileReader(
+            String inputFile,
+            String inputFileEncoding,
+            int sectionSize,
+            CsvCodec codec,
+            boolean header) throws InputFileException {
+        super(inputFile, inputFileEncoding, sectionSize, true, codec);
+        this.header = (header ? readLine() : null);
+    }
+
+    public CsvFileReader(String inputFile, int sectionSize) throws InputFileException {
+        super(inputFile, sectionSize, true, new CsvCodec(DELIMITER, QUOTE));
+        this.header = (HEADER ? readLine() : null);
+    }
+
+    /**
+     * @return the header record, or null if the file has no header.
+     */
+    public CsvRecord getHeader() {
+        return header;
+    }
+
+    /**
+     * @param name a column name
+     * @return the index of the column in the header, -1 if there is none.
+     */
+    public int getColumnIndex(String name) {
+        if (header != null) {
+            for (int i = 0; i < header.getFieldCount(); i++) {
+                if (header.getField(i).equals(name)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static char toChar(String setting, char defaultValue) {
+        if (setting == null || setting.isEmpty()) {
+            return defaultValue;
+        }
+        if ("\\t".equals(setting) || "tab".equalsIgnoreCase(setting)) {
+            return '\t';
+        }
+        return setting.charAt(0);
+    }
+
+}
@@ -0,0 +1,218 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+/**
+ * A record decoded by a {@link CsvCodec}. The record text is kept as is and
+ * only scanned as far as the fields asked for, and fields are only turned
+ * into strings when accessed. Quoted fields are unquoted, doubled quotes
+ * within them undoubled.
+ *
+ * With a {@link ColumnProjection}, {@link #getFields()} only scans the record
+ * up to the last projected column and only materializes the projected
+ * fields, the others being null.
+ *
+ * Not synchronized.
+ *
+ * @author ngiraud
+ *
+ */
+public class CsvRecord implements InputLine {
+
+    private final String text;
+
+    private final char delimiter;
+
+    private final char quote;
+
+    private final ColumnProjection projection;
+
+    /**
+     * Start and end indices of the content of each field scanned so far.
+     */
+    private int[] bounds = new int[16];
+
+    /**
+     * Whether each field scanned so far holds doubled quotes.
+     */
+    private boolean[] escaped = new boolean[8];
+
+    private int scannedFields = 0;
+
+    /**
+     * Index of the first char of the next field to scan.
+     */
+    private int scanPosition = 0;
+
+    private boolean scanComplete = false;
+
+    /**
+     * Fields materialized so far.
+     */
+    private String[] fields = new String[8];
+
+    private boolean allFieldsMaterialized = false;
+
+    /**
+     * @param text the record text
+     * @param delimiter the field delimiter
+     * @param quote the quote char
+     * @param projection the fields to materialize in {@link #getFields()}
+     */
+    public CsvRecord(
+            String text,
+            char delimiter,
+            char quote,
+            ColumnProjection projection) {
+        this.text = text;
+        this.delimiter = delimiter;
+        this.quote = quote;
+        this.projection = projection;
+    }
+
+    /**
+     * @return the record text, unchanged.
+     */
+    @Override
+    public String getLine() {
+        return text;
+    }
+
+    @Override
+    public String getSeparator() {
+        return String.valueOf(delimiter);
+    }
+
+    /**
+     * @return the fields, or with a projection the fields up to the last
+     * projected column, null for the columns that are not projected.
+     */
+    @Override
+    public String[] getFields() {
+        if (!allFieldsMaterialized) {
+            int last = projection.getLastColumn();
+            scanUpTo(last < 0 ? Integer.MAX_VALUE : last);
+            String[] result = new String[scannedFields];
+            for (int i = 0; i < scannedFields; i++) {
+                if (projection.includes(i)) {
+                    result[i] = getField(i);
+                }
+            }
+            fields = result;
+            allFieldsMaterialized = true;
+        }
+        return fields;
+    }
+
+    /**
+     * @return the number of fields in the record.
+     */
+    public int getFieldCount() {
+        scanUpTo(Integer.MAX_VALUE);
+        return scannedFields;
+    }
+
+    /**
+     * @param index the field index
+     * @return the field at the given index
+     * @throws ArrayIndexOutOfBoundsException if there is no such field
+     */
+    public String getField(int index) {
+        if (index < 0) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        scanUpTo(index);
+        if (index >= scannedFields) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        if (index >= fields.length) {
+            String[] grown = new String[Math.max(index + 1, 2 * fields.length)];
+            System.arraycopy(fields, 0, grown, 0, fields.length);
+            fields = grown;
+        }
+        String f = fields[index];
+        if (f == null) {
+            f = materialize(index);
+            fields[index] = f;
+        }
+        return f;
+    }
+
+    private String materialize(int index) {
+        int start = bounds[2 * index];
+        int end = bounds[2 * index + 1];
+        if (!escaped[index]) {
+            return text.substring(start, end);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            sb.append(c);
+            if (c == quote) {
+                i++; // skip the doubling quote
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Scans fields until the one at the given index, or the end of the record.
+     */
+    private void scanUpTo(int index) {
+        while (!scanComplete && scannedFields <= index) {
+            scanField();
+        }
+    }
+
+    private void scanField() {
+        int len = text.length();
+        int p = scanPosition;
+        int start;
+        int end;
+        boolean hasEscapes = false;
+        if (p < len && text.charAt(p) == quote) {
+            start = p + 1;
+            int i = start;
+            while (i < len) {
+                if (text.charAt(i) == quote) {
+                    if (i + 1 < len && text.charAt(i + 1) == quote) {
+                        hasEscapes = true;
+                        i += 2;
+                        continue;
+                    }
+                    break;
+                }
+                i++;
+            }
+            end = Math.min(i, len);
+            p = text.indexOf(delimiter, end);
+        } else {
+            start = p;
+            p = text.indexOf(delimiter, p);
+            end = (p < 0 ? len : p);
+        }
+        addField(start, end, hasEscapes);
+        if (p < 0) {
+            scanComplete = true;
+        } else {
+            scanPosition = p + 1;
+        }
+    }
+
+    private void addField(int start, int end, boolean hasEscapes) {
+        if (2 * scannedFields + 2 > bounds.length) {
+            int[] grown = new int[2 * bounds.length];
+            System.arraycopy(bounds, 0, grown, 0, bounds.length);
+            bounds = grown;
+            boolean[] grownEscaped = new boolean[bounds.length / 2];
+            System.arraycopy(escaped, 0, grownEscaped, 0, escaped.length);
+            escaped = grownEscaped;
+        }
+        bounds[2 * scannedFields] = start;
+        bounds[2 * scannedFields + 1] = end;
+        escaped[scannedFields] = hasEscapes;
+        scannedFields++;
+    }
+
+}
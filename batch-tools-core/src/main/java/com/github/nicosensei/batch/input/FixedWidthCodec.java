@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+/**
+ * Decodes fixed-width records, where each field takes a given number of
+ * chars. Fields are cut from the record text on access, see
+ * {@link FixedWidthRecord}.
+ *
+ * Immutable.
+ *
+ * @author ngiraud
+ *
+ */
+public final class FixedWidthCodec implements RecordCodec<FixedWidthRecord> {
+
+    /**
+     * The index of the first char of each field, followed by the record width.
+     */
+    private final int[] offsets;
+
+    private final boolean trim;
+
+    /**
+     * @param widths the number of chars of each field
+     * @param trim whether to strip the padding around field values
+     * @throws IllegalArgumentException if a width is not positive
+     */
+    public FixedWidthCodec(int[] widths, boolean trim) {
+        this.offsets = new int[widths.length + 1];
+        for (int i = 0; i < widths.length; i++) {
+            if (widths[i] <= 0) {
+                throw new IllegalArgumentException("Field " + i + " has width " + widths[i]);
+            }
+            offsets[i + 1] = offsets[i] + widths[i];
+        }
+        this.trim = trim;
+    }
+
+    /**
+     * @param widths the comma separated field widths, e.g. "10,5,20"
+     * @param trim whether to strip the padding around field values
+     * @return the codec
+     * @throws InputFileException if the widths are not valid
+     */
+    public static FixedWidthCodec parse(String widths, boolean trim) throws InputFileException {
+        if (widths == null || widths.trim().isEmpty()) {
+            throw InputFileException.invalidRecordLayout("fixed-width", String.valueOf(widths));
+        }
+        String[] parts = widths.split(",");
+        int[] w = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                w[i] = Integer.parseInt(parts[i].trim());
+            }
+            return new FixedWidthCodec(w, trim);
+        } catch (final IllegalArgumentException e) {
+            throw InputFileException.invalidRecordLayout("fixed-width", widths);
+        }
+    }
+
+    /**
+     * @return true, a fixed-width record is always a single line.
+     */
+    @Override
+    public boolean isComplete(CharSequence text, int from) {
+        return true;
+    }
+
+    @Override
+    public FixedWidthRecord decode(String text, ColumnProjection projection) {
+        return new FixedWidthRecord(text, offsets, trim, projection);
+    }
+
+    @Override
+    public String getFormatName() {
+        return "fixed-width";
+    }
+
+    public int getFieldCount() {
+        return offsets.length - 1;
+    }
+
+}
@@ -0,0 +1,33 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import com.github.nicosensei.batch.BatchExecutor;
+
+/**
+ * Reads a fixed-width file, see {@link FixedWidthRecord}. The layout is given
+ * by the FixedWidthFileReader.widths setting, the comma separated widths of
+ * the fields, and padding is stripped from values unless
+ * FixedWidthFileReader.trim is false.
+ *
+ * @author ngiraud
+ *
+ */
+public class FixedWidthFileReader extends RecordFileReader<FixedWidthRecord> {
+
+    public FixedWidthFileReader(
+            String inputFile,
+            String inputFileEncoding,
+            int sectionSize,
+            FixedWidthCodec codec) throws InputFileException {
+        super(inputFile, inputFileEncoding, sectionSize, true, codec);
+    }
+
+    public FixedWidthFileReader(String inputFile, int sectionSize) throws InputFileException {
+        super(inputFile, sectionSize, true, FixedWidthCodec.parse(
+                BatchExecutor.getInstance().getProperty(FixedWidthFileReader.class, "widths"),
+                BatchExecutor.getInstance().getBoolProperty(FixedWidthFileReader.class, "trim", true)));
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+/**
+ * A record decoded by a {@link FixedWidthCodec}. Fields are cut from the
+ * record text when accessed. A record shorter than the layout has empty
+ * trailing fields, chars beyond the layout are ignored.
+ *
+ * With a {@link ColumnProjection}, {@link #getFields()} only materializes
+ * the projected fields, the others being null.
+ *
+ * Not synchronized.
+ *
+ * @author ngiraud
+ *
+ */
+public class FixedWidthRecord implements InputLine {
+
+    private final String text;
+
+    /**
+     * Shared with the codec, must not be modified.
+     */
+    private final int[] offsets;
+
+    private final boolean trim;
+
+    private final ColumnProjection projection;
+
+    private final String[] fields;
+
+    private boolean allFieldsMaterialized = false;
+
+    FixedWidthRecord(
+            String text,
+            int[] offsets,
+            boolean trim,
+            ColumnProjection projection) {
+        this.text = text;
+        this.offsets = offsets;
+        this.trim = trim;
+        this.projection = projection;
+        this.fields = new String[offsets.length - 1];
+    }
+
+    /**
+     * @return the record text, unchanged.
+     */
+    @Override
+    public String getLine() {
+        return text;
+    }
+
+    @Override
+    public String getSeparator() {
+        return "";
+    }
+
+    /**
+     * @return the fields, null for the columns that are not projected.
+     */
+    @Override
+    public String[] getFields() {
+        if (!allFieldsMaterialized) {
+            for (int i = 0; i < fields.length; i++) {
+                if (projection.includes(i)) {
+                    getField(i);
+                }
+            }
+            allFieldsMaterialized = true;
+        }
+        return fields;
+    }
+
+    public int getFieldCount() {
+        return fields.length;
+    }
+
+    /**
+     * @param index the field index
+     * @return the field at the given index
+     * @throws ArrayIndexOutOfBoundsException if there is no such field
+     */
+    public String getField(int index) {
+        String f = fields[index];
+        if (f == null) {
+            int len = text.length();
+            int start = Math.min(offsets[index], len);
+            int end = Math.min(offsets[index + 1], len);
+            if (trim) {
+                while (start < end && text.charAt(start) <= ' ') {
+                    start++;
+                }
+                while (end > start && text.charAt(end - 1) <= ' ') {
+                    end--;
+                }
+            }
+            f = text.substring(start, end);
+            fields[index] = f;
+        }
+        return f;
+    }
+
+}
@@ -19,7 +19,20 @@ public class InputFileException extends BatchException {
         INPUT_FILE_NOT_FOUND("The input file {0} was not found."),
         INPUT_FILE_CLOSE_FAILED("Failed to close input file {0}: {1}"),
         INPUT_FILE_READ_ERROR("Error while reading input file {0}: {1}"),
-        INPUT_FILE_IO_ERROR("IO error occured when processing {0}: {1}");
+        INPUT_FILE_IO_ERROR("IO error occured when processing {0}: {1}"),
+        INPUT_FILE_UNSPLITTABLE_ENCODING(
+                "Input file {0} cannot be split on line boundaries with encoding {1}."),
+        INPUT_FILE_NOT_RESUMABLE("Reader {0} cannot resume from a checkpoint."),
+        INPUT_FILE_UNSUPPORTED_COMPRESSION(
+                "Cannot decode input file {0}, compression {1} is not supported."),
+        INPUT_FILE_INVALID_COLUMN_PROJECTION(
+                "Invalid column list {0}, expected comma separated column indices."),
+        INPUT_FILE_INVALID_RECORD_LAYOUT("Invalid {0} record layout: {1}"),
+        INPUT_FILE_MALFORMED_RECORD("Malformed {0} record at char {1}: {2}"),
+        INPUT_FILE_INVALID_CACHE("Columnar cache {0} cannot be used for input file {1}."),
+        INPUT_FILE_NOT_CACHEABLE(
+                "Reader {0} cannot be cached, it splits its input between threads."),
+        INPUT_FILE_READER_FAILED("Reader {0} failed: {1}");
 
         private String fmt;
         CODE(String fmt) {
@@ -78,6 +91,76 @@ public class InputFileException extends BatchException {
                 cause);
     }
 
+    public static final InputFileException unsplittableEncoding(
+            String filePath, String encoding) {
+        return new InputFileException(
+                CODE.INPUT_FILE_UNSPLITTABLE_ENCODING,
+                new String[] { filePath, encoding },
+                Level.FATAL);
+    }
+
+    public static final InputFileException notResumable(String readerClass) {
+        return new InputFileException(
+                CODE.INPUT_FILE_NOT_RESUMABLE,
+                new String[] { readerClass },
+                Level.FATAL);
+    }
+
+    public static final InputFileException unsupportedCompression(
+            String filePath, String compression) {
+        return new InputFileException(
+                CODE.INPUT_FILE_UNSUPPORTED_COMPRESSION,
+                new String[] { filePath, compression },
+                Level.FATAL);
+    }
+
+    public static final InputFileException invalidColumnProjection(String spec) {
+        return new InputFileException(
+                CODE.INPUT_FILE_INVALID_COLUMN_PROJECTION,
+                new String[] { spec },
+                Level.FATAL);
+    }
+
+    public static final InputFileException invalidRecordLayout(
+            String format, String layout) {
+        return new InputFileException(
+                CODE.INPUT_FILE_INVALID_RECORD_LAYOUT,
+                new String[] { format, layout },
+                Level.FATAL);
+    }
+
+    public static final InputFileException malformedRecord(
+            String format, int position, String record) {
+        return new InputFileException(
+                CODE.INPUT_FILE_MALFORMED_RECORD,
+                new String[] { format, Integer.toString(position), record },
+                Level.ERROR);
+    }
+
+    public static final InputFileException invalidCache(
+            String cachePath, String inputPath) {
+        return new InputFileException(
+                CODE.INPUT_FILE_INVALID_CACHE,
+                new String[] { cachePath, inputPath },
+                Level.FATAL);
+    }
+
+    public static final InputFileException notCacheable(String readerClass) {
+        return new InputFileException(
+                CODE.INPUT_FILE_NOT_CACHEABLE,
+                new String[] { readerClass },
+                Level.FATAL);
+    }
+
+    public static final InputFileException readerFailed(
+            String readerClass, Throwable cause) {
+        return new InputFileException(
+                CODE.INPUT_FILE_READER_FAILED,
+                new String[] { readerClass, cause.toString() },
+                Level.FATAL,
+                cause);
+    }
+
     public static final InputFileException ioError(
             String filePath, Exception cause) {
         return new InputFileException(
@@ -3,21 +3,76 @@
  */
 package com.github.nicosensei.batch.input;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
+ * A section of lines read from an input file.
+ *
+ * Readers that know where lines come from record the byte range the section
+ * covers, skipped lines included, and the offset of each line. Offsets are
+ * -1 when unknown. Sections gathering lines from several places may instead
+ * only record the number of input bytes their lines come from.
+ *
+ * Sections obtained from a {@link SectionPool} are recycled by the worker
+ * once it has completed them, so neither the section nor its list of lines
+ * should be retained after {@link #recycle()} has been called.
+ *
  * @author ngiraud
  *
  */
 public class InputFileSection<L extends InputLine> {
 
     private boolean noMoreInput = false;
-    private final List<L> lines;
+    private final ArrayList<L> lines;
+
+    /**
+     * The pool this section returns to when recycled, null if the section
+     * is not pooled.
+     */
+    private final SectionPool<L> pool;
+
+    /**
+     * True while the section sits idle in its pool.
+     */
+    private boolean idle = false;
+
+    /**
+     * Offset of the first byte covered by the section.
+     */
+    private long startOffset = -1L;
+
+    /**
+     * Offset right after the last byte covered by the section.
+     */
+    private long endOffset = -1L;
+
+    /**
+     * Number of input bytes covered by a section without a byte range.
+     */
+    private long byteLength = -1L;
+
+    /**
+     * Offsets of the lines, in the order they were read.
+     */
+    private long[] lineOffsets = null;
+
+    private int lineOffsetCount = 0;
+
+    /**
+     * Notified once when the section is recycled, may be null.
+     */
+    private Runnable recycleCallback = null;
 
     public InputFileSection(List<L> lines, boolean noMoreInput) {
-        this.lines = new LinkedList<L>(lines);
+        this.lines = new ArrayList<L>(lines);
         this.noMoreInput = noMoreInput;
+        this.pool = null;
+    }
+
+    InputFileSection(SectionPool<L> pool, int capacity) {
+        this.lines = new ArrayList<L>(capacity);
+        this.pool = pool;
     }
 
     public boolean noMoreInput() {
@@ -28,4 +83,119 @@ public class InputFileSection<L extends InputLine> {
         return lines;
     }
 
+    /**
+     * @return the offset of the first byte covered by the section, or -1
+     * if unknown.
+     */
+    public long getStartOffset() {
+        return startOffset;
+    }
+
+    /**
+     * @return the offset right after the last byte covered by the section,
+     * or -1 if unknown.
+     */
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    /**
+     * @return the number of input bytes the section covers, skipped lines
+     * included, or -1 if unknown.
+     */
+    public long getByteLength() {
+        if (startOffset < 0 || endOffset < startOffset) {
+            return byteLength;
+        }
+        return endOffset - startOffset;
+    }
+
+    /**
+     * @param index the index of a line as read, before any pre-processing.
+     * @return the offset of the line's first byte, or -1 if unknown.
+     */
+    public long getLineOffset(int index) {
+        if (index < lineOffsetCount) {
+            return lineOffsets[index];
+        }
+        return -1L;
+    }
+
+    /**
+     * Returns this section to the pool it was obtained from, if any.
+     * The section must not be used afterwards.
+     */
+    public void recycle() {
+        if (idle) {
+            return;
+        }
+        Runnable callback = recycleCallback;
+        recycleCallback = null;
+        if (callback != null) {
+            callback.run();
+        }
+        if (pool != null) {
+            idle = true;
+            pool.release(this);
+        }
+    }
+
+    void setNoMoreInput(boolean noMoreInput) {
+        this.noMoreInput = noMoreInput;
+    }
+
+    /**
+     * Lets the reader know when the worker is done with the section.
+     */
+    void setRecycleCallback(Runnable recycleCallback) {
+        this.recycleCallback = recycleCallback;
+    }
+
+    void setByteRange(long startOffset, long endOffset) {
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+    }
+
+    /**
+     * Records the input bytes covered by a section that has no byte range.
+     */
+    void setByteLength(long byteLength) {
+        this.byteLength = byteLength;
+    }
+
+    /**
+     * Adds a line and records its offset.
+     */
+    void addLine(L line, long offset) {
+        if (lineOffsets == null) {
+            lineOffsets = new long[Math.max(16, lines.size() + 1)];
+        } else if (lineOffsetCount == lineOffsets.length) {
+            long[] grown = new long[2 * lineOffsets.length];
+            System.arraycopy(lineOffsets, 0, grown, 0, lineOffsetCount);
+            lineOffsets = grown;
+        }
+        // Offsets are only meaningful if every line has one
+        if (lineOffsetCount == lines.size()) {
+            lineOffsets[lineOffsetCount++] = offset;
+        }
+        lines.add(line);
+    }
+
+    /**
+     * Empties the section, keeping the capacity of its line container.
+     */
+    void reset() {
+        lines.clear();
+        noMoreInput = false;
+        startOffset = -1L;
+        endOffset = -1L;
+        byteLength = -1L;
+        lineOffsetCount = 0;
+        recycleCallback = null;
+    }
+
+    void acquired() {
+        idle = false;
+    }
+
 }
@@ -0,0 +1,43 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+/**
+ * Decodes JSON Lines records: one JSON object per line. Records are checked
+ * to be well-formed JSON in a single pass that allocates nothing, values are
+ * then read on demand, see {@link JsonRecord}.
+ *
+ * Immutable.
+ *
+ * @author ngiraud
+ *
+ */
+public final class JsonLinesCodec implements RecordCodec<JsonRecord> {
+
+    public static final JsonLinesCodec INSTANCE = new JsonLinesCodec();
+
+    private JsonLinesCodec() {
+
+    }
+
+    /**
+     * @return true, a JSON Lines record is always a single line.
+     */
+    @Override
+    public boolean isComplete(CharSequence text, int from) {
+        return true;
+    }
+
+    @Override
+    public JsonRecord decode(String text, ColumnProjection projection)
+    throws InputFileException {
+        return JsonRecord.parse(text, projection);
+    }
+
+    @Override
+    public String getFormatName() {
+        return "JSON";
+    }
+
+}
@@ -0,0 +1,26 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+/**
+ * Reads a JSON Lines file, one JSON object per line, see {@link JsonRecord}.
+ * A malformed record fails the section being read.
+ *
+ * @author ngiraud
+ *
+ */
+public class JsonLinesFileReader extends RecordFileReader<JsonRecord> {
+
+    public JsonLinesFileReader(
+            String inputFile,
+            String inputFileEncoding,
+            int sectionSize) throws InputFileException {
+        super(inputFile, inputFileEncoding, sectionSize, true, JsonLinesCodec.INSTANCE);
+    }
+
+    public JsonLinesFileReader(String inputFile, int sectionSize) throws InputFileException {
+        super(inputFile, sectionSize, true, JsonLinesCodec.INSTANCE);
+    }
+
+}
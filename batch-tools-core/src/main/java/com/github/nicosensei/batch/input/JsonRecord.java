@@ -0,0 +1,457 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A JSON object read from a JSON Lines record. No tree is built: values are
+ * found by scanning the record text when asked for, nested objects being
+ * reached by a path of member names, and strings are only unescaped when
+ * they hold escape sequences.
+ *
+ * Values are returned as text: strings unquoted and unescaped, numbers and
+ * booleans as written, objects and arrays as raw JSON, and null as null.
+ *
+ * The fields of the line are the values of the top-level members, in order.
+ * With a {@link ColumnProjection}, {@link #getFields()} only materializes the
+ * values of the projected members, the others being null.
+ *
+ * Not synchronized.
+ *
+ * @author ngiraud
+ *
+ */
+public class JsonRecord implements InputLine {
+
+    /**
+     * Thrown while scanning malformed JSON, carries the position of the error.
+     */
+    private static final class MalformedJsonException extends RuntimeException {
+
+        private static final long serialVersionUID = -3052768129396133213L;
+
+        private final int position;
+
+        private MalformedJsonException(int position) {
+            this.position = position;
+        }
+
+    }
+
+    private final String text;
+
+    private final ColumnProjection projection;
+
+    private String[] fields;
+
+    private JsonRecord(String text, ColumnProjection projection) {
+        this.text = text;
+        this.projection = projection;
+    }
+
+    /**
+     * @param text the record text
+     * @param projection the fields to materialize in {@link #getFields()}
+     * @return the record
+     * @throws InputFileException if the text is not a well-formed JSON object
+     */
+    public static JsonRecord parse(String text, ColumnProjection projection)
+    throws InputFileException {
+        JsonRecord r = new JsonRecord(text, projection);
+        try {
+            int p = r.skipWhitespace(0);
+            if (p >= text.length() || text.charAt(p) != '{') {
+                throw new MalformedJsonException(p);
+            }
+            p = r.skipWhitespace(r.skipValue(p));
+            if (p < text.length()) {
+                throw new MalformedJsonException(p);
+            }
+        } catch (final MalformedJsonException e) {
+            throw InputFileException.malformedRecord(
+                    JsonLinesCodec.INSTANCE.getFormatName(), e.position, text);
+        }
+        return r;
+    }
+
+    public static JsonRecord parse(String text) throws InputFileException {
+        return parse(text, ColumnProjection.ALL);
+    }
+
+    /**
+     * @return the record text, unchanged.
+     */
+    @Override
+    public String getLine() {
+        return text;
+    }
+
+    @Override
+    public String getSeparator() {
+        return ",";
+    }
+
+    /**
+     * @return the values of the top-level members, or with a projection the
+     * values up to the last projected member, null for the members that are
+     * not projected.
+     */
+    @Override
+    public String[] getFields() {
+        if (fields == null) {
+            int last = projection.getLastColumn();
+            List<String> values = new ArrayList<String>();
+            int p = skipWhitespace(text.indexOf('{') + 1);
+            int index = 0;
+            while (text.charAt(p) != '}' && (last < 0 || index <= last)) {
+                p = skipWhitespace(skipString(p)) + 1; // the key and the colon
+                p = skipWhitespace(p);
+                int end = skipValue(p);
+                values.add(projection.includes(index) ? valueAt(p, end) : null);
+                index++;
+                p = skipWhitespace(end);
+                if (text.charAt(p) == ',') {
+                    p = skipWhitespace(p + 1);
+                }
+            }
+            fields = values.toArray(new String[values.size()]);
+        }
+        return fields;
+    }
+
+    /**
+     * @param path the names of the members leading to the value
+     * @return the value, or null if there is no such member or if it is null.
+     */
+    public String get(String... path) {
+        int p = find(path);
+        return (p < 0 ? null : valueAt(p, skipValue(p)));
+    }
+
+    /**
+     * @param path the names of the members leading to the value
+     * @return the value as raw JSON, or null if there is no such member.
+     */
+    public String getRaw(String... path) {
+        int p = find(path);
+        return (p < 0 ? null : text.substring(p, skipValue(p)));
+    }
+
+    /**
+     * @param path the names of the members leading to the value
+     * @return true if the member exists, even if its value is null.
+     */
+    public boolean has(String... path) {
+        return find(path) >= 0;
+    }
+
+    /**
+     * @return the names of the top-level members, in order.
+     */
+    public List<String> getNames() {
+        List<String> names = new ArrayList<String>();
+        int p = skipWhitespace(text.indexOf('{') + 1);
+        while (text.charAt(p) != '}') {
+            int keyEnd = skipString(p);
+            names.add(stringAt(p, keyEnd));
+            p = skipWhitespace(skipWhitespace(keyEnd) + 1);
+            p = skipWhitespace(skipValue(p));
+            if (text.charAt(p) == ',') {
+                p = skipWhitespace(p + 1);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return the index of the first char of the value at the given path,
+     * or -1 if there is none.
+     */
+    private int find(String[] path) {
+        int p = skipWhitespace(0);
+        for (String name : path) {
+            if (text.charAt(p) != '{') {
+                return -1;
+            }
+            p = skipWhitespace(p + 1);
+            boolean found = false;
+            while (text.charAt(p) != '}') {
+                int keyEnd = skipString(p);
+                boolean match = keyEquals(p, keyEnd, name);
+                p = skipWhitespace(skipWhitespace(keyEnd) + 1);
+                if (match) {
+                    found = true;
+                    break;
+                }
+                p = skipWhitespace(skipValue(p));
+                if (text.charAt(p) == ',') {
+                    p = skipWhitespace(p + 1);
+                }
+            }
+            if (!found) {
+                return -1;
+            }
+        }
+        return p;
+    }
+
+    /**
+     * @param start the index of the opening quote of a key
+     * @param end the index after its closing quote
+     */
+    private boolean keyEquals(int start, int end, String name) {
+        if (indexOfBackslash(start, end) < 0) {
+            int len = end - start - 2;
+            return len == name.length() && text.regionMatches(start + 1, name, 0, len);
+        }
+        return stringAt(start, end).equals(name);
+    }
+
+    /**
+     * @return the index of the first backslash in the given string, or -1.
+     */
+    private int indexOfBackslash(int start, int end) {
+        for (int i = start + 1; i < end - 1; i++) {
+            if (text.charAt(i) == '\\') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String valueAt(int start, int end) {
+        char c = text.charAt(start);
+        if (c == '"') {
+            return stringAt(start, end);
+        }
+        if (c == 'n') {
+            return null;
+        }
+        return text.substring(start, end);
+    }
+
+    /**
+     * @param start the index of the opening quote
+     * @param end the index after the closing quote
+     * @return the unescaped string.
+     */
+    private String stringAt(int start, int end) {
+        int backslash = indexOfBackslash(start, end);
+        if (backslash < 0) {
+            return text.substring(start + 1, end - 1);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(text, start + 1, backslash);
+        for (int i = backslash; i < end - 1; i++) {
+            char c = text.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            c = text.charAt(++i);
+            switch (c) {
+            case 'b':
+                sb.append('\b');
+                break;
+            case 'f':
+                sb.append('\f');
+                break;
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'u':
+                sb.append((char) Integer.parseInt(text.substring(i + 1, i + 5), 16));
+                i += 4;
+                break;
+            default:
+                sb.append(c); // quote, backslash or slash
+            }
+        }
+        return sb.toString();
+    }
+
+    private int skipWhitespace(int p) {
+        int len = text.length();
+        while (p < len) {
+            char c = text.charAt(p);
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                break;
+            }
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * @param p the index of the first char of a value
+     * @return the index after the value.
+     * @throws MalformedJsonException
+     */
+    private int skipValue(int p) {
+        if (p >= text.length()) {
+            throw new MalformedJsonException(p);
+        }
+        switch (text.charAt(p)) {
+        case '"':
+            return skipString(p);
+        case '{':
+            return skipContainer(p, '}', true);
+        case '[':
+            return skipContainer(p, ']', false);
+        default:
+            return skipLiteral(p);
+        }
+    }
+
+    private int skipContainer(int p, char close, boolean members) {
+        p = skipWhitespace(p + 1);
+        if (p < text.length() && text.charAt(p) == close) {
+            return p + 1;
+        }
+        while (true) {
+            if (members) {
+                if (p >= text.length() || text.charAt(p) != '"') {
+                    throw new MalformedJsonException(p);
+                }
+                p = skipWhitespace(skipString(p));
+                if (p >= text.length() || text.charAt(p) != ':') {
+                    throw new MalformedJsonException(p);
+                }
+                p = skipWhitespace(p + 1);
+            }
+            p = skipWhitespace(skipValue(p));
+            if (p >= text.length()) {
+                throw new MalformedJsonException(p);
+            }
+            char c = text.charAt(p);
+            if (c == close) {
+                return p + 1;
+            }
+            if (c != ',') {
+                throw new MalformedJsonException(p);
+            }
+            p = skipWhitespace(p + 1);
+        }
+    }
+
+    /**
+     * @param p the index of the opening quote
+     * @return the index after the closing quote.
+     * @throws MalformedJsonException if the string is not terminated or
+     * holds an invalid escape sequence
+     */
+    private int skipString(int p) {
+        int len = text.length();
+        for (int i = p + 1; i < len; i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                return i + 1;
+            }
+            if (c == '\\') {
+                i++;
+                if (i >= len) {
+                    break;
+                }
+                c = text.charAt(i);
+                if (c == 'u') {
+                    for (int h = i + 1; h <= i + 4; h++) {
+                        if (h >= len || Character.digit(text.charAt(h), 16) < 0) {
+                            throw new MalformedJsonException(i - 1);
+                        }
+                    }
+                    i += 4;
+                } else if ("\"\\/bfnrt".indexOf(c) < 0) {
+                    throw new MalformedJsonException(i - 1);
+                }
+            }
+        }
+        throw new MalformedJsonException(p);
+    }
+
+    private int skipLiteral(int p) {
+        int len = text.length();
+        int i = p;
+        while (i < len) {
+            char c = text.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z')
+                    || c == '-' || c == '+' || c == '.' || c == 'E')) {
+                break;
+            }
+            i++;
+        }
+        if (i == p || !isLiteral(p, i)) {
+            throw new MalformedJsonException(p);
+        }
+        return i;
+    }
+
+    private boolean isLiteral(int start, int end) {
+        char c = text.charAt(start);
+        if (c == 't') {
+            return text.regionMatches(start, "true", 0, end - start) && end - start == 4;
+        }
+        if (c == 'f') {
+            return text.regionMatches(start, "false", 0, end - start) && end - start == 5;
+        }
+        if (c == 'n') {
+            return text.regionMatches(start, "null", 0, end - start) && end - start == 4;
+        }
+        return isNumber(start, end);
+    }
+
+    /**
+     * Checks the JSON number grammar: an optional minus sign, an integer
+     * part without leading zeros, then an optional fraction and exponent.
+     */
+    private boolean isNumber(int start, int end) {
+        int i = start;
+        if (text.charAt(i) == '-') {
+            i++;
+        }
+        if (i < end && text.charAt(i) == '0') {
+            i++;
+        } else {
+            int digits = skipDigits(i, end);
+            if (digits == i) {
+                return false;
+            }
+            i = digits;
+        }
+        if (i < end && text.charAt(i) == '.') {
+            int digits = skipDigits(i + 1, end);
+            if (digits == i + 1) {
+                return false;
+            }
+            i = digits;
+        }
+        if (i < end && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            i++;
+            if (i < end && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+                i++;
+            }
+            int digits = skipDigits(i, end);
+            if (digits == i) {
+                return false;
+            }
+            i = digits;
+        }
+        return i == end;
+    }
+
+    private int skipDigits(int i, int end) {
+        while (i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+}
@@ -0,0 +1,25 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+/**
+ * Extracts the key lines are grouped by, for instance a user id when lines
+ * should be processed per user session.
+ *
+ * Keys are compared as strings, so numeric keys should be zero-padded to a
+ * fixed width for their order to be numeric. Implementations must be
+ * thread-safe and never return null.
+ *
+ * @author ngiraud
+ *
+ */
+public interface KeyExtractor<L extends InputLine> {
+
+    /**
+     * @param line the line to extract the key of
+     * @return the key of the line.
+     */
+    String extractKey(L line);
+
+}
@@ -0,0 +1,399 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+
+import com.github.nicosensei.batch.BatchExecutor;
+
+/**
+ * Routes the lines of another reader to a fixed number of partitions by key.
+ * All the lines sharing a key go to the same partition, in input order, so a
+ * worker reading a single partition sees every line of its keys and can keep
+ * per-key state without synchronization.
+ *
+ * A router thread reads sections from the delegate reader, hashes the key of
+ * each line and appends the line to a section of its partition. Full sections
+ * wait in a bounded queue per partition until read from
+ * {@link #getPartition(int)}. A key with many lines keeps its partition busy,
+ * so skewed keys unbalance the load between partitions.
+ *
+ * Routed sections mix lines from several input sections and carry no byte
+ * range, so they are not recorded as checkpoints. Each routed line carries
+ * its share of the byte length of the section it was read from, so progress
+ * in bytes is counted without encoding the lines again.
+ *
+ * This is not a reader itself: lines are only read from the partitions.
+ * Should the delegate reader or the key extractor fail unexpectedly, every
+ * partition reports a fatal error.
+ *
+ * @author ngiraud
+ *
+ */
+public class KeyPartitioningInputFileReader<L extends InputLine> {
+
+    /**
+     * An element of a partition queue, either a section or a read error.
+     */
+    private static final class Entry<L extends InputLine> {
+
+        private final InputFileSection<L> section;
+        private final InputFileException error;
+
+        private Entry(InputFileSection<L> section, InputFileException error) {
+            this.section = section;
+            this.error = error;
+        }
+
+    }
+
+    /**
+     * The reader of a single partition.
+     */
+    private final class Partition implements InputFileReader<L> {
+
+        private final BlockingQueue<Entry<L>> queue;
+
+        private final AtomicLong lineCount = new AtomicLong(0L);
+
+        /**
+         * The section lines are added to by the router.
+         */
+        private InputFileSection<L> pending;
+
+        /**
+         * The input bytes of the pending lines, -1 once unknown for one.
+         */
+        private long pendingBytes = 0L;
+
+        private InputFileSection<L> pendingLineSection = null;
+
+        private int pendingLine = 0;
+
+        private Partition(int queueDepth) {
+            this.queue = new ArrayBlockingQueue<Entry<L>>(Math.max(1, queueDepth));
+            this.pending = sectionPool.acquire();
+        }
+
+        /**
+         * Closes the whole partitioning reader.
+         */
+        @Override
+        public void close() throws InputFileException {
+            KeyPartitioningInputFileReader.this.close();
+        }
+
+        /**
+         * Takes the next section of the partition, waiting for one if needed.
+         * Once the partition is exhausted, returns an empty section that
+         * reports {@link InputFileSection#noMoreInput()}.
+         */
+        @Override
+        public InputFileSection<L> readSection() throws InputFileException {
+            Entry<L> entry;
+            try {
+                entry = queue.take();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new InputFileSection<L>(Collections.<L>emptyList(), true);
+            }
+            if (entry == end) {
+                // Let later calls see the end too
+                queue.offer(end);
+                return new InputFileSection<L>(Collections.<L>emptyList(), true);
+            }
+            if (entry.error != null) {
+                throw entry.error;
+            }
+            return entry.section;
+        }
+
+        @Override
+        public synchronized L readLine() throws InputFileException {
+            while (pendingLineSection == null
+                    || pendingLine == pendingLineSection.getLines().size()) {
+                if (pendingLineSection != null) {
+                    boolean last = pendingLineSection.noMoreInput();
+                    pendingLineSection.recycle();
+                    pendingLineSection = null;
+                    if (last) {
+                        return null;
+                    }
+                }
+                pendingLineSection = readSection();
+                pendingLine = 0;
+            }
+            return pendingLineSection.getLines().get(pendingLine++);
+        }
+
+        @Override
+        public String getEncoding() {
+            return delegate.getEncoding();
+        }
+
+        @Override
+        public int getSectionSize() {
+            return delegate.getSectionSize();
+        }
+
+        /**
+         * Called by the router only.
+         * @param line the line
+         * @param bytes the input bytes of the line, -1 if unknown
+         */
+        private void add(L line, long bytes) throws InterruptedException {
+            pending.getLines().add(line);
+            lineCount.incrementAndGet();
+            addBytes(bytes);
+            if (pending.getLines().size() >= delegate.getSectionSize()) {
+                flush();
+            }
+        }
+
+        /**
+         * Called by the router only.
+         */
+        private void addBytes(long bytes) {
+            pendingBytes = (bytes < 0 || pendingBytes < 0 ? -1L : pendingBytes + bytes);
+        }
+
+        /**
+         * Called by the router only.
+         */
+        private void flush() throws InterruptedException {
+            if (pending.getLines().isEmpty() && pendingBytes <= 0) {
+                return;
+            }
+            pending.setByteLength(pendingBytes);
+            queue.put(new Entry<L>(pending, null));
+            pending = sectionPool.acquire();
+            pendingBytes = 0L;
+        }
+
+    }
+
+    private class Router extends Thread {
+
+        private Router() {
+            super(KeyPartitioningInputFileReader.class.getSimpleName() + "-router");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int errorCount = 0;
+            try {
+                InputFileException failure = null;
+                boolean noMoreInput = false;
+                while (!noMoreInput && !stopped) {
+                    InputFileSection<L> section;
+                    try {
+                        section = delegate.readSection();
+                    } catch (final InputFileException e) {
+                        if (Level.FATAL.equals(e.getCriticity())) {
+                            failure = e;
+                            break;
+                        }
+                        // Some worker reports the error, the section is lost
+                        partitions.get(errorCount++ % partitions.size())
+                            .queue.put(new Entry<L>(null, e));
+                        continue;
+                    } catch (final RuntimeException e) {
+                        failure = InputFileException.readerFailed(
+                                delegate.getClass().getName(), e);
+                        break;
+                    }
+                    try {
+                        route(section);
+                    } catch (final RuntimeException e) {
+                        failure = InputFileException.readerFailed(
+                                keyExtractor.getClass().getName(), e);
+                        break;
+                    }
+                    noMoreInput = section.noMoreInput();
+                    section.recycle();
+                }
+                for (Partition p : partitions) {
+                    if (failure != null) {
+                        p.queue.put(new Entry<L>(null, failure));
+                    } else {
+                        p.flush();
+                    }
+                }
+            } catch (final InterruptedException e) {
+                // stopped
+            } finally {
+                // When closing, the partitions are ended by close()
+                for (Partition p : partitions) {
+                    if (stopped) {
+                        break;
+                    }
+                    try {
+                        p.queue.put(end);
+                    } catch (final InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Adds the lines of a section to their partitions, sharing the byte
+         * length of the section between them.
+         */
+        private void route(InputFileSection<L> section) throws InterruptedException {
+            List<L> lines = section.getLines();
+            long bytes = section.getByteLength();
+            int n = lines.size();
+            if (n == 0) {
+                // Skipped lines only, still count as processed input
+                if (bytes > 0) {
+                    partitions.get(0).addBytes(bytes);
+                }
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                L line = lines.get(i);
+                long share = (bytes < 0 ? -1L : bytes * (i + 1) / n - bytes * i / n);
+                partitions.get(partitionOf(line)).add(line, share);
+            }
+        }
+
+    }
+
+    private final InputFileReader<L> delegate;
+
+    private final KeyExtractor<L> keyExtractor;
+
+    private final SectionPool<L> sectionPool;
+
+    private final List<Partition> partitions;
+
+    /**
+     * Marks the end of a partition.
+     */
+    private final Entry<L> end = new Entry<L>(null, null);
+
+    private final Router router = new Router();
+
+    private volatile boolean stopped = false;
+
+    /**
+     * @param delegate the reader to read sections from
+     * @param keyExtractor extracts the key lines are routed by
+     * @param partitionCount the number of partitions
+     * @param queueDepth the maximum number of sections waiting per partition
+     */
+    public KeyPartitioningInputFileReader(
+            InputFileReader<L> delegate,
+            KeyExtractor<L> keyExtractor,
+            int partitionCount,
+            int queueDepth) {
+        this.delegate = delegate;
+        this.keyExtractor = keyExtractor;
+        this.sectionPool = new SectionPool<L>(delegate.getSectionSize());
+        int count = Math.max(1, partitionCount);
+        this.partitions = new ArrayList<Partition>(count);
+        for (int i = 0; i < count; i++) {
+            partitions.add(new Partition(queueDepth));
+        }
+
+        BatchExecutor.getInstance().logInfo("Routing lines by key to "
+                + count + " partition" + (count > 1 ? "s." : "."));
+    }
+
+    /**
+     * Starts routing lines.
+     */
+    public synchronized void start() {
+        if (router.getState() == Thread.State.NEW) {
+            router.start();
+        }
+    }
+
+    /**
+     * Stops the router, ends every partition and closes the delegate reader.
+     * @throws InputFileException
+     */
+    public synchronized void close() throws InputFileException {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        router.interrupt();
+        try {
+            router.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Wake up any reader still waiting on its partition
+        for (Partition p : partitions) {
+            p.queue.clear();
+            p.queue.offer(end);
+        }
+        logStatistics();
+        delegate.close();
+    }
+
+    /**
+     * @param index the partition index, from 0 to
+     * {@link #getPartitionCount()} excluded
+     * @return the reader of the partition. A partition must be read by a
+     * single worker for its keys to be processed by that worker only.
+     */
+    public InputFileReader<L> getPartition(int index) {
+        return partitions.get(index);
+    }
+
+    public int getPartitionCount() {
+        return partitions.size();
+    }
+
+    /**
+     * @return the reader lines are routed from.
+     */
+    public InputFileReader<L> getDelegate() {
+        return delegate;
+    }
+
+    public KeyExtractor<L> getKeyExtractor() {
+        return keyExtractor;
+    }
+
+    /**
+     * @param index the partition index
+     * @return the number of lines routed to the partition so far.
+     */
+    public long getRoutedLineCount(int index) {
+        return partitions.get(index).lineCount.get();
+    }
+
+    public void logStatistics() {
+        StringBuilder sb = new StringBuilder("Lines routed per partition:");
+        for (Partition p : partitions) {
+            sb.append(' ').append(p.lineCount.get());
+            sb.append(" (").append(p.queue.size()).append(" queued)");
+        }
+        BatchExecutor.getInstance().logInfo(sb.toString());
+    }
+
+    /**
+     * @return the index of the partition the line belongs to.
+     */
+    int partitionOf(L line) {
+        String key = keyExtractor.extractKey(line);
+        int h = (key == null ? 0 : key.hashCode());
+        // Spread the high bits, string hashes of short keys are close
+        h ^= (h >>> 16);
+        return (h & Integer.MAX_VALUE) % partitions.size();
+    }
+
+}
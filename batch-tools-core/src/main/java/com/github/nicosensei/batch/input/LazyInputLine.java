@@ -0,0 +1,336 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An input line that keeps the original text and only splits it on first
+ * access to its fields. Fields are then materialized one at a time, so a
+ * worker reading a single field only pays for that one.
+ *
+ * Splitting follows the semantics of {@link String#split(String)}. Single
+ * character separators and the default whitespace separator are matched
+ * without regular expressions, other separators are compiled once and cached.
+ *
+ * With a {@link ColumnProjection}, the line is only split up to the last
+ * projected column, and {@link #getFields()} only materializes the projected
+ * fields, the others being null. Other fields can still be read with
+ * {@link #getField(int)}, at the cost of splitting the rest of the line.
+ * As the end of the line is not looked at, projected fields that would be
+ * dropped as trailing empty fields by a full split are kept, empty.
+ *
+ * Not synchronized.
+ *
+ * @author ngiraud
+ *
+ */
+public class LazyInputLine implements InputLine {
+
+    private enum SeparatorType {
+        SINGLE_CHAR,
+        WHITESPACE,
+        REGEX
+    }
+
+    private static final String REGEX_META_CHARS = ".$|()[{^?*+\\";
+
+    private static final ConcurrentMap<String, Pattern> PATTERNS =
+            new ConcurrentHashMap<String, Pattern>();
+
+    private final String text;
+
+    private final String fieldSeparator;
+
+    private final SeparatorType separatorType;
+
+    /**
+     * The separator char, for {@link SeparatorType#SINGLE_CHAR}.
+     */
+    private final char separatorChar;
+
+    /**
+     * Start and end indices of each field, found on first access.
+     */
+    private int[] bounds;
+
+    private int fieldCount = -1;
+
+    /**
+     * Whether the whole line was split, or only up to the projected columns.
+     */
+    private boolean splitComplete = false;
+
+    private final ColumnProjection projection;
+
+    /**
+     * Fields materialized so far.
+     */
+    private String[] fields;
+
+    private boolean allFieldsMaterialized = false;
+
+    public LazyInputLine(String line, String fieldSeparator) {
+        this(line, fieldSeparator, ColumnProjection.ALL);
+    }
+
+    /**
+     * @param line the line
+     * @param fieldSeparator the separator regular expression
+     * @param projection the fields to materialize in {@link #getFields()}
+     */
+    public LazyInputLine(String line, String fieldSeparator, ColumnProjection projection) {
+        this.text = line;
+        this.fieldSeparator = fieldSeparator;
+        this.projection = projection;
+
+        char c = singleCharSeparator(fieldSeparator);
+        if (c != 0) {
+            this.separatorType = SeparatorType.SINGLE_CHAR;
+            this.separatorChar = c;
+        } else if (BasicInputLine.DEFAULT_SEP.equals(fieldSeparator)) {
+            this.separatorType = SeparatorType.WHITESPACE;
+            this.separatorChar = 0;
+        } else {
+            this.separatorType = SeparatorType.REGEX;
+            this.separatorChar = 0;
+        }
+    }
+
+    /**
+     * @return the original line, unchanged.
+     */
+    @Override
+    public String getLine() {
+        return text;
+    }
+
+    /**
+     * Like {@link BasicInputLine}, reports a single space for whitespace
+     * separators.
+     */
+    @Override
+    public String getSeparator() {
+        if (SeparatorType.WHITESPACE.equals(separatorType)) {
+            return " ";
+        }
+        for (int i = 0; i < fieldSeparator.length(); i++) {
+            if (!isWhitespace(fieldSeparator.charAt(i))) {
+                return fieldSeparator;
+            }
+        }
+        return fieldSeparator.isEmpty() ? fieldSeparator : " ";
+    }
+
+    /**
+     * @return the fields, or with a projection the fields up to the last
+     * projected column, null for the columns that are not projected.
+     */
+    @Override
+    public String[] getFields() {
+        if (!allFieldsMaterialized) {
+            if (fieldCount < 0) {
+                split(projectedFieldCount());
+            }
+            for (int i = 0; i < fieldCount; i++) {
+                if (projection.includes(i)) {
+                    getField(i);
+                }
+            }
+            allFieldsMaterialized = true;
+        }
+        return fields;
+    }
+
+    /**
+     * @return the number of fields in the line.
+     */
+    public int getFieldCount() {
+        if (!splitComplete) {
+            split(Integer.MAX_VALUE);
+        }
+        return fieldCount;
+    }
+
+    public ColumnProjection getColumnProjection() {
+        return projection;
+    }
+
+    /**
+     * @param index the field index
+     * @return the field at the given index
+     * @throws ArrayIndexOutOfBoundsException if there is no such field
+     */
+    public String getField(int index) {
+        if (index < 0) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        if (fieldCount < 0) {
+            split(projectedFieldCount());
+        }
+        if (index >= fieldCount && !splitComplete) {
+            split(Integer.MAX_VALUE);
+        }
+        if (index >= fieldCount) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        String f = fields[index];
+        if (f == null) {
+            f = text.substring(bounds[2 * index], bounds[2 * index + 1]);
+            fields[index] = f;
+        }
+        return f;
+    }
+
+    /**
+     * @return the number of fields to split the line into at first.
+     */
+    private int projectedFieldCount() {
+        return (projection.isAll() ? Integer.MAX_VALUE : projection.getLastColumn() + 1);
+    }
+
+    /**
+     * Finds the bounds of the fields, keeping the fields already materialized.
+     * @param maxFields the number of fields after which to stop splitting
+     */
+    private void split(int maxFields) {
+        bounds = new int[8];
+        splitComplete = true;
+        int count;
+        switch (separatorType) {
+        case SINGLE_CHAR:
+            count = splitOnChar(maxFields);
+            break;
+        case WHITESPACE:
+            count = splitOnWhitespace(maxFields);
+            break;
+        default:
+            count = splitOnRegex(maxFields);
+        }
+
+        // Like String.split, drop trailing empty fields, unless the separator
+        // was not found at all.
+        if (count > 1 && splitComplete) {
+            while (count > 0 && bounds[2 * (count - 1)] == bounds[2 * (count - 1) + 1]) {
+                count--;
+            }
+        }
+        String[] previous = fields;
+        this.fieldCount = count;
+        this.fields = new String[count];
+        if (previous != null) {
+            System.arraycopy(previous, 0, fields, 0, Math.min(previous.length, count));
+        }
+    }
+
+    private int splitOnChar(int maxFields) {
+        int count = 0;
+        int start = 0;
+        int len = text.length();
+        for (int i = 0; i < len; i++) {
+            if (text.charAt(i) == separatorChar) {
+                count = addBounds(count, start, i);
+                if (count == maxFields) {
+                    splitComplete = false;
+                    return count;
+                }
+                start = i + 1;
+            }
+        }
+        return addBounds(count, start, len);
+    }
+
+    private int splitOnWhitespace(int maxFields) {
+        int count = 0;
+        int start = 0;
+        int len = text.length();
+        int i = 0;
+        while (i < len) {
+            if (isWhitespace(text.charAt(i))) {
+                count = addBounds(count, start, i);
+                if (count == maxFields) {
+                    splitComplete = false;
+                    return count;
+                }
+                while (i < len && isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                start = i;
+            } else {
+                i++;
+            }
+        }
+        return addBounds(count, start, len);
+    }
+
+    private int splitOnRegex(int maxFields) {
+        Pattern p = PATTERNS.get(fieldSeparator);
+        if (p == null) {
+            p = Pattern.compile(fieldSeparator);
+            PATTERNS.putIfAbsent(fieldSeparator, p);
+        }
+        int count = 0;
+        int start = 0;
+        Matcher m = p.matcher(text);
+        while (m.find()) {
+            if (m.end() == 0) {
+                // Like String.split, a zero-width match at the beginning
+                // does not produce a leading empty field.
+                continue;
+            }
+            count = addBounds(count, start, m.start());
+            if (count == maxFields) {
+                splitComplete = false;
+                return count;
+            }
+            start = m.end();
+        }
+        return addBounds(count, start, text.length());
+    }
+
+    private int addBounds(int count, int start, int end) {
+        if (2 * count + 2 > bounds.length) {
+            int[] grown = new int[2 * bounds.length];
+            System.arraycopy(bounds, 0, grown, 0, bounds.length);
+            bounds = grown;
+        }
+        bounds[2 * count] = start;
+        bounds[2 * count + 1] = end;
+        return count + 1;
+    }
+
+    /**
+     * Same characters as \s in regular expressions.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n'
+                || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    /**
+     * @param separator a separator regular expression
+     * @return the only char the expression matches, or 0 if it does not
+     * match a single literal char.
+     */
+    private static char singleCharSeparator(String separator) {
+        if (separator.length() == 1
+                && REGEX_META_CHARS.indexOf(separator.charAt(0)) < 0) {
+            return separator.charAt(0);
+        }
+        if (separator.length() == 2 && separator.charAt(0) == '\\') {
+            char c = separator.charAt(1);
+            if (c == 't') {
+                return '\t';
+            }
+            if (!Character.isLetterOrDigit(c)) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,367 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.nicosensei.batch.BatchExecutor;
+
+/**
+ * Counts the lines and empty lines of a file without decoding it. The file is
+ * memory-mapped by chunks that several threads scan in parallel, looking for
+ * LF bytes and for lines made of blank bytes only (a line is empty when
+ * {@link String#trim()} would make it empty).
+ *
+ * For multi-gigabyte files where an approximate total is enough, e.g. to
+ * display progress, {@link #estimate()} only scans evenly spread samples of
+ * the file and extrapolates.
+ *
+ * Only usable with encodings where a LF byte can only stand for a line feed,
+ * see {@link ChannelLineReader#isSplittable(Charset)}.
+ *
+ * @author ngiraud
+ *
+ */
+public final class LineCounter {
+
+    /**
+     * The result of a count.
+     */
+    public static final class Counts {
+
+        private final long lineCount;
+        private final long emptyLineCount;
+        private final boolean estimate;
+
+        private Counts(long lineCount, long emptyLineCount, boolean estimate) {
+            this.lineCount = lineCount;
+            this.emptyLineCount = emptyLineCount;
+            this.estimate = estimate;
+        }
+
+        public long getLineCount() {
+            return lineCount;
+        }
+
+        public long getEmptyLineCount() {
+            return emptyLineCount;
+        }
+
+        public long getNonEmptyLineCount() {
+            return lineCount - emptyLineCount;
+        }
+
+        /**
+         * @return true if the counts were extrapolated from samples.
+         */
+        public boolean isEstimate() {
+            return estimate;
+        }
+
+    }
+
+    /**
+     * Counts of a chunk, merged in file order to account for lines spanning
+     * several chunks.
+     */
+    private static final class ChunkCounts {
+
+        private long length;
+
+        /**
+         * Number of LF bytes.
+         */
+        private long lfCount = 0L;
+
+        /**
+         * Empty lines between the first and the last LF.
+         */
+        private long innerEmptyLines = 0L;
+
+        /**
+         * Whether the bytes before the first LF (all bytes if there is
+         * none) are blank.
+         */
+        private boolean prefixBlank = true;
+
+        /**
+         * Whether the bytes after the last LF are blank.
+         */
+        private boolean suffixBlank = true;
+
+        private long suffixLength = 0L;
+
+    }
+
+    private static final byte LF = '\n';
+
+    private static final int THREADS = BatchExecutor.getInstance().getIntProperty(
+            LineCounter.class, "threads", Runtime.getRuntime().availableProcessors());
+
+    private static final int CHUNK_SIZE = 1024 * 1024 * BatchExecutor.getInstance().getIntProperty(
+            LineCounter.class, "chunkSizeInMb", 64);
+
+    private static final int SAMPLE_COUNT = BatchExecutor.getInstance().getIntProperty(
+            LineCounter.class, "sampleCount", 64);
+
+    private static final int SAMPLE_SIZE = 1024 * BatchExecutor.getInstance().getIntProperty(
+            LineCounter.class, "sampleSizeInKb", 256);
+
+    private final String filePath;
+
+    private final int threadCount;
+
+    private final int chunkSize;
+
+    /**
+     * @param filePath the file to count lines of
+     * @param encoding the file encoding
+     * @param threadCount the number of threads scanning the file
+     * @param chunkSize the size of the chunks mapped at once, in bytes
+     * @throws InputFileException if the encoding is not supported
+     */
+    public LineCounter(
+            String filePath,
+            String encoding,
+            int threadCount,
+            int chunkSize) throws InputFileException {
+        this.filePath = filePath;
+        this.threadCount = Math.max(1, threadCount);
+        this.chunkSize = chunkSize;
+        Charset charset;
+        try {
+            charset = Charset.forName(encoding);
+        } catch (final IllegalCharsetNameException e) {
+            throw InputFileException.ioError(filePath, e);
+        } catch (final UnsupportedCharsetException e) {
+            throw InputFileException.ioError(filePath, e);
+        }
+        if (!ChannelLineReader.isSplittable(charset)) {
+            throw InputFileException.unsplittableEncoding(filePath, encoding);
+        }
+    }
+
+    public LineCounter(String filePath, String encoding) throws InputFileException {
+        this(filePath, encoding, THREADS, CHUNK_SIZE);
+    }
+
+    /**
+     * Counts all the lines of the file.
+     * @return the exact counts
+     * @throws InputFileException
+     */
+    public Counts count() throws InputFileException {
+        FileInputStream in = open();
+        try {
+            final FileChannel channel = in.getChannel();
+            final long size = channel.size();
+            final int chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+            final ChunkCounts[] chunks = new ChunkCounts[chunkCount];
+            final AtomicInteger nextChunk = new AtomicInteger(0);
+            final Throwable[] error = new Throwable[1];
+
+            Thread[] scanners = new Thread[Math.min(threadCount, Math.max(1, chunkCount))];
+            for (int i = 0; i < scanners.length; i++) {
+                scanners[i] = new Thread(LineCounter.class.getSimpleName() + "-" + i) {
+                    @Override
+                    public void run() {
+                        int c;
+                        while ((c = nextChunk.getAndIncrement()) < chunkCount) {
+                            long start = (long) c * chunkSize;
+                            long length = Math.min(chunkSize, size - start);
+                            try {
+                                chunks[c] = scan(channel.map(
+                                        FileChannel.MapMode.READ_ONLY, start, length));
+                            } catch (final Throwable e) {
+                                // Reported by the counting thread once joined
+                                synchronized (error) {
+                                    error[0] = e;
+                                }
+                                return;
+                            }
+                        }
+                    }
+                };
+                scanners[i].setDaemon(true);
+                scanners[i].start();
+            }
+            for (Thread t : scanners) {
+                t.join();
+            }
+            synchronized (error) {
+                if (error[0] instanceof IOException) {
+                    throw InputFileException.readError(filePath, (IOException) error[0]);
+                }
+                if (error[0] != null) {
+                    throw InputFileException.readerFailed(
+                            LineCounter.class.getName(), error[0]);
+                }
+            }
+
+            Counts counts = merge(chunks);
+            BatchExecutor.getInstance().logInfo(counts.getLineCount() + " lines ("
+                    + counts.getEmptyLineCount() + " empty) in " + filePath);
+            return counts;
+        } catch (final IOException e) {
+            throw InputFileException.readError(filePath, e);
+        } catch (final InterruptedException e) {
+            throw InputFileException.ioError(filePath, e);
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Estimates the line counts from samples spread evenly over the file.
+     * Files smaller than the samples are counted exactly.
+     * @param sampleCount the number of samples
+     * @param sampleSize the size of a sample in bytes
+     * @return the estimated counts
+     * @throws InputFileException
+     */
+    public Counts estimate(int sampleCount, int sampleSize) throws InputFileException {
+        long size = new File(filePath).length();
+        if (size <= (long) sampleCount * sampleSize) {
+            return count();
+        }
+
+        FileInputStream in = open();
+        try {
+            FileChannel channel = in.getChannel();
+            long lfCount = 0L;
+            long emptyLines = 0L;
+            long step = size / sampleCount;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(sampleSize);
+            for (int i = 0; i < sampleCount; i++) {
+                buffer.clear();
+                long position = i * step;
+                while (buffer.hasRemaining()) {
+                    int n = channel.read(buffer, position);
+                    if (n < 0) {
+                        break;
+                    }
+                    position += n;
+                }
+                buffer.flip();
+                ChunkCounts c = scan(buffer);
+                // Lines cut by the sample boundaries are not counted as empty
+                lfCount += c.lfCount;
+                emptyLines += c.innerEmptyLines;
+            }
+
+            double ratio = (double) size / ((long) sampleCount * sampleSize);
+            Counts counts = new Counts(
+                    Math.round(lfCount * ratio),
+                    Math.round(emptyLines * ratio),
+                    true);
+            BatchExecutor.getInstance().logInfo("About " + counts.getLineCount() + " lines ("
+                    + counts.getEmptyLineCount() + " empty) in " + filePath);
+            return counts;
+        } catch (final IOException e) {
+            throw InputFileException.readError(filePath, e);
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Estimates the line counts using the LineCounter.sampleCount and
+     * LineCounter.sampleSizeInKb settings.
+     * @see #estimate(int, int)
+     */
+    public Counts estimate() throws InputFileException {
+        return estimate(SAMPLE_COUNT, SAMPLE_SIZE);
+    }
+
+    private static ChunkCounts scan(ByteBuffer b) {
+        ChunkCounts c = new ChunkCounts();
+        c.length = b.remaining();
+        boolean firstLine = true;
+        boolean blank = true;
+        long lineLength = 0L;
+        while (b.hasRemaining()) {
+            byte x = b.get();
+            if (x == LF) {
+                if (firstLine) {
+                    c.prefixBlank = blank;
+                    firstLine = false;
+                } else if (blank) {
+                    c.innerEmptyLines++;
+                }
+                c.lfCount++;
+                blank = true;
+                lineLength = 0L;
+            } else {
+                // Same bytes as String.trim() in ASCII compatible encodings
+                if (x < 0 || x > ' ') {
+                    blank = false;
+                }
+                lineLength++;
+            }
+        }
+        if (firstLine) {
+            c.prefixBlank = blank;
+        } else {
+            c.suffixBlank = blank;
+            c.suffixLength = lineLength;
+        }
+        return c;
+    }
+
+    private static Counts merge(ChunkCounts[] chunks) {
+        long lines = 0L;
+        long emptyLines = 0L;
+        // The line that is not terminated yet
+        boolean open = false;
+        boolean openBlank = true;
+        for (ChunkCounts c : chunks) {
+            if (c.lfCount == 0) {
+                open |= c.length > 0;
+                openBlank &= c.prefixBlank;
+                continue;
+            }
+            lines += c.lfCount;
+            if (openBlank && c.prefixBlank) {
+                emptyLines++;
+            }
+            emptyLines += c.innerEmptyLines;
+            open = c.suffixLength > 0;
+            openBlank = c.suffixBlank;
+        }
+        if (open) {
+            // Last line has no terminator
+            lines++;
+            if (openBlank) {
+                emptyLines++;
+            }
+        }
+        return new Counts(lines, emptyLines, false);
+    }
+
+    private FileInputStream open() throws InputFileException {
+        try {
+            return new FileInputStream(filePath);
+        } catch (final FileNotFoundException e) {
+            throw InputFileException.fileNotFound(filePath);
+        }
+    }
+
+    private void close(FileInputStream in) throws InputFileException {
+        try {
+            in.close();
+        } catch (final IOException e) {
+            throw InputFileException.closeFailed(filePath, e);
+        }
+    }
+
+}
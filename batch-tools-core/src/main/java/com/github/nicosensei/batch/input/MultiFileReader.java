@@ -0,0 +1,460 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EventListener;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.io.filefilter.WildcardFileFilter;
+
+import com.github.nicosensei.batch.BatchExecutor;
+import com.github.nicosensei.commons.utils.datatype.ByteCountFormatter;
+
+/**
+ * Reads all the files of a directory, or all the files matching a glob
+ * (wildcards are allowed in the file name only, as in /logs/2013-12-01-*.log),
+ * as a single input.
+ *
+ * Up to MultiFileReader.parallelFiles files are read at once: each worker
+ * thread sticks to the file it is reading until it is exhausted, then moves
+ * on to the next file to open, or shares a file already open when enough
+ * files are. Each file is read by its own reader, created by
+ * {@link #fileReaderFactory(File)}.
+ *
+ * {@link FileListener}s are notified when a file is opened, and when it is
+ * completed, i.e. all its sections have been processed and recycled.
+ *
+ * Synchronized.
+ *
+ * @author ngiraud
+ *
+ */
+public abstract class MultiFileReader<L extends InputLine>
+implements SizableInputFileReader<L>, ProjectableInputFileReader<L> {
+
+    public interface FileListener extends EventListener {
+        void fileStarted(File file);
+        void fileCompleted(File file);
+    }
+
+    private static final String DEFAULT_ENCODING = BatchExecutor.getInstance().getProperty(
+            InputFileReader.class, "encoding");
+
+    private static final int PARALLEL_FILES = BatchExecutor.getInstance().getIntProperty(
+            MultiFileReader.class, "parallelFiles", 2);
+
+    /**
+     * A file being read.
+     */
+    private final class FileCursor implements Runnable {
+
+        private final File file;
+
+        private final InputFileReader<L> reader;
+
+        /**
+         * The number of threads currently reading from the file.
+         */
+        private int readers = 0;
+
+        /**
+         * The number of sections handed out and not recycled yet.
+         */
+        private int pendingSections = 0;
+
+        private boolean exhausted = false;
+
+        private boolean closed = false;
+
+        private boolean completed = false;
+
+        private FileCursor(File file, InputFileReader<L> reader) {
+            this.file = file;
+            this.reader = reader;
+        }
+
+        /**
+         * Called when a section of this file is recycled.
+         */
+        @Override
+        public void run() {
+            synchronized (MultiFileReader.this) {
+                pendingSections--;
+                checkCompleted(this);
+            }
+        }
+
+    }
+
+    private final String input;
+
+    private final String encoding;
+
+    /**
+     * Shared by the readers of all files that support it.
+     */
+    private SectionSizer sectionSizer;
+
+    private ColumnProjection columnProjection = ColumnProjection.ALL;
+
+    private final int parallelFiles;
+
+    private final List<File> files;
+
+    private final long totalSize;
+
+    /**
+     * Files not opened yet.
+     */
+    private final LinkedList<File> pendingFiles;
+
+    /**
+     * Files open and not exhausted.
+     */
+    private final List<FileCursor> openFiles = new ArrayList<FileCursor>();
+
+    /**
+     * Files exhausted but still being read by some thread.
+     */
+    private final List<FileCursor> draining = new ArrayList<FileCursor>();
+
+    private int nextSharedFile = 0;
+
+    private int completedFileCount = 0;
+
+    private final ThreadLocal<FileCursor> currentFile = new ThreadLocal<FileCursor>();
+
+    private final List<FileListener> listeners = new ArrayList<FileListener>();
+
+    /**
+     * @param input a directory, a glob or a single file
+     * @param encoding the input files encoding
+     * @param sectionSize the number of lines per section
+     * @param parallelFiles the maximum number of files read at once
+     * @throws InputFileException if no file matches the input
+     */
+    public MultiFileReader(
+            String input,
+            String encoding,
+            int sectionSize,
+            int parallelFiles) throws InputFileException {
+        this.input = input;
+        this.encoding = encoding;
+        this.sectionSizer = new SectionSizer(sectionSize);
+        this.parallelFiles = Math.max(1, parallelFiles);
+        this.files = Collections.unmodifiableList(listFiles(input));
+        this.pendingFiles = new LinkedList<File>(files);
+
+        long size = 0L;
+        for (File f : files) {
+            size += f.length();
+        }
+        this.totalSize = size;
+
+        BatchExecutor.getInstance().logInfo(files.size() + " input files ("
+                + ByteCountFormatter.humanReadableByteCount(totalSize) + ") match "
+                + input + ", reading up to " + this.parallelFiles + " at once.");
+    }
+
+    public MultiFileReader(String input, int sectionSize) throws InputFileException {
+        this(input, DEFAULT_ENCODING, sectionSize, PARALLEL_FILES);
+    }
+
+    /**
+     * Lists the files matching an input.
+     * @param input a directory, a glob or a single file
+     * @return the matching regular files, sorted by path
+     * @throws InputFileException if no file matches
+     */
+    public static List<File> listFiles(String input) throws InputFileException {
+        File f = new File(input);
+        File[] matches;
+        FileFilter regularFiles = new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && !file.isHidden();
+            }
+        };
+
+        if (f.isDirectory()) {
+            matches = f.listFiles(regularFiles);
+        } else if (f.isFile()) {
+            matches = new File[] { f };
+        } else {
+            File dir = f.getAbsoluteFile().getParentFile();
+            final FileFilter glob = new WildcardFileFilter(f.getName());
+            matches = (dir == null || !dir.isDirectory() ? null : dir.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    return file.isFile() && glob.accept(file);
+                }
+            }));
+        }
+
+        if (matches == null || matches.length == 0) {
+            throw InputFileException.fileNotFound(input);
+        }
+        Arrays.sort(matches);
+        return Arrays.asList(matches);
+    }
+
+    public synchronized void addFileListener(FileListener l) {
+        listeners.add(l);
+    }
+
+    /**
+     * Obtain a section from the file the calling thread is reading, moving
+     * on to another file when it is exhausted.
+     */
+    @Override
+    public InputFileSection<L> readSection() throws InputFileException {
+        while (true) {
+            FileCursor c = acquire();
+            if (c == null) {
+                return new InputFileSection<L>(Collections.<L>emptyList(), true);
+            }
+
+            InputFileSection<L> section;
+            try {
+                section = c.reader.readSection();
+            } catch (final InputFileException e) {
+                release(c, false, null);
+                throw e;
+            }
+
+            boolean exhausted = section.noMoreInput();
+            if (section.getLines().isEmpty()) {
+                release(c, exhausted, null);
+                section.recycle();
+                continue;
+            }
+
+            // The batch only ends when every file has been read
+            section.setNoMoreInput(false);
+            release(c, exhausted, section);
+            return section;
+        }
+    }
+
+    /**
+     * Obtain a line from the file the calling thread is reading, moving on
+     * to another file when it is exhausted.
+     */
+    @Override
+    public L readLine() throws InputFileException {
+        while (true) {
+            FileCursor c = acquire();
+            if (c == null) {
+                return null;
+            }
+            L line;
+            try {
+                line = c.reader.readLine();
+            } catch (final InputFileException e) {
+                release(c, false, null);
+                throw e;
+            }
+            release(c, line == null, null);
+            if (line != null) {
+                return line;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws InputFileException {
+        InputFileException error = null;
+        List<FileCursor> toClose = new ArrayList<FileCursor>(openFiles);
+        toClose.addAll(draining);
+        for (FileCursor c : toClose) {
+            try {
+                closeFile(c);
+            } catch (final InputFileException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    @Override
+    public String getEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public synchronized int getSectionSize() {
+        return sectionSizer.getLineLimit();
+    }
+
+    /**
+     * Also applies to the files already open.
+     */
+    @Override
+    public synchronized void setSectionSizer(SectionSizer sectionSizer) {
+        this.sectionSizer = sectionSizer;
+        for (FileCursor c : openFiles) {
+            applySectionSizer(c.reader);
+        }
+    }
+
+    @Override
+    public synchronized SectionSizer getSectionSizer() {
+        return sectionSizer;
+    }
+
+    @Override
+    public synchronized void setColumnProjection(ColumnProjection projection) {
+        this.columnProjection = projection;
+        for (FileCursor c : openFiles) {
+            applyColumnProjection(c.reader);
+        }
+    }
+
+    @Override
+    public synchronized ColumnProjection getColumnProjection() {
+        return columnProjection;
+    }
+
+    /**
+     * @return the input directory or glob.
+     */
+    public String getInput() {
+        return input;
+    }
+
+    /**
+     * @return the input files, in the order they are opened.
+     */
+    public List<File> getFiles() {
+        return files;
+    }
+
+    /**
+     * @return the total size of the input files in bytes.
+     */
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public synchronized int getCompletedFileCount() {
+        return completedFileCount;
+    }
+
+    /**
+     * Creates the reader for one of the input files. The reader must only
+     * report no more input once the whole file has been read, which rules
+     * out readers that split the file between threads.
+     * @param file the file to read
+     * @return a reader for the file
+     * @throws InputFileException
+     */
+    protected abstract InputFileReader<L> fileReaderFactory(File file)
+    throws InputFileException;
+
+    /**
+     * @return the file the calling thread should read from, or null if every
+     * file has been read.
+     */
+    private synchronized FileCursor acquire() throws InputFileException {
+        FileCursor c = currentFile.get();
+        if (c == null || c.exhausted) {
+            c = nextFile();
+            currentFile.set(c);
+        }
+        if (c != null) {
+            c.readers++;
+        }
+        return c;
+    }
+
+    private FileCursor nextFile() throws InputFileException {
+        if (!pendingFiles.isEmpty() && openFiles.size() < parallelFiles) {
+            File f = pendingFiles.removeFirst();
+            FileCursor c = new FileCursor(f, fileReaderFactory(f));
+            applySectionSizer(c.reader);
+            applyColumnProjection(c.reader);
+            openFiles.add(c);
+            BatchExecutor.getInstance().logInfo("Started reading " + f.getAbsolutePath()
+                    + " (" + ByteCountFormatter.humanReadableByteCount(f.length()) + ")");
+            for (FileListener l : listeners) {
+                l.fileStarted(f);
+            }
+            return c;
+        }
+        if (openFiles.isEmpty()) {
+            return null;
+        }
+        // Share a file with other threads
+        nextSharedFile = (nextSharedFile + 1) % openFiles.size();
+        return openFiles.get(nextSharedFile);
+    }
+
+    /**
+     * @param c the file read from
+     * @param exhausted whether the file has no more input
+     * @param section the section handed out, if any
+     */
+    private synchronized void release(
+            FileCursor c,
+            boolean exhausted,
+            InputFileSection<L> section) throws InputFileException {
+        c.readers--;
+        if (section != null) {
+            c.pendingSections++;
+            section.setRecycleCallback(c);
+        }
+        if (exhausted && !c.exhausted) {
+            c.exhausted = true;
+            openFiles.remove(c);
+            draining.add(c);
+        }
+        if (c.exhausted && c.readers == 0) {
+            closeFile(c);
+        }
+        checkCompleted(c);
+    }
+
+    private void applySectionSizer(InputFileReader<L> reader) {
+        if (reader instanceof SizableInputFileReader) {
+            ((SizableInputFileReader<L>) reader).setSectionSizer(sectionSizer);
+        }
+    }
+
+    private void applyColumnProjection(InputFileReader<L> reader) {
+        if (reader instanceof ProjectableInputFileReader) {
+            ((ProjectableInputFileReader<L>) reader).setColumnProjection(columnProjection);
+        }
+    }
+
+    private void closeFile(FileCursor c) throws InputFileException {
+        if (c.closed) {
+            return;
+        }
+        c.closed = true;
+        draining.remove(c);
+        c.reader.close();
+    }
+
+    private void checkCompleted(FileCursor c) {
+        if (c.completed || !c.exhausted || c.readers > 0 || c.pendingSections > 0) {
+            return;
+        }
+        c.completed = true;
+        completedFileCount++;
+        BatchExecutor.getInstance().logInfo("Completed " + c.file.getAbsolutePath()
+                + " (" + completedFileCount + "/" + files.size() + " files)");
+        for (FileListener l : listeners) {
+            l.fileCompleted(c.file);
+        }
+    }
+
+}
@@ -0,0 +1,312 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+
+import com.github.nicosensei.batch.BatchExecutor;
+
+/**
+ * Reads sections ahead of the workers: one or more reader threads fill a
+ * bounded queue with sections read from a delegate reader, and
+ * {@link #readSection()} takes ready sections from it.
+ *
+ * The time spent waiting on each side of the queue is measured: readers
+ * waiting for room means the batch is CPU-bound, workers waiting for
+ * sections means it is input-bound.
+ *
+ * When several reader threads are used, the delegate must support concurrent
+ * calls to {@link InputFileReader#readSection()} and report
+ * {@link InputFileSection#noMoreInput()} to each of them, which is the case
+ * of the synchronized readers and of {@link SplittingFileReader} (use as many
+ * reader threads as ranges).
+ *
+ * @author ngiraud
+ *
+ */
+public class PrefetchingInputFileReader<L extends InputLine>
+implements InputFileReader<L> {
+
+    /**
+     * An element of the queue, either a section or a read error.
+     */
+    private static final class Entry<L extends InputLine> {
+
+        private final InputFileSection<L> section;
+        private final InputFileException error;
+
+        private Entry(InputFileSection<L> section, InputFileException error) {
+            this.section = section;
+            this.error = error;
+        }
+
+    }
+
+    private class SectionReader extends Thread {
+
+        private SectionReader(int index) {
+            super(PrefetchingInputFileReader.class.getSimpleName() + "-" + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!stopped) {
+                    InputFileSection<L> section;
+                    try {
+                        section = delegate.readSection();
+                    } catch (final InputFileException e) {
+                        put(new Entry<L>(null, e));
+                        if (Level.FATAL.equals(e.getCriticity())) {
+                            break;
+                        }
+                        continue;
+                    }
+
+                    boolean last = section.noMoreInput();
+                    if (section.getLines().isEmpty()) {
+                        section.recycle();
+                    } else {
+                        // Only the end of the queue is the end of the input
+                        section.setNoMoreInput(false);
+                        put(new Entry<L>(section, null));
+                    }
+                    if (last) {
+                        break;
+                    }
+                }
+            } catch (final InterruptedException e) {
+                // stopped
+            } catch (final RuntimeException e) {
+                // Reported to the workers rather than ending the input
+                try {
+                    put(new Entry<L>(null, InputFileException.readerFailed(
+                            delegate.getClass().getName(), e)));
+                } catch (final InterruptedException ie) {
+                    // stopped
+                }
+            } finally {
+                if (activeReaders.decrementAndGet() == 0) {
+                    try {
+                        queue.put(end);
+                    } catch (final InterruptedException e) {
+                        // closing, nobody is waiting anymore
+                    }
+                }
+            }
+        }
+
+        private void put(Entry<L> entry) throws InterruptedException {
+            long start = System.nanoTime();
+            queue.put(entry);
+            readerWaitNanos.addAndGet(System.nanoTime() - start);
+            sectionsRead.incrementAndGet();
+        }
+
+    }
+
+    private final InputFileReader<L> delegate;
+
+    private final BlockingQueue<Entry<L>> queue;
+
+    /**
+     * Marks the end of the input, put in the queue once all readers are done.
+     */
+    private final Entry<L> end = new Entry<L>(null, null);
+
+    private final List<SectionReader> readers = new ArrayList<SectionReader>();
+
+    private final AtomicInteger activeReaders;
+
+    private final AtomicLong readerWaitNanos = new AtomicLong(0L);
+
+    private final AtomicLong workerWaitNanos = new AtomicLong(0L);
+
+    private final AtomicLong sectionsRead = new AtomicLong(0L);
+
+    private volatile boolean stopped = false;
+
+    /**
+     * The last section used by {@link #readLine()}.
+     */
+    private InputFileSection<L> pendingSection = null;
+
+    /**
+     * Index in {@link #pendingSection} of the next line to return.
+     */
+    private int pendingLine = 0;
+
+    /**
+     * @param delegate the reader to read sections from
+     * @param queueDepth the maximum number of sections read ahead
+     * @param readerThreadCount the number of reader threads
+     */
+    public PrefetchingInputFileReader(
+            InputFileReader<L> delegate,
+            int queueDepth,
+            int readerThreadCount) {
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<Entry<L>>(Math.max(1, queueDepth));
+        int threads = Math.max(1, readerThreadCount);
+        for (int i = 0; i < threads; i++) {
+            readers.add(new SectionReader(i));
+        }
+        this.activeReaders = new AtomicInteger(threads);
+
+        BatchExecutor.getInstance().logInfo("Prefetching up to " + queueDepth
+                + " sections with " + threads + " reader thread"
+                + (threads > 1 ? "s." : "."));
+    }
+
+    /**
+     * Starts the reader threads.
+     */
+    public synchronized void start() {
+        for (SectionReader r : readers) {
+            if (r.getState() == Thread.State.NEW) {
+                r.start();
+            }
+        }
+    }
+
+    /**
+     * Stops the reader threads, closes the delegate reader and logs the
+     * wait times.
+     * @throws InputFileException
+     */
+    @Override
+    public void close() throws InputFileException {
+        stopped = true;
+        for (SectionReader r : readers) {
+            r.interrupt();
+        }
+        for (SectionReader r : readers) {
+            try {
+                r.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        queue.clear();
+        logStatistics();
+        delegate.close();
+    }
+
+    /**
+     * Takes the next ready section, waiting for one if needed. Once the
+     * input is exhausted, returns an empty section that reports
+     * {@link InputFileSection#noMoreInput()} to every caller.
+     * @return
+     * @throws InputFileException
+     */
+    @Override
+    public InputFileSection<L> readSection() throws InputFileException {
+        Entry<L> entry;
+        long start = System.nanoTime();
+        try {
+            entry = queue.take();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new InputFileSection<L>(Collections.<L>emptyList(), true);
+        } finally {
+            workerWaitNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        if (entry == end) {
+            // Let other callers see the end too. Readers are done, and an
+            // element was just taken, so there is room.
+            queue.offer(end);
+            return new InputFileSection<L>(Collections.<L>emptyList(), true);
+        }
+        if (entry.error != null) {
+            throw entry.error;
+        }
+        return entry.section;
+    }
+
+    @Override
+    public synchronized L readLine() throws InputFileException {
+        while (pendingSection == null
+                || pendingLine == pendingSection.getLines().size()) {
+            if (pendingSection != null) {
+                boolean last = pendingSection.noMoreInput();
+                pendingSection.recycle();
+                pendingSection = null;
+                if (last) {
+                    return null;
+                }
+            }
+            pendingSection = readSection();
+            pendingLine = 0;
+        }
+        return pendingSection.getLines().get(pendingLine++);
+    }
+
+    @Override
+    public String getEncoding() {
+        return delegate.getEncoding();
+    }
+
+    @Override
+    public int getSectionSize() {
+        return delegate.getSectionSize();
+    }
+
+    /**
+     * @return the reader this reader prefetches sections from.
+     */
+    public InputFileReader<L> getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return the number of sections currently waiting in the queue.
+     */
+    public int getQueuedSectionCount() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of sections read so far.
+     */
+    public long getSectionsRead() {
+        return sectionsRead.get();
+    }
+
+    /**
+     * @return the total time in milliseconds reader threads spent waiting
+     * for room in the queue.
+     */
+    public long getReaderWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(readerWaitNanos.get());
+    }
+
+    /**
+     * @return the total time in milliseconds workers spent waiting for
+     * sections to be ready.
+     */
+    public long getWorkerWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(workerWaitNanos.get());
+    }
+
+    public void logStatistics() {
+        BatchExecutor.getInstance().logInfo("Prefetch queue: "
+                + getQueuedSectionCount() + " sections ready, "
+                + getSectionsRead() + " read, readers waited "
+                + getReaderWaitTime() + " ms, workers waited "
+                + getWorkerWaitTime() + " ms.");
+    }
+
+}
@@ -0,0 +1,24 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+/**
+ * A reader that can be told which columns of the input lines are needed.
+ * Implementations of parseLine pass {@link #getColumnProjection()} to the
+ * lines they build, so that the other fields are neither split nor
+ * allocated.
+ *
+ * @author ngiraud
+ *
+ */
+public interface ProjectableInputFileReader<L extends InputLine> extends InputFileReader<L> {
+
+    /**
+     * @param projection the columns needed from the lines read from now on
+     */
+    void setColumnProjection(ColumnProjection projection);
+
+    ColumnProjection getColumnProjection();
+
+}
@@ -0,0 +1,43 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+/**
+ * Turns the text of a record into an input line. Records usually are single
+ * lines, but some formats allow a record to span several lines, in which case
+ * {@link #isComplete(CharSequence, int)} tells where it ends.
+ *
+ * Codecs are used by a {@link RecordFileReader}, which reads records under
+ * its lock and may then call the codec from several threads: codecs must be
+ * thread-safe.
+ *
+ * @author ngiraud
+ *
+ */
+public interface RecordCodec<L extends InputLine> {
+
+    /**
+     * Called each time a line is added to a record, so only the added text
+     * needs to be scanned.
+     * @param text the lines of a record read so far, with their terminators
+     * @param from 0 for the first line of a record, otherwise the end of the
+     * text this method last found incomplete, where the added text starts
+     * @return false if the record goes on on the next line.
+     */
+    boolean isComplete(CharSequence text, int from);
+
+    /**
+     * @param text the record text
+     * @param projection the columns to materialize
+     * @return the record as an input line
+     * @throws InputFileException if the record is malformed
+     */
+    L decode(String text, ColumnProjection projection) throws InputFileException;
+
+    /**
+     * @return the name of the format, for messages.
+     */
+    String getFormatName();
+
+}
@@ -0,0 +1,75 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+/**
+ * A {@link BigFileReader} that reads records decoded by a {@link RecordCodec},
+ * so that no parseLine implementation is needed. Records spanning several
+ * lines are read whole, and the reader's column projection is passed to the
+ * codec.
+ *
+ * @see CsvFileReader
+ * @see JsonLinesFileReader
+ * @see FixedWidthFileReader
+ *
+ * @author ngiraud
+ *
+ */
+public class RecordFileReader<L extends InputLine> extends BigFileReader<L> {
+
+    private final RecordCodec<L> codec;
+
+    /**
+     * @param inputFile the input file path
+     * @param inputFileEncoding the input file encoding
+     * @param sectionSize the number of records per section
+     * @param ignoreEmptyLines whether to skip empty records
+     * @param startOffset the offset to start reading from, must be the offset of a record start
+     * @param codec decodes the records
+     * @throws InputFileException
+     */
+    public RecordFileReader(
+            String inputFile,
+            String inputFileEncoding,
+            int sectionSize,
+            boolean ignoreEmptyLines,
+            long startOffset,
+            RecordCodec<L> codec) throws InputFileException {
+        super(inputFile, inputFileEncoding, sectionSize, ignoreEmptyLines, startOffset);
+        this.codec = codec;
+    }
+
+    public RecordFileReader(
+            String inputFile,
+            String inputFileEncoding,
+            int sectionSize,
+            boolean ignoreEmptyLines,
+            RecordCodec<L> codec) throws InputFileException {
+        this(inputFile, inputFileEncoding, sectionSize, ignoreEmptyLines, 0L, codec);
+    }
+
+    public RecordFileReader(
+            String inputFile,
+            int sectionSize,
+            boolean ignoreEmptyLines,
+            RecordCodec<L> codec) throws InputFileException {
+        super(inputFile, sectionSize, ignoreEmptyLines);
+        this.codec = codec;
+    }
+
+    public RecordCodec<L> getCodec() {
+        return codec;
+    }
+
+    @Override
+    protected L parseLine(String line) throws InputFileException {
+        return codec.decode(line, getColumnProjection());
+    }
+
+    @Override
+    protected boolean isRecordComplete(CharSequence text, int from) {
+        return codec.isComplete(text, from);
+    }
+
+}
@@ -0,0 +1,24 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+/**
+ * A reader that can skip byte ranges of its input, used to resume a batch
+ * from its checkpoint journal.
+ *
+ * @author ngiraud
+ *
+ */
+public interface ResumableInputFileReader<L extends InputLine>
+extends InputFileReader<L> {
+
+    /**
+     * Lines starting in the given ranges will not be read. Ranges are
+     * expected to start and end on line boundaries. Must be called before
+     * reading starts.
+     * @param ranges the ranges to skip
+     */
+    void skipRanges(ByteRangeSet ranges);
+
+}
@@ -0,0 +1,66 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.github.nicosensei.batch.BatchExecutor;
+
+/**
+ * Recycles {@link InputFileSection}s and their line containers, so that
+ * reading a section does not allocate a new list sized for its lines.
+ *
+ * Sections are handed out by {@link #acquire()} and come back when the worker
+ * calls {@link InputFileSection#recycle()}. At most a fixed number of idle
+ * sections is kept, extra sections are left to the garbage collector.
+ *
+ * Thread-safe.
+ *
+ * @author ngiraud
+ *
+ */
+public final class SectionPool<L extends InputLine> {
+
+    /**
+     * The default maximum number of idle sections kept in a pool.
+     */
+    private static final int DEFAULT_MAX_IDLE = BatchExecutor.getInstance().getIntProperty(
+            SectionPool.class, "maxIdle", 64);
+
+    private final BlockingQueue<InputFileSection<L>> idle;
+
+    private final int sectionCapacity;
+
+    /**
+     * @param sectionCapacity the initial line capacity of new sections
+     * @param maxIdle the maximum number of idle sections kept
+     */
+    public SectionPool(int sectionCapacity, int maxIdle) {
+        this.sectionCapacity = sectionCapacity;
+        this.idle = new ArrayBlockingQueue<InputFileSection<L>>(Math.max(1, maxIdle));
+    }
+
+    public SectionPool(int sectionCapacity) {
+        this(sectionCapacity, DEFAULT_MAX_IDLE);
+    }
+
+    /**
+     * @return an empty section, recycled if one is available.
+     */
+    public InputFileSection<L> acquire() {
+        InputFileSection<L> section = idle.poll();
+        if (section == null) {
+            section = new InputFileSection<L>(this, sectionCapacity);
+        }
+        section.acquired();
+        return section;
+    }
+
+    void release(InputFileSection<L> section) {
+        section.reset();
+        idle.offer(section);
+    }
+
+}
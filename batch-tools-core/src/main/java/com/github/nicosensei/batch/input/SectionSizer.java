@@ -0,0 +1,155 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import com.github.nicosensei.batch.BatchExecutor;
+
+/**
+ * Decides when a section being read is full: when it holds a number of lines,
+ * or when the lines read for it reach a byte budget, whichever comes first.
+ * A section always holds at least one line, however long.
+ *
+ * In adaptive mode, the line limit follows the measured processing time per
+ * line, so that processing a section takes about a target duration: sections
+ * stay short enough to balance the load between workers, and long enough to
+ * keep the per-section overhead low.
+ *
+ * The default byte budget comes from the
+ * InputFileReader.maxSectionSizeInKb setting, 0 meaning no budget.
+ *
+ * Thread-safe.
+ *
+ * @author ngiraud
+ *
+ */
+public class SectionSizer {
+
+    private static final long DEFAULT_BYTE_BUDGET = 1024L * BatchExecutor.getInstance().getIntProperty(
+            InputFileReader.class, "maxSectionSizeInKb", 0);
+
+    /**
+     * Weight of the last measure in the average time per line.
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private volatile int lineLimit;
+
+    private final long byteBudget;
+
+    /**
+     * The target section processing time in nanoseconds, 0 if not adaptive.
+     */
+    private final long targetNanos;
+
+    private final int minLineLimit;
+
+    private final int maxLineLimit;
+
+    /**
+     * Moving average of the processing time per line, -1 until measured.
+     */
+    private double nanosPerLine = -1;
+
+    /**
+     * The line limit last logged.
+     */
+    private int loggedLineLimit;
+
+    /**
+     * Creates an adaptive sizer.
+     * @param initialLineLimit the line limit to start with
+     * @param byteBudget the byte budget of a section, 0 for none
+     * @param targetMillis the target processing time of a section
+     * @param minLineLimit the lowest line limit
+     * @param maxLineLimit the highest line limit
+     */
+    public SectionSizer(
+            int initialLineLimit,
+            long byteBudget,
+            long targetMillis,
+            int minLineLimit,
+            int maxLineLimit) {
+        this.minLineLimit = Math.max(1, minLineLimit);
+        this.maxLineLimit = Math.max(this.minLineLimit, maxLineLimit);
+        this.lineLimit = Math.min(this.maxLineLimit, Math.max(this.minLineLimit, initialLineLimit));
+        this.loggedLineLimit = lineLimit;
+        this.byteBudget = (byteBudget > 0 ? byteBudget : Long.MAX_VALUE);
+        this.targetNanos = targetMillis * 1000000L;
+    }
+
+    /**
+     * Creates a fixed sizer.
+     * @param lineLimit the number of lines per section
+     * @param byteBudget the byte budget of a section, 0 for none
+     */
+    public SectionSizer(int lineLimit, long byteBudget) {
+        this(lineLimit, byteBudget, 0L, lineLimit, lineLimit);
+    }
+
+    /**
+     * Creates a fixed sizer with the default byte budget.
+     * @param lineLimit the number of lines per section
+     */
+    public SectionSizer(int lineLimit) {
+        this(lineLimit, DEFAULT_BYTE_BUDGET);
+    }
+
+    /**
+     * @param lineCount the number of lines in the section
+     * @param byteCount the number of bytes read for the section
+     * @return true if no more lines should be added to the section.
+     */
+    public boolean isFull(int lineCount, long byteCount) {
+        return lineCount >= lineLimit || (lineCount > 0 && byteCount >= byteBudget);
+    }
+
+    public int getLineLimit() {
+        return lineLimit;
+    }
+
+    /**
+     * @return the byte budget of a section, 0 if there is none.
+     */
+    public long getByteBudget() {
+        return (byteBudget == Long.MAX_VALUE ? 0L : byteBudget);
+    }
+
+    public boolean isAdaptive() {
+        return targetNanos > 0;
+    }
+
+    /**
+     * Records how long a section took to process. Adjusts the line limit in
+     * adaptive mode, does nothing otherwise.
+     * @param lineCount the number of lines in the section
+     * @param nanos the processing time in nanoseconds
+     */
+    public void sectionProcessed(int lineCount, long nanos) {
+        if (targetNanos <= 0 || lineCount == 0) {
+            return;
+        }
+        int newLimit;
+        double perLine;
+        synchronized (this) {
+            double sample = (double) nanos / lineCount;
+            nanosPerLine = (nanosPerLine < 0 ? sample
+                    : (1 - SMOOTHING) * nanosPerLine + SMOOTHING * sample);
+
+            // Grow at most twofold at once, a single fast section is no trend
+            double target = Math.min(targetNanos / Math.max(nanosPerLine, 1d), 2d * lineLimit);
+            newLimit = (int) Math.max(minLineLimit, Math.min(maxLineLimit, Math.round(target)));
+            lineLimit = newLimit;
+            perLine = nanosPerLine;
+
+            if (newLimit > 2 * loggedLineLimit || 2 * newLimit < loggedLineLimit) {
+                loggedLineLimit = newLimit;
+            } else {
+                return;
+            }
+        }
+        BatchExecutor.getInstance().logInfo("Section size adjusted to " + newLimit
+                + " lines (" + Math.round(perLine / 1000) + " us per line).");
+    }
+
+}
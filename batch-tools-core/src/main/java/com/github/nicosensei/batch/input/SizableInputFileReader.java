@@ -0,0 +1,22 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+/**
+ * A reader whose sections are sized by a {@link SectionSizer}, which can be
+ * replaced, e.g. by an adaptive one.
+ *
+ * @author ngiraud
+ *
+ */
+public interface SizableInputFileReader<L extends InputLine> extends InputFileReader<L> {
+
+    /**
+     * @param sizer decides when the sections read from now on are full
+     */
+    void setSectionSizer(SectionSizer sizer);
+
+    SectionSizer getSectionSizer();
+
+}
@@ -0,0 +1,645 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Level;
+
+import com.github.nicosensei.batch.BatchExecutor;
+
+/**
+ * Sorts the lines of another reader by key before handing them out, so that
+ * lines sharing a key are processed together and in key order, whatever the
+ * size of the input.
+ *
+ * On the first read, the whole source is read into runs that fit the
+ * SortingInputFileReader.memoryBudgetInMb budget. Runs are sorted and spilled
+ * to temporary files by SortingInputFileReader.sortThreads threads while the
+ * next run is read, then the spilled runs are merged as sections are read.
+ * At most SortingInputFileReader.mergeFanIn runs are merged at once, fewer
+ * if the budget cannot hold a read buffer for each: when there are more runs,
+ * consecutive runs are first merged into longer ones, in as many passes as
+ * needed. When the input fits in a single run, it is sorted in memory and
+ * nothing is spilled. Temporary files go to SortingInputFileReader.tempDirectory, or to
+ * the default temporary directory, and are registered for cleanup.
+ *
+ * The sort is stable: lines sharing a key keep their input order. A section
+ * never splits a group of lines sharing a key, so it may hold more than
+ * {@link #getSectionSize()} lines when a group is larger than that.
+ *
+ * Spilled lines are stored as returned by {@link InputLine#getLine()} and
+ * rebuilt with {@link #parseLine(String)}, which must accept that text.
+ * Sections carry no byte range, so this reader cannot resume from a
+ * checkpoint.
+ *
+ * Synchronized.
+ *
+ * @author ngiraud
+ *
+ */
+public abstract class SortingInputFileReader<L extends InputLine>
+implements InputFileReader<L> {
+
+    private static final int DEFAULT_MEMORY_BUDGET_IN_MB = BatchExecutor.getInstance().getIntProperty(
+            SortingInputFileReader.class, "memoryBudgetInMb", 64);
+
+    private static final int DEFAULT_SORT_THREADS = BatchExecutor.getInstance().getIntProperty(
+            SortingInputFileReader.class, "sortThreads",
+            Runtime.getRuntime().availableProcessors());
+
+    private static final String TEMP_DIRECTORY = BatchExecutor.getInstance().getProperty(
+            SortingInputFileReader.class, "tempDirectory");
+
+    private static final int MERGE_FAN_IN = Math.max(2, BatchExecutor.getInstance().getIntProperty(
+            SortingInputFileReader.class, "mergeFanIn", 64));
+
+    /**
+     * Bounds of the buffer size of a run being read or written, in bytes.
+     */
+    private static final int MIN_BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Rough heap footprint of a line besides its characters, in bytes.
+     */
+    private static final int LINE_OVERHEAD = 96;
+
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * A line and its sort key. The text of the line is only taken when the
+     * line is spilled.
+     */
+    private static final class Entry<L extends InputLine> {
+
+        private final String key;
+        private final L line;
+
+        private Entry(String key, L line) {
+            this.key = key;
+            this.line = line;
+        }
+
+    }
+
+    /**
+     * A sorted run spilled to a temporary file.
+     */
+    private static final class Run {
+
+        private final File file;
+        private final int lineCount;
+
+        private Run(File file, int lineCount) {
+            this.file = file;
+            this.lineCount = lineCount;
+        }
+
+    }
+
+    /**
+     * Reads a spilled run back during a merge. Lines are kept as text, and
+     * only parsed when handed out.
+     */
+    private static final class RunCursor {
+
+        private final int index;
+        private final Run run;
+        private final DataInputStream in;
+        private int remaining;
+        private String key;
+        private String text;
+
+        private RunCursor(int index, Run run, int bufferSize) throws IOException {
+            this.index = index;
+            this.run = run;
+            this.in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(run.file), bufferSize));
+            this.remaining = run.lineCount;
+        }
+
+        /**
+         * Moves to the next line of the run.
+         * @return false if the run is exhausted.
+         */
+        private boolean advance() throws IOException {
+            if (remaining == 0) {
+                key = null;
+                text = null;
+                return false;
+            }
+            remaining--;
+            key = readString(in);
+            text = readString(in);
+            return true;
+        }
+
+        private void close() {
+            try {
+                in.close();
+            } catch (final IOException e) {
+                // Temporary file, deleted anyway
+            }
+        }
+
+    }
+
+    private final Comparator<Entry<L>> entryOrder = new Comparator<Entry<L>>() {
+        @Override
+        public int compare(Entry<L> e1, Entry<L> e2) {
+            return e1.key.compareTo(e2.key);
+        }
+    };
+
+    /**
+     * Orders cursors by key, then by run, which keeps the merge stable.
+     */
+    private final Comparator<RunCursor> cursorOrder = new Comparator<RunCursor>() {
+        @Override
+        public int compare(RunCursor c1, RunCursor c2) {
+            int cmp = c1.key.compareTo(c2.key);
+            return (cmp != 0 ? cmp : c1.index - c2.index);
+        }
+    };
+
+    private final InputFileReader<L> source;
+
+    private final KeyExtractor<L> keyExtractor;
+
+    private final long memoryBudget;
+
+    private final int sortThreads;
+
+    private final SectionPool<L> sectionPool;
+
+    private boolean prepared = false;
+
+    /**
+     * The sorted lines, when the input fit in a single run.
+     */
+    private List<Entry<L>> inMemory = null;
+
+    private int inMemoryIndex = 0;
+
+    private final List<Run> runs = new ArrayList<Run>();
+
+    private int spilledRunCount = 0;
+
+    private int mergePassCount = 0;
+
+    private final List<RunCursor> cursors = new ArrayList<RunCursor>();
+
+    private PriorityQueue<RunCursor> merge = null;
+
+    /**
+     * The next line to hand out, null once the input is exhausted.
+     */
+    private Entry<L> next = null;
+
+    /**
+     * @param source the reader to read unsorted lines from
+     * @param keyExtractor extracts the key to sort lines by
+     * @param memoryBudget the heap budget of the sort, in bytes
+     * @param sortThreads the number of threads sorting and spilling runs
+     */
+    public SortingInputFileReader(
+            InputFileReader<L> source,
+            KeyExtractor<L> keyExtractor,
+            long memoryBudget,
+            int sortThreads) {
+        this.source = source;
+        this.keyExtractor = keyExtractor;
+        this.memoryBudget = Math.max(1L, memoryBudget);
+        this.sortThreads = Math.max(1, sortThreads);
+        this.sectionPool = new SectionPool<L>(source.getSectionSize());
+    }
+
+    public SortingInputFileReader(
+            InputFileReader<L> source,
+            KeyExtractor<L> keyExtractor) {
+        this(source, keyExtractor, 1024L * 1024L * DEFAULT_MEMORY_BUDGET_IN_MB,
+                DEFAULT_SORT_THREADS);
+    }
+
+    /**
+     * Closes the source reader and deletes the spilled runs.
+     * @throws InputFileException
+     */
+    @Override
+    public synchronized void close() throws InputFileException {
+        for (RunCursor c : cursors) {
+            c.close();
+        }
+        cursors.clear();
+        for (Run r : runs) {
+            r.file.delete();
+        }
+        runs.clear();
+        inMemory = null;
+        next = null;
+        source.close();
+    }
+
+    /**
+     * Atomically obtain a section of the sorted input. The first call sorts
+     * the whole input.
+     * @return
+     * @throws InputFileException
+     */
+    @Override
+    public synchronized InputFileSection<L> readSection()
+    throws InputFileException {
+        prepare();
+
+        InputFileSection<L> section = sectionPool.acquire();
+        List<L> lines = section.getLines();
+        int sectionSize = getSectionSize();
+        String lastKey = null;
+        while (next != null
+                && (lines.size() < sectionSize || next.key.equals(lastKey))) {
+            lastKey = next.key;
+            lines.add(next.line);
+            advance();
+        }
+        section.setNoMoreInput(next == null);
+        return section;
+    }
+
+    /**
+     * Atomically obtain a line of the sorted input. The first call sorts
+     * the whole input.
+     * @return
+     * @throws InputFileException
+     */
+    @Override
+    public synchronized L readLine() throws InputFileException {
+        prepare();
+        if (next == null) {
+            return null;
+        }
+        L line = next.line;
+        advance();
+        return line;
+    }
+
+    @Override
+    public String getEncoding() {
+        return source.getEncoding();
+    }
+
+    @Override
+    public int getSectionSize() {
+        return source.getSectionSize();
+    }
+
+    /**
+     * @return the reader lines are sorted from.
+     */
+    public InputFileReader<L> getSource() {
+        return source;
+    }
+
+    public KeyExtractor<L> getKeyExtractor() {
+        return keyExtractor;
+    }
+
+    /**
+     * @return the number of runs spilled to disk, 0 if the input was sorted
+     * in memory or is not sorted yet.
+     */
+    public synchronized int getSpilledRunCount() {
+        return spilledRunCount;
+    }
+
+    /**
+     * @return the number of passes that merged spilled runs into longer ones
+     * before the final merge.
+     */
+    public synchronized int getMergePassCount() {
+        return mergePassCount;
+    }
+
+    /**
+     * Rebuilds a spilled line.
+     * @param line the text returned by {@link InputLine#getLine()}
+     * @return the line
+     * @throws InputFileException
+     */
+    protected abstract L parseLine(String line) throws InputFileException;
+
+    /**
+     * Sorts the input on the first call.
+     */
+    private void prepare() throws InputFileException {
+        if (prepared) {
+            return;
+        }
+        prepared = true;
+
+        BatchExecutor executor = BatchExecutor.getInstance();
+        long start = System.currentTimeMillis();
+
+        // Runs being sorted are held in memory too, share the budget
+        long runBudget = Math.max(1L, memoryBudget / (sortThreads + 1));
+        ExecutorService sorters = Executors.newFixedThreadPool(
+                sortThreads, new SorterThreadFactory());
+        Semaphore inFlight = new Semaphore(sortThreads);
+        List<Future<Run>> spilled = new ArrayList<Future<Run>>();
+
+        List<Entry<L>> run = new ArrayList<Entry<L>>();
+        long runSize = 0L;
+        long lineCount = 0L;
+        try {
+            boolean noMoreInput = false;
+            while (!noMoreInput) {
+                InputFileSection<L> section;
+                try {
+                    section = source.readSection();
+                } catch (final InputFileException e) {
+                    if (Level.FATAL.equals(e.getCriticity())) {
+                        throw e;
+                    }
+                    // The section is lost, as it would be for a worker
+                    executor.logError(e);
+                    continue;
+                }
+                for (L line : section.getLines()) {
+                    run.add(new Entry<L>(keyOf(line), line));
+                    runSize += LINE_OVERHEAD + 4L * line.getLine().length();
+                    lineCount++;
+                    if (runSize >= runBudget) {
+                        inFlight.acquire();
+                        spilled.add(sorters.submit(new Spill(run, inFlight)));
+                        run = new ArrayList<Entry<L>>();
+                        runSize = 0L;
+                    }
+                }
+                noMoreInput = section.noMoreInput();
+                section.recycle();
+            }
+
+            if (spilled.isEmpty()) {
+                Collections.sort(run, entryOrder);
+                inMemory = run;
+            } else {
+                if (!run.isEmpty()) {
+                    inFlight.acquire();
+                    spilled.add(sorters.submit(new Spill(run, inFlight)));
+                }
+                for (Future<Run> f : spilled) {
+                    runs.add(f.get());
+                }
+                spilledRunCount = runs.size();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw InputFileException.ioError(getClass().getSimpleName(), e);
+        } catch (final ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InputFileException) {
+                throw (InputFileException) cause;
+            }
+            throw InputFileException.ioError(getClass().getSimpleName(),
+                    (cause instanceof Exception ? (Exception) cause : e));
+        } finally {
+            // On failure, spilled runs are deleted with the registered files
+            sorters.shutdownNow();
+        }
+
+        if (inMemory == null) {
+            // Each run being merged needs a read buffer
+            int fanIn = (int) Math.max(2L,
+                    Math.min(MERGE_FAN_IN, memoryBudget / MIN_BUFFER_SIZE - 1));
+            int bufferSize = (int) Math.max(MIN_BUFFER_SIZE,
+                    Math.min(MAX_BUFFER_SIZE, memoryBudget / (fanIn + 1)));
+            reduceRuns(fanIn, bufferSize);
+
+            merge = new PriorityQueue<RunCursor>(runs.size(), cursorOrder);
+            for (int i = 0; i < runs.size(); i++) {
+                Run r = runs.get(i);
+                try {
+                    RunCursor c = new RunCursor(i, r, bufferSize);
+                    cursors.add(c);
+                    if (c.advance()) {
+                        merge.add(c);
+                    }
+                } catch (final IOException e) {
+                    throw InputFileException.readError(r.file.getAbsolutePath(), e);
+                }
+            }
+        }
+
+        executor.logInfo("Sorted " + lineCount + " lines in "
+                + (System.currentTimeMillis() - start) + " ms"
+                + (inMemory != null ? " in memory."
+                        : ", merging " + spilledRunCount + " runs in "
+                        + (mergePassCount + 1) + " passes."));
+        advance();
+    }
+
+    /**
+     * Merges consecutive runs into longer ones until at most fanIn runs are
+     * left. Merging consecutive runs keeps the sort stable.
+     */
+    private void reduceRuns(int fanIn, int bufferSize) throws InputFileException {
+        while (runs.size() > fanIn) {
+            List<Run> merged = new ArrayList<Run>();
+            for (int from = 0; from < runs.size(); from += fanIn) {
+                List<Run> group = runs.subList(from, Math.min(from + fanIn, runs.size()));
+                merged.add(group.size() == 1 ? group.get(0) : mergeRuns(group, bufferSize));
+            }
+            runs.clear();
+            runs.addAll(merged);
+            mergePassCount++;
+        }
+    }
+
+    /**
+     * Merges runs into a new one, and deletes them.
+     */
+    private Run mergeRuns(List<Run> group, int bufferSize) throws InputFileException {
+        PriorityQueue<RunCursor> queue = new PriorityQueue<RunCursor>(group.size(), cursorOrder);
+        List<RunCursor> open = new ArrayList<RunCursor>();
+        File f = null;
+        int lineCount = 0;
+        try {
+            for (int i = 0; i < group.size(); i++) {
+                RunCursor c = new RunCursor(i, group.get(i), bufferSize);
+                open.add(c);
+                if (c.advance()) {
+                    queue.add(c);
+                }
+            }
+            f = newRunFile();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(f), bufferSize));
+            try {
+                RunCursor c;
+                while ((c = queue.poll()) != null) {
+                    writeString(out, c.key);
+                    writeString(out, c.text);
+                    lineCount++;
+                    if (c.advance()) {
+                        queue.add(c);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        } catch (final IOException e) {
+            if (f != null) {
+                f.delete();
+            }
+            throw InputFileException.ioError(
+                    (f == null ? getClass().getSimpleName() : f.getAbsolutePath()), e);
+        } finally {
+            for (RunCursor c : open) {
+                c.close();
+            }
+        }
+        for (Run r : group) {
+            r.file.delete();
+        }
+        return new Run(f, lineCount);
+    }
+
+    /**
+     * Moves {@link #next} to the next line in key order.
+     */
+    private void advance() throws InputFileException {
+        if (inMemory != null) {
+            if (inMemoryIndex < inMemory.size()) {
+                next = inMemory.get(inMemoryIndex);
+                // Let the garbage collector reclaim handed out lines
+                inMemory.set(inMemoryIndex++, null);
+            } else {
+                next = null;
+                inMemory = Collections.emptyList();
+            }
+            return;
+        }
+
+        RunCursor c = merge.poll();
+        if (c == null) {
+            next = null;
+            return;
+        }
+        next = new Entry<L>(c.key, parseLine(c.text));
+        try {
+            if (c.advance()) {
+                merge.add(c);
+            } else {
+                c.close();
+                c.run.file.delete();
+            }
+        } catch (final IOException e) {
+            throw InputFileException.readError(c.run.file.getAbsolutePath(), e);
+        }
+    }
+
+    private String keyOf(L line) {
+        String key = keyExtractor.extractKey(line);
+        return (key == null ? "" : key);
+    }
+
+    /**
+     * Sorts a run and writes it to a temporary file.
+     */
+    private final class Spill implements Callable<Run> {
+
+        private final List<Entry<L>> run;
+        private final Semaphore inFlight;
+
+        private Spill(List<Entry<L>> run, Semaphore inFlight) {
+            this.run = run;
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        public Run call() throws IOException {
+            try {
+                Collections.sort(run, entryOrder);
+                File f = newRunFile();
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(f), MAX_BUFFER_SIZE));
+                try {
+                    for (Entry<L> e : run) {
+                        writeString(out, e.key);
+                        writeString(out, e.line.getLine());
+                    }
+                } finally {
+                    out.close();
+                }
+                return new Run(f, run.size());
+            } finally {
+                run.clear();
+                inFlight.release();
+            }
+        }
+
+    }
+
+    private static final class SorterThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, SortingInputFileReader.class.getSimpleName()
+                    + "-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+
+    }
+
+    /**
+     * @return a new temporary file for a run, registered for cleanup.
+     */
+    private static File newRunFile() throws IOException {
+        File dir = (TEMP_DIRECTORY == null || TEMP_DIRECTORY.isEmpty()
+                ? null : new File(TEMP_DIRECTORY));
+        File f = File.createTempFile("sort-run", ".tmp", dir);
+        BatchExecutor.getInstance().registerFileForCleanup(f);
+        return f;
+    }
+
+    /**
+     * Writes a string of any length, which {@link DataOutputStream#writeUTF}
+     * does not.
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(ENCODING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, ENCODING);
+    }
+
+}
@@ -0,0 +1,478 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.github.nicosensei.batch.BatchExecutor;
+import com.github.nicosensei.commons.utils.datatype.ByteCountFormatter;
+
+/**
+ * Splits the input file in byte ranges aligned on line boundaries, so that
+ * several threads can read and parse the file in parallel.
+ *
+ * The first call to {@link #readSection()} or {@link #readLine()} from a
+ * thread binds it to the next unread range, which is then read through its
+ * own {@link FileChannel} without any locking. Once its range is read, the
+ * thread moves on to the next unread range, so any number of threads can
+ * read the file. A section only reports {@link InputFileSection#noMoreInput()}
+ * once no range is left to claim: ranges still bound to other threads are
+ * read by these threads. Threads calling {@link #readSection()} once all
+ * ranges have been claimed get an empty last section. A thread that stops
+ * reading early hands the rest of its range back with {@link #release()}.
+ *
+ * A line belongs to the range its first byte falls in. Ranges are cut at
+ * fixed offsets and each range reader skips the partial line it starts in,
+ * so no pass over the file is needed to align them.
+ *
+ * As lines are parsed concurrently, {@link #parseLine(String)} must be
+ * thread-safe.
+ *
+ * @author ngiraud
+ *
+ */
+public abstract class SplittingFileReader<L extends InputLine>
+implements ResumableInputFileReader<L>, SizableInputFileReader<L>,
+ProjectableInputFileReader<L>, ThreadBoundInputFileReader<L> {
+
+    private static final String DEFAULT_ENCODING = BatchExecutor.getInstance().getProperty(
+            InputFileReader.class, "encoding");
+
+    /**
+     * The read buffer size of each range, in bytes.
+     */
+    private static final int BUFFER_SIZE = 1024 * BatchExecutor.getInstance().getIntProperty(
+            SplittingFileReader.class, "bufferSizeInKb",
+            ChannelLineReader.DEFAULT_BUFFER_SIZE / 1024);
+
+    /**
+     * A byte range of the input file. Lines starting in [start, end[ belong
+     * to the range.
+     */
+    private final class Range {
+
+        private final int index;
+        private final long start;
+        private final long end;
+
+        /**
+         * Whether the range starts on a line boundary, as the rest of a
+         * released range does.
+         */
+        private final boolean aligned;
+
+        private FileInputStream inStream;
+        private ChannelLineReader reader;
+
+        /**
+         * The start of the next range to skip.
+         */
+        private long nextSkipStart = Long.MAX_VALUE;
+
+        private Range(int index, long start, long end, boolean aligned) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+            this.aligned = aligned;
+        }
+
+        private void open() throws InputFileException {
+            try {
+                this.inStream = new FileInputStream(inputFilePath);
+                FileChannel channel = inStream.getChannel();
+                // Start on the previous byte to find out whether the range
+                // starts on a line boundary.
+                boolean skipPartialLine = (start > 0 && !aligned);
+                long readFrom = (skipPartialLine ? start - 1 : start);
+                channel.position(readFrom);
+                this.reader = new ChannelLineReader(
+                        channel, readFrom, end, charset, BUFFER_SIZE);
+                if (skipPartialLine) {
+                    reader.skipLine();
+                }
+                this.nextSkipStart = skippedRanges.nextStart(reader.getPosition());
+            } catch (final FileNotFoundException e) {
+                throw InputFileException.fileNotFound(inputFilePath);
+            } catch (final IOException e) {
+                throw InputFileException.readError(inputFilePath, e);
+            }
+        }
+
+        private void seek(long position) throws InputFileException {
+            close();
+            try {
+                this.inStream = new FileInputStream(inputFilePath);
+                FileChannel channel = inStream.getChannel();
+                channel.position(position);
+                this.reader = new ChannelLineReader(
+                        channel, position, end, charset, BUFFER_SIZE);
+            } catch (final FileNotFoundException e) {
+                throw InputFileException.fileNotFound(inputFilePath);
+            } catch (final IOException e) {
+                throw InputFileException.readError(inputFilePath, e);
+            }
+        }
+
+        private boolean isSkipReached() {
+            return reader.getPosition() >= nextSkipStart;
+        }
+
+        private void skipRangeIfReached() throws InputFileException {
+            if (!isSkipReached()) {
+                return;
+            }
+            long position = reader.getPosition();
+            long resumeAt = skippedRanges.skip(position);
+            if (resumeAt > position) {
+                seek(resumeAt);
+            }
+            this.nextSkipStart = skippedRanges.nextStart(resumeAt);
+        }
+
+        private String readLine() throws InputFileException {
+            skipRangeIfReached();
+            try {
+                return reader.readLine();
+            } catch (final IOException e) {
+                throw InputFileException.readError(inputFilePath, e);
+            }
+        }
+
+        private long getLineOffset() {
+            return reader.getLineOffset();
+        }
+
+        private long getPosition() {
+            return reader.getPosition();
+        }
+
+        private boolean isExhausted() {
+            return reader.isBoundReached();
+        }
+
+        private void close() throws InputFileException {
+            if (inStream == null) {
+                return;
+            }
+            try {
+                inStream.close(); // also closes the channel
+            } catch (final IOException e) {
+                throw InputFileException.closeFailed(inputFilePath, e);
+            } finally {
+                inStream = null;
+            }
+        }
+
+    }
+
+    /**
+     * Decides when a section is full.
+     */
+    private volatile SectionSizer sectionSizer;
+
+    /**
+     * The columns to build lines with.
+     */
+    private volatile ColumnProjection columnProjection = ColumnProjection.ALL;
+
+    private final boolean ignoreEmptyLines;
+
+    private final SectionPool<L> sectionPool;
+
+    private final String inputFilePath;
+
+    private final String inputFileEncoding;
+
+    private final Charset charset;
+
+    /**
+     * Ranges that have not yet been bound to a thread.
+     */
+    private final LinkedList<Range> unclaimedRanges = new LinkedList<Range>();
+
+    /**
+     * Ranges currently bound to a thread.
+     */
+    private final List<Range> openRanges = new ArrayList<Range>();
+
+    private final ThreadLocal<Range> currentRange = new ThreadLocal<Range>();
+
+    /**
+     * Ranges that should not be read, see {@link #skipRanges(ByteRangeSet)}.
+     */
+    private volatile ByteRangeSet skippedRanges = ByteRangeSet.EMPTY;
+
+    public SplittingFileReader(
+            String inputFile,
+            String inputFileEncoding,
+            int sectionSize,
+            boolean ignoreEmptyLines,
+            int splitCount) throws InputFileException {
+
+        this.inputFilePath = inputFile;
+        this.inputFileEncoding = inputFileEncoding;
+        this.sectionSizer = new SectionSizer(sectionSize);
+        this.ignoreEmptyLines = ignoreEmptyLines;
+        this.sectionPool = new SectionPool<L>(sectionSize);
+
+        try {
+            this.charset = Charset.forName(inputFileEncoding);
+        } catch (final IllegalCharsetNameException e) {
+            throw InputFileException.ioError(inputFile, e);
+        } catch (final UnsupportedCharsetException e) {
+            throw InputFileException.ioError(inputFile, e);
+        }
+        if (!ChannelLineReader.isSplittable(charset)) {
+            throw InputFileException.unsplittableEncoding(inputFile, inputFileEncoding);
+        }
+
+        File f = new File(inputFile);
+        if (!f.exists()) {
+            throw InputFileException.fileNotFound(inputFile);
+        }
+
+        int ranges = Math.max(1, splitCount);
+        long length = f.length();
+        long rangeSize = length / ranges;
+        for (int i = 0; i < ranges; i++) {
+            long start = i * rangeSize;
+            long end = (i == ranges - 1 ? length : start + rangeSize);
+            unclaimedRanges.add(new Range(i, start, end, false));
+        }
+
+        BatchExecutor executor = BatchExecutor.getInstance();
+        executor.logInfo("Input encoding set to " + inputFileEncoding);
+        executor.logInfo("Split input file " + inputFile + " in "
+                + ranges + " range" + (ranges > 1 ? "s." : "."));
+        executor.logInfo("Processing input file by chunks of "
+                + sectionSize + " lines.");
+    }
+
+    public SplittingFileReader(
+            String inputFile,
+            int sectionSize,
+            boolean ignoreEmptyLines,
+            int splitCount) throws InputFileException {
+        this(inputFile, DEFAULT_ENCODING, sectionSize, ignoreEmptyLines, splitCount);
+    }
+
+    /**
+     * Closes all the ranges that are still open.
+     * @throws InputFileException
+     */
+    @Override
+    public synchronized void close() throws InputFileException {
+        InputFileException failure = null;
+        for (Range r : openRanges) {
+            try {
+                r.close();
+            } catch (final InputFileException e) {
+                failure = e;
+            }
+        }
+        openRanges.clear();
+        unclaimedRanges.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Reads a section from the range bound to the calling thread. Once the
+     * range is read, the next unread range is bound to the thread. A section
+     * never spans two ranges. The section reports
+     * {@link InputFileSection#noMoreInput()} once no range is left to claim.
+     * @return
+     * @throws InputFileException
+     */
+    @Override
+    public InputFileSection<L> readSection() throws InputFileException {
+
+        InputFileSection<L> section = sectionPool.acquire();
+        List<L> lines = section.getLines();
+
+        Range range = getCurrentRange();
+        while (range != null) {
+            if (readSection(range, section)) {
+                releaseRange(range);
+                range = getCurrentRange();
+                if (lines.isEmpty()) {
+                    continue; // read the section from the next range
+                }
+            }
+            break;
+        }
+
+        section.setNoMoreInput(range == null);
+        return section;
+    }
+
+    /**
+     * Reads lines of a range into a section.
+     * @return true if the range is read.
+     * @throws InputFileException
+     */
+    private boolean readSection(Range range, InputFileSection<L> section)
+            throws InputFileException {
+        List<L> lines = section.getLines();
+        boolean rangeDone = false;
+        range.skipRangeIfReached();
+        long sectionStart = range.getPosition();
+        SectionSizer sizer = sectionSizer;
+        while (!sizer.isFull(lines.size(), range.getPosition() - sectionStart)) {
+            if (range.isSkipReached()) {
+                break; // end the section where the skipped range starts
+            }
+            String l = range.readLine();
+            if (l == null) {
+                rangeDone = true;
+                break;
+            }
+            if (ignoreEmptyLines && lineIsEmpty(l)) {
+                continue; // skip empty lines
+            }
+            section.addLine(parseLine(l), range.getLineOffset());
+        }
+        section.setByteRange(sectionStart, range.getPosition());
+        return rangeDone || range.isExhausted();
+    }
+
+    /**
+     * Reads a line from the range bound to the calling thread, moving on to
+     * the next unread range when it is exhausted.
+     * @return the next line, or null if all ranges have been read.
+     * @throws InputFileException
+     */
+    @Override
+    public L readLine() throws InputFileException {
+        Range range = getCurrentRange();
+        while (range != null) {
+            String l = range.readLine();
+            if (l == null) {
+                releaseRange(range);
+                range = getCurrentRange();
+                continue;
+            }
+            if (ignoreEmptyLines && lineIsEmpty(l)) {
+                continue; // skip empty lines
+            }
+            return parseLine(l);
+        }
+        return null;
+    }
+
+    /**
+     * Hands the unread rest of the range bound to the calling thread back to
+     * the other threads, first in line to be claimed. The range is kept if no
+     * other thread is bound to a range, as no other thread may read it then.
+     * @return false if the calling thread keeps its range.
+     * @throws InputFileException
+     */
+    @Override
+    public synchronized boolean release() throws InputFileException {
+        Range range = currentRange.get();
+        if (range == null) {
+            return true;
+        }
+        if (openRanges.size() == 1) {
+            return false;
+        }
+        long position = range.getPosition();
+        if (position < range.end) {
+            unclaimedRanges.addFirst(new Range(range.index, position, range.end, true));
+            BatchExecutor.getInstance().logDebug(Thread.currentThread().getName()
+                    + " releases range #" + range.index + " from " + position);
+        }
+        releaseRange(range);
+        return true;
+    }
+
+    @Override
+    public void skipRanges(ByteRangeSet ranges) {
+        this.skippedRanges = ranges;
+        BatchExecutor.getInstance().logInfo("Will skip "
+                + ByteCountFormatter.humanReadableByteCount(ranges.getTotalLength())
+                + " in " + ranges.size() + " ranges from input file " + inputFilePath);
+    }
+
+    @Override
+    public String getEncoding() {
+        return inputFileEncoding;
+    }
+
+    @Override
+    public int getSectionSize() {
+        return sectionSizer.getLineLimit();
+    }
+
+    @Override
+    public void setSectionSizer(SectionSizer sectionSizer) {
+        this.sectionSizer = sectionSizer;
+    }
+
+    @Override
+    public SectionSizer getSectionSizer() {
+        return sectionSizer;
+    }
+
+    @Override
+    public void setColumnProjection(ColumnProjection projection) {
+        this.columnProjection = projection;
+    }
+
+    @Override
+    public ColumnProjection getColumnProjection() {
+        return columnProjection;
+    }
+
+    protected abstract L parseLine(String line) throws InputFileException;
+
+    protected String getInputFilePath() {
+        return inputFilePath;
+    }
+
+    private Range getCurrentRange() throws InputFileException {
+        Range range = currentRange.get();
+        if (range == null) {
+            range = claimRange();
+            if (range != null) {
+                currentRange.set(range);
+            }
+        }
+        return range;
+    }
+
+    private synchronized Range claimRange() throws InputFileException {
+        Range range = unclaimedRanges.poll();
+        if (range != null) {
+            range.open();
+            openRanges.add(range);
+            BatchExecutor.getInstance().logDebug(Thread.currentThread().getName()
+                    + " reads range #" + range.index + " [" + range.start
+                    + ", " + range.end + "[");
+        }
+        return range;
+    }
+
+    private synchronized void releaseRange(Range range) throws InputFileException {
+        currentRange.remove();
+        openRanges.remove(range);
+        range.close();
+    }
+
+    private boolean lineIsEmpty(String l) {
+        return l.trim().isEmpty();
+    }
+
+}
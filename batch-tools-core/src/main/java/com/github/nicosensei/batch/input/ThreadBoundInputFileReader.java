@@ -0,0 +1,27 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+/**
+ * A reader that binds a part of its input to each thread reading from it,
+ * such as a range of the input file. A thread that stops reading before the
+ * input is exhausted hands its unread part back, so that other threads read
+ * it.
+ *
+ * @author ngiraud
+ *
+ */
+public interface ThreadBoundInputFileReader<L extends InputLine>
+extends InputFileReader<L> {
+
+    /**
+     * Hands the part of the input bound to the calling thread, and not read
+     * yet, back to the other threads.
+     * @return false if no other thread is reading, in which case the calling
+     * thread keeps its part and should read on, true otherwise.
+     * @throws InputFileException
+     */
+    boolean release() throws InputFileException;
+
+}
@@ -0,0 +1,368 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.nicosensei.batch.input.BigFileReader;
+import com.github.nicosensei.batch.input.InputFileException;
+import com.github.nicosensei.batch.input.InputFileReader;
+import com.github.nicosensei.batch.input.InputFileSection;
+import com.github.nicosensei.batch.input.SplittingFileReader;
+import com.github.nicosensei.batch.input.TestInputLine;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class BatchTest extends BatchTestCase {
+
+    private static final int LINE_COUNT = 10000;
+
+    private static class TestWorker extends Worker<TestInputLine> {
+
+        private final TestBatch batch;
+
+        /**
+         * Whether this worker is counted in {@link TestBatch#running}.
+         */
+        private boolean counted = false;
+
+        private TestWorker(TestBatch batch) {
+            super(batch.getInputFile(), batch.getBatchState());
+            this.batch = batch;
+        }
+
+        @Override
+        protected void processLine(TestInputLine line) throws BatchException {
+            if (!counted) {
+                counted = true;
+                int running = batch.running.incrementAndGet();
+                int max;
+                while ((max = batch.maxRunning.get()) < running
+                        && !batch.maxRunning.compareAndSet(max, running)) {
+                    // retry
+                }
+            }
+            if (line.getLine().equals(batch.fatalLine)) {
+                throw BatchStateException.initFailed(new RuntimeException("fatal"));
+            }
+            batch.processed.incrementAndGet();
+            if (batch.lineSleepMillis > 0) {
+                try {
+                    Thread.sleep(batch.lineSleepMillis);
+                } catch (final InterruptedException e) {
+                    // cancelled
+                }
+            }
+        }
+
+        @Override
+        protected void sectionComplete() throws BatchException {
+            batch.sectionsCompleted.incrementAndGet();
+            if (batch.selfRetiring.decrementAndGet() >= 0) {
+                retire();
+            }
+        }
+
+        @Override
+        protected void jobComplete() throws BatchException {
+            batch.jobsCompleted.incrementAndGet();
+            if (counted) {
+                batch.running.decrementAndGet();
+            }
+        }
+
+    }
+
+    private static class TestBatch extends Batch<TestInputLine, TestWorker> {
+
+        private final File input;
+        private final String fatalLine;
+        private final long lineSleepMillis;
+        private final AtomicInteger processed = new AtomicInteger(0);
+        private final AtomicInteger jobsCompleted = new AtomicInteger(0);
+        private final AtomicInteger sectionsCompleted = new AtomicInteger(0);
+        /**
+         * The number of workers that processed lines and did not complete
+         * their job yet, and its maximum.
+         */
+        private final AtomicInteger running = new AtomicInteger(0);
+        private final AtomicInteger maxRunning = new AtomicInteger(0);
+        /**
+         * The number of workers left to retire after their next section.
+         */
+        private final AtomicInteger selfRetiring = new AtomicInteger(0);
+        private boolean completed = false;
+        private boolean workStealing = false;
+        private boolean virtualThreads = false;
+        private boolean autoScaling = false;
+        private int threadCount = 4;
+        private int sectionSize = 10;
+        private int splitCount = 0;
+        private boolean resumable = true;
+        private File journal = null;
+
+        private TestBatch(File input, String fatalLine, long lineSleepMillis) {
+            this.input = input;
+            this.fatalLine = fatalLine;
+            this.lineSleepMillis = lineSleepMillis;
+        }
+
+        @Override
+        protected TestWorker workerFactory() throws BatchException {
+            return new TestWorker(this);
+        }
+
+        @Override
+        protected BatchState batchStateFactory() throws BatchException {
+            return new ByteSizeBatchState(input.getAbsolutePath());
+        }
+
+        @Override
+        protected InputFileReader<TestInputLine> inputFileReaderFactory()
+        throws InputFileException {
+            if (splitCount > 0) {
+                return new SplittingFileReader<TestInputLine>(
+                        input.getAbsolutePath(), "UTF-8", getSectionSize(), true, splitCount) {
+                    @Override
+                    protected TestInputLine parseLine(String line) throws InputFileException {
+                        return new TestInputLine(line, " ");
+                    }
+                };
+            }
+            final InputFileReader<TestInputLine> reader = new BigFileReader<TestInputLine>(
+                    input.getAbsolutePath(), "UTF-8", getSectionSize(), true) {
+                @Override
+                protected TestInputLine parseLine(String line) throws InputFileException {
+                    return new TestInputLine(line, " ");
+                }
+            };
+            if (resumable) {
+                return reader;
+            }
+            return new InputFileReader<TestInputLine>() {
+                @Override
+                public InputFileSection<TestInputLine> readSection() throws InputFileException {
+                    return reader.readSection();
+                }
+
+                @Override
+                public TestInputLine readLine() throws InputFileException {
+                    return reader.readLine();
+                }
+
+                @Override
+                public void close() throws InputFileException {
+                    reader.close();
+                }
+
+                @Override
+                public String getEncoding() {
+                    return reader.getEncoding();
+                }
+
+                @Override
+                public int getSectionSize() {
+                    return reader.getSectionSize();
+                }
+            };
+        }
+
+        @Override
+        protected String getCheckpointJournalPath() {
+            return (journal == null ? null : journal.getAbsolutePath());
+        }
+
+        @Override
+        protected void init(String[] args) throws BatchException {
+        }
+
+        @Override
+        protected void onComplete() throws BatchException {
+            completed = true;
+        }
+
+        @Override
+        protected int getThreadCount() {
+            return threadCount;
+        }
+
+        @Override
+        protected int getSectionSize() {
+            return sectionSize;
+        }
+
+        @Override
+        protected boolean isWorkStealingEnabled() {
+            return workStealing;
+        }
+
+        @Override
+        protected boolean isVirtualThreadsEnabled() {
+            return virtualThreads;
+        }
+
+        @Override
+        protected boolean isAutoScalingEnabled() {
+            return autoScaling;
+        }
+
+        @Override
+        protected int getMaxThreadCount() {
+            return 8;
+        }
+
+        @Override
+        protected long getAutoScalingIntervalMillis() {
+            return 200L;
+        }
+
+    }
+
+    public final void testCompletion() throws IOException, BatchException {
+        TestBatch batch = new TestBatch(writeInput(), null, 0L);
+        batch.initialize(new String[0]);
+        batch.launch();
+        assertTrue(batch.completed);
+        assertEquals(LINE_COUNT, batch.processed.get());
+        assertEquals(4, batch.jobsCompleted.get());
+    }
+
+    public final void testFatalErrorCancelsWorkers() throws IOException, BatchException {
+        TestBatch batch = new TestBatch(writeInput(), "line 100", 4L);
+        batch.initialize(new String[0]);
+        batch.launch();
+        assertTrue(batch.completed);
+        // Cancelled workers stop within their section
+        assertTrue(batch.processed.get() < LINE_COUNT / 2);
+        assertEquals(0, batch.jobsCompleted.get());
+        assertEquals(1, batch.getBatchState().getErrors().length);
+    }
+
+    public final void testWorkStealing() throws IOException, BatchException {
+        // A couple of large sections, which get split between the threads
+        TestBatch batch = new TestBatch(writeInput(), null, 0L);
+        batch.workStealing = true;
+        batch.sectionSize = 4000;
+        batch.initialize(new String[0]);
+        batch.launch();
+        assertTrue(batch.completed);
+        assertEquals(LINE_COUNT, batch.processed.get());
+        assertEquals(4, batch.jobsCompleted.get());
+        assertTrue(batch.sectionsCompleted.get() >= 3);
+        assertEquals(0, batch.getBatchState().getErrors().length);
+        assertEquals(100d, batch.getBatchState().getCompletionPercentage(), 0.01);
+    }
+
+    public final void testWorkStealingSplitInput() throws IOException, BatchException {
+        // Each thread reads its own ranges, the first one done reading must
+        // not stop the others
+        TestBatch batch = new TestBatch(writeInput(), null, 0L);
+        batch.workStealing = true;
+        batch.splitCount = 6;
+        batch.sectionSize = 500;
+        batch.initialize(new String[0]);
+        batch.launch();
+        assertTrue(batch.completed);
+        assertEquals(LINE_COUNT, batch.processed.get());
+        assertEquals(4, batch.jobsCompleted.get());
+        assertEquals(0, batch.getBatchState().getErrors().length);
+        assertEquals(100d, batch.getBatchState().getCompletionPercentage(), 0.01);
+    }
+
+    public final void testWorkStealingFatalError() throws IOException, BatchException {
+        TestBatch batch = new TestBatch(writeInput(), "line 100", 4L);
+        batch.workStealing = true;
+        batch.sectionSize = 1000;
+        batch.initialize(new String[0]);
+        batch.launch();
+        // Cancelled threads stop within their part of a section
+        assertTrue(batch.processed.get() < LINE_COUNT / 2);
+        assertEquals(0, batch.jobsCompleted.get());
+    }
+
+    public final void testVirtualThreads() throws IOException, BatchException {
+        // Platform threads below Java 21
+        TestBatch batch = new TestBatch(writeInput(), null, 1L);
+        batch.virtualThreads = true;
+        batch.threadCount = 200;
+        batch.initialize(new String[0]);
+        batch.launch();
+        assertTrue(batch.completed);
+        assertEquals(LINE_COUNT, batch.processed.get());
+        assertEquals(200, batch.jobsCompleted.get());
+    }
+
+    public final void testAutoScaling() throws IOException, BatchException {
+        // I/O-bound lines, a single worker would take 10 seconds
+        TestBatch batch = new TestBatch(writeInput(), null, 1L);
+        batch.autoScaling = true;
+        batch.threadCount = 1;
+        batch.initialize(new String[0]);
+        batch.launch();
+        assertTrue(batch.completed);
+        assertEquals(LINE_COUNT, batch.processed.get());
+        // Workers were added, never more than the maximum at once
+        assertTrue(batch.maxRunning.get() > 1);
+        assertTrue(batch.maxRunning.get() <= batch.getMaxThreadCount());
+        // Retired workers complete their job too
+        assertTrue(batch.jobsCompleted.get() > 1);
+        assertEquals(0, batch.getBatchState().getErrors().length);
+    }
+
+    public final void testAutoScalingSplitInput() throws IOException, BatchException {
+        // Retired workers hand the rest of their range over to the others
+        TestBatch batch = new TestBatch(writeInput(), null, 0L);
+        batch.autoScaling = true;
+        batch.splitCount = 8;
+        batch.sectionSize = 100;
+        batch.selfRetiring.set(3);
+        batch.initialize(new String[0]);
+        batch.launch();
+        assertTrue(batch.completed);
+        assertEquals(LINE_COUNT, batch.processed.get());
+        assertTrue(batch.jobsCompleted.get() >= 4);
+        assertTrue(batch.maxRunning.get() <= batch.getMaxThreadCount());
+        assertEquals(0, batch.getBatchState().getErrors().length);
+        assertEquals(100d, batch.getBatchState().getCompletionPercentage(), 0.01);
+    }
+
+    public final void testNoJournalForNonResumableReader() throws IOException, BatchException {
+        // A fatal error keeps the journal, had it been written
+        TestBatch batch = new TestBatch(writeInput(), "line 100", 0L);
+        batch.resumable = false;
+        batch.journal = File.createTempFile(getName(), ".journal");
+        assertTrue(batch.journal.delete());
+        batch.initialize(new String[0]);
+        batch.launch();
+        assertTrue(batch.completed);
+        assertFalse(batch.journal.exists());
+        try {
+            batch = new TestBatch(writeInput(), null, 0L);
+            batch.resumable = false;
+            batch.journal = File.createTempFile(getName(), ".journal");
+            batch.journal.deleteOnExit();
+            batch.initialize(new String[] { Batch.RESUME_ARG });
+            fail();
+        } catch (final InputFileException e) {
+            // expected
+        }
+    }
+
+    private File writeInput() throws IOException {
+        File f = File.createTempFile(getName(), ".txt");
+        f.deleteOnExit();
+        PrintWriter pw = new PrintWriter(f, "UTF-8");
+        for (int i = 0; i < LINE_COUNT; i++) {
+            pw.print("line " + i + "\n");
+        }
+        pw.close();
+        return f;
+    }
+
+}
@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import com.github.nicosensei.batch.input.BigFileReader;
+import com.github.nicosensei.batch.input.InputFileException;
+import com.github.nicosensei.batch.input.InputFileSection;
+import com.github.nicosensei.batch.input.TestInputLine;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class ByteSizeBatchStateTest extends BatchTestCase {
+
+    public final void testProgressFromSectionByteRanges() throws IOException, BatchException {
+        File f = File.createTempFile(getName(), ".txt");
+        f.deleteOnExit();
+        PrintWriter pw = new PrintWriter(f, "UTF-8");
+        for (int i = 0; i < 100; i++) {
+            pw.print("line " + i + "\n");
+            if (i % 7 == 0) {
+                pw.print("\n"); // skipped by the reader
+            }
+        }
+        pw.close();
+
+        BigFileReader<TestInputLine> reader = new BigFileReader<TestInputLine>(
+                f.getAbsolutePath(), "UTF-8", 8, true) {
+            @Override
+            protected TestInputLine parseLine(String line) throws InputFileException {
+                return new TestInputLine(line, "\\s+");
+            }
+        };
+        ByteSizeBatchState state = new ByteSizeBatchState(f.getAbsolutePath());
+        boolean noMoreInput = false;
+        while (!noMoreInput) {
+            InputFileSection<TestInputLine> s = reader.readSection();
+            assertTrue(s.getByteLength() >= 0);
+            // Only process the first line, as if the worker skipped the others
+            if (!s.getLines().isEmpty()) {
+                state.notifyLineProcessed(s.getLines().get(0));
+            }
+            state.notifySectionProcessed(s);
+            noMoreInput = s.noMoreInput();
+            s.recycle();
+        }
+        reader.close();
+
+        assertEquals(f.length(), state.getUnitsProcessed().longValue());
+        assertEquals(13L, state.getProcessedLines());
+    }
+
+    public final void testProgressWithoutByteRange() throws IOException {
+        File f = File.createTempFile(getName(), ".txt");
+        f.deleteOnExit();
+        ByteSizeBatchState state = new ByteSizeBatchState(f.getAbsolutePath());
+        InputFileSection<TestInputLine> s = new InputFileSection<TestInputLine>(
+                Arrays.asList(
+                        new TestInputLine("caf\u00e9", " "),
+                        new TestInputLine("a b", " ")),
+                true);
+        assertEquals(-1L, s.getByteLength());
+        state.notifySectionProcessed(s);
+        assertEquals(10L, state.getUnitsProcessed().longValue());
+    }
+
+}
@@ -0,0 +1,59 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.github.nicosensei.batch.input.ByteRangeSet;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class CheckpointJournalTest extends BatchTestCase {
+
+    public final void testCommitAndLoad() throws IOException, BatchException {
+        File f = File.createTempFile(getName(), ".journal");
+        f.deleteOnExit();
+
+        CheckpointJournal j = new CheckpointJournal(f, false);
+        j.commit(100, 200);
+        j.commit(0, 100);
+        j.commit(300, 400);
+        j.close();
+
+        ByteRangeSet committed = CheckpointJournal.load(f);
+        assertEquals(2, committed.size());
+        assertEquals(300L, committed.getTotalLength());
+        assertEquals(200L, committed.skip(0));
+        assertEquals(250L, committed.skip(250));
+        assertEquals(300L, committed.nextStart(250));
+        assertEquals(Long.MAX_VALUE, committed.nextStart(400));
+    }
+
+    public final void testTruncatedRecord() throws IOException, BatchException {
+        File f = File.createTempFile(getName(), ".journal");
+        f.deleteOnExit();
+
+        CheckpointJournal j = new CheckpointJournal(f, false);
+        j.commit(0, 10);
+        j.close();
+
+        // Simulate a batch killed while writing a record
+        FileOutputStream out = new FileOutputStream(f, true);
+        out.write(new byte[] { 0, 0, 0 });
+        out.close();
+        assertEquals(10L, CheckpointJournal.load(f).getTotalLength());
+
+        j = new CheckpointJournal(f, true);
+        j.commit(10, 20);
+        j.close();
+        ByteRangeSet committed = CheckpointJournal.load(f);
+        assertEquals(1, committed.size());
+        assertEquals(20L, committed.getTotalLength());
+    }
+
+}
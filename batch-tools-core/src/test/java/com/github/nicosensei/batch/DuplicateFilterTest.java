@@ -0,0 +1,146 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.github.nicosensei.batch.input.KeyExtractor;
+import com.github.nicosensei.batch.input.TestInputLine;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class DuplicateFilterTest extends BatchTestCase {
+
+    private static final KeyExtractor<TestInputLine> WHOLE_LINE =
+            new KeyExtractor<TestInputLine>() {
+        @Override
+        public String extractKey(TestInputLine line) {
+            return line.getLine();
+        }
+    };
+
+    public final void testExactDuplicates() throws BatchStateException {
+        // Undersized and lax Bloom filter, so that it grows and errs often
+        DuplicateFilter<TestInputLine> filter = new DuplicateFilter<TestInputLine>(
+                WHOLE_LINE, 1000, 0.2, true, null);
+        Random r = new Random(42L);
+        Set<String> seen = new HashSet<String>();
+        long duplicates = 0;
+        for (int i = 0; i < 100000; i++) {
+            String key = "key" + r.nextInt(60000);
+            boolean expected = !seen.add(key);
+            if (expected) {
+                duplicates++;
+            }
+            assertEquals(key, expected, filter.isDuplicate(new TestInputLine(key, " ")));
+        }
+        assertEquals(duplicates, filter.getDuplicateCount());
+        assertTrue(filter.getFalsePositiveCount() > 0);
+        filter.close();
+    }
+
+    public final void testConcurrentExactDuplicates()
+    throws BatchStateException, InterruptedException {
+        final DuplicateFilter<TestInputLine> filter = new DuplicateFilter<TestInputLine>(
+                WHOLE_LINE, 1000, 0.2, true, null);
+        final AtomicInteger newKeys = new AtomicInteger(0);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final long seed = t;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    // Every thread sees every key, in its own order
+                    List<Integer> keys = new ArrayList<Integer>();
+                    for (int i = 0; i < 20000; i++) {
+                        keys.add(i);
+                    }
+                    Collections.shuffle(keys, new Random(seed));
+                    try {
+                        for (Integer k : keys) {
+                            if (!filter.isDuplicate(new TestInputLine("key" + k, " "))) {
+                                newKeys.incrementAndGet();
+                            }
+                        }
+                    } catch (final Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        // Each key is new exactly once, whichever thread saw it first
+        assertEquals(20000, newKeys.get());
+        assertEquals(3 * 20000L, filter.getDuplicateCount());
+        filter.close();
+    }
+
+    public final void testBloomFilterFalsePositiveRate() {
+        BloomFilter bloom = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 100000; i++) {
+            bloom.add(BloomFilter.hash("in" + i));
+        }
+        assertTrue(bloom.getStageCount() > 1);
+        // Keys taken for duplicates are not added
+        assertTrue(bloom.getKeyCount() > 98000);
+        for (int i = 0; i < 100000; i += 7) {
+            assertTrue(bloom.mightContain(BloomFilter.hash("in" + i)));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (bloom.mightContain(BloomFilter.hash("out" + i))) {
+                falsePositives++;
+            }
+        }
+        // Scaled stages stay under twice the initial rate
+        assertTrue("" + falsePositives, falsePositives < 2000);
+    }
+
+    public final void testDiskKeySetSplitsFullTables() throws IOException {
+        // Small tables, which are split many times
+        DiskKeySet set = new DiskKeySet(null, 1 << 10);
+        for (int i = 0; i < 200000; i++) {
+            assertTrue(set.add("k" + i, BloomFilter.hash("k" + i)));
+        }
+        for (int i = 0; i < 200000; i += 3) {
+            assertFalse(set.add("k" + i, BloomFilter.hash("k" + i)));
+        }
+        assertEquals(200000L, set.size());
+        set.close();
+    }
+
+    public final void testDiskKeySetLongKeys() throws IOException {
+        DiskKeySet set = new DiskKeySet(null);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        String longKey = sb.toString();
+        assertTrue(set.add("short", 1L));
+        assertTrue(set.add(longKey, 1L));
+        assertTrue(set.add("caf\u00e9", 1L));
+        assertFalse(set.add(longKey, 1L));
+        assertFalse(set.add("short", 1L));
+        assertFalse(set.add("caf\u00e9", 1L));
+        assertEquals(3L, set.size());
+        set.close();
+    }
+
+}
@@ -0,0 +1,214 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.nicosensei.batch.input.BigFileReader;
+import com.github.nicosensei.batch.input.InputFileException;
+import com.github.nicosensei.batch.input.InputFileReader;
+import com.github.nicosensei.batch.input.TestInputLine;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class PipelineTest extends BatchTestCase {
+
+    private static final int LINE_COUNT = 10000;
+
+    private static class TestBatch
+    extends Batch<TestInputLine, PipelineWorker<TestInputLine>> {
+
+        private final File input;
+        private final long failAt;
+        private final long sinkSleepMillis;
+        private final AtomicLong sum = new AtomicLong(0L);
+        private final AtomicInteger sunk = new AtomicInteger(0);
+        private final AtomicInteger sinksCompleted = new AtomicInteger(0);
+        private boolean completed = false;
+
+        private TestBatch(File input, long failAt, long sinkSleepMillis) {
+            this.input = input;
+            this.failAt = failAt;
+            this.sinkSleepMillis = sinkSleepMillis;
+        }
+
+        @Override
+        protected PipelineWorker<TestInputLine> workerFactory() throws BatchException {
+            return new PipelineWorker<TestInputLine>(
+                    getInputFile(), getBatchState(), getPipeline());
+        }
+
+        @Override
+        protected Pipeline<TestInputLine> pipelineFactory() throws BatchException {
+            Pipeline<TestInputLine> p = new Pipeline<TestInputLine>(2, 16);
+            p.addStage("parse", 2, new PipelineStageFactory<TestInputLine, Long>() {
+                @Override
+                public PipelineStage<TestInputLine, Long> newStage() {
+                    return new PipelineStage<TestInputLine, Long>() {
+                        @Override
+                        protected void process(TestInputLine line, PipelineOutput<Long> output) {
+                            output.emit(Long.parseLong(line.getLine().substring(5)));
+                        }
+                    };
+                }
+            });
+            p.addStage("transform", 3, new PipelineStageFactory<Long, Long>() {
+                @Override
+                public PipelineStage<Long, Long> newStage() {
+                    return new PipelineStage<Long, Long>() {
+                        @Override
+                        protected void process(Long value, PipelineOutput<Long> output)
+                        throws BatchException {
+                            if (value.longValue() == failAt) {
+                                throw BatchStateException.initFailed(new RuntimeException("fatal"));
+                            }
+                            if (value.longValue() % 2 == 0) {
+                                output.emit(value * 2);
+                            }
+                        }
+                    };
+                }
+            });
+            p.addStage("sink", 1, new PipelineStageFactory<Long, Void>() {
+                @Override
+                public PipelineStage<Long, Void> newStage() {
+                    return new PipelineStage<Long, Void>() {
+                        @Override
+                        protected void process(Long value, PipelineOutput<Void> output) {
+                            sum.addAndGet(value.longValue());
+                            sunk.incrementAndGet();
+                            if (sinkSleepMillis > 0) {
+                                try {
+                                    Thread.sleep(sinkSleepMillis);
+                                } catch (final InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                            }
+                        }
+
+                        @Override
+                        protected void stageComplete(PipelineOutput<Void> output) {
+                            sinksCompleted.incrementAndGet();
+                        }
+                    };
+                }
+            });
+            return p;
+        }
+
+        @Override
+        protected BatchState batchStateFactory() throws BatchException {
+            return new ByteSizeBatchState(input.getAbsolutePath());
+        }
+
+        @Override
+        protected InputFileReader<TestInputLine> inputFileReaderFactory()
+        throws InputFileException {
+            return new BigFileReader<TestInputLine>(
+                    input.getAbsolutePath(), "UTF-8", 100, true) {
+                @Override
+                protected TestInputLine parseLine(String line) throws InputFileException {
+                    return new TestInputLine(line, " ");
+                }
+            };
+        }
+
+        @Override
+        protected void init(String[] args) throws BatchException {
+        }
+
+        @Override
+        protected void onComplete() throws BatchException {
+            completed = true;
+        }
+
+        @Override
+        protected int getThreadCount() {
+            return 2;
+        }
+
+    }
+
+    public final void testAllItemsGoThroughStages() throws IOException, BatchException {
+        TestBatch batch = new TestBatch(writeInput(), -1L, 0L);
+        batch.initialize(new String[0]);
+        batch.launch();
+        assertTrue(batch.completed);
+        Pipeline<TestInputLine> pipeline = batch.getPipeline();
+        assertEquals(3, pipeline.getStageCount());
+        assertEquals("transform", pipeline.getStageName(1));
+        assertEquals(LINE_COUNT, pipeline.getStageInputCount(0));
+        assertEquals(LINE_COUNT, pipeline.getStageOutputCount(0));
+        assertEquals(LINE_COUNT, pipeline.getStageInputCount(1));
+        assertEquals(LINE_COUNT / 2, pipeline.getStageOutputCount(1));
+        assertEquals(LINE_COUNT / 2, pipeline.getStageInputCount(2));
+        assertEquals(0L, pipeline.getStageErrorCount(1));
+        assertEquals(LINE_COUNT / 2, batch.sunk.get());
+        // Twice the sum of the even numbers below LINE_COUNT
+        long half = LINE_COUNT / 2;
+        assertEquals(2L * half * (half - 1), batch.sum.get());
+        assertEquals(1, batch.sinksCompleted.get());
+        assertFalse(batch.getPipeline().isCancelled());
+        assertEquals(0, batch.getBatchState().getErrors().length);
+    }
+
+    public final void testFatalErrorCancelsPipeline() throws IOException, BatchException {
+        // Uncancelled, the slow sink would take 10 seconds
+        TestBatch batch = new TestBatch(writeInput(), 1000L, 2L);
+        batch.initialize(new String[0]);
+        long start = System.currentTimeMillis();
+        batch.launch();
+        assertTrue(System.currentTimeMillis() - start < 5000L);
+        assertTrue(batch.completed);
+        assertTrue(batch.getPipeline().isCancelled());
+        assertTrue(batch.sunk.get() < LINE_COUNT / 2);
+        assertEquals(0, batch.sinksCompleted.get());
+        assertEquals(1, batch.getBatchState().getErrors().length);
+    }
+
+    public final void testQueueBlocksWhenFull() throws InterruptedException {
+        final StageQueue<Integer> queue = new StageQueue<Integer>(1, 1);
+        queue.put(Collections.singletonList(1));
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    queue.put(Collections.singletonList(2));
+                    queue.producerDone();
+                } catch (final InterruptedException e) {
+                    // Test fails below
+                }
+            }
+        };
+        producer.start();
+        Thread.sleep(100L);
+        assertTrue(producer.isAlive());
+        assertEquals(1, queue.take().get(0).intValue());
+        assertEquals(2, queue.take().get(0).intValue());
+        assertNull(queue.take());
+        assertNull(queue.take());
+        producer.join();
+        assertTrue(queue.getProducerWaitNanos() > 0L);
+        assertEquals(2L, queue.getItemCount());
+    }
+
+    private File writeInput() throws IOException {
+        File f = File.createTempFile(getName(), ".txt");
+        f.deleteOnExit();
+        PrintWriter pw = new PrintWriter(f, "UTF-8");
+        for (int i = 0; i < LINE_COUNT; i++) {
+            pw.print("line " + i + "\n");
+        }
+        pw.close();
+        return f;
+    }
+
+}
@@ -0,0 +1,71 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class StateStoreTest extends BatchTestCase {
+
+    public final void testCommitAndRollback() throws BatchStateException {
+        StateStore store = new StateStore(null, 8, 2);
+        StateStore.Session s1 = store.openSession();
+        StateStore.Session s2 = store.openSession();
+
+        s1.putString("a", "caf\u00e9");
+        s1.add("count", 3L);
+        assertEquals("caf\u00e9", s1.getString("a"));
+        assertEquals(2, s1.getPendingWriteCount());
+        // Not committed yet
+        assertNull(s2.get("count"));
+        assertEquals(0L, store.count());
+
+        s1.commit();
+        assertEquals(2L, store.count());
+        assertEquals(7L, s1.add("count", 4L));
+        s1.rollback();
+        assertEquals(3L, s1.getLong("count"));
+
+        s1.delete("a");
+        s1.commit();
+        assertNull(s1.getString("a"));
+        assertEquals(1L, store.count());
+        store.close();
+    }
+
+    public final void testLongOfOtherValue() throws BatchStateException {
+        StateStore store = new StateStore(null, 8, 2);
+        StateStore.Session s = store.openSession();
+        s.putString("a", "abc");
+        s.commit();
+        try {
+            s.getLong("a");
+            fail("A 3 byte value is not a long");
+        } catch (final BatchStateException e) {
+            // expected
+        }
+        store.close();
+    }
+
+    public final void testValuesEvictedFromSessionCache() throws BatchStateException {
+        StateStore store = new StateStore(null, 8, 10);
+        StateStore.Session s = store.openSession();
+        for (int i = 0; i < 10000; i++) {
+            s.add("k" + (i % 1000), i);
+            if (i % 100 == 99) {
+                s.commit();
+            }
+        }
+        StateStore.Session reader = store.openSession();
+        long total = 0L;
+        for (int i = 0; i < 1000; i++) {
+            total += reader.getLong("k" + i);
+        }
+        assertEquals(10000L * 9999L / 2, total);
+        assertTrue(store.getDirectory().isDirectory());
+        store.close();
+    }
+
+}
@@ -0,0 +1,63 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import com.github.nicosensei.batch.BatchException;
+import com.github.nicosensei.batch.BatchTestCase;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class AbstractInputFileReaderTest extends BatchTestCase {
+
+    private static class Utf16Reader extends AbstractInputFileReader<TestInputLine> {
+
+        public Utf16Reader(String inputFile) throws InputFileException {
+            super(inputFile, 100, true);
+        }
+
+        @Override
+        public String getEncoding() {
+            return "UTF-16";
+        }
+
+        @Override
+        protected TestInputLine parseLine(String line) throws InputFileException {
+            return new TestInputLine(line, "\\s+");
+        }
+
+    }
+
+    public final void testCountDecodedLines() throws IOException, BatchException {
+        File testFile = File.createTempFile(
+                AbstractInputFileReaderTest.class.getSimpleName(), ".txt");
+        PrintWriter pw = new PrintWriter(testFile, "UTF-16");
+        for (int l = 1; l <= 300; l++) {
+            pw.print(l + " caf\u00e9\n");
+            if (l % 10 == 0) {
+                pw.print("  \n");
+            }
+        }
+        pw.close();
+        try {
+            Utf16Reader reader = new Utf16Reader(testFile.getAbsolutePath());
+            reader.countLines(testFile.getAbsolutePath(), true);
+            assertEquals(330, reader.getLineCount());
+            assertEquals(30, reader.getEmptyLineCount());
+            assertEquals(300, reader.getNonEmptyLineCount());
+            assertEquals("1", reader.readLine().getFields()[0]);
+            reader.close();
+        } finally {
+            if (!testFile.delete()) {
+                testFile.deleteOnExit();
+            }
+        }
+    }
+
+}
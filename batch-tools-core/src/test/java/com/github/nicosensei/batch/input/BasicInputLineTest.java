@@ -28,4 +28,12 @@ public class BasicInputLineTest extends TestCase {
         assertEquals("blah blah", l.getLine());
     }
 
+    public final void testProjection() {
+        BasicInputLine l = new TestInputLine("a\tb\tc\td", "\t", ColumnProjection.of(1));
+        assertEquals("a\tb\tc\td", l.getLine());
+        assertEquals(2, l.getFields().length);
+        assertNull(l.getFields()[0]);
+        assertEquals("b", l.getFields()[1]);
+    }
+
 }
@@ -4,8 +4,11 @@
 package com.github.nicosensei.batch.input;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.List;
 
 import com.github.nicosensei.batch.BatchException;
 import com.github.nicosensei.batch.BatchTestCase;
@@ -38,6 +41,14 @@ public class BigFileReaderTest extends BatchTestCase {
 			super(inputFile, sectionSize, ignoreEmptyLines);
 		}
 
+		public TestReader(
+				String inputFile, 
+				int sectionSize,
+				boolean ignoreEmptyLines,
+				long startOffset) throws InputFileException {
+			super(inputFile, "UTF-8", sectionSize, ignoreEmptyLines, startOffset);
+		}
+
 		@Override
 		protected TestInputLine parseLine(String line) throws InputFileException {
 			return new TestInputLine(line, "\\s+");
@@ -105,6 +116,239 @@ public class BigFileReaderTest extends BatchTestCase {
 	}
 
 
+	public final void testDecodedEncoding() throws IOException, BatchException {
+		File testFile = File.createTempFile(BigFileReaderTest.class.getSimpleName(), ".txt");
+		PrintWriter pw = new PrintWriter(testFile, "UTF-16");
+		for (int l = 1; l <= 2500; l++) {
+			pw.print(l + " caf\u00e9\n");
+		}
+		pw.close();
+		try {
+			BigFileReader<TestInputLine> bfr = new BigFileReader<TestInputLine>(
+					testFile.getAbsolutePath(), "UTF-16", 1000, true) {
+				@Override
+				protected TestInputLine parseLine(String line) throws InputFileException {
+					return new TestInputLine(line, "\\s+");
+				}
+			};
+			int expected = 1;
+			InputFileSection<TestInputLine> section;
+			do {
+				section = bfr.readSection();
+				assertEquals(-1L, section.getStartOffset());
+				for (TestInputLine l : section.getLines()) {
+					assertEquals(Integer.toString(expected++), l.getFields()[0]);
+					assertEquals("caf\u00e9", l.getFields()[1]);
+				}
+			} while (!section.noMoreInput());
+			assertEquals(2501, expected);
+			assertEquals(-1L, bfr.getPosition());
+			bfr.close();
+		} finally {
+			if (!testFile.delete()) {
+				testFile.deleteOnExit();
+			}
+		}
+	}
+
+	public final void testLineOffsets() throws IOException, BatchException {
+		File testFile = genererateTestFile(10000, new Padding("*", 10));
+		try {
+			RandomAccessFile raf = new RandomAccessFile(testFile, "r");
+			TestReader bfr = new TestReader(testFile.getAbsolutePath(), 1000, true);
+			long expectedStart = 0L;
+			try {
+				while (true) {
+					InputFileSection<TestInputLine> section = bfr.readSection();
+					assertEquals(expectedStart, section.getStartOffset());
+					List<TestInputLine> lines = section.getLines();
+					for (int i = 0; i < lines.size(); i++) {
+						raf.seek(section.getLineOffset(i));
+						assertEquals(lines.get(i).getLine(), raf.readLine());
+					}
+					expectedStart = section.getEndOffset();
+					if (section.noMoreInput()) {
+						break;
+					}
+				}
+			} finally {
+				raf.close();
+				bfr.close();
+			}
+			assertEquals(testFile.length(), expectedStart);
+		} finally {
+			if (!testFile.delete()) {
+				testFile.deleteOnExit();
+			}
+		}
+	}
+
+	public final void testStartOffset() throws IOException, BatchException {
+		File testFile = genererateTestFile(100, new Padding("*", 10));
+		try {
+			TestReader bfr = new TestReader(testFile.getAbsolutePath(), 10, true);
+			for (int i = 0; i < 42; i++) {
+				bfr.readLine();
+			}
+			long restartOffset = bfr.getPosition();
+			bfr.close();
+
+			bfr = new TestReader(testFile.getAbsolutePath(), 10, true, restartOffset);
+			assertEquals("43", bfr.readLine().getFields()[0].replace("*", ""));
+			bfr.close();
+		} finally {
+			if (!testFile.delete()) {
+				testFile.deleteOnExit();
+			}
+		}
+	}
+
+	public final void testSkipRanges() throws IOException, BatchException {
+		// Lines are 11 bytes long, skip lines 11 to 20 and 51 to 55
+		File testFile = genererateTestFile(100, new Padding("*", 10));
+		try {
+			TestReader bfr = new TestReader(testFile.getAbsolutePath(), 10, true);
+			bfr.skipRanges(new ByteRangeSet(new long[] { 550, 605, 110, 220 }, 2));
+			int lineCount = 0;
+			boolean noMoreInput = false;
+			while (!noMoreInput) {
+				InputFileSection<TestInputLine> s = bfr.readSection();
+				for (TestInputLine l : s.getLines()) {
+					int n = Integer.parseInt(l.getFields()[0].replace("*", ""));
+					assertFalse("line " + n, (n > 10 && n <= 20) || (n > 50 && n <= 55));
+					lineCount++;
+				}
+				assertFalse(s.getStartOffset() < 220 && s.getEndOffset() > 110);
+				assertFalse(s.getStartOffset() < 605 && s.getEndOffset() > 550);
+				noMoreInput = s.noMoreInput();
+			}
+			assertEquals(85, lineCount);
+			bfr.close();
+		} finally {
+			if (!testFile.delete()) {
+				testFile.deleteOnExit();
+			}
+		}
+	}
+
+	public final void testByteBudget() throws IOException, BatchException {
+		// Lines are 11 bytes long, at most 3 lines in 30 bytes
+		File testFile = genererateTestFile(100, new Padding("*", 10));
+		try {
+			TestReader bfr = new TestReader(testFile.getAbsolutePath(), 10, true);
+			bfr.setSectionSizer(new SectionSizer(10, 30L));
+			int lineCount = 0;
+			boolean noMoreInput = false;
+			while (!noMoreInput) {
+				InputFileSection<TestInputLine> s = bfr.readSection();
+				assertTrue(s.getLines().size() <= 3);
+				lineCount += s.getLines().size();
+				noMoreInput = s.noMoreInput();
+			}
+			assertEquals(100, lineCount);
+			bfr.close();
+		} finally {
+			if (!testFile.delete()) {
+				testFile.deleteOnExit();
+			}
+		}
+	}
+
+	public final void testFollow() throws IOException, BatchException, InterruptedException {
+		File testFile = File.createTempFile(BigFileReaderTest.class.getSimpleName(), ".log");
+		File rotated = new File(testFile.getPath() + ".1");
+		try {
+			append(testFile, "a\nb\npart");
+			final TestReader bfr = new TestReader(testFile.getAbsolutePath(), 10, true);
+			bfr.setFollowing(true);
+
+			// Partial section handed out after the latency bound, unterminated line held
+			assertLines(bfr.readSection(), "a", "b");
+
+			append(testFile, "ial\nc\n");
+			assertLines(bfr.readSection(), "partial", "c");
+
+			// Rotation: the new file is read from its start
+			assertTrue(testFile.renameTo(rotated));
+			append(testFile, "ddd\n");
+			assertLines(bfr.readSection(), "ddd");
+
+			// Truncation to less than what was read: the file is read again from its start
+			RandomAccessFile raf = new RandomAccessFile(testFile, "rw");
+			raf.setLength(0L);
+			raf.close();
+			append(testFile, "e\n");
+			assertLines(bfr.readSection(), "e");
+
+			Thread stopper = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(100L);
+					} catch (final InterruptedException e) {
+						// stop now
+					}
+					bfr.setFollowing(false);
+				}
+			};
+			stopper.start();
+			InputFileSection<TestInputLine> s = bfr.readSection();
+			assertTrue(s.getLines().isEmpty());
+			assertTrue(s.noMoreInput());
+			stopper.join();
+			bfr.close();
+		} finally {
+			testFile.delete();
+			rotated.delete();
+		}
+	}
+
+	public final void testCloseWhileFollowing() throws IOException, BatchException, InterruptedException {
+		File testFile = File.createTempFile(BigFileReaderTest.class.getSimpleName(), ".log");
+		try {
+			append(testFile, "a\n");
+			final TestReader bfr = new TestReader(testFile.getAbsolutePath(), 10, true);
+			bfr.setFollowing(true);
+			assertLines(bfr.readSection(), "a");
+
+			// A reader waiting for input does not keep close() from running
+			Thread closer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(100L);
+						bfr.close();
+					} catch (final Exception e) {
+						// checked below
+					}
+				}
+			};
+			closer.start();
+			InputFileSection<TestInputLine> s = bfr.readSection();
+			closer.join();
+			assertTrue(s.getLines().isEmpty());
+			assertTrue(s.noMoreInput());
+			assertFalse(bfr.isFollowing());
+		} finally {
+			testFile.delete();
+		}
+	}
+
+	private static void append(File f, String text) throws IOException {
+		FileOutputStream out = new FileOutputStream(f, true);
+		out.write(text.getBytes("UTF-8"));
+		out.close();
+	}
+
+	private static void assertLines(InputFileSection<TestInputLine> s, String... expected) {
+		assertFalse(s.noMoreInput());
+		List<TestInputLine> lines = s.getLines();
+		assertEquals(expected.length, lines.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], lines.get(i).getLine());
+		}
+	}
+
 	private File genererateTestFile(long lineCount, Padding p) throws IOException {
 		File f = File.createTempFile(
 				BigFileReaderTest.class.getSimpleName(), 
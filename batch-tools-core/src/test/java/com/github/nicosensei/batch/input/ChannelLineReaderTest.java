@@ -0,0 +1,73 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import com.github.nicosensei.batch.BatchTestCase;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class ChannelLineReaderTest extends BatchTestCase {
+
+    private static final String[] WORDS = new String[] {
+        "blah", " ", "caf\u00e9", "\u20ac", "\t", "na\u00efve", "x\r", "\u00ff"
+    };
+
+    public final void testDecodingSameAsCharset() throws IOException {
+        Random r = new Random(42L);
+        for (String encoding : new String[] { "UTF-8", "ISO-8859-1", "US-ASCII" }) {
+            Charset charset = Charset.forName(encoding);
+            StringBuilder sb = new StringBuilder();
+            for (int l = 0; l < 500; l++) {
+                int wordCount = r.nextInt(5);
+                for (int w = 0; w < wordCount; w++) {
+                    sb.append(WORDS[r.nextInt(WORDS.length)]);
+                }
+                sb.append('\n');
+            }
+            byte[] bytes = sb.toString().getBytes(charset);
+            // Small buffer, so that lines span several buffer fills
+            ChannelLineReader in = new ChannelLineReader(
+                    Channels.newChannel(new ByteArrayInputStream(bytes)),
+                    0L, Long.MAX_VALUE, charset, 7);
+            String[] expected = new String(bytes, charset).split("\n", -1);
+            for (int l = 0; l < expected.length - 1; l++) {
+                String line = expected[l];
+                String terminator = "\n";
+                if (line.endsWith("\r")) {
+                    line = line.substring(0, line.length() - 1);
+                    terminator = "\r\n";
+                }
+                assertEquals(encoding + " line " + l, line, in.readLine());
+                assertEquals(encoding + " line " + l, terminator, in.getLineTerminator());
+            }
+            assertNull(in.readLine());
+            in.close();
+        }
+    }
+
+    public final void testHoldUnterminatedLine() throws IOException {
+        byte[] bytes = "a\nbc".getBytes("UTF-8");
+        ChannelLineReader in = new ChannelLineReader(
+                Channels.newChannel(new ByteArrayInputStream(bytes)),
+                Charset.forName("UTF-8"));
+        in.setHoldUnterminatedLine(true);
+        assertEquals("a", in.readLine());
+        assertNull(in.readLine());
+        assertTrue(in.hasUnterminatedLine());
+        assertEquals(2L, in.getPosition());
+        assertEquals("bc", in.takeUnterminatedLine());
+        assertEquals(4L, in.getPosition());
+        assertNull(in.takeUnterminatedLine());
+        in.close();
+    }
+
+}
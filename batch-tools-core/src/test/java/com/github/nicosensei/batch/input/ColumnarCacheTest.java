@@ -0,0 +1,189 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.github.nicosensei.batch.BatchException;
+import com.github.nicosensei.batch.BatchTestCase;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class ColumnarCacheTest extends BatchTestCase {
+
+    private static class TestReader extends BigFileReader<TestInputLine> {
+
+        TestReader(String inputFile, int sectionSize) throws InputFileException {
+            super(inputFile, "UTF-8", sectionSize, true);
+        }
+
+        @Override
+        protected TestInputLine parseLine(String line) throws InputFileException {
+            return new TestInputLine(line, "\t");
+        }
+
+    }
+
+    private static final String LAYOUT = TestReader.class.getName() + ";all columns";
+
+    private static class TestColumnarReader extends ColumnarFileReader<ColumnarRecord> {
+
+        TestColumnarReader(String inputFile) throws InputFileException {
+            super(inputFile, LAYOUT);
+        }
+
+        @Override
+        protected ColumnarRecord parseRecord(ColumnarRecord record) {
+            return record;
+        }
+
+    }
+
+    public final void testWriteAndRead() throws IOException, BatchException {
+        StringBuilder sb = new StringBuilder();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            String line = "id" + i + "\tcaf\u00e9 " + i + (i % 3 == 0 ? "" : "\textra" + i);
+            expected.add(line);
+            sb.append(line).append('\n');
+            if (i % 100 == 0) {
+                sb.append('\n');
+            }
+        }
+        File f = File.createTempFile(getName(), ".tsv");
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(sb.toString().getBytes("UTF-8"));
+        out.close();
+        File cache = ColumnarCache.getCacheFile(f.getAbsolutePath());
+        try {
+            assertFalse(ColumnarCache.isUpToDate(f.getAbsolutePath(), LAYOUT));
+            ColumnarCache.build(new TestReader(f.getAbsolutePath(), 64), f.getAbsolutePath());
+            assertTrue(ColumnarCache.isUpToDate(f.getAbsolutePath(), LAYOUT));
+
+            TestColumnarReader reader = new TestColumnarReader(f.getAbsolutePath());
+            int lineCount = 0;
+            long bytes = 0L;
+            boolean noMoreInput = false;
+            while (!noMoreInput) {
+                InputFileSection<ColumnarRecord> s = reader.readSection();
+                for (ColumnarRecord r : s.getLines()) {
+                    assertTrue(Arrays.equals(
+                            expected.get(lineCount++).split("\t"), r.getFields()));
+                }
+                bytes += Math.max(0L, s.getByteLength());
+                noMoreInput = s.noMoreInput();
+            }
+            reader.close();
+            assertEquals(expected.size(), lineCount);
+            assertEquals(f.length(), bytes);
+
+            // Fields are read without decoding the whole record
+            reader = new TestColumnarReader(f.getAbsolutePath());
+            ColumnarRecord r = reader.readLine();
+            assertEquals("id0", r.getField(0));
+            assertEquals("caf\u00e9 0", r.getField(1));
+            assertEquals(2, r.getFieldCount());
+            r = reader.readLine();
+            assertEquals(3, r.getFieldCount());
+            assertEquals("extra1", r.getField(2));
+            reader.close();
+
+            // A modified input file invalidates the cache
+            assertTrue(f.setLastModified(f.lastModified() - 60000L));
+            assertFalse(ColumnarCache.isUpToDate(f.getAbsolutePath(), LAYOUT));
+            try {
+                new TestColumnarReader(f.getAbsolutePath());
+                fail();
+            } catch (final InputFileException e) {
+                // expected
+            }
+        } finally {
+            f.delete();
+            cache.delete();
+        }
+    }
+
+    public final void testLayoutMismatch() throws IOException, BatchException {
+        File f = File.createTempFile(getName(), ".csv");
+        FileOutputStream out = new FileOutputStream(f);
+        out.write("a,b\nc,d\n".getBytes("UTF-8"));
+        out.close();
+        String path = f.getAbsolutePath();
+        try {
+            CsvFileReader projected = new CsvFileReader(path, "UTF-8", 10, CsvCodec.CSV, false);
+            projected.setColumnProjection(ColumnProjection.of(1));
+            String projectedLayout = ColumnarCache.layoutOf(projected);
+            ColumnarCache.build(projected, path);
+            assertTrue(ColumnarCache.isUpToDate(path, projectedLayout));
+
+            // Another projection, delimiter or reader needs its own cache
+            CsvFileReader all = new CsvFileReader(path, "UTF-8", 10, CsvCodec.CSV, false);
+            assertFalse(ColumnarCache.isUpToDate(path, ColumnarCache.layoutOf(all)));
+            all.close();
+            CsvFileReader tsv = new CsvFileReader(path, "UTF-8", 10, CsvCodec.TSV, false);
+            tsv.setColumnProjection(ColumnProjection.of(1));
+            assertFalse(ColumnarCache.isUpToDate(path, ColumnarCache.layoutOf(tsv)));
+            tsv.close();
+            assertFalse(ColumnarCache.isUpToDate(path, LAYOUT));
+            try {
+                new TestColumnarReader(path);
+                fail();
+            } catch (final InputFileException e) {
+                // expected
+            }
+        } finally {
+            f.delete();
+            ColumnarCache.getCacheFile(path).delete();
+        }
+    }
+
+    public final void testIncompleteReadDiscardsCache() throws IOException, BatchException {
+        File f = File.createTempFile(getName(), ".tsv");
+        FileOutputStream out = new FileOutputStream(f);
+        out.write("a\tb\nc\td\ne\tf\n".getBytes("UTF-8"));
+        out.close();
+        try {
+            CachingInputFileReader<TestInputLine> reader = new CachingInputFileReader<TestInputLine>(
+                    new TestReader(f.getAbsolutePath(), 1), f.getAbsolutePath());
+            reader.readSection();
+            reader.close();
+            assertFalse(ColumnarCache.isUpToDate(f.getAbsolutePath(), LAYOUT));
+            assertFalse(ColumnarCache.getCacheFile(f.getAbsolutePath()).exists());
+        } finally {
+            f.delete();
+        }
+    }
+
+    public final void testThreadBoundSourceRejected() throws IOException, BatchException {
+        File f = File.createTempFile(getName(), ".tsv");
+        FileOutputStream out = new FileOutputStream(f);
+        out.write("a\tb\nc\td\ne\tf\n".getBytes("UTF-8"));
+        out.close();
+        SplittingFileReader<TestInputLine> source = new SplittingFileReader<TestInputLine>(
+                f.getAbsolutePath(), 1, true, 2) {
+            @Override
+            protected TestInputLine parseLine(String line) {
+                return new TestInputLine(line, "\t");
+            }
+        };
+        try {
+            new CachingInputFileReader<TestInputLine>(source, f.getAbsolutePath());
+            fail("A thread-bound source should be rejected");
+        } catch (final InputFileException e) {
+            // expected
+        } finally {
+            source.close();
+            f.delete();
+        }
+        assertFalse(ColumnarCache.getCacheFile(f.getAbsolutePath()).exists());
+    }
+
+}
@@ -0,0 +1,167 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+import com.github.nicosensei.batch.BatchException;
+import com.github.nicosensei.batch.BatchTestCase;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class CompressedFileReaderTest extends BatchTestCase {
+
+    private static final int LINE_COUNT = 20000;
+
+    private static class TestReader extends CompressedFileReader<TestInputLine> {
+
+        public TestReader(
+                String inputFile,
+                Compression compression,
+                int decoderThreads) throws InputFileException {
+            super(inputFile, "UTF-8", 100, true, compression, decoderThreads);
+        }
+
+        @Override
+        protected TestInputLine parseLine(String line) throws InputFileException {
+            return new TestInputLine(line, "\\s+");
+        }
+
+    }
+
+    public final void testCompressionByExtension() {
+        assertEquals(Compression.GZIP, Compression.forFile("/logs/access.log.GZ"));
+        assertEquals(Compression.BZIP2, Compression.forFile("access.log.bz2"));
+        assertEquals(Compression.ZSTD, Compression.forFile("access.log.zst"));
+        assertEquals(Compression.NONE, Compression.forFile("access.log"));
+        assertEquals(Compression.GZIP, Compression.forName("auto", "a.bgz"));
+        assertEquals(Compression.BZIP2, Compression.forName("bzip2", "a.gz"));
+    }
+
+    public final void testGzip() throws IOException, BatchException {
+        File f = createFile(".gz");
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(f));
+        writeLines(out, 1, LINE_COUNT);
+        out.close();
+        checkAllLinesRead(new TestReader(f.getAbsolutePath(), Compression.GZIP, 1));
+    }
+
+    public final void testConcatenatedGzipMembers() throws IOException, BatchException {
+        File f = createFile(".gz");
+        FileOutputStream fos = new FileOutputStream(f);
+        int half = LINE_COUNT / 2;
+        GZIPOutputStream member = new GZIPOutputStream(fos);
+        writeLines(member, 1, half);
+        member.finish();
+        member = new GZIPOutputStream(fos);
+        writeLines(member, half + 1, LINE_COUNT);
+        member.close();
+        checkAllLinesRead(new TestReader(f.getAbsolutePath(), Compression.GZIP, 4));
+    }
+
+    public final void testParallelBgzf() throws IOException, BatchException {
+        File f = createFile(".bgz");
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        writeLines(text, 1, LINE_COUNT);
+        writeBgzf(text.toByteArray(), f);
+
+        TestReader reader = new TestReader(f.getAbsolutePath(), Compression.GZIP, 4);
+        checkAllLinesRead(reader);
+        assertEquals(f.length(), reader.getCompressedBytesRead());
+    }
+
+    public final void testBzip2() throws IOException, BatchException {
+        File f = createFile(".bz2");
+        OutputStream out = new BZip2CompressorOutputStream(new FileOutputStream(f));
+        writeLines(out, 1, LINE_COUNT);
+        out.close();
+        checkAllLinesRead(new TestReader(f.getAbsolutePath(), Compression.BZIP2, 1));
+    }
+
+    private void checkAllLinesRead(TestReader reader) throws BatchException {
+        int expected = 1;
+        boolean noMoreInput = false;
+        while (!noMoreInput) {
+            InputFileSection<TestInputLine> s = reader.readSection();
+            for (TestInputLine l : s.getLines()) {
+                assertEquals(Integer.toString(expected), l.getFields()[0]);
+                expected++;
+            }
+            noMoreInput = s.noMoreInput();
+        }
+        assertEquals(LINE_COUNT + 1, expected);
+        reader.close();
+    }
+
+    private File createFile(String extension) throws IOException {
+        File f = File.createTempFile(getName(), extension);
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static void writeLines(OutputStream out, int from, int to) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i <= to; i++) {
+            sb.append(i).append(" some text\n");
+        }
+        out.write(sb.toString().getBytes("UTF-8"));
+    }
+
+    /**
+     * Writes BGZF members holding at most 4KB of data, followed by the
+     * empty end of file member.
+     */
+    private static void writeBgzf(byte[] data, File f) throws IOException {
+        FileOutputStream out = new FileOutputStream(f);
+        int blockSize = 4096;
+        for (int off = 0; off < data.length; off += blockSize) {
+            writeBgzfMember(out, data, off, Math.min(blockSize, data.length - off));
+        }
+        writeBgzfMember(out, data, 0, 0);
+        out.close();
+    }
+
+    private static void writeBgzfMember(OutputStream out, byte[] data, int off, int len)
+    throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data, off, len);
+        deflater.finish();
+        byte[] cdata = new byte[len + 1024];
+        int clen = 0;
+        while (!deflater.finished()) {
+            clen += deflater.deflate(cdata, clen, cdata.length - clen);
+        }
+        deflater.end();
+
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+
+        int blockSize = 18 + clen + 8;
+        out.write(new byte[] { 31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0,
+                'B', 'C', 2, 0 });
+        writeInt(out, blockSize - 1, 2);
+        out.write(cdata, 0, clen);
+        writeInt(out, crc.getValue(), 4);
+        writeInt(out, len, 4);
+    }
+
+    private static void writeInt(OutputStream out, long value, int byteCount)
+    throws IOException {
+        for (int i = 0; i < byteCount; i++) {
+            out.write((int) (value >> (8 * i)) & 0xff);
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.log4j.Level;
+
+import com.github.nicosensei.batch.BatchTestCase;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class KeyPartitioningInputFileReaderTest extends BatchTestCase {
+
+    private static final KeyExtractor<TestInputLine> FIRST_FIELD =
+            new KeyExtractor<TestInputLine>() {
+        @Override
+        public String extractKey(TestInputLine line) {
+            return line.getFields()[0];
+        }
+    };
+
+    /**
+     * Reads a partition, keeping unsynchronized per-key state.
+     */
+    private static class Consumer extends Thread {
+
+        private final InputFileReader<TestInputLine> partition;
+
+        private final Map<String, Integer> lastIndexPerKey = new HashMap<String, Integer>();
+
+        private int lineCount = 0;
+
+        private long byteCount = 0L;
+
+        private boolean ordered = true;
+
+        private Consumer(InputFileReader<TestInputLine> partition) {
+            this.partition = partition;
+        }
+
+        @Override
+        public void run() {
+            try {
+                boolean noMoreInput = false;
+                while (!noMoreInput) {
+                    InputFileSection<TestInputLine> s = partition.readSection();
+                    for (TestInputLine l : s.getLines()) {
+                        String key = l.getFields()[0];
+                        int index = Integer.parseInt(l.getFields()[1]);
+                        Integer last = lastIndexPerKey.put(key, index);
+                        ordered &= (last == null || last < index);
+                        lineCount++;
+                    }
+                    byteCount += Math.max(0L, s.getByteLength());
+                    noMoreInput = s.noMoreInput();
+                    s.recycle();
+                }
+            } catch (final InputFileException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+    }
+
+    public final void testRouteByKey() throws IOException, InputFileException, InterruptedException {
+        File f = File.createTempFile(getName(), ".txt");
+        f.deleteOnExit();
+        PrintWriter pw = new PrintWriter(f, "UTF-8");
+        Random r = new Random(42L);
+        for (int i = 0; i < 5000; i++) {
+            pw.print("k" + r.nextInt(100) + " " + i + "\n");
+            if (i % 1000 == 0) {
+                pw.print("\n");
+            }
+        }
+        pw.close();
+
+        BigFileReader<TestInputLine> source = new BigFileReader<TestInputLine>(
+                f.getAbsolutePath(), "UTF-8", 16, true) {
+            @Override
+            protected TestInputLine parseLine(String line) throws InputFileException {
+                return new TestInputLine(line, "\\s+");
+            }
+        };
+        // Shallow queues, so that the router has to wait for the consumers
+        KeyPartitioningInputFileReader<TestInputLine> reader =
+                new KeyPartitioningInputFileReader<TestInputLine>(source, FIRST_FIELD, 3, 1);
+
+        List<Consumer> consumers = new ArrayList<Consumer>();
+        for (int i = 0; i < reader.getPartitionCount(); i++) {
+            Consumer c = new Consumer(reader.getPartition(i));
+            consumers.add(c);
+            c.start();
+        }
+        reader.start();
+
+        Map<String, Consumer> owners = new HashMap<String, Consumer>();
+        int lineCount = 0;
+        long byteCount = 0L;
+        for (int i = 0; i < consumers.size(); i++) {
+            Consumer c = consumers.get(i);
+            c.join(10000L);
+            assertFalse(c.isAlive());
+            assertTrue(c.ordered);
+            assertEquals(reader.getRoutedLineCount(i), c.lineCount);
+            lineCount += c.lineCount;
+            byteCount += c.byteCount;
+            for (String key : c.lastIndexPerKey.keySet()) {
+                assertNull("key " + key + " seen twice", owners.put(key, c));
+            }
+        }
+        assertEquals(5000, lineCount);
+        // Routed sections carry the bytes of their lines, skipped ones included
+        assertEquals(f.length(), byteCount);
+        assertEquals(100, owners.size());
+
+        // Ended partitions keep reporting the end
+        assertTrue(reader.getPartition(0).readSection().noMoreInput());
+        reader.close();
+    }
+
+    public final void testKeyExtractorFailureReported()
+    throws IOException, InputFileException {
+        File f = File.createTempFile(getName(), ".txt");
+        f.deleteOnExit();
+        PrintWriter pw = new PrintWriter(f, "UTF-8");
+        for (int i = 0; i < 100; i++) {
+            pw.print("k" + i + " " + i + "\n");
+        }
+        pw.close();
+
+        BigFileReader<TestInputLine> source = new BigFileReader<TestInputLine>(
+                f.getAbsolutePath(), "UTF-8", 16, true) {
+            @Override
+            protected TestInputLine parseLine(String line) throws InputFileException {
+                return new TestInputLine(line, "\\s+");
+            }
+        };
+        KeyExtractor<TestInputLine> failing = new KeyExtractor<TestInputLine>() {
+            @Override
+            public String extractKey(TestInputLine line) {
+                if ("50".equals(line.getFields()[1])) {
+                    throw new IllegalStateException("no key");
+                }
+                return line.getFields()[0];
+            }
+        };
+        KeyPartitioningInputFileReader<TestInputLine> reader =
+                new KeyPartitioningInputFileReader<TestInputLine>(source, failing, 2, 100);
+        reader.start();
+
+        // Every partition ends with the error, rather than just ending
+        for (int i = 0; i < reader.getPartitionCount(); i++) {
+            InputFileReader<TestInputLine> partition = reader.getPartition(i);
+            try {
+                while (!partition.readSection().noMoreInput()) {
+                    // read on
+                }
+                fail("partition " + i);
+            } catch (final InputFileException e) {
+                assertEquals(Level.FATAL, e.getCriticity());
+            }
+        }
+        reader.close();
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class LazyInputLineTest extends TestCase {
+
+    private static final String[] LINES = new String[] {
+        "",
+        "blah",
+        "blah blah",
+        "  blah \t blah  ",
+        "a,b,,c,,",
+        ",,,",
+        ",a",
+        "a|b|c",
+        "x1y22z333",
+        "\u00e9t\u00e9\tcaf\u00e9\t"
+    };
+
+    private static final String[] SEPARATORS = new String[] {
+        " ", ",", "\t", "\\t", "\\s+", "\\|", "\\d+", ";"
+    };
+
+    public final void testSameFieldsAsSplit() {
+        for (String line : LINES) {
+            for (String sep : SEPARATORS) {
+                String[] expected = line.split(sep);
+                LazyInputLine l = new LazyInputLine(line, sep);
+                assertTrue("'" + line + "' split on '" + sep + "'",
+                        Arrays.equals(expected, l.getFields()));
+                assertEquals(expected.length, l.getFieldCount());
+                assertSame(line, l.getLine());
+            }
+        }
+    }
+
+    public final void testProjection() {
+        ColumnProjection p = ColumnProjection.of(2, 0);
+        for (String line : LINES) {
+            for (String sep : SEPARATORS) {
+                String[] expected = line.split(sep);
+                String context = "'" + line + "' split on '" + sep + "'";
+                LazyInputLine l = new LazyInputLine(line, sep, p);
+                String[] fields = l.getFields();
+                for (int i = 0; i < fields.length; i++) {
+                    // Trailing empty fields are only dropped when the whole line is split
+                    String field = (i < expected.length ? expected[i] : "");
+                    assertEquals(context, p.includes(i) ? field : null, fields[i]);
+                }
+                if (expected.length > 2) {
+                    assertTrue(context, fields.length >= 3);
+                }
+                // Columns out of the projection can still be read
+                assertEquals(context, expected.length, l.getFieldCount());
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals(context, expected[i], l.getField(i));
+                }
+                assertSame(line, l.getLine());
+            }
+        }
+    }
+
+    public final void testParseProjection() throws InputFileException {
+        assertTrue(ColumnProjection.parse(null).isAll());
+        assertTrue(ColumnProjection.parse(" ").isAll());
+        ColumnProjection p = ColumnProjection.parse("7, 0,3");
+        assertEquals(7, p.getLastColumn());
+        assertTrue(p.includes(3));
+        assertFalse(p.includes(1));
+        try {
+            ColumnProjection.parse("1,-2");
+            fail();
+        } catch (final InputFileException e) {
+            // expected
+        }
+    }
+
+    public final void testSeparatorDisplay() {
+        assertEquals(" ", new LazyInputLine("a b", "\\s+").getSeparator());
+        assertEquals(" ", new LazyInputLine("a\tb", "\t").getSeparator());
+        assertEquals(",", new LazyInputLine("a,b", ",").getSeparator());
+    }
+
+    public final void testFieldOutOfBounds() {
+        LazyInputLine l = new LazyInputLine("a b", " ");
+        try {
+            l.getField(2);
+            fail();
+        } catch (final ArrayIndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+}
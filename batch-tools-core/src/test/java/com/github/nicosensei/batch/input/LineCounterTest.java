@@ -0,0 +1,120 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import com.github.nicosensei.batch.BatchException;
+import com.github.nicosensei.batch.BatchTestCase;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class LineCounterTest extends BatchTestCase {
+
+    private static final String[] LINES = new String[] {
+        "", " ", "\t \r", "blah", "  blah  ", "caf\u00e9", "\r", "a b c"
+    };
+
+    public final void testSameCountsAsLineReader() throws IOException, BatchException {
+        Random r = new Random(42L);
+        for (int test = 0; test < 20; test++) {
+            StringBuilder sb = new StringBuilder();
+            int lineCount = r.nextInt(200);
+            for (int l = 0; l < lineCount; l++) {
+                sb.append(LINES[r.nextInt(LINES.length)]).append('\n');
+            }
+            if (r.nextBoolean()) {
+                // Last line without terminator
+                sb.append(LINES[r.nextInt(LINES.length)]);
+            }
+            File f = writeFile(sb.toString());
+            try {
+                long[] expected = countWithLineReader(f);
+                for (int chunkSize : new int[] { 1, 7, 64, 1024 * 1024 }) {
+                    LineCounter.Counts c = new LineCounter(
+                            f.getAbsolutePath(), "UTF-8", 3, chunkSize).count();
+                    assertEquals("chunks of " + chunkSize, expected[0], c.getLineCount());
+                    assertEquals("chunks of " + chunkSize, expected[1], c.getEmptyLineCount());
+                    assertFalse(c.isEstimate());
+                }
+            } finally {
+                f.delete();
+            }
+        }
+    }
+
+    public final void testEstimate() throws IOException, BatchException {
+        StringBuilder sb = new StringBuilder();
+        for (int l = 0; l < 100000; l++) {
+            sb.append(l % 10 == 0 ? "" : "some line " + l).append('\n');
+        }
+        File f = writeFile(sb.toString());
+        try {
+            LineCounter counter = new LineCounter(f.getAbsolutePath(), "UTF-8", 2, 4096);
+            LineCounter.Counts c = counter.estimate(16, 1024);
+            assertTrue(c.isEstimate());
+            assertEquals(100000, c.getLineCount(), 5000);
+            assertEquals(10000, c.getEmptyLineCount(), 1000);
+
+            // Samples larger than the file: exact count
+            c = counter.estimate(16, 1024 * 1024);
+            assertFalse(c.isEstimate());
+            assertEquals(100000, c.getLineCount());
+        } finally {
+            f.delete();
+        }
+    }
+
+    public final void testUnsplittableEncoding() throws IOException {
+        File f = writeFile("a\n");
+        try {
+            new LineCounter(f.getAbsolutePath(), "UTF-16");
+            fail();
+        } catch (final InputFileException e) {
+            // expected
+        } finally {
+            f.delete();
+        }
+    }
+
+    private File writeFile(String content) throws IOException {
+        File f = File.createTempFile(getName(), ".txt");
+        Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+        w.write(content);
+        w.close();
+        return f;
+    }
+
+    /**
+     * Counts LF terminated lines, as read by the readers.
+     */
+    private static long[] countWithLineReader(File f) throws IOException {
+        ChannelLineReader in = new ChannelLineReader(
+                new FileInputStream(f).getChannel(), Charset.forName("UTF-8"));
+        long lines = 0;
+        long empty = 0;
+        try {
+            String l;
+            while ((l = in.readLine()) != null) {
+                lines++;
+                if (l.trim().isEmpty()) {
+                    empty++;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return new long[] { lines, empty };
+    }
+
+}
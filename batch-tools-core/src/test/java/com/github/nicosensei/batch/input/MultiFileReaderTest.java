@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.commons.io.FileUtils;
+
+import com.github.nicosensei.batch.BatchException;
+import com.github.nicosensei.batch.BatchTestCase;
+import com.github.nicosensei.batch.MultiFileBatchState;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class MultiFileReaderTest extends BatchTestCase {
+
+    private static final int FILE_COUNT = 7;
+
+    private static final int LINES_PER_FILE = 3000;
+
+    private static class TestReader extends MultiFileReader<TestInputLine> {
+
+        public TestReader(String input, int parallelFiles) throws InputFileException {
+            super(input, "UTF-8", 100, parallelFiles);
+        }
+
+        @Override
+        protected InputFileReader<TestInputLine> fileReaderFactory(File file)
+        throws InputFileException {
+            return new BigFileReader<TestInputLine>(file.getAbsolutePath(), "UTF-8", 100, true) {
+                @Override
+                protected TestInputLine parseLine(String line) throws InputFileException {
+                    return new TestInputLine(line, "\\s+");
+                }
+            };
+        }
+
+    }
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = File.createTempFile(getName(), "");
+        dir.delete();
+        dir.mkdir();
+        for (int f = 0; f < FILE_COUNT; f++) {
+            PrintWriter pw = new PrintWriter(new File(dir, "part-" + f + ".log"));
+            for (int l = 0; l < LINES_PER_FILE; l++) {
+                pw.println(f * LINES_PER_FILE + l);
+            }
+            pw.close();
+        }
+        new PrintWriter(new File(dir, "other.txt")).close();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    public final void testListFiles() throws InputFileException {
+        assertEquals(FILE_COUNT + 1, MultiFileReader.listFiles(dir.getAbsolutePath()).size());
+        List<File> logs = MultiFileReader.listFiles(new File(dir, "part-*.log").getAbsolutePath());
+        assertEquals(FILE_COUNT, logs.size());
+        assertEquals("part-0.log", logs.get(0).getName());
+        try {
+            MultiFileReader.listFiles(new File(dir, "*.gz").getAbsolutePath());
+            fail();
+        } catch (final InputFileException e) {
+            // expected
+        }
+    }
+
+    public final void testEveryLineReadOnce() throws Exception {
+        String glob = new File(dir, "part-?.log").getAbsolutePath();
+        for (int parallelFiles : new int[] { 1, 3, 10 }) {
+            final TestReader reader = new TestReader(glob, parallelFiles);
+            MultiFileBatchState state = new MultiFileBatchState(reader);
+            final AtomicIntegerArray seen = new AtomicIntegerArray(FILE_COUNT * LINES_PER_FILE);
+            final List<BatchException> errors = new ArrayList<BatchException>();
+
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int t = 0; t < 4; t++) {
+                threads.add(new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            while (true) {
+                                InputFileSection<TestInputLine> s = reader.readSection();
+                                for (TestInputLine l : s.getLines()) {
+                                    seen.incrementAndGet(Integer.parseInt(l.getFields()[0]));
+                                }
+                                boolean noMoreInput = s.noMoreInput();
+                                s.recycle();
+                                if (noMoreInput) {
+                                    break;
+                                }
+                            }
+                        } catch (final BatchException e) {
+                            synchronized (errors) {
+                                errors.add(e);
+                            }
+                        }
+                    }
+                });
+            }
+            for (Thread t : threads) {
+                t.start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            reader.close();
+
+            assertTrue(errors.isEmpty());
+            for (int i = 0; i < seen.length(); i++) {
+                assertEquals("line " + i, 1, seen.get(i));
+            }
+            assertEquals(FILE_COUNT, reader.getCompletedFileCount());
+            assertEquals(FILE_COUNT, state.getCompletedFileCount());
+            assertEquals(0, state.getFilesInProgress().length);
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.log4j.Level;
+
+import com.github.nicosensei.batch.BatchException;
+import com.github.nicosensei.batch.BatchTestCase;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class PrefetchingInputFileReaderTest extends BatchTestCase {
+
+    private static class TestReader extends BigFileReader<TestInputLine> {
+
+        public TestReader(String inputFile, int sectionSize)
+                throws InputFileException {
+            super(inputFile, sectionSize, true);
+        }
+
+        @Override
+        protected TestInputLine parseLine(String line) throws InputFileException {
+            return new TestInputLine(line, "\\s+");
+        }
+
+    }
+
+    private static class FailingReader extends TestReader {
+
+        public FailingReader(String inputFile, int sectionSize)
+                throws InputFileException {
+            super(inputFile, sectionSize);
+        }
+
+        @Override
+        protected TestInputLine parseLine(String line) throws InputFileException {
+            if (line.startsWith("500 ")) {
+                throw new IllegalStateException("parse failure");
+            }
+            return super.parseLine(line);
+        }
+
+    }
+
+    private static class Consumer extends Thread {
+
+        private final InputFileReader<TestInputLine> reader;
+        private final AtomicIntegerArray seen;
+        private BatchException error;
+
+        private Consumer(InputFileReader<TestInputLine> reader, AtomicIntegerArray seen) {
+            this.reader = reader;
+            this.seen = seen;
+        }
+
+        @Override
+        public void run() {
+            try {
+                InputFileSection<TestInputLine> section;
+                do {
+                    section = reader.readSection();
+                    for (TestInputLine l : section.getLines()) {
+                        seen.incrementAndGet(Integer.parseInt(l.getFields()[0]) - 1);
+                    }
+                } while (!section.noMoreInput());
+            } catch (final BatchException e) {
+                error = e;
+            }
+        }
+    }
+
+    public final void testAllSectionsDelivered() throws Exception {
+        int lineCount = 50000;
+        File testFile = writeInput(lineCount);
+
+        try {
+            PrefetchingInputFileReader<TestInputLine> reader =
+                    new PrefetchingInputFileReader<TestInputLine>(
+                            new TestReader(testFile.getAbsolutePath(), 100), 4, 2);
+            reader.start();
+
+            AtomicIntegerArray seen = new AtomicIntegerArray(lineCount);
+            List<Consumer> consumers = new ArrayList<Consumer>();
+            for (int i = 0; i < 3; i++) {
+                Consumer c = new Consumer(reader, seen);
+                consumers.add(c);
+                c.start();
+            }
+            for (Consumer c : consumers) {
+                c.join();
+                assertNull(c.error);
+            }
+            reader.close();
+
+            assertEquals(lineCount / 100, reader.getSectionsRead());
+            for (int i = 0; i < lineCount; i++) {
+                assertEquals(1, seen.get(i));
+            }
+        } finally {
+            if (!testFile.delete()) {
+                testFile.deleteOnExit();
+            }
+        }
+    }
+
+    public final void testReaderFailureReported() throws Exception {
+        File testFile = writeInput(1000);
+        try {
+            PrefetchingInputFileReader<TestInputLine> reader =
+                    new PrefetchingInputFileReader<TestInputLine>(
+                            new FailingReader(testFile.getAbsolutePath(), 100), 4, 1);
+            reader.start();
+            Consumer c = new Consumer(reader, new AtomicIntegerArray(1000));
+            c.run();
+            assertNotNull(c.error);
+            assertEquals(Level.FATAL, c.error.getCriticity());
+            reader.close();
+        } finally {
+            if (!testFile.delete()) {
+                testFile.deleteOnExit();
+            }
+        }
+    }
+
+    private File writeInput(int lineCount) throws IOException {
+        File testFile = File.createTempFile(
+                PrefetchingInputFileReaderTest.class.getSimpleName(), ".txt");
+        PrintWriter pw = new PrintWriter(testFile);
+        for (int l = 1; l <= lineCount; l++) {
+            pw.println(l + " *****");
+        }
+        pw.close();
+        return testFile;
+    }
+
+}
@@ -0,0 +1,123 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class RecordCodecTest extends TestCase {
+
+    public final void testCsvFields() {
+        assertFields(CsvCodec.CSV.decode("a,b,c", ColumnProjection.ALL), "a", "b", "c");
+        assertFields(CsvCodec.CSV.decode("", ColumnProjection.ALL), "");
+        assertFields(CsvCodec.CSV.decode("a,,", ColumnProjection.ALL), "a", "", "");
+        assertFields(CsvCodec.CSV.decode("\"a,b\",\"say \"\"hi\"\"\",x\"y",
+                ColumnProjection.ALL), "a,b", "say \"hi\"", "x\"y");
+        assertFields(CsvCodec.CSV.decode("\"multi\nline\",2", ColumnProjection.ALL),
+                "multi\nline", "2");
+        assertFields(CsvCodec.TSV.decode("a\t\"b\tc\"", ColumnProjection.ALL), "a", "b\tc");
+        // Lenient: unterminated quote
+        assertFields(CsvCodec.CSV.decode("a,\"b,c", ColumnProjection.ALL), "a", "b,c");
+    }
+
+    public final void testCsvProjection() {
+        CsvRecord r = CsvCodec.CSV.decode("a,\"b\",c,d,e", ColumnProjection.of(1, 2));
+        String[] fields = r.getFields();
+        assertTrue(Arrays.equals(new String[] { null, "b", "c" }, fields));
+        assertEquals("e", r.getField(4));
+        assertEquals(5, r.getFieldCount());
+        assertEquals("a,\"b\",c,d,e", r.getLine());
+    }
+
+    public final void testCsvComplete() {
+        assertTrue(CsvCodec.CSV.isComplete("a,b"));
+        assertTrue(CsvCodec.CSV.isComplete("a,\"b\nc\""));
+        assertTrue(CsvCodec.CSV.isComplete("a\"b,c"));
+        assertFalse(CsvCodec.CSV.isComplete("a,\"b"));
+        assertFalse(CsvCodec.CSV.isComplete("a,\"b\"\"c"));
+        assertTrue(CsvCodec.CSV.isComplete("a,\"b\"\"c\""));
+
+        // Lines added to an incomplete record: scanning resumes in the quoted field
+        assertFalse(CsvCodec.CSV.isComplete("a,\"b\r\nc", 4));
+        assertTrue(CsvCodec.CSV.isComplete("a,\"b\r\nc\",\"d\"", 4));
+        assertFalse(CsvCodec.CSV.isComplete("a,\"b\r\nc\",\"d", 4));
+        assertTrue(CsvCodec.CSV.isComplete("a,\"b\"\"\nc\"", 6));
+    }
+
+    public final void testJson() throws InputFileException {
+        JsonRecord r = JsonRecord.parse(
+                " {\"id\": 12, \"name\":\"caf\\u00e9 \\\"x\\\"\", \"tags\":[1, {\"a\":\"}\"}],"
+                + " \"user\": {\"id\": \"u1\", \"ok\": true}, \"none\": null}");
+        assertEquals("12", r.get("id"));
+        assertEquals("caf\u00e9 \"x\"", r.get("name"));
+        assertEquals("[1, {\"a\":\"}\"}]", r.get("tags"));
+        assertEquals("u1", r.get("user", "id"));
+        assertEquals("true", r.get("user", "ok"));
+        assertNull(r.get("user", "missing"));
+        assertNull(r.get("id", "child"));
+        assertNull(r.get("none"));
+        assertTrue(r.has("none"));
+        assertFalse(r.has("missing"));
+        assertEquals("\"u1\"", r.getRaw("user", "id"));
+        assertEquals(Arrays.asList("id", "name", "tags", "user", "none"), r.getNames());
+        assertEquals(5, r.getFields().length);
+        assertEquals("12", r.getFields()[0]);
+
+        JsonRecord p = JsonRecord.parse("{\"a\":1,\"b\":2,\"c\":3}", ColumnProjection.of(1));
+        assertTrue(Arrays.equals(new String[] { null, "2" }, p.getFields()));
+
+        assertEquals(0, JsonRecord.parse("{}").getFields().length);
+    }
+
+    public final void testMalformedJson() {
+        for (String text : new String[] {
+                "", "[1]", "{", "{\"a\"}", "{\"a\":}", "{\"a\":1,}", "{\"a\":tru}",
+                "{\"a\":\"b}", "{\"a\":1} x", "{a:1}",
+                "{\"a\":\"\\uZZZZ\"}", "{\"a\":\"\\u12\"}", "{\"a\":\"x\\qy\"}",
+                "{\"a\":1abc}", "{\"a\":-}", "{\"a\":01}", "{\"a\":1.}",
+                "{\"a\":.5}", "{\"a\":1e}", "{\"a\":1e+}", "{\"a\":+1}" }) {
+            try {
+                JsonRecord.parse(text);
+                fail(text);
+            } catch (final InputFileException e) {
+                // expected
+            }
+        }
+    }
+
+    public final void testJsonNumbersAndEscapes() throws InputFileException {
+        JsonRecord r = JsonRecord.parse("{\"a\":-0,\"b\":1.5e+10,\"c\":0.25E-3,"
+                + "\"d\":\"\\/\\b\\f\\n\\r\\t\\u00E9\"}");
+        assertEquals("-0", r.get("a"));
+        assertEquals("1.5e+10", r.get("b"));
+        assertEquals("0.25E-3", r.get("c"));
+        assertEquals("/\b\f\n\r\t\u00e9", r.get("d"));
+    }
+
+    public final void testFixedWidth() throws InputFileException {
+        FixedWidthCodec codec = FixedWidthCodec.parse("3, 5,2", true);
+        assertFields(codec.decode("abc  de fgh", ColumnProjection.ALL), "abc", "de", "fg");
+        assertFields(codec.decode("ab", ColumnProjection.ALL), "ab", "", "");
+        FixedWidthRecord r = codec.decode("abc  de fgh", ColumnProjection.of(2));
+        assertTrue(Arrays.equals(new String[] { null, null, "fg" }, r.getFields()));
+        assertEquals("  de ", FixedWidthCodec.parse("3,5", false)
+                .decode("abc  de fgh", ColumnProjection.ALL).getField(1));
+        try {
+            FixedWidthCodec.parse("3,0", true);
+            fail();
+        } catch (final InputFileException e) {
+            // expected
+        }
+    }
+
+    private static void assertFields(InputLine line, String... expected) {
+        assertEquals(Arrays.asList(expected), Arrays.asList(line.getFields()));
+    }
+
+}
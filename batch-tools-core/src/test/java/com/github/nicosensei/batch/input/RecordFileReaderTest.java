@@ -0,0 +1,118 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.nicosensei.batch.BatchException;
+import com.github.nicosensei.batch.BatchTestCase;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class RecordFileReaderTest extends BatchTestCase {
+
+    public final void testMultiLineCsv() throws IOException, BatchException {
+        File f = writeFile("id,comment\r\n"
+                + "1,plain\r\n"
+                + "2,\"spans\r\ntwo lines\"\r\n"
+                + "3,\"quote \"\"\r\n\r\n\"\"\"\r\n"
+                + "4,last");
+        try {
+            CsvFileReader reader = new CsvFileReader(
+                    f.getAbsolutePath(), "UTF-8", 2, CsvCodec.CSV, true);
+            assertEquals(1, reader.getColumnIndex("comment"));
+            List<CsvRecord> records = readAll(reader);
+            reader.close();
+
+            assertEquals(4, records.size());
+            assertEquals("plain", records.get(0).getField(1));
+            // Line breaks within quoted fields are kept as they are in the file
+            assertEquals("spans\r\ntwo lines", records.get(1).getField(1));
+            assertEquals("quote \"\r\n\r\n\"", records.get(2).getField(1));
+            assertEquals("4", records.get(3).getField(0));
+        } finally {
+            f.delete();
+        }
+    }
+
+    public final void testFollowMultiLineCsv() throws IOException, BatchException {
+        File f = writeFile("id,comment\n1,plain\n2,\"spans\n");
+        try {
+            CsvFileReader reader = new CsvFileReader(
+                    f.getAbsolutePath(), "UTF-8", 10, CsvCodec.CSV, true);
+            reader.setFollowing(true);
+
+            // The record cut by the end of the file is held until its closing line is appended
+            InputFileSection<CsvRecord> s = reader.readSection();
+            assertEquals(1, s.getLines().size());
+            assertEquals("plain", s.getLines().get(0).getField(1));
+            long firstEnd = s.getEndOffset();
+            assertEquals("id,comment\n1,plain\n".length(), firstEnd);
+
+            append(f, "two lines\"\n3,last\n");
+            s = reader.readSection();
+            assertEquals(firstEnd, s.getStartOffset());
+            assertEquals(2, s.getLines().size());
+            assertEquals("spans\ntwo lines", s.getLines().get(0).getField(1));
+            assertEquals("last", s.getLines().get(1).getField(1));
+
+            // Once following stops, an incomplete record is returned as is
+            append(f, "4,\"open\nend");
+            reader.setFollowing(false);
+            List<CsvRecord> records = readAll(reader);
+            reader.close();
+            assertEquals(1, records.size());
+            assertEquals("4", records.get(0).getField(0));
+        } finally {
+            f.delete();
+        }
+    }
+
+    public final void testJsonLines() throws IOException, BatchException {
+        File f = writeFile("{\"a\":1}\n\n{\"a\":2,\"b\":\"x\"}\n");
+        try {
+            JsonLinesFileReader reader = new JsonLinesFileReader(f.getAbsolutePath(), "UTF-8", 10);
+            List<JsonRecord> records = readAll(reader);
+            reader.close();
+            assertEquals(2, records.size());
+            assertEquals("2", records.get(1).get("a"));
+            assertEquals("x", records.get(1).get("b"));
+        } finally {
+            f.delete();
+        }
+    }
+
+    private static <L extends InputLine> List<L> readAll(InputFileReader<L> reader)
+    throws InputFileException {
+        List<L> lines = new ArrayList<L>();
+        boolean noMoreInput = false;
+        while (!noMoreInput) {
+            InputFileSection<L> s = reader.readSection();
+            lines.addAll(s.getLines());
+            noMoreInput = s.noMoreInput();
+        }
+        return lines;
+    }
+
+    private static void append(File f, String text) throws IOException {
+        FileOutputStream out = new FileOutputStream(f, true);
+        out.write(text.getBytes("UTF-8"));
+        out.close();
+    }
+
+    private File writeFile(String content) throws IOException {
+        File f = File.createTempFile(getName(), ".txt");
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(content.getBytes("UTF-8"));
+        out.close();
+        return f;
+    }
+
+}
@@ -0,0 +1,50 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.util.Collections;
+
+import com.github.nicosensei.batch.BatchTestCase;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class SectionPoolTest extends BatchTestCase {
+
+    public final void testRecycle() {
+        SectionPool<TestInputLine> pool = new SectionPool<TestInputLine>(10, 2);
+
+        InputFileSection<TestInputLine> s1 = pool.acquire();
+        s1.getLines().add(new TestInputLine("a b", " "));
+        s1.setNoMoreInput(true);
+        s1.recycle();
+
+        InputFileSection<TestInputLine> s2 = pool.acquire();
+        assertSame(s1, s2);
+        assertTrue(s2.getLines().isEmpty());
+        assertFalse(s2.noMoreInput());
+    }
+
+    public final void testRecycleTwice() {
+        SectionPool<TestInputLine> pool = new SectionPool<TestInputLine>(10, 2);
+
+        InputFileSection<TestInputLine> s1 = pool.acquire();
+        s1.recycle();
+        s1.recycle();
+
+        InputFileSection<TestInputLine> s2 = pool.acquire();
+        InputFileSection<TestInputLine> s3 = pool.acquire();
+        assertSame(s1, s2);
+        assertNotSame(s2, s3);
+    }
+
+    public final void testUnpooledSection() {
+        InputFileSection<TestInputLine> s = new InputFileSection<TestInputLine>(
+                Collections.<TestInputLine>emptyList(), true);
+        s.recycle();
+        assertTrue(s.noMoreInput());
+    }
+
+}
@@ -0,0 +1,57 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import com.github.nicosensei.batch.BatchTestCase;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class SectionSizerTest extends BatchTestCase {
+
+    public final void testLineAndByteLimits() {
+        SectionSizer s = new SectionSizer(10, 1000L);
+        assertFalse(s.isFull(0, 5000L)); // at least one line
+        assertTrue(s.isFull(1, 5000L));
+        assertFalse(s.isFull(9, 999L));
+        assertTrue(s.isFull(10, 0L));
+        assertFalse(s.isAdaptive());
+
+        s = new SectionSizer(10, 0L);
+        assertEquals(0L, s.getByteBudget());
+        assertFalse(s.isFull(9, Long.MAX_VALUE - 1));
+    }
+
+    public final void testAdaptiveConvergence() {
+        // Target 100 ms per section, lines take 50 us: 2000 lines
+        SectionSizer s = new SectionSizer(10, 0L, 100L, 5, 1500);
+        for (int i = 0; i < 50; i++) {
+            int lines = s.getLineLimit();
+            s.sectionProcessed(lines, lines * 50000L);
+        }
+        assertEquals(1500, s.getLineLimit()); // capped
+
+        s = new SectionSizer(1000, 0L, 100L, 5, 100000);
+        for (int i = 0; i < 50; i++) {
+            int lines = s.getLineLimit();
+            s.sectionProcessed(lines, lines * 50000L);
+        }
+        assertEquals(2000, s.getLineLimit());
+
+        // Lines suddenly get 10 times slower
+        for (int i = 0; i < 50; i++) {
+            int lines = s.getLineLimit();
+            s.sectionProcessed(lines, lines * 500000L);
+        }
+        assertEquals(200, s.getLineLimit(), 1);
+    }
+
+    public final void testFixedSizerIgnoresTimings() {
+        SectionSizer s = new SectionSizer(10, 0L);
+        s.sectionProcessed(10, 1000000000L);
+        assertEquals(10, s.getLineLimit());
+    }
+
+}
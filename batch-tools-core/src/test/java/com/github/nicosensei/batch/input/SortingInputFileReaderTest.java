@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.github.nicosensei.batch.BatchTestCase;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class SortingInputFileReaderTest extends BatchTestCase {
+
+    private static final KeyExtractor<TestInputLine> FIRST_FIELD =
+            new KeyExtractor<TestInputLine>() {
+        @Override
+        public String extractKey(TestInputLine line) {
+            return line.getFields()[0];
+        }
+    };
+
+    public final void testSortInMemory() throws IOException, InputFileException {
+        checkSort(1024L * 1024L, 0);
+    }
+
+    public final void testSortWithSpilledRuns() throws IOException, InputFileException {
+        // About 20 lines per run, merged 2 by 2 as the budget only holds a few read buffers
+        checkSort(20L * 120L, 2);
+    }
+
+    private void checkSort(long memoryBudget, int sortThreads)
+    throws IOException, InputFileException {
+        File f = File.createTempFile(getName(), ".txt");
+        f.deleteOnExit();
+        PrintWriter pw = new PrintWriter(f, "UTF-8");
+        Random r = new Random(42L);
+        for (int i = 0; i < 1000; i++) {
+            pw.print("k" + r.nextInt(50) + " " + i + "\n");
+        }
+        pw.close();
+
+        SortingInputFileReader<TestInputLine> reader = new SortingInputFileReader<TestInputLine>(
+                newReader(f), FIRST_FIELD, memoryBudget, sortThreads) {
+            @Override
+            protected TestInputLine parseLine(String line) throws InputFileException {
+                return new TestInputLine(line, "\\s+");
+            }
+        };
+
+        List<String> keys = new ArrayList<String>();
+        String lastKey = null;
+        int lastIndex = -1;
+        int lineCount = 0;
+        boolean noMoreInput = false;
+        while (!noMoreInput) {
+            InputFileSection<TestInputLine> s = reader.readSection();
+            List<TestInputLine> lines = s.getLines();
+            if (!lines.isEmpty()) {
+                String first = lines.get(0).getFields()[0];
+                assertFalse("key " + first + " split", first.equals(lastKey));
+                assertTrue(lines.size() >= 10 || s.noMoreInput());
+            }
+            for (TestInputLine l : lines) {
+                String key = l.getFields()[0];
+                int index = Integer.parseInt(l.getFields()[1]);
+                if (key.equals(lastKey)) {
+                    // Stable: input order within a key
+                    assertTrue(index > lastIndex);
+                } else {
+                    assertTrue(lastKey == null || key.compareTo(lastKey) > 0);
+                    keys.add(key);
+                }
+                lastKey = key;
+                lastIndex = index;
+                lineCount++;
+            }
+            noMoreInput = s.noMoreInput();
+            s.recycle();
+        }
+        assertEquals(1000, lineCount);
+        assertEquals(50, keys.size());
+        assertNull(reader.readLine());
+        if (sortThreads > 0) {
+            assertTrue(reader.getSpilledRunCount() > 2);
+            assertTrue(reader.getMergePassCount() > 1);
+        } else {
+            assertEquals(0, reader.getSpilledRunCount());
+            assertEquals(0, reader.getMergePassCount());
+        }
+        reader.close();
+    }
+
+    private BigFileReader<TestInputLine> newReader(File f) throws InputFileException {
+        return new BigFileReader<TestInputLine>(f.getAbsolutePath(), "UTF-8", 10, true) {
+            @Override
+            protected TestInputLine parseLine(String line) throws InputFileException {
+                return new TestInputLine(line, "\\s+");
+            }
+        };
+    }
+
+}
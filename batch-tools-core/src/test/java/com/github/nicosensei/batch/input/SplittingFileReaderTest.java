@@ -0,0 +1,246 @@
+/**
+ *
+ */
+package com.github.nicosensei.batch.input;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.github.nicosensei.batch.BatchException;
+import com.github.nicosensei.batch.BatchTestCase;
+
+/**
+ * @author ngiraud
+ *
+ */
+public class SplittingFileReaderTest extends BatchTestCase {
+
+    private static class TestReader extends SplittingFileReader<TestInputLine> {
+
+        public TestReader(
+                String inputFile,
+                int sectionSize,
+                int splitCount) throws InputFileException {
+            super(inputFile, sectionSize, true, splitCount);
+        }
+
+        @Override
+        protected TestInputLine parseLine(String line) throws InputFileException {
+            return new TestInputLine(line, "\\s+");
+        }
+
+    }
+
+    private static class RangeWorker extends Thread {
+
+        private final TestReader reader;
+        private final AtomicIntegerArray seen;
+        private int lastSections = 0;
+        private BatchException error;
+
+        private RangeWorker(TestReader reader, AtomicIntegerArray seen) {
+            this.reader = reader;
+            this.seen = seen;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    InputFileSection<TestInputLine> section = reader.readSection();
+                    for (TestInputLine l : section.getLines()) {
+                        seen.incrementAndGet(Integer.parseInt(l.getFields()[0]) - 1);
+                    }
+                    if (section.noMoreInput()) {
+                        lastSections++;
+                        break;
+                    }
+                }
+            } catch (final BatchException e) {
+                error = e;
+            }
+        }
+    }
+
+    public final void testEveryLineReadOnce() throws Exception {
+        int[] lineCounts = new int[] { 1, 10, 1000, 100000 };
+        int[] splitCounts = new int[] { 1, 3, 8 };
+        for (int lc : lineCounts) {
+            File testFile = generateTestFile(lc, false);
+            try {
+                for (int splits : splitCounts) {
+                    checkEveryLineReadOnce(testFile, lc, splits, splits);
+                }
+            } finally {
+                if (!testFile.delete()) {
+                    testFile.deleteOnExit();
+                }
+            }
+        }
+    }
+
+    public final void testCrLfLineEnds() throws Exception {
+        File testFile = generateTestFile(5000, true);
+        try {
+            checkEveryLineReadOnce(testFile, 5000, 7, 7);
+        } finally {
+            if (!testFile.delete()) {
+                testFile.deleteOnExit();
+            }
+        }
+    }
+
+    public final void testFewerThreadsThanRanges() throws Exception {
+        File testFile = generateTestFile(1000, false);
+        try {
+            checkEveryLineReadOnce(testFile, 1000, 4, 1);
+            checkEveryLineReadOnce(testFile, 1000, 8, 3);
+        } finally {
+            if (!testFile.delete()) {
+                testFile.deleteOnExit();
+            }
+        }
+    }
+
+    public final void testSectionsGoThroughAllRanges()
+            throws IOException, BatchException {
+        File testFile = generateTestFile(1000, false);
+        try {
+            TestReader reader = new TestReader(testFile.getAbsolutePath(), 10, 4);
+            int expected = 1;
+            InputFileSection<TestInputLine> section;
+            do {
+                section = reader.readSection();
+                for (TestInputLine l : section.getLines()) {
+                    assertEquals(expected++, Integer.parseInt(l.getFields()[0]));
+                }
+            } while (!section.noMoreInput());
+            assertEquals(1001, expected);
+            reader.close();
+        } finally {
+            if (!testFile.delete()) {
+                testFile.deleteOnExit();
+            }
+        }
+    }
+
+    public final void testReadLineGoesThroughAllRanges()
+            throws IOException, BatchException {
+        File testFile = generateTestFile(1000, false);
+        try {
+            TestReader reader = new TestReader(testFile.getAbsolutePath(), 10, 4);
+            int expected = 1;
+            TestInputLine l;
+            while ((l = reader.readLine()) != null) {
+                assertEquals(expected++, Integer.parseInt(l.getFields()[0]));
+            }
+            assertEquals(1001, expected);
+            reader.close();
+        } finally {
+            if (!testFile.delete()) {
+                testFile.deleteOnExit();
+            }
+        }
+    }
+
+    public final void testReleaseHandsRangeBack() throws Exception {
+        File testFile = generateTestFile(1000, false);
+        try {
+            final TestReader reader = new TestReader(testFile.getAbsolutePath(), 10, 2);
+            final AtomicIntegerArray seen = new AtomicIntegerArray(1000);
+
+            // The only thread reading keeps its range
+            readOneSection(reader, seen);
+            assertFalse(reader.release());
+
+            // Another thread reads a section of the second range, then stops
+            final boolean[] released = new boolean[1];
+            final Exception[] error = new Exception[1];
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        readOneSection(reader, seen);
+                        released[0] = reader.release();
+                    } catch (final Exception e) {
+                        error[0] = e;
+                    }
+                }
+            };
+            t.start();
+            t.join();
+            assertNull(error[0]);
+            assertTrue(released[0]);
+
+            // The rest of its range is read by this thread
+            InputFileSection<TestInputLine> section;
+            do {
+                section = readOneSection(reader, seen);
+            } while (!section.noMoreInput());
+            reader.close();
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("Line " + (i + 1), 1, seen.get(i));
+            }
+        } finally {
+            if (!testFile.delete()) {
+                testFile.deleteOnExit();
+            }
+        }
+    }
+
+    private static InputFileSection<TestInputLine> readOneSection(
+            TestReader reader, AtomicIntegerArray seen) throws InputFileException {
+        InputFileSection<TestInputLine> section = reader.readSection();
+        for (TestInputLine l : section.getLines()) {
+            seen.incrementAndGet(Integer.parseInt(l.getFields()[0]) - 1);
+        }
+        return section;
+    }
+
+    private void checkEveryLineReadOnce(
+            File testFile, int lineCount, int splits, int threads) throws Exception {
+        TestReader reader = new TestReader(testFile.getAbsolutePath(), 100, splits);
+        AtomicIntegerArray seen = new AtomicIntegerArray(lineCount);
+        List<RangeWorker> workers = new ArrayList<RangeWorker>();
+        for (int i = 0; i < threads; i++) {
+            RangeWorker w = new RangeWorker(reader, seen);
+            workers.add(w);
+            w.start();
+        }
+        for (RangeWorker w : workers) {
+            w.join();
+            assertNull(w.error);
+            assertEquals(1, w.lastSections);
+        }
+        reader.close();
+        for (int i = 0; i < lineCount; i++) {
+            assertEquals("Line " + (i + 1), 1, seen.get(i));
+        }
+    }
+
+    private File generateTestFile(int lineCount, boolean crLf) throws IOException {
+        File f = File.createTempFile(
+                SplittingFileReaderTest.class.getSimpleName(),
+                "" + System.currentTimeMillis());
+        PrintWriter pw = new PrintWriter(f);
+        StringBuilder padding = new StringBuilder();
+        for (int l = 1; l <= lineCount; l++) {
+            // Vary line lengths so that ranges rarely start on a line boundary
+            padding.setLength(0);
+            for (int p = 0; p < l % 37; p++) {
+                padding.append('*');
+            }
+            pw.print(l + " " + padding + (crLf ? "\r\n" : "\n"));
+            if (l % 50 == 0) {
+                pw.print(crLf ? "\r\n" : "\n"); // empty line
+            }
+        }
+        pw.close();
+        return f;
+    }
+
+}
@@ -7,5 +7,9 @@ public class TestInputLine extends BasicInputLine {
 	public TestInputLine(String line, String fieldSeparator) {
         super(line, fieldSeparator);
     }
+
+	public TestInputLine(String line, String fieldSeparator, ColumnProjection projection) {
+        super(line, fieldSeparator, projection);
+    }
 	
 }
\ No newline at end of file
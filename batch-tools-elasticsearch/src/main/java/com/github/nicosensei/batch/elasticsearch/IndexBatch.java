@@ -21,6 +21,7 @@ import com.github.nicosensei.batch.Batch;
 import com.github.nicosensei.batch.BatchException;
 import com.github.nicosensei.batch.BatchExecutor;
 import com.github.nicosensei.batch.input.InputFileException;
+import com.github.nicosensei.batch.input.InputFileReader;
 import com.github.nicosensei.batch.input.InputLine;
 
 /**
@@ -51,7 +52,7 @@ extends Batch<I, W> {
 	@Override
 	protected IndexBatchState batchStateFactory() throws BatchException {
 		IndexBatchState p = new IndexBatchState(getInputFilePath());
-		getInputFile().addCooldownListener(p);
+		getBatchInputReader().addCooldownListener(p);
 		return p;
 	}
 
@@ -76,9 +77,33 @@ extends Batch<I, W> {
 	 protected abstract BatchInputReader<I> inputFileReaderFactory()
 			 throws InputFileException;
 
+	 /**
+	  * @return the reader created by {@link #inputFileReaderFactory()}. Workers should
+	  * read from {@link #getWorkerInputFile()}, which prefetches sections when configured to.
+	  */
+	 public BatchInputReader<I> getBatchInputReader() {
+		 return (BatchInputReader<I>) getSourceInputFile();
+	 }
+
+	 /**
+	  * @return the reader workers read sections from, a prefetching reader wrapping
+	  * {@link #getBatchInputReader()} when Batch.prefetchQueueDepth is positive.
+	  */
+	 public InputFileReader<I> getWorkerInputFile() {
+		 return super.getInputFile();
+	 }
+
+	 /**
+	  * @return the reader created by {@link #inputFileReaderFactory()}, which workers
+	  * read from only when sections are not prefetched.
+	  * @deprecated use {@link #getBatchInputReader()} to access the reader created by
+	  * {@link #inputFileReaderFactory()}, e.g. to add cooldown listeners, and
+	  * {@link #getWorkerInputFile()} for the reader workers read sections from.
+	  */
+	 @Deprecated
 	 @Override
 	 public BatchInputReader<I> getInputFile() {
-		 return (BatchInputReader<I>) super.getInputFile();
+		 return getBatchInputReader();
 	 }
 
 	 protected abstract String getInputFilePath();
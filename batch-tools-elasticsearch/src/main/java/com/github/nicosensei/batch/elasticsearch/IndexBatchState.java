@@ -54,6 +54,7 @@ implements CooldownListener {
 							+ PERCENTAGE.format(getCompletionPercentage()) + "%)"
 							+ (linesSkipped > 0 ? " (" + linesSkipped + " skipped)" : "")
 							+ (linesFailed > 0 ? " (" + linesFailed + " failed)" : "")
+							+ getDuplicatesStatus()
 							+ ".");
 		}
 	}
@@ -32,7 +32,7 @@ public abstract class IndexWorker<I extends InputLine, D extends IndexableDocume
 	protected IndexWorker(
 			final IndexBatch<I, D, ? extends IndexWorker<I, D>> batch,
 					final String documentTypeName) {
-		super(batch.getInputFile(), batch.getBatchState());
+		super(batch.getWorkerInputFile(), batch.getBatchState());
 		
 		this.indexName = batch.getIndexName();
 		this.documentTypeName = documentTypeName;